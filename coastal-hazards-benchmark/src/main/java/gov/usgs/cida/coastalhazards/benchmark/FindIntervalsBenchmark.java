@@ -0,0 +1,51 @@
+package gov.usgs.cida.coastalhazards.benchmark;
+
+import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.geom.LineString;
+import gov.usgs.cida.coastalhazards.wps.CreateTransectsAndIntersectionsProcess;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transect spacing along a baseline, smoothing 0 takes the unsmoothed path
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FindIntervalsBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int vertices;
+
+    @Param({"0", "500"})
+    public double smoothing;
+
+    @Param({"50"})
+    public double spacing;
+
+    private LineString baseline;
+
+    @Setup
+    public void setup() {
+        baseline = new SyntheticData(42).baseline(vertices, 10);
+    }
+
+    @Benchmark
+    public List<LineSegment> findIntervals() {
+        return CreateTransectsAndIntersectionsProcess.findIntervals(baseline, true, spacing, smoothing);
+    }
+}
@@ -0,0 +1,78 @@
+package gov.usgs.cida.coastalhazards.benchmark;
+
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import gov.usgs.cida.coastalhazards.util.AttributeGetter;
+import gov.usgs.cida.coastalhazards.wps.geom.Intersection;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineAttributes;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineSTRTreeBuilder;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineSegmentIndex;
+import gov.usgs.cida.coastalhazards.wps.geom.Transect;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Intersecting every transect along a baseline with all shorelines
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IntersectionBenchmark {
+
+    @Param({"10", "50"})
+    public int shorelines;
+
+    @Param({"2000", "20000"})
+    public int vertices;
+
+    @Param({"false", "true"})
+    public boolean useFarthest;
+
+    private List<Transect> transects;
+    private STRtree strTree;
+    private ShorelineSegmentIndex segmentIndex;
+    private ShorelineAttributes shorelineAttributes;
+    private AttributeGetter getter;
+
+    @Setup
+    public void setup() {
+        SyntheticData data = new SyntheticData(42);
+        LineString baseline = data.baseline(vertices, 10);
+        SimpleFeatureCollection shorelineFeatures = data.shorelines(shorelines, vertices, 10, 4);
+        transects = data.transects(baseline, 50, (shorelines + 2) * 100);
+        strTree = new ShorelineSTRTreeBuilder(shorelineFeatures).build();
+        segmentIndex = new ShorelineSegmentIndex(shorelineFeatures);
+        shorelineAttributes = new ShorelineAttributes(segmentIndex);
+        getter = new AttributeGetter(shorelineFeatures.getSchema());
+    }
+
+    @Benchmark
+    public void strTree(Blackhole blackhole) {
+        for (Transect transect : transects) {
+            blackhole.consume(Intersection.calculateIntersections(transect, strTree, useFarthest, getter));
+        }
+    }
+
+    @Benchmark
+    public void packedIndex(Blackhole blackhole) {
+        for (Transect transect : transects) {
+            blackhole.consume(Intersection.calculateIntersections(transect, segmentIndex, shorelineAttributes, useFarthest, getter));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package gov.usgs.cida.coastalhazards.benchmark;
+
+import gov.usgs.cida.coastalhazards.wps.ResultsRasterProcess;
+import java.util.concurrent.TimeUnit;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering a results layer, in its own CRS or reprojected to web mercator,
+ * with exact or looked up colors
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResultsRasterBenchmark {
+
+    @Param({"10"})
+    public int baselines;
+
+    @Param({"100", "1000"})
+    public int transectsPerBaseline;
+
+    @Param({"256", "1024"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean reproject;
+
+    @Param({"0", "1024"})
+    public int colorMapBins;
+
+    @Param({"1", "4"})
+    public int renderThreads;
+
+    private ResultsRasterProcess process;
+    private SimpleFeatureCollection results;
+    private ReferencedEnvelope bbox;
+
+    @Setup
+    public void setup() throws Exception {
+        process = new ResultsRasterProcess(null, colorMapBins, null);
+        process.setBanding(renderThreads, 0);
+        results = new SyntheticData(42).results(baselines, transectsPerBaseline);
+        bbox = new ReferencedEnvelope(results.getBounds());
+        if (reproject) {
+            bbox = bbox.transform(CRS.decode("EPSG:3857"), true);
+        }
+    }
+
+    @Benchmark
+    public GridCoverage2D render() throws Exception {
+        return process.execute(results, "LRR", bbox, size, size, null, null);
+    }
+}
@@ -0,0 +1,73 @@
+package gov.usgs.cida.coastalhazards.benchmark;
+
+import gov.usgs.cida.coastalhazards.util.Constants;
+import gov.usgs.cida.coastalhazards.wps.RibboningProcess;
+import java.util.concurrent.TimeUnit;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Ribboning shorelines, reading every ribboned feature so lazy results are
+ * measured the same as eager ones
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RibboningBenchmark {
+
+    @Param({"100", "1000"})
+    public int features;
+
+    @Param({"50"})
+    public int vertices;
+
+    @Param({"1", "5"})
+    public int ribbonCount;
+
+    @Param({"false", "true"})
+    public boolean sorted;
+
+    private RibboningProcess process;
+    private SimpleFeatureCollection lines;
+    private ReferencedEnvelope bbox;
+
+    @Setup
+    public void setup() {
+        process = new RibboningProcess();
+        lines = new SyntheticData(42).ribbonLines(features, vertices);
+        bbox = new ReferencedEnvelope(lines.getBounds());
+    }
+
+    @Benchmark
+    public void ribbon(Blackhole blackhole) throws Exception {
+        SimpleFeatureCollection ribbons = process.execute(lines, bbox, 1024, 1024, false, true, ribbonCount, null,
+                sorted ? Constants.DATE_ATTR : null, null);
+        SimpleFeatureIterator iterator = null;
+        try {
+            iterator = ribbons.features();
+            while (iterator.hasNext()) {
+                blackhole.consume(iterator.next());
+            }
+        } finally {
+            if (null != iterator) {
+                iterator.close();
+            }
+        }
+    }
+}
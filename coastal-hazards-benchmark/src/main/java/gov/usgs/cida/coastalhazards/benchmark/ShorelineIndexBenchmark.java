@@ -0,0 +1,55 @@
+package gov.usgs.cida.coastalhazards.benchmark;
+
+import com.vividsolutions.jts.index.strtree.STRtree;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineSTRTreeBuilder;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineSegmentIndex;
+import java.util.concurrent.TimeUnit;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the shoreline index, STRtree of segments and packed index
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShorelineIndexBenchmark {
+
+    @Param({"10", "50"})
+    public int shorelines;
+
+    @Param({"1000", "10000"})
+    public int vertices;
+
+    private SimpleFeatureCollection shorelineFeatures;
+
+    @Setup
+    public void setup() {
+        shorelineFeatures = new SyntheticData(42).shorelines(shorelines, vertices, 10, 4);
+    }
+
+    @Benchmark
+    public STRtree strTree() {
+        STRtree tree = new ShorelineSTRTreeBuilder(shorelineFeatures).build();
+        tree.build();
+        return tree;
+    }
+
+    @Benchmark
+    public ShorelineSegmentIndex packedIndex() {
+        return new ShorelineSegmentIndex(shorelineFeatures);
+    }
+}
@@ -0,0 +1,199 @@
+package gov.usgs.cida.coastalhazards.benchmark;
+
+import com.vividsolutions.jts.algorithm.Angle;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import gov.usgs.cida.coastalhazards.util.Constants;
+import gov.usgs.cida.coastalhazards.util.Constants.Orientation;
+import gov.usgs.cida.coastalhazards.wps.CreateTransectsAndIntersectionsProcess;
+import gov.usgs.cida.coastalhazards.wps.geom.Transect;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Generates reproducible shorelines, baselines, transects and results with
+ * tunable sizes, laid out the way real data is: a wavy baseline along x with
+ * shorelines offset shoreward (+y) from it at roughly 100m per year of data.
+ *
+ * Coordinates are metres in UTM zone 18N (around the New Jersey test data).
+ */
+public class SyntheticData {
+
+    public static final String UTM_18N = "EPSG:32618";
+
+    private static final double ORIGIN_X = 500000;
+    private static final double ORIGIN_Y = 4350000;
+    private static final double AMPLITUDE = 200;
+    private static final double WAVELENGTH = 2000;
+    private static final double SHORELINE_SPACING = 100;
+
+    private final GeometryFactory factory = new GeometryFactory();
+    private final Random random;
+    private final CoordinateReferenceSystem crs;
+
+    /**
+     * @param seed same seed, same data
+     */
+    public SyntheticData(long seed) {
+        this.random = new Random(seed);
+        try {
+            this.crs = CRS.decode(UTM_18N);
+        } catch (Exception ex) {
+            throw new IllegalStateException("EPSG database is not available", ex);
+        }
+    }
+
+    public CoordinateReferenceSystem getCrs() {
+        return crs;
+    }
+
+    /**
+     * @param vertices number of vertices
+     * @param spacing distance along x between vertices
+     * @return wavy line starting at the origin
+     */
+    public LineString baseline(int vertices, double spacing) {
+        return wavyLine(vertices, spacing, 0, 0);
+    }
+
+    /**
+     * One shoreline per year from 1900, each a little further shoreward of the
+     * baseline, with noise of a few metres on every vertex
+     *
+     * @param count number of shorelines (dates)
+     * @param vertices vertices per shoreline
+     * @param spacing distance along x between vertices
+     * @param parts lines per shoreline feature, to mimic broken shorelines
+     * @return shorelines with Date_ and Uncy attributes
+     */
+    public SimpleFeatureCollection shorelines(int count, int vertices, double spacing, int parts) {
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("shorelines");
+        typeBuilder.setCRS(crs);
+        typeBuilder.add("the_geom", MultiLineString.class);
+        typeBuilder.add(Constants.DATE_ATTR, String.class);
+        typeBuilder.add(Constants.UNCY_ATTR, Double.class);
+        SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+        ListFeatureCollection shorelines = new ListFeatureCollection(type);
+        int partVertices = Math.max(2, vertices / parts);
+        for (int i = 0; i < count; i++) {
+            LineString[] lines = new LineString[parts];
+            for (int p = 0; p < parts; p++) {
+                lines[p] = wavyLine(partVertices, spacing, p * partVertices * spacing, (i + 1) * SHORELINE_SPACING);
+            }
+            String date = String.format("%02d/%02d/%04d", 1 + random.nextInt(12), 1 + random.nextInt(28), 1900 + i);
+            shorelines.add(SimpleFeatureBuilder.build(type, new Object[] {
+                factory.createMultiLineString(lines), date, 5 + 10 * random.nextDouble() }, "shorelines." + i));
+        }
+        return shorelines;
+    }
+
+    /**
+     * Transects cast shoreward from the baseline the way
+     * CreateTransectsAndIntersectionsProcess casts them
+     *
+     * @param baseline baseline from baseline()
+     * @param spacing distance between transects
+     * @param length transect length
+     * @return transects numbered from 0
+     */
+    public List<Transect> transects(LineString baseline, double spacing, double length) {
+        List<LineSegment> intervals = CreateTransectsAndIntersectionsProcess.findIntervals(baseline, true, spacing);
+        List<Transect> transects = new ArrayList<Transect>(intervals.size());
+        int id = 0;
+        for (LineSegment interval : intervals) {
+            Transect transect = Transect.generatePerpendicularVector(interval.p0, interval,
+                    Orientation.SHOREWARD, id, "0", id * spacing, Angle.COUNTERCLOCKWISE);
+            transect.setLength(length);
+            transects.add(transect);
+            id++;
+        }
+        return transects;
+    }
+
+    /**
+     * Results layer features: one transect line per feature grouped by
+     * baseline, with LRR, SCE and NSD
+     *
+     * @param baselines number of baselines
+     * @param transectsPerBaseline transects along each baseline
+     * @return results features
+     */
+    public SimpleFeatureCollection results(int baselines, int transectsPerBaseline) {
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("results");
+        typeBuilder.setCRS(crs);
+        typeBuilder.add("the_geom", LineString.class);
+        typeBuilder.add(Constants.BASELINE_ID_ATTR, Integer.class);
+        typeBuilder.add(Constants.TRANSECT_ID_ATTR, Integer.class);
+        typeBuilder.add(Constants.LRR_ATTR, Double.class);
+        typeBuilder.add(Constants.SCE_ATTR, Double.class);
+        typeBuilder.add(Constants.NSD_ATTR, Double.class);
+        SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+        ListFeatureCollection results = new ListFeatureCollection(type);
+        double length = 1000;
+        int id = 0;
+        for (int b = 0; b < baselines; b++) {
+            LineString baseline = wavyLine(transectsPerBaseline, 50, b * transectsPerBaseline * 50, 0);
+            for (Transect transect : transects(baseline, 50, length)) {
+                double nsd = 100 + 200 * random.nextDouble();
+                double sce = 50 + 300 * random.nextDouble();
+                double lrr = 4 * random.nextGaussian();
+                results.add(SimpleFeatureBuilder.build(type, new Object[] {
+                    transect.getLineString(), b, id, lrr, sce, nsd }, "results." + id));
+                id++;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Shoreline features for ribboning, consecutive features join end to end
+     *
+     * @param count number of features
+     * @param vertices vertices per feature
+     * @return features with a Date_ attribute to sort on
+     */
+    public SimpleFeatureCollection ribbonLines(int count, int vertices) {
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("ribbons");
+        typeBuilder.setCRS(crs);
+        typeBuilder.add("the_geom", MultiLineString.class);
+        typeBuilder.add(Constants.DATE_ATTR, String.class);
+        SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+        ListFeatureCollection lines = new ListFeatureCollection(type);
+        double spacing = 20;
+        for (int i = 0; i < count; i++) {
+            LineString line = wavyLine(vertices, spacing, i * (vertices - 1) * spacing, 0);
+            String date = String.format("%02d/01/%04d", 1 + random.nextInt(12), 1900 + random.nextInt(100));
+            lines.add(SimpleFeatureBuilder.build(type, new Object[] {
+                factory.createMultiLineString(new LineString[] { line }), date }, "ribbons." + i));
+        }
+        return lines;
+    }
+
+    private LineString wavyLine(int vertices, double spacing, double startX, double offsetY) {
+        Coordinate[] coordinates = new Coordinate[vertices];
+        for (int i = 0; i < vertices; i++) {
+            double x = startX + i * spacing;
+            double noise = (offsetY == 0) ? 0 : 5 * random.nextGaussian();
+            double y = AMPLITUDE * Math.sin(2 * Math.PI * x / WAVELENGTH) + offsetY + noise;
+            coordinates[i] = new Coordinate(ORIGIN_X + x, ORIGIN_Y + y);
+        }
+        return factory.createLineString(coordinates);
+    }
+}
@@ -0,0 +1,100 @@
+package gov.usgs.cida.utilities.colors;
+
+import java.awt.Color;
+
+/**
+ * Color map backed by a lookup table of another color map sampled over a
+ * range, so valueToColor is an index calculation returning a shared Color.
+ *
+ * The range is cut into bins of equal width and each bin holds the color of
+ * the source map at the middle of the bin. A value is therefore colored as a
+ * value at most range.extent / (2 * bins) away. For JetColorMap, whose
+ * channels change by at most 4 per unit of the range, every channel is within
+ * 2 / bins of full scale of the exact color, half an 8 bit step for 1024
+ * bins, so at most one step after rounding.
+ *
+ * Values outside the range take the source colors at one extent beyond
+ * either end (the clamp colors for JetColorMap). NaN takes the color below
+ * the range.
+ */
+public class LookupColorMap implements ColorMap<Number> {
+
+    public static final int DEFAULT_BINS = 1024;
+
+    public final AttributeRange range;
+
+    private final int bins;
+    private final Color[] colors;
+    private final int[] argb;
+    private final Color below;
+    private final Color above;
+
+    /**
+     * @param source color map to sample
+     * @param range range to sample source over
+     */
+    public LookupColorMap(ColorMap<Number> source, AttributeRange range) {
+        this(source, range, DEFAULT_BINS);
+    }
+
+    /**
+     * @param source color map to sample
+     * @param range range to sample source over
+     * @param bins number of colors in the table
+     */
+    public LookupColorMap(ColorMap<Number> source, AttributeRange range, int bins) {
+        if (bins < 1) {
+            throw new IllegalArgumentException("bins must be at least 1, was " + bins);
+        }
+        this.range = range;
+        this.bins = bins;
+        this.colors = new Color[bins];
+        this.argb = new int[bins];
+        double width = range.extent / bins;
+        for (int i = 0; i < bins; i++) {
+            colors[i] = source.valueToColor(range.min + (i + 0.5d) * width);
+            argb[i] = colors[i].getRGB();
+        }
+        this.below = source.valueToColor(range.min - range.extent);
+        this.above = source.valueToColor(range.max + range.extent);
+    }
+
+    public int getBins() {
+        return bins;
+    }
+
+    /**
+     * @param value value to color
+     * @return bin of value, -1 below the range and bins above it
+     */
+    public int valueToBin(double value) {
+        double coef = (value - range.min) / range.extent;
+        if (coef >= 0 && coef <= 1) {
+            int bin = (int) (coef * bins);
+            return (bin < bins) ? bin : bins - 1;
+        }
+        return (coef > 1) ? bins : -1;
+    }
+
+    /**
+     * @param bin bin from valueToBin
+     * @return shared color of bin
+     */
+    public Color binToColor(int bin) {
+        return (bin < 0) ? below : (bin >= bins) ? above : colors[bin];
+    }
+
+    @Override
+    public Color valueToColor(Number value) {
+        return binToColor(valueToBin(value.doubleValue()));
+    }
+
+    /**
+     * @param value value to color
+     * @return color of value as packed ARGB, as Color.getRGB
+     */
+    public int valueToARGB(double value) {
+        int bin = valueToBin(value);
+        return (bin < 0) ? below.getRGB() : (bin >= bins) ? above.getRGB() : argb[bin];
+    }
+}
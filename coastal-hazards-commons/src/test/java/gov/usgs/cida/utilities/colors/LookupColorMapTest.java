@@ -0,0 +1,42 @@
+package gov.usgs.cida.utilities.colors;
+
+import java.awt.Color;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class LookupColorMapTest {
+
+    @Test
+    public void testWithinOneStepOfJet() {
+        AttributeRange range = new AttributeRange(-3.5, 3.5);
+        JetColorMap jet = new JetColorMap(range);
+        LookupColorMap lookup = new LookupColorMap(jet, range);
+        for (int i = 0; i <= 10000; i++) {
+            double value = range.min + i * range.extent / 10000;
+            Color exact = jet.valueToColor(value);
+            Color quantized = lookup.valueToColor(value);
+            assertTrue(Math.abs(exact.getRed() - quantized.getRed()) <= 1);
+            assertTrue(Math.abs(exact.getGreen() - quantized.getGreen()) <= 1);
+            assertTrue(Math.abs(exact.getBlue() - quantized.getBlue()) <= 1);
+            assertEquals(quantized.getRGB(), lookup.valueToARGB(value));
+        }
+    }
+
+    @Test
+    public void testClampsAndInvertedRange() {
+        AttributeRange range = new AttributeRange(5, -5);
+        LookupColorMap lookup = new LookupColorMap(new JetColorMap(range), range, 16);
+        assertThat(lookup.valueToColor(10), is(sameInstance(JetColorMap.CLAMP_MIN)));
+        assertThat(lookup.valueToColor(-10), is(sameInstance(JetColorMap.CLAMP_MAX)));
+        assertEquals(0, lookup.valueToBin(5));
+        assertEquals(15, lookup.valueToBin(-5));
+        assertEquals(-1, lookup.valueToBin(Double.NaN));
+        assertThat(lookup.valueToColor(1), is(sameInstance(lookup.valueToColor(1.1))));
+    }
+}
@@ -83,6 +83,14 @@ public class AttributeGetter {
         }
     }
     
+    /**
+     * @param guess attribute name from Constants
+     * @return name of the matching attribute in the type, null if there is none
+     */
+    public Name getName(String guess) {
+        return attrMap.get(guess);
+    }
+    
     public boolean exists(String guess) {
         Name name = attrMap.get(guess);
         PropertyDescriptor descriptor = type.getDescriptor(name);
@@ -0,0 +1,153 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import java.util.Arrays;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Count, minimum, maximum and quantiles of the values of a numeric
+ * attribute. Values that are not numbers, NaN, or of magnitude NO_DATA or
+ * more (Constants.SHAPEFILE_NODATA and the like) are left out.
+ */
+public class AttributeStatistics {
+
+	public static final double NO_DATA = 1e10;
+
+	/**
+	 * Quantiles kept, by nearest rank
+	 */
+	public static final double[] QUANTILES = {0.01, 0.05, 0.25, 0.5, 0.75, 0.95, 0.99};
+
+	private static final String SEPARATOR = ";";
+	private static final String QUANTILE_SEPARATOR = ",";
+
+	private final long count;
+	private final double min;
+	private final double max;
+	private final double[] quantiles;
+
+	/**
+	 * @param count number of values
+	 * @param min smallest value, NaN if there are none
+	 * @param max largest value, NaN if there are none
+	 * @param quantiles value at each of QUANTILES, NaN if there are none
+	 */
+	public AttributeStatistics(long count, double min, double max, double[] quantiles) {
+		if (quantiles.length != QUANTILES.length) {
+			throw new IllegalArgumentException("Expected " + QUANTILES.length + " quantiles, got " + quantiles.length);
+		}
+		this.count = count;
+		this.min = min;
+		this.max = max;
+		this.quantiles = quantiles.clone();
+	}
+
+	/**
+	 * Reads the attribute of every feature once, holding only the values
+	 *
+	 * @param features features to summarize
+	 * @param attribute numeric attribute
+	 * @return statistics of attribute
+	 */
+	public static AttributeStatistics compute(SimpleFeatureCollection features, String attribute) {
+		double[] values = new double[1024];
+		int count = 0;
+		SimpleFeatureIterator iterator = null;
+		try {
+			iterator = features.features();
+			while (iterator.hasNext()) {
+				SimpleFeature feature = iterator.next();
+				Object valueObject = feature.getAttribute(attribute);
+				if (!(valueObject instanceof Number)) {
+					continue;
+				}
+				double value = ((Number) valueObject).doubleValue();
+				if (value != value || Math.abs(value) >= NO_DATA) {
+					continue;
+				}
+				if (count == values.length) {
+					values = Arrays.copyOf(values, count * 2);
+				}
+				values[count++] = value;
+			}
+		} finally {
+			if (iterator != null) {
+				iterator.close();
+			}
+		}
+		Arrays.sort(values, 0, count);
+		double[] quantiles = new double[QUANTILES.length];
+		for (int i = 0; i < QUANTILES.length; i++) {
+			quantiles[i] = (count == 0) ? Double.NaN : values[(int) Math.round(QUANTILES[i] * (count - 1))];
+		}
+		return (count == 0)
+				? new AttributeStatistics(0, Double.NaN, Double.NaN, quantiles)
+				: new AttributeStatistics(count, values[0], values[count - 1], quantiles);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @param index index into QUANTILES
+	 * @return value at quantile QUANTILES[index]
+	 */
+	public double getQuantile(int index) {
+		return quantiles[index];
+	}
+
+	/**
+	 * @return statistics as text, read back with parse
+	 */
+	public String format() {
+		StringBuilder text = new StringBuilder();
+		text.append(count).append(SEPARATOR).append(min).append(SEPARATOR).append(max).append(SEPARATOR);
+		for (int i = 0; i < quantiles.length; i++) {
+			if (i > 0) {
+				text.append(QUANTILE_SEPARATOR);
+			}
+			text.append(quantiles[i]);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * @param text statistics from format
+	 * @return statistics, null if text is not in the format of this version
+	 */
+	public static AttributeStatistics parse(String text) {
+		String[] parts = text.split(SEPARATOR);
+		if (parts.length != 4) {
+			return null;
+		}
+		String[] quantileParts = parts[3].split(QUANTILE_SEPARATOR);
+		if (quantileParts.length != QUANTILES.length) {
+			return null;
+		}
+		try {
+			double[] quantiles = new double[quantileParts.length];
+			for (int i = 0; i < quantiles.length; i++) {
+				quantiles[i] = Double.parseDouble(quantileParts[i]);
+			}
+			return new AttributeStatistics(Long.parseLong(parts[0]),
+					Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), quantiles);
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + " range=[" + min + ":" + max + "] quantiles=" + Arrays.toString(quantiles);
+	}
+}
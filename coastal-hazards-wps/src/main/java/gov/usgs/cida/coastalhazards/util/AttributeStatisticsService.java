@@ -0,0 +1,195 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Attribute statistics of whole layers, computed once per modification of
+ * the layer.
+ *
+ * Statistics are kept in memory and in the layer's catalog metadata, under
+ * METADATA_PREFIX + attribute, together with the modification stamp of the
+ * layer they were computed at, so they survive restarts and are recomputed
+ * when the stamp changes. As with the other caches, only layers in file
+ * based stores can be stamped.
+ *
+ * Statistics are computed on the render path, so they are saved to the
+ * catalog in the background rather than holding up the tile. At most
+ * maxEntries statistics are held in memory, least recently used first out.
+ */
+public class AttributeStatisticsService {
+
+	private static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger(AttributeStatisticsService.class);
+
+	public static final String METADATA_PREFIX = "coastal-hazards.statistics.";
+
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	private static final String STAMP_SEPARATOR = "|";
+	// saves waiting beyond this are dropped, the statistics are computed again after a restart
+	private static final int MAX_PENDING_SAVES = 64;
+
+	private final Catalog catalog;
+	private final GeoserverUtils gsUtils;
+	private final Map<String, String> statistics;
+	private final Executor saver;
+
+	public AttributeStatisticsService(Catalog catalog) {
+		this(catalog, DEFAULT_MAX_ENTRIES, createSaver());
+	}
+
+	/**
+	 * @param catalog catalog the layers and their metadata are in
+	 * @param maxEntries most statistics to hold in memory
+	 * @param saver runs the catalog saves of computed statistics
+	 */
+	public AttributeStatisticsService(Catalog catalog, final int maxEntries, Executor saver) {
+		this.catalog = catalog;
+		this.gsUtils = new GeoserverUtils(catalog);
+		this.statistics = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		this.saver = saver;
+	}
+
+	/**
+	 * @param typeInfo layer resource
+	 * @param attribute numeric attribute of the layer
+	 * @return statistics of attribute over the whole layer, null if the
+	 * layer cannot be stamped
+	 * @throws IOException if the layer cannot be read
+	 */
+	public AttributeStatistics getStatistics(FeatureTypeInfo typeInfo, String attribute) throws IOException {
+		String stamp = gsUtils.getModificationStamp(typeInfo);
+		if (null == stamp) {
+			return null;
+		}
+		String key = typeInfo.prefixedName() + STAMP_SEPARATOR + attribute;
+		String metadataKey = METADATA_PREFIX + attribute;
+
+		AttributeStatistics found = read(getHeld(key), stamp);
+		if (null == found) {
+			Serializable stored = typeInfo.getMetadata().get(metadataKey);
+			found = (stored instanceof String) ? read((String) stored, stamp) : null;
+			if (null != found) {
+				hold(key, (String) stored);
+			}
+		}
+		if (null != found) {
+			return found;
+		}
+
+		LOGGER.log(Level.INFO, "Calculating statistics for {0}:{1}", new Object[]{typeInfo.prefixedName(), attribute});
+		AttributeStatistics computed = compute(typeInfo, attribute);
+		String value = stamp + STAMP_SEPARATOR + computed.format();
+		hold(key, value);
+		saver.execute(new Save(typeInfo.getId(), metadataKey, value));
+		LOGGER.log(Level.INFO, "Statistics for {0}:{1} {2}", new Object[]{typeInfo.prefixedName(), attribute, computed});
+		return computed;
+	}
+
+	/**
+	 * Forgets statistics held in memory, stored statistics are kept and
+	 * checked against the layer stamp as usual
+	 */
+	public synchronized void clear() {
+		statistics.clear();
+	}
+
+	private synchronized String getHeld(String key) {
+		return statistics.get(key);
+	}
+
+	private synchronized void hold(String key, String value) {
+		statistics.put(key, value);
+	}
+
+	/**
+	 * One daemon thread, so a save never keeps the container from stopping
+	 */
+	private static Executor createSaver() {
+		return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_PENDING_SAVES),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "coastal-hazards-statistics");
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new ThreadPoolExecutor.DiscardPolicy());
+	}
+
+	/**
+	 * Stores statistics in the metadata of the layer as it is in the catalog
+	 * at the time of the save, not the copy they were computed from
+	 */
+	private class Save implements Runnable {
+
+		private final String typeInfoId;
+		private final String metadataKey;
+		private final String value;
+
+		Save(String typeInfoId, String metadataKey, String value) {
+			this.typeInfoId = typeInfoId;
+			this.metadataKey = metadataKey;
+			this.value = value;
+		}
+
+		@Override
+		public void run() {
+			try {
+				FeatureTypeInfo typeInfo = catalog.getFeatureType(typeInfoId);
+				if (null == typeInfo) {
+					return; // removed since
+				}
+				typeInfo.getMetadata().put(metadataKey, value);
+				catalog.save(typeInfo);
+			} catch (RuntimeException ex) {
+				LOGGER.log(Level.WARNING, "Unable to store statistics for " + typeInfoId, ex);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private AttributeStatistics compute(FeatureTypeInfo typeInfo, String attribute) throws IOException {
+		SimpleFeatureSource source = DataUtilities.simple(
+				(FeatureSource<SimpleFeatureType, SimpleFeature>) typeInfo.getFeatureSource(null, null));
+		// only the attribute is read, not the geometry
+		Query query = new Query(source.getSchema().getTypeName(), Filter.INCLUDE, new String[]{attribute});
+		return AttributeStatistics.compute(source.getFeatures(query), attribute);
+	}
+
+	/**
+	 * @return statistics stored as stamp | statistics, null unless they
+	 * were computed at stamp
+	 */
+	private static AttributeStatistics read(String stored, String stamp) {
+		if (null == stored || !stored.startsWith(stamp + STAMP_SEPARATOR)) {
+			return null;
+		}
+		return AttributeStatistics.parse(stored.substring(stamp.length() + STAMP_SEPARATOR.length()));
+	}
+}
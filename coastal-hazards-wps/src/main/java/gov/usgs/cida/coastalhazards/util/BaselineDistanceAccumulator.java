@@ -18,7 +18,14 @@ public class BaselineDistanceAccumulator {
     private LineSegment previousBaselineEnd;
         
     public BaselineDistanceAccumulator() {
-        this.accumulatedBaselineLength = 0;
+        this(0);
+    }
+    
+    /**
+     * @param startDistance distance already accumulated along earlier baselines
+     */
+    public BaselineDistanceAccumulator(double startDistance) {
+        this.accumulatedBaselineLength = startDistance;
         this.previousBaselineEnd = null;
     }
     
@@ -0,0 +1,90 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import gov.usgs.cida.coastalhazards.wps.exceptions.PoorlyDefinedBaselineException;
+import java.util.ArrayList;
+import java.util.List;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+
+/**
+ * Baseline lines indexed once, with the distance accumulated along the
+ * baseline before each line, so the baseline distance of many transect
+ * origins can be found without walking the baseline again for each.
+ *
+ * Distances are the same as walking a BaselineDistanceAccumulator over the
+ * baseline in iteration order and stopping at the first line within EPS of
+ * the origin.
+ */
+public class BaselineIndex {
+
+    private final List<LineString> lines;
+    private final double[] startDistances;
+    private final STRtree tree;
+
+    /**
+     * @param baseline baseline features, in the CRS of the transects
+     */
+    public BaselineIndex(SimpleFeatureCollection baseline) {
+        this.lines = new ArrayList<LineString>();
+        List<Double> starts = new ArrayList<Double>();
+        this.tree = new STRtree();
+
+        BaselineDistanceAccumulator accumulator = new BaselineDistanceAccumulator();
+        double walked = 0;
+        SimpleFeatureIterator iterator = null;
+        try {
+            iterator = baseline.features();
+            while (iterator.hasNext()) {
+                MultiLineString multiLine = CRSUtils.getLinesFromFeature(iterator.next());
+                for (int i = 0; i < multiLine.getNumGeometries(); i++) {
+                    LineString line = (LineString) multiLine.getGeometryN(i);
+                    // the gap between lines is only added once the walk moves past it
+                    starts.add(walked);
+                    walked = accumulator.accumulate(line) + line.getLength();
+                    tree.insert(line.getEnvelopeInternal(), lines.size());
+                    lines.add(line);
+                }
+            }
+        } finally {
+            if (null != iterator) {
+                iterator.close();
+            }
+        }
+        tree.build();
+
+        this.startDistances = new double[starts.size()];
+        for (int i = 0; i < startDistances.length; i++) {
+            startDistances[i] = starts.get(i);
+        }
+    }
+
+    /**
+     * @param origin transect origin
+     * @return distance along the baseline to origin
+     * @throws PoorlyDefinedBaselineException if origin is not on the baseline
+     */
+    public double getBaselineDistance(Point origin) {
+        Envelope search = new Envelope(origin.getCoordinate());
+        search.expandBy(BaselineDistanceAccumulator.EPS);
+        int first = Integer.MAX_VALUE;
+        for (Object item : tree.query(search)) {
+            int index = (Integer) item;
+            if (index < first && lines.get(index).isWithinDistance(origin, BaselineDistanceAccumulator.EPS)) {
+                first = index;
+            }
+        }
+        if (first == Integer.MAX_VALUE) {
+            throw new PoorlyDefinedBaselineException("Transect does not fall on baseline");
+        }
+        return new BaselineDistanceAccumulator(startDistances[first]).accumulateToPoint(lines.get(first), origin);
+    }
+
+    public int size() {
+        return lines.size();
+    }
+}
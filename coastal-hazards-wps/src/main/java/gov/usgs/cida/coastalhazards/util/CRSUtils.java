@@ -1,19 +1,28 @@
 package gov.usgs.cida.coastalhazards.util;
 
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiLineString;
 import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.geom.util.GeometryTransformer;
 import gov.usgs.cida.coastalhazards.wps.exceptions.UnsupportedFeatureTypeException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
 import org.geotools.geometry.jts.Geometries;
 import org.geotools.geometry.jts.JTS;
+import org.geotools.process.ProcessException;
 import org.geotools.referencing.CRS;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
@@ -29,6 +38,15 @@ import org.opengis.referencing.operation.TransformException;
 public class CRSUtils {
     
     private static GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(PrecisionModel.FLOATING));
+    // least recently used transforms are dropped, a run only needs a handful of UTM zones
+    private static final int TRANSFORM_CACHE_SIZE = 64;
+    private static final Map<List<CoordinateReferenceSystem>, MathTransform> transformCache =
+            new LinkedHashMap<List<CoordinateReferenceSystem>, MathTransform>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<CoordinateReferenceSystem>, MathTransform> eldest) {
+                    return size() > TRANSFORM_CACHE_SIZE;
+                }
+            };
 
     public static CoordinateReferenceSystem getCRSFromFeatureCollection(FeatureCollection<SimpleFeatureType, SimpleFeature> simpleFeatureCollection) {
         FeatureCollection<SimpleFeatureType, SimpleFeature> shorelineFeatureCollection = simpleFeatureCollection;
@@ -54,9 +72,11 @@ public class CRSUtils {
     }
 
     /**
-     * Returns a SimpleFeatureCollection with transformed default geometry
+     * Returns a SimpleFeatureCollection with transformed geometries, read
+     * into memory once so it can be iterated repeatedly without transforming
+     * again. Use reprojectFeatureCollection for a single pass.
      *
-     * @param featureCollection source feature collection (features may be
+     * @param featureCollection source feature collection (features are not
      * modified)
      * @param sourceCrs original coordinate reference system
      * @param targetCrs new coordinate reference system
@@ -65,30 +85,14 @@ public class CRSUtils {
     public static SimpleFeatureCollection transformFeatureCollection(FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
             CoordinateReferenceSystem sourceCrs,
             CoordinateReferenceSystem targetCrs) {
-        List<SimpleFeature> sfList = new LinkedList<SimpleFeature>();
-        MathTransform transform = null;
-        try {
-            transform = CRS.findMathTransform(sourceCrs, targetCrs, true);
-        } catch (FactoryException ex) {
-            return null; // do something better than this
-        }
+        SimpleFeatureCollection reprojected = reprojectFeatureCollection(featureCollection, sourceCrs, targetCrs);
+        List<SimpleFeature> sfList = new ArrayList<SimpleFeature>();
 		
-        FeatureIterator<SimpleFeature> features = null;
+        SimpleFeatureIterator features = null;
 		try {
-			features = featureCollection.features();
-			SimpleFeature feature = null;
+			features = reprojected.features();
 			while (features.hasNext()) {
-				feature = features.next();
-				Geometry geometry = (Geometry) feature.getDefaultGeometry();
-
-				Geometry utmGeometry = null;
-				try {
-					utmGeometry = JTS.transform(geometry, transform);
-				} catch (TransformException ex) {
-					// TODO handle exceptions
-				}
-				feature.setDefaultGeometry(utmGeometry);
-				sfList.add(feature);
+				sfList.add(features.next());
 			}
 		} finally {
 			if (null != features) {
@@ -99,6 +103,102 @@ public class CRSUtils {
         return DataUtilities.collection(sfList);
     }
 
+    /**
+     * Returns a lazy view of the collection with transformed geometries,
+     * features are copied and transformed as they are iterated
+     *
+     * @param featureCollection source feature collection (features are not
+     * modified)
+     * @param sourceCrs original coordinate reference system
+     * @param targetCrs new coordinate reference system
+     * @return reprojecting SimpleFeatureCollection
+     */
+    public static SimpleFeatureCollection reprojectFeatureCollection(FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
+            CoordinateReferenceSystem sourceCrs,
+            CoordinateReferenceSystem targetCrs) {
+        return new ReprojectingFeatureCollection(DataUtilities.simple(featureCollection), targetCrs, getTransform(sourceCrs, targetCrs));
+    }
+
+    /**
+     * Looks up the transform between two CRSs, lenient about datum shifts.
+     * The most recent lookups are cached as they are repeated on every
+     * process call.
+     *
+     * @param sourceCrs original coordinate reference system
+     * @param targetCrs new coordinate reference system
+     * @return transform from sourceCrs to targetCrs
+     */
+    public static MathTransform getTransform(CoordinateReferenceSystem sourceCrs, CoordinateReferenceSystem targetCrs) {
+        List<CoordinateReferenceSystem> key = Arrays.asList(sourceCrs, targetCrs);
+        MathTransform transform;
+        synchronized (transformCache) {
+            transform = transformCache.get(key);
+        }
+        if (null == transform) {
+            try {
+                transform = CRS.findMathTransform(sourceCrs, targetCrs, true);
+            } catch (FactoryException ex) {
+                throw new ProcessException("Unable to transform from " + sourceCrs.getName() + " to " + targetCrs.getName(), ex);
+            }
+            synchronized (transformCache) {
+                transformCache.put(key, transform);
+            }
+        }
+        return transform;
+    }
+
+    /**
+     * Transforms a geometry one coordinate sequence at a time, each sequence
+     * packed into a double[] and passed to the transform in a single call
+     *
+     * @param geometry geometry to transform, not modified
+     * @param transform transform to apply
+     * @return transformed copy of geometry
+     */
+    public static Geometry transformGeometry(Geometry geometry, MathTransform transform) {
+        if (null == geometry) {
+            return null;
+        }
+        if (transform.getSourceDimensions() != 2 || transform.getTargetDimensions() != 2) {
+            try {
+                return JTS.transform(geometry, transform);
+            } catch (TransformException ex) {
+                throw new ProcessException("Unable to transform geometry", ex);
+            }
+        }
+        return new BulkTransformer(transform).transform(geometry);
+    }
+
+    private static class BulkTransformer extends GeometryTransformer {
+
+        private final MathTransform transform;
+
+        private BulkTransformer(MathTransform transform) {
+            this.transform = transform;
+        }
+
+        @Override
+        protected CoordinateSequence transformCoordinates(CoordinateSequence coords, Geometry parent) {
+            int size = coords.size();
+            double[] ordinates = new double[size * 2];
+            for (int i = 0; i < size; i++) {
+                ordinates[i * 2] = coords.getX(i);
+                ordinates[i * 2 + 1] = coords.getY(i);
+            }
+            try {
+                transform.transform(ordinates, 0, ordinates, 0, size);
+            } catch (TransformException ex) {
+                throw new ProcessException("Unable to transform geometry", ex);
+            }
+            Coordinate[] transformed = new Coordinate[size];
+            for (int i = 0; i < size; i++) {
+                // z is carried over untouched, as JTS.transform does for 2D transforms
+                transformed[i] = new Coordinate(ordinates[i * 2], ordinates[i * 2 + 1], coords.getOrdinate(i, CoordinateSequence.Z));
+            }
+            return factory.getCoordinateSequenceFactory().create(transformed);
+        }
+    }
+
     public static MultiLineString getLinesFromFeatureCollection(SimpleFeatureCollection collection) {
         List<LineString> lines = new LinkedList<LineString>();
 		
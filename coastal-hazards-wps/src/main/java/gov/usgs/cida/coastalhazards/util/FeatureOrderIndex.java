@@ -0,0 +1,225 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Order of the features of a layer by one attribute, ascending with nulls
+ * first and ties in layer order, as a sort by the attribute would give. Kept
+ * as the feature ids in order so any selection of the layer can be put in
+ * order without sorting by the attribute again.
+ *
+ * Written as UTF-8 text, the stamp of the layer, the attribute, then one
+ * feature id per line.
+ */
+public class FeatureOrderIndex {
+
+	private static final String ENCODING = "UTF-8";
+
+	private final String stamp;
+	private final String attribute;
+	private final Map<String, Integer> ranks;
+	private final String[] featureIds;
+
+	private FeatureOrderIndex(String stamp, String attribute, String[] featureIds) {
+		this.stamp = stamp;
+		this.attribute = attribute;
+		this.featureIds = featureIds;
+		this.ranks = new HashMap<String, Integer>(featureIds.length * 2);
+		for (int i = 0; i < featureIds.length; i++) {
+			ranks.put(featureIds[i], i);
+		}
+	}
+
+	/**
+	 * @param layer every feature of the layer, only the attribute is read
+	 * @param attribute attribute to order by
+	 * @param stamp modification stamp of the layer
+	 * @return order of layer by attribute
+	 */
+	public static FeatureOrderIndex build(SimpleFeatureCollection layer, String attribute, String stamp) {
+		final List<String> ids = new ArrayList<String>();
+		final List<Object> values = new ArrayList<Object>();
+		SimpleFeatureIterator iterator = null;
+		try {
+			iterator = layer.features();
+			while (iterator.hasNext()) {
+				SimpleFeature feature = iterator.next();
+				ids.add(feature.getID());
+				values.add(feature.getAttribute(attribute));
+			}
+		} finally {
+			if (null != iterator) {
+				iterator.close();
+			}
+		}
+		Integer[] order = new Integer[ids.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		// merge sort, so ties keep layer order
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public int compare(Integer left, Integer right) {
+				Object leftValue = values.get(left);
+				Object rightValue = values.get(right);
+				if (null == leftValue) {
+					return (null == rightValue) ? 0 : -1;
+				}
+				if (null == rightValue) {
+					return 1;
+				}
+				return ((Comparable<Object>) leftValue).compareTo(rightValue);
+			}
+		});
+		String[] featureIds = new String[order.length];
+		for (int i = 0; i < order.length; i++) {
+			featureIds[i] = ids.get(order[i]);
+		}
+		return new FeatureOrderIndex(stamp, attribute, featureIds);
+	}
+
+	/**
+	 * @param file index written by write
+	 * @param attribute attribute the index must order by
+	 * @param stamp stamp the index must have been built at
+	 * @return index, null if file is missing or was built for another
+	 * attribute or stamp
+	 * @throws IOException if file cannot be read
+	 */
+	public static FeatureOrderIndex read(File file, String attribute, String stamp) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+			if (!stamp.equals(reader.readLine()) || !attribute.equals(reader.readLine())) {
+				return null;
+			}
+			List<String> featureIds = new ArrayList<String>();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				featureIds.add(line);
+			}
+			return new FeatureOrderIndex(stamp, attribute, featureIds.toArray(new String[featureIds.size()]));
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * Writes the index to a temporary file of its own next to file and then
+	 * moves it over file, so readers never see a partial index and writers
+	 * of the same index do not write over each other
+	 *
+	 * @param file file to write
+	 * @throws IOException if file cannot be written
+	 */
+	public void write(File file) throws IOException {
+		File directory = file.getParentFile();
+		if (null != directory) {
+			FileUtils.forceMkdir(directory);
+		}
+		File partial = File.createTempFile(file.getName() + ".", ".part", directory);
+		BufferedWriter writer = null;
+		boolean written = false;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(partial), ENCODING));
+			writer.write(stamp);
+			writer.newLine();
+			writer.write(attribute);
+			writer.newLine();
+			for (String featureId : featureIds) {
+				writer.write(featureId);
+				writer.newLine();
+			}
+			writer.close();
+			written = true;
+		} finally {
+			IOUtils.closeQuietly(writer);
+			if (!written) {
+				FileUtils.deleteQuietly(partial);
+			}
+		}
+		if (file.exists() && !file.delete()) {
+			FileUtils.deleteQuietly(partial);
+			throw new IOException("Unable to replace " + file);
+		}
+		if (!partial.renameTo(file)) {
+			FileUtils.deleteQuietly(partial);
+			throw new IOException("Unable to write " + file);
+		}
+	}
+
+	/**
+	 * @param features selection of the layer
+	 * @return features in order, held in memory, or null if some feature is
+	 * not in the index
+	 */
+	public SimpleFeatureCollection sort(SimpleFeatureCollection features) {
+		List<SimpleFeature> read = new ArrayList<SimpleFeature>();
+		// rank in the high half, so sorting orders by rank
+		long[] keys = new long[16];
+		SimpleFeatureIterator iterator = null;
+		try {
+			iterator = features.features();
+			while (iterator.hasNext()) {
+				SimpleFeature feature = iterator.next();
+				Integer rank = ranks.get(feature.getID());
+				if (null == rank) {
+					return null;
+				}
+				if (read.size() == keys.length) {
+					keys = Arrays.copyOf(keys, keys.length * 2);
+				}
+				keys[read.size()] = ((long) rank << 32) | read.size();
+				read.add(feature);
+			}
+		} finally {
+			if (null != iterator) {
+				iterator.close();
+			}
+		}
+		Arrays.sort(keys, 0, read.size());
+		List<SimpleFeature> sorted = new ArrayList<SimpleFeature>(read.size());
+		for (int i = 0; i < read.size(); i++) {
+			sorted.add(read.get((int) keys[i]));
+		}
+		return new ListFeatureCollection(features.getSchema(), sorted);
+	}
+
+	public String getStamp() {
+		return stamp;
+	}
+
+	public String getAttribute() {
+		return attribute;
+	}
+
+	/**
+	 * @return number of features ordered
+	 */
+	public int size() {
+		return featureIds.length;
+	}
+}
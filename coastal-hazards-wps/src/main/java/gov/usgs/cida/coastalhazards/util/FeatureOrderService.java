@@ -0,0 +1,204 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Orders of whole layers by an attribute, built once per modification of
+ * the layer.
+ *
+ * Orders are kept in memory and written next to the layer, in the
+ * INDEX_DIRECTORY subdirectory of its store directory so they do not count
+ * towards the layer's own modification stamp, and are rebuilt when the stamp
+ * changes. As with the other caches, only layers in file based stores can be
+ * stamped. At most maxEntries orders are held in memory, least recently used
+ * first out, and stored orders go with their layer through deleteOrders.
+ * Requests for an order being built wait for that build instead of building
+ * and writing it again.
+ */
+public class FeatureOrderService {
+
+	private static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger(FeatureOrderService.class);
+
+	public static final String INDEX_DIRECTORY = ".order";
+	public static final String INDEX_SUFFIX = ".order";
+	public static final int DEFAULT_MAX_ENTRIES = 64;
+
+	private final GeoserverUtils gsUtils;
+	private final Map<String, FeatureOrderIndex> indexes;
+	private final Map<String, FutureTask<FeatureOrderIndex>> building = new HashMap<String, FutureTask<FeatureOrderIndex>>();
+
+	public FeatureOrderService(Catalog catalog) {
+		this(catalog, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param catalog catalog the layers are in
+	 * @param maxEntries most orders to hold in memory
+	 */
+	public FeatureOrderService(Catalog catalog, final int maxEntries) {
+		this.gsUtils = new GeoserverUtils(catalog);
+		this.indexes = new LinkedHashMap<String, FeatureOrderIndex>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, FeatureOrderIndex> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @param typeInfo layer resource
+	 * @param attribute attribute of the layer to order by
+	 * @return order of the whole layer, null if the layer cannot be stamped
+	 * @throws IOException if the layer cannot be read
+	 */
+	public FeatureOrderIndex getOrder(final FeatureTypeInfo typeInfo, final String attribute) throws IOException {
+		final String stamp = gsUtils.getModificationStamp(typeInfo);
+		if (null == stamp) {
+			return null;
+		}
+		String key = typeInfo.prefixedName() + "|" + attribute;
+		String buildKey = key + "|" + stamp;
+		FutureTask<FeatureOrderIndex> task;
+		boolean owner = false;
+		synchronized (this) {
+			FeatureOrderIndex index = indexes.get(key);
+			if (null != index && stamp.equals(index.getStamp())) {
+				return index;
+			}
+			task = building.get(buildKey);
+			if (null == task) {
+				task = new FutureTask<FeatureOrderIndex>(new Callable<FeatureOrderIndex>() {
+					@Override
+					public FeatureOrderIndex call() throws IOException {
+						return load(typeInfo, attribute, stamp);
+					}
+				});
+				building.put(buildKey, task);
+				owner = true;
+			}
+		}
+		if (owner) {
+			try {
+				task.run();
+				FeatureOrderIndex index = getBuilt(task);
+				hold(key, index);
+				return index;
+			} finally {
+				synchronized (this) {
+					building.remove(buildKey);
+				}
+			}
+		}
+		return getBuilt(task);
+	}
+
+	/**
+	 * Deletes the stored orders of a layer, for when the layer itself is
+	 * deleted
+	 *
+	 * @param directory store directory of the layer
+	 * @param nativeName name of the layer's files
+	 */
+	public static void deleteOrders(File directory, String nativeName) {
+		File indexDirectory = new File(directory, INDEX_DIRECTORY);
+		if (!indexDirectory.isDirectory()) {
+			return;
+		}
+		Collection<File> files = FileUtils.listFiles(indexDirectory, new PrefixFileFilter(nativeName + "."), null);
+		for (File file : files) {
+			if (file.getName().endsWith(INDEX_SUFFIX) && !FileUtils.deleteQuietly(file)) {
+				LOGGER.log(Level.WARNING, "{0} could not be deleted", file.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Forgets orders held in memory, stored orders are kept and checked
+	 * against the layer stamp as usual
+	 */
+	public synchronized void clear() {
+		indexes.clear();
+	}
+
+	private synchronized void hold(String key, FeatureOrderIndex index) {
+		indexes.put(key, index);
+	}
+
+	private File getIndexFile(FeatureTypeInfo typeInfo, String attribute) {
+		File directory = GeoserverUtils.getDataStoreDirectory(gsUtils.getDataAccess(typeInfo.getStore(), null));
+		return new File(new File(directory, INDEX_DIRECTORY), typeInfo.getNativeName() + "." + attribute + INDEX_SUFFIX);
+	}
+
+	/**
+	 * Reads the stored order, building and storing it if it is missing or
+	 * out of date
+	 */
+	private FeatureOrderIndex load(FeatureTypeInfo typeInfo, String attribute, String stamp) throws IOException {
+		File file = getIndexFile(typeInfo, attribute);
+		FeatureOrderIndex index = FeatureOrderIndex.read(file, attribute, stamp);
+		if (null == index) {
+			LOGGER.log(Level.INFO, "Ordering {0} by {1}", new Object[]{typeInfo.prefixedName(), attribute});
+			index = build(typeInfo, attribute, stamp);
+			try {
+				index.write(file);
+			} catch (IOException ex) {
+				LOGGER.log(Level.WARNING, "Unable to store order of " + typeInfo.prefixedName(), ex);
+			}
+		}
+		return index;
+	}
+
+	private static FeatureOrderIndex getBuilt(FutureTask<FeatureOrderIndex> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for an order");
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private FeatureOrderIndex build(FeatureTypeInfo typeInfo, String attribute, String stamp) throws IOException {
+		SimpleFeatureSource source = DataUtilities.simple(
+				(FeatureSource<SimpleFeatureType, SimpleFeature>) typeInfo.getFeatureSource(null, null));
+		// only the attribute is read, not the geometry
+		Query query = new Query(source.getSchema().getTypeName(), Filter.INCLUDE, new String[]{attribute});
+		return FeatureOrderIndex.build(source.getFeatures(query), attribute, stamp);
+	}
+}
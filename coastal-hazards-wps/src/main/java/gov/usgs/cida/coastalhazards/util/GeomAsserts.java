@@ -5,9 +5,20 @@
 
 package gov.usgs.cida.coastalhazards.util;
 
+import com.vividsolutions.jts.algorithm.LineIntersector;
+import com.vividsolutions.jts.algorithm.RobustLineIntersector;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiLineString;
 import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
 import gov.usgs.cida.coastalhazards.wps.exceptions.PoorlyDefinedBaselineException;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineFeature;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineSegmentIndex;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
 
 /**
  *
@@ -20,4 +31,101 @@ public class GeomAsserts {
             throw new PoorlyDefinedBaselineException("Baselines cannot intersect shorelines");
         }
     }
+
+    /**
+     * Checks each baseline segment against the shoreline segments it could
+     * touch, stopping at the first crossing
+     *
+     * @param shorelines packed shoreline index, in the CRS of the baselines
+     * @param baselines baseline features
+     * @throws PoorlyDefinedBaselineException naming the crossing features
+     */
+    public static void assertBaselinesDoNotCrossShorelines(final ShorelineSegmentIndex shorelines, SimpleFeatureCollection baselines) {
+        assertNoCrossing(baselines, new CrossingFinder() {
+            @Override
+            public SimpleFeature findCrossing(final Coordinate p0, final Coordinate p1, final LineIntersector intersector) {
+                final Coordinate q0 = new Coordinate();
+                final Coordinate q1 = new Coordinate();
+                final int[] crossing = new int[] { -1 };
+                Envelope envelope = new Envelope(p0, p1);
+                shorelines.query(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY(),
+                        new ShorelineSegmentIndex.SegmentVisitor() {
+                            @Override
+                            public void visit(int segment) {
+                                if (crossing[0] >= 0) {
+                                    return;
+                                }
+                                q0.x = shorelines.getX0(segment);
+                                q0.y = shorelines.getY0(segment);
+                                q1.x = shorelines.getX1(segment);
+                                q1.y = shorelines.getY1(segment);
+                                intersector.computeIntersection(p0, p1, q0, q1);
+                                if (intersector.hasIntersection()) {
+                                    crossing[0] = segment;
+                                }
+                            }
+                        });
+                return (crossing[0] < 0) ? null : shorelines.getFeature(crossing[0]);
+            }
+        });
+    }
+
+    /**
+     * Checks each baseline segment against the shoreline segments it could
+     * touch, stopping at the first crossing
+     *
+     * @param shorelines STRtree of ShorelineFeature segments, in the CRS of the baselines
+     * @param baselines baseline features
+     * @throws PoorlyDefinedBaselineException naming the crossing features
+     */
+    public static void assertBaselinesDoNotCrossShorelines(final STRtree shorelines, SimpleFeatureCollection baselines) {
+        assertNoCrossing(baselines, new CrossingFinder() {
+            @Override
+            public SimpleFeature findCrossing(Coordinate p0, Coordinate p1, LineIntersector intersector) {
+                for (Object item : shorelines.query(new Envelope(p0, p1))) {
+                    ShorelineFeature shoreline = (ShorelineFeature) item;
+                    intersector.computeIntersection(p0, p1,
+                            shoreline.segment.getCoordinateN(0), shoreline.segment.getCoordinateN(1));
+                    if (intersector.hasIntersection()) {
+                        return shoreline.feature;
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    private interface CrossingFinder {
+
+        /**
+         * @return shoreline feature crossing segment p0 p1, null if none
+         */
+        SimpleFeature findCrossing(Coordinate p0, Coordinate p1, LineIntersector intersector);
+    }
+
+    private static void assertNoCrossing(SimpleFeatureCollection baselines, CrossingFinder finder) {
+        LineIntersector intersector = new RobustLineIntersector();
+        SimpleFeatureIterator features = null;
+        try {
+            features = baselines.features();
+            while (features.hasNext()) {
+                SimpleFeature baseline = features.next();
+                MultiLineString lines = CRSUtils.getLinesFromFeature(baseline);
+                for (int i = 0; i < lines.getNumGeometries(); i++) {
+                    LineString line = (LineString) lines.getGeometryN(i);
+                    for (int j = 1; j < line.getNumPoints(); j++) {
+                        SimpleFeature shoreline = finder.findCrossing(line.getCoordinateN(j - 1), line.getCoordinateN(j), intersector);
+                        if (null != shoreline) {
+                            throw new PoorlyDefinedBaselineException("Baselines cannot intersect shorelines, baseline "
+                                    + baseline.getID() + " crosses shoreline " + shoreline.getID());
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (null != features) {
+                features.close();
+            }
+        }
+    }
 }
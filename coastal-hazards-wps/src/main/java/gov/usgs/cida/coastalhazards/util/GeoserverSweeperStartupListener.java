@@ -173,6 +173,7 @@ public class GeoserverSweeperStartupListener implements InitializingBean {
 														LOGGER.log(Level.INFO, "Expired layer file removed @ {0}", file.getPath());
 													}
 												}
+												FeatureOrderService.deleteOrders(featureSourceFile.getParentFile(), filePrefix);
 											}
 											// If the store is empty now, it will be deleted in the next pass
 										} else {
@@ -3,6 +3,7 @@ package gov.usgs.cida.coastalhazards.util;
 import com.google.common.io.Files;
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
 import java.util.Collection;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -11,14 +12,17 @@ import org.apache.commons.io.filefilter.PrefixFileFilter;
 import org.geoserver.catalog.CascadeDeleteVisitor;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ProjectionPolicy;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.wps.gs.ImportProcess;
 import org.geotools.data.DataAccess;
 import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.NameImpl;
 import org.geotools.process.ProcessException;
 import org.geotools.util.DefaultProgressListener;
@@ -86,6 +90,102 @@ public class GeoserverUtils {
 		return da;
 	}
 
+	/**
+	 * Finds the directory holding a store's files
+	 *
+	 * @param dataAccess store
+	 * @return directory, null if the store is not file based
+	 */
+	public static File getDataStoreDirectory(DataAccess<? extends FeatureType, ? extends Feature> dataAccess) {
+		URI source = dataAccess.getInfo().getSource();
+		File directory = null;
+		try {
+			if (null != source && "file".equals(source.getScheme())) {
+				directory = new File(source);
+			}
+		} catch (IllegalArgumentException ex) {
+			LOGGER.log(Level.FINE, "Store source is not a file", ex);
+		}
+		if (null != directory && directory.isFile()) {
+			directory = directory.getParentFile();
+		}
+		return (null != directory && directory.isDirectory()) ? directory : null;
+	}
+
+	/**
+	 * Stamp that changes whenever the features of a layer may have changed.
+	 * Only file based stores can be stamped, by the newest modification time
+	 * of the layer's files.
+	 *
+	 * @param typeInfo layer resource
+	 * @return stamp, null when the layer cannot be stamped and must not be cached
+	 */
+	public String getModificationStamp(FeatureTypeInfo typeInfo) {
+		File directory = getDataStoreDirectory(getDataAccess(typeInfo.getStore(), null));
+		if (null == directory) {
+			return null;
+		}
+		Collection<File> files = FileUtils.listFiles(directory, new PrefixFileFilter(typeInfo.getNativeName() + "."), null);
+		if (files.isEmpty()) {
+			return null;
+		}
+		long lastModified = 0;
+		long length = 0;
+		for (File file : files) {
+			lastModified = Math.max(lastModified, file.lastModified());
+			length += file.length();
+		}
+		return lastModified + ":" + length;
+	}
+
+	/**
+	 * A selection of a layer with as many features as the layer is the
+	 * whole layer, so results over it can be keyed by the layer's
+	 * modification stamp alone. Only layers that count their features
+	 * without reading them are checked.
+	 *
+	 * @param typeInfo layer resource
+	 * @param features selection of the layer
+	 * @return whether features are every feature of the layer
+	 */
+	public boolean isWholeLayer(FeatureTypeInfo typeInfo, FeatureCollection<? extends FeatureType, ? extends Feature> features) {
+		int count;
+		try {
+			count = typeInfo.getFeatureSource(null, null).getCount(Query.ALL);
+		} catch (IOException ex) {
+			LOGGER.log(Level.FINE, "Unable to count " + typeInfo.prefixedName(), ex);
+			return false;
+		}
+		return count >= 0 && features.size() == count;
+	}
+
+	/**
+	 * Count and order independent hash of the feature ids of a selection,
+	 * telling filtered selections of the same layer apart. Far cheaper than
+	 * the indexing or rendering it keys.
+	 *
+	 * @param features selection of a layer
+	 * @return stamp of the selection
+	 */
+	public static String getSelectionStamp(FeatureCollection<? extends FeatureType, ? extends Feature> features) {
+		long count = 0;
+		long hash = 0;
+		FeatureIterator<? extends Feature> iterator = null;
+		try {
+			iterator = features.features();
+			while (iterator.hasNext()) {
+				long idHash = iterator.next().getIdentifier().getID().hashCode() * 0x9E3779B97F4A7C15L;
+				hash += idHash ^ (idHash >>> 29);
+				count++;
+			}
+		} finally {
+			if (null != iterator) {
+				iterator.close();
+			}
+		}
+		return count + ":" + Long.toHexString(hash);
+	}
+
 	public FeatureSource<? extends FeatureType, ? extends Feature> getFeatureSource(DataStoreInfo store, String layer, ProgressListener listener) {
 		DataAccess<? extends FeatureType, ? extends Feature> dataAccess;
 		try {
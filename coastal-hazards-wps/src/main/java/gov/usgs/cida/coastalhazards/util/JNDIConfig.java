@@ -0,0 +1,37 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.NamingException;
+import org.springframework.jndi.JndiTemplate;
+
+/**
+ * Reads per-instance tuning parameters from the servlet container's JNDI
+ * environment, falling back to a default when they are not set.
+ */
+public class JNDIConfig {
+
+	protected static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger(JNDIConfig.class);
+	private static final String JNDI_PREFIX = "java:comp/env/";
+
+	/**
+	 * @param name parameter name, without the java:comp/env/ prefix
+	 * @param type expected type of the JNDI environment entry
+	 * @param defaultValue value used when the parameter is missing or of the wrong type
+	 * @return configured value or default
+	 */
+	public static <T> T lookup(String name, Class<T> type, T defaultValue) {
+		JndiTemplate template = new JndiTemplate();
+		T value;
+		try {
+			value = template.lookup(JNDI_PREFIX + name, type);
+		} catch (NamingException ex) {
+			value = null;
+		}
+		if (value == null) {
+			LOGGER.log(Level.INFO, "Init parameter {0} was not set. Using default value {1}", new Object[]{name, defaultValue});
+			value = defaultValue;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,531 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geotools.data.DataAccess;
+import org.geotools.data.DataStore;
+import org.geotools.data.shapefile.dbf.DbaseFileHeader;
+import org.geotools.data.shapefile.dbf.DbaseFileReader;
+import org.geotools.data.shapefile.dbf.DbaseFileWriter;
+import org.geotools.jdbc.JDBCDataStore;
+import org.opengis.feature.Feature;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.FeatureType;
+
+/**
+ * Adds and renames columns of a layer where it is stored instead of copying
+ * every feature into a new layer.
+ *
+ * PostGIS tables are altered in one transaction. Shapefiles only have their
+ * DBF changed, the geometry files are left alone: a rename rewrites the field
+ * names in the DBF header and new columns are added in a single streaming
+ * pass over the records. The store and the feature type are then dropped from
+ * the resource pool so GeoServer reads the new columns, the layer itself is
+ * kept.
+ */
+public class LayerSchemaEditor {
+
+	private static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger(LayerSchemaEditor.class);
+
+	private static final String POSTGIS_DBTYPE = "postgis";
+	private static final String DBF_EXTENSION = ".dbf";
+	private static final Charset DEFAULT_CHARSET = Charset.forName("ISO-8859-1");
+	private static final Charset FIELD_NAME_CHARSET = Charset.forName("US-ASCII");
+	private static final int FIELD_NAME_LENGTH = 10;
+	private static final int DBF_HEADER_SIZE = 32;
+	private static final int DBF_FIELD_SIZE = 32;
+	private static final byte DBF_HEADER_END = 0x0D;
+	private static final byte DBF_DELETED = '*';
+
+	private final Catalog catalog;
+	private final GeoserverUtils gsUtils;
+
+	public LayerSchemaEditor(Catalog catalog) {
+		this.catalog = catalog;
+		this.gsUtils = new GeoserverUtils(catalog);
+	}
+
+	/**
+	 * @param storeInfo store holding the layer
+	 * @param layer native name of the layer
+	 * @return true if columns of the layer can be changed in place
+	 */
+	public boolean canEdit(DataStoreInfo storeInfo, String layer) {
+		DataAccess<? extends FeatureType, ? extends Feature> dataAccess = gsUtils.getDataAccess(storeInfo, null);
+		return isPostGIS(storeInfo, dataAccess) || null != getDbaseFile(dataAccess, layer);
+	}
+
+	/**
+	 * DBF field names are limited to ten ASCII characters, other names still
+	 * need the layer copied. Renames that would leave two columns with the
+	 * same name are refused too: in a DBF names are compared as the first ten
+	 * characters ignoring case, in PostGIS a new name may not be any current
+	 * column name as the columns are renamed one at a time.
+	 *
+	 * @param storeInfo store holding the layer
+	 * @param layer native name of the layer
+	 * @param renames new column names by original column name
+	 * @return true if the columns can be renamed in place
+	 */
+	public boolean canRename(DataStoreInfo storeInfo, String layer, Map<String, String> renames) {
+		DataAccess<? extends FeatureType, ? extends Feature> dataAccess = gsUtils.getDataAccess(storeInfo, null);
+		try {
+			if (isPostGIS(storeInfo, dataAccess)) {
+				Set<String> names = new HashSet<String>();
+				for (AttributeDescriptor descriptor : ((DataStore) dataAccess).getSchema(layer).getAttributeDescriptors()) {
+					names.add(descriptor.getLocalName());
+				}
+				for (String name : renames.values()) {
+					if (!names.add(name)) {
+						return false;
+					}
+				}
+				return true;
+			}
+			File dbf = getDbaseFile(dataAccess, layer);
+			return null != dbf && canRenameFields(dbf, renames);
+		} catch (IOException ex) {
+			LOGGER.log(Level.WARNING, "Could not read the columns of " + layer, ex);
+			return false;
+		}
+	}
+
+	/**
+	 * @param dbf DBF of a shapefile
+	 * @param renames new field names by original field name
+	 * @return true if every new name fits a DBF field and no two fields end
+	 * up with the same name
+	 * @throws IOException
+	 */
+	static boolean canRenameFields(File dbf, Map<String, String> renames) throws IOException {
+		for (String name : renames.values()) {
+			if (name.isEmpty() || name.length() > FIELD_NAME_LENGTH || !FIELD_NAME_CHARSET.newEncoder().canEncode(name)) {
+				return false;
+			}
+		}
+		FileInputStream input = new FileInputStream(dbf);
+		DbaseFileReader reader = null;
+		try {
+			reader = new DbaseFileReader(input.getChannel(), false, DEFAULT_CHARSET);
+			DbaseFileHeader header = reader.getHeader();
+			Set<String> names = new HashSet<String>();
+			for (int i = 0; i < header.getNumFields(); i++) {
+				String name = header.getFieldName(i);
+				String newName = renames.get(name);
+				if (!names.add(toFieldKey((null == newName) ? name : newName))) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			if (null != reader) {
+				reader.close();
+			}
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	/**
+	 * A DBF keeps ten characters of a name and readers match them ignoring case
+	 */
+	private static String toFieldKey(String name) {
+		String key = (name.length() > FIELD_NAME_LENGTH) ? name.substring(0, FIELD_NAME_LENGTH) : name;
+		return key.toUpperCase(Locale.US);
+	}
+
+	/**
+	 * @param storeInfo store holding the layer
+	 * @param layer native name of the layer
+	 * @param columns columns to add, every existing feature gets the default
+	 * value of the column
+	 * @return workspace:layer name of the layer
+	 * @throws IOException if the layer could not be changed, it is left as it
+	 * was
+	 */
+	public String addColumns(DataStoreInfo storeInfo, String layer, List<AttributeDescriptor> columns) throws IOException {
+		DataAccess<? extends FeatureType, ? extends Feature> dataAccess = gsUtils.getDataAccess(storeInfo, null);
+		if (columns.isEmpty()) {
+			return refresh(storeInfo, layer);
+		}
+		if (isPostGIS(storeInfo, dataAccess)) {
+			JDBCDataStore dataStore = (JDBCDataStore) dataAccess;
+			List<String> statements = new ArrayList<String>(columns.size());
+			for (AttributeDescriptor column : columns) {
+				StringBuilder sql = new StringBuilder("ALTER TABLE ")
+						.append(qualify(dataStore.getDatabaseSchema(), layer))
+						.append(" ADD COLUMN ").append(quote(column.getLocalName()))
+						.append(' ').append(getSqlType(column.getType().getBinding()));
+				Object defaultValue = column.getDefaultValue();
+				if (null != defaultValue) {
+					sql.append(" DEFAULT ").append(getSqlLiteral(defaultValue));
+				}
+				statements.add(sql.toString());
+			}
+			execute(dataStore, statements);
+		} else {
+			File dbf = getDbaseFile(dataAccess, layer);
+			// the store holds the files open until disposed
+			catalog.getResourcePool().clear(storeInfo);
+			appendColumns(dbf, getCharset(storeInfo), columns);
+		}
+		return refresh(storeInfo, layer);
+	}
+
+	/**
+	 * @param storeInfo store holding the layer
+	 * @param layer native name of the layer
+	 * @param renames new column names by original column name, see canRename
+	 * @return workspace:layer name of the layer
+	 * @throws IOException if the layer could not be changed, it is left as it
+	 * was
+	 */
+	public String renameColumns(DataStoreInfo storeInfo, String layer, Map<String, String> renames) throws IOException {
+		DataAccess<? extends FeatureType, ? extends Feature> dataAccess = gsUtils.getDataAccess(storeInfo, null);
+		if (renames.isEmpty()) {
+			return refresh(storeInfo, layer);
+		}
+		if (isPostGIS(storeInfo, dataAccess)) {
+			JDBCDataStore dataStore = (JDBCDataStore) dataAccess;
+			List<String> statements = new ArrayList<String>(renames.size());
+			for (Map.Entry<String, String> rename : renames.entrySet()) {
+				statements.add("ALTER TABLE " + qualify(dataStore.getDatabaseSchema(), layer)
+						+ " RENAME COLUMN " + quote(rename.getKey()) + " TO " + quote(rename.getValue()));
+			}
+			execute(dataStore, statements);
+		} else {
+			File dbf = getDbaseFile(dataAccess, layer);
+			catalog.getResourcePool().clear(storeInfo);
+			renameColumns(dbf, renames);
+		}
+		return refresh(storeInfo, layer);
+	}
+
+	/**
+	 * Writes a copy of the DBF with the columns added at the end, then swaps
+	 * it in for the original, which is kept as a backup until the copy is in
+	 * place and restored if the copy cannot be moved. Records are copied one
+	 * at a time, in place, so they stay aligned with the geometries.
+	 * DbaseFileWriter cannot mark a record deleted, so the deleted flags of
+	 * the original are patched into the copy afterwards.
+	 *
+	 * @param dbf DBF of a shapefile
+	 * @param charset charset of the DBF
+	 * @param columns columns to add, filled with their default values
+	 * @throws IOException
+	 */
+	static void appendColumns(File dbf, Charset charset, List<AttributeDescriptor> columns) throws IOException {
+		File partial = new File(dbf.getPath() + ".part");
+		FileInputStream input = null;
+		FileOutputStream output = null;
+		DbaseFileReader reader = null;
+		DbaseFileWriter writer = null;
+		boolean success = false;
+		try {
+			input = new FileInputStream(dbf);
+			reader = new DbaseFileReader(input.getChannel(), false, charset);
+			DbaseFileHeader source = reader.getHeader();
+			int fieldCount = source.getNumFields();
+
+			DbaseFileHeader header = new DbaseFileHeader();
+			for (int i = 0; i < fieldCount; i++) {
+				header.addColumn(source.getFieldName(i), source.getFieldType(i), source.getFieldLength(i), source.getFieldDecimalCount(i));
+			}
+			Object[] record = new Object[fieldCount + columns.size()];
+			for (int i = 0; i < columns.size(); i++) {
+				AttributeDescriptor column = columns.get(i);
+				addDbaseColumn(header, column.getLocalName(), column.getType().getBinding());
+				record[fieldCount + i] = column.getDefaultValue();
+			}
+			header.setNumRecords(source.getNumRecords());
+
+			output = new FileOutputStream(partial);
+			writer = new DbaseFileWriter(header, output.getChannel(), charset);
+			while (reader.hasNext()) {
+				System.arraycopy(reader.readEntry(), 0, record, 0, fieldCount);
+				writer.write(record);
+			}
+			writer.close();
+			writer = null;
+			copyDeletedFlags(dbf, partial);
+			success = true;
+		} finally {
+			if (null != reader) {
+				reader.close();
+			}
+			if (null != writer) {
+				try {
+					writer.close();
+				} catch (IOException ex) {
+					LOGGER.log(Level.WARNING, "Could not close " + partial, ex);
+				}
+			}
+			IOUtils.closeQuietly(input);
+			IOUtils.closeQuietly(output);
+			if (!success) {
+				FileUtils.deleteQuietly(partial);
+			}
+		}
+		File backup = new File(dbf.getPath() + ".bak");
+		FileUtils.deleteQuietly(backup);
+		if (!dbf.renameTo(backup)) {
+			FileUtils.deleteQuietly(partial);
+			throw new IOException("Unable to back up " + dbf);
+		}
+		if (!partial.renameTo(dbf)) {
+			if (backup.renameTo(dbf)) {
+				FileUtils.deleteQuietly(partial);
+			} else {
+				LOGGER.log(Level.SEVERE, "Could not restore {0}, the original is at {1}", new Object[]{dbf, backup});
+			}
+			throw new IOException("Unable to move " + partial + " to " + dbf);
+		}
+		if (!backup.delete()) {
+			LOGGER.log(Level.WARNING, "{0} could not be deleted", backup.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Marks each record of target deleted where the record in the same place
+	 * in source is, reading only the flag of each source record
+	 *
+	 * @param source DBF read from
+	 * @param target DBF with the same records as source
+	 * @throws IOException
+	 */
+	private static void copyDeletedFlags(File source, File target) throws IOException {
+		InputStream input = new BufferedInputStream(new FileInputStream(source));
+		RandomAccessFile output = null;
+		try {
+			byte[] header = new byte[DBF_HEADER_SIZE];
+			IOUtils.readFully(input, header);
+			int numRecords = getRecordCount(header);
+			int recordLength = getRecordLength(header);
+			IOUtils.skipFully(input, getHeaderLength(header) - DBF_HEADER_SIZE);
+
+			int targetHeaderLength = 0;
+			int targetRecordLength = 0;
+			for (int i = 0; i < numRecords; i++) {
+				int flag = input.read();
+				if (flag < 0) {
+					throw new IOException("Unexpected end of " + source);
+				}
+				if (flag == DBF_DELETED) {
+					if (null == output) {
+						output = new RandomAccessFile(target, "rw");
+						output.readFully(header);
+						targetHeaderLength = getHeaderLength(header);
+						targetRecordLength = getRecordLength(header);
+					}
+					output.seek(targetHeaderLength + (long) i * targetRecordLength);
+					output.write(DBF_DELETED);
+				}
+				IOUtils.skipFully(input, recordLength - 1);
+			}
+		} finally {
+			IOUtils.closeQuietly(input);
+			if (null != output) {
+				output.close();
+			}
+		}
+	}
+
+	private static int getRecordCount(byte[] header) {
+		return (header[4] & 0xFF) | ((header[5] & 0xFF) << 8) | ((header[6] & 0xFF) << 16) | ((header[7] & 0xFF) << 24);
+	}
+
+	private static int getHeaderLength(byte[] header) {
+		return (header[8] & 0xFF) | ((header[9] & 0xFF) << 8);
+	}
+
+	private static int getRecordLength(byte[] header) {
+		return (header[10] & 0xFF) | ((header[11] & 0xFF) << 8);
+	}
+
+	/**
+	 * Rewrites field names in the DBF header, the records are not touched
+	 *
+	 * @param dbf DBF of a shapefile
+	 * @param renames new field names by original field name, new names of at
+	 * most ten ASCII characters
+	 * @return number of fields renamed
+	 * @throws IOException
+	 */
+	static int renameColumns(File dbf, Map<String, String> renames) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(dbf, "rw");
+		try {
+			byte[] header = new byte[DBF_HEADER_SIZE];
+			file.readFully(header);
+			int headerLength = getHeaderLength(header);
+			header = new byte[headerLength];
+			file.seek(0);
+			file.readFully(header);
+
+			int renamed = 0;
+			for (int offset = DBF_HEADER_SIZE; offset + DBF_FIELD_SIZE <= headerLength && header[offset] != DBF_HEADER_END; offset += DBF_FIELD_SIZE) {
+				int end = offset;
+				while (end < offset + FIELD_NAME_LENGTH && header[end] != 0) {
+					end++;
+				}
+				String name = new String(header, offset, end - offset, FIELD_NAME_CHARSET).trim();
+				String newName = renames.get(name);
+				if (null != newName) {
+					Arrays.fill(header, offset, offset + FIELD_NAME_LENGTH + 1, (byte) 0);
+					byte[] bytes = newName.getBytes(FIELD_NAME_CHARSET);
+					System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, FIELD_NAME_LENGTH));
+					renamed++;
+				}
+			}
+			// one write, so the header is never left half renamed
+			file.seek(0);
+			file.write(header);
+			return renamed;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Same field types ShapefileDataStore gives these bindings
+	 */
+	private static void addDbaseColumn(DbaseFileHeader header, String name, Class<?> binding) throws IOException {
+		if (String.class.equals(binding)) {
+			header.addColumn(name, 'C', 254, 0);
+		} else if (Integer.class.equals(binding) || Short.class.equals(binding) || Byte.class.equals(binding)) {
+			header.addColumn(name, 'N', 9, 0);
+		} else if (Long.class.equals(binding)) {
+			header.addColumn(name, 'N', 19, 0);
+		} else if (Double.class.equals(binding) || Float.class.equals(binding)) {
+			header.addColumn(name, 'N', 33, 15);
+		} else if (Boolean.class.equals(binding)) {
+			header.addColumn(name, 'L', 1, 0);
+		} else {
+			throw new IOException("Cannot add a " + binding.getSimpleName() + " column to a DBF");
+		}
+	}
+
+	private static String getSqlType(Class<?> binding) throws IOException {
+		if (String.class.equals(binding)) {
+			return "character varying";
+		} else if (Integer.class.equals(binding) || Short.class.equals(binding) || Byte.class.equals(binding)) {
+			return "integer";
+		} else if (Long.class.equals(binding)) {
+			return "bigint";
+		} else if (Double.class.equals(binding)) {
+			return "double precision";
+		} else if (Float.class.equals(binding)) {
+			return "real";
+		} else if (Boolean.class.equals(binding)) {
+			return "boolean";
+		}
+		throw new IOException("Cannot add a " + binding.getSimpleName() + " column to a table");
+	}
+
+	private static String getSqlLiteral(Object value) {
+		if (value instanceof Number || value instanceof Boolean) {
+			return value.toString();
+		}
+		return "'" + value.toString().replace("'", "''") + "'";
+	}
+
+	private static String qualify(String schema, String table) {
+		return (null == schema) ? quote(table) : quote(schema) + "." + quote(table);
+	}
+
+	private static String quote(String identifier) {
+		return "\"" + identifier.replace("\"", "\"\"") + "\"";
+	}
+
+	private void execute(JDBCDataStore dataStore, List<String> statements) throws IOException {
+		Connection connection = null;
+		Statement statement = null;
+		boolean success = false;
+		try {
+			connection = dataStore.getDataSource().getConnection();
+			connection.setAutoCommit(false);
+			statement = connection.createStatement();
+			for (String sql : statements) {
+				LOGGER.log(Level.INFO, sql);
+				statement.execute(sql);
+			}
+			connection.commit();
+			success = true;
+		} catch (SQLException ex) {
+			throw new IOException("Could not change columns", ex);
+		} finally {
+			if (!success && null != connection) {
+				try {
+					connection.rollback();
+				} catch (SQLException ex) {
+					LOGGER.log(Level.WARNING, "Could not roll back column changes", ex);
+				}
+			}
+			dataStore.closeSafe(statement);
+			dataStore.closeSafe(connection);
+		}
+	}
+
+	/**
+	 * Drops the cached store and feature type and lets GeoServer read the
+	 * attributes of the layer again
+	 */
+	private String refresh(DataStoreInfo storeInfo, String layer) {
+		catalog.getResourcePool().clear(storeInfo);
+		FeatureTypeInfo typeInfo = catalog.getFeatureTypeByDataStore(storeInfo, layer);
+		if (null == typeInfo) {
+			return storeInfo.getWorkspace().getName() + ":" + layer;
+		}
+		catalog.getResourcePool().clear(typeInfo);
+		typeInfo.getAttributes().clear();
+		catalog.save(typeInfo);
+		return typeInfo.prefixedName();
+	}
+
+	private static boolean isPostGIS(DataStoreInfo storeInfo, DataAccess<? extends FeatureType, ? extends Feature> dataAccess) {
+		return dataAccess instanceof JDBCDataStore && POSTGIS_DBTYPE.equals(storeInfo.getConnectionParameters().get("dbtype"));
+	}
+
+	private static File getDbaseFile(DataAccess<? extends FeatureType, ? extends Feature> dataAccess, String layer) {
+		File directory = GeoserverUtils.getDataStoreDirectory(dataAccess);
+		if (null == directory) {
+			return null;
+		}
+		File dbf = new File(directory, layer + DBF_EXTENSION);
+		return dbf.isFile() ? dbf : null;
+	}
+
+	private static Charset getCharset(DataStoreInfo storeInfo) {
+		Serializable charset = storeInfo.getConnectionParameters().get("charset");
+		if (null != charset) {
+			try {
+				return Charset.forName(charset.toString());
+			} catch (IllegalArgumentException ex) {
+				LOGGER.log(Level.WARNING, "Unknown charset {0}, using {1}", new Object[]{charset, DEFAULT_CHARSET});
+			}
+		}
+		return DEFAULT_CHARSET;
+	}
+}
@@ -0,0 +1,356 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Keeps rendered raster tiles so identical requests against an unchanged
+ * layer skip reading and drawing the features.
+ *
+ * Tiles are keyed by layer, modification stamp, render options and the
+ * request snapped to a pixel grid, see Key. The least recently used tiles
+ * are evicted once there are more than maxEntries or they hold more than
+ * maxBytes of pixels between them. With a spill directory, evicted tiles are
+ * written there as PNG and read back on a later hit, up to maxSpillBytes on
+ * disk. When a layer is seen with a new stamp every tile of the old stamp is
+ * dropped. Cached images are shared between requests and must not be
+ * modified.
+ */
+public class RenderedTileCache {
+
+	private static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger(RenderedTileCache.class);
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final File spillDirectory;
+	private final long maxSpillBytes;
+	private final LinkedHashMap<Key, BufferedImage> entries;
+	private final LinkedHashMap<Key, File> spilled;
+	private final Map<String, String> layerStamps;
+	private long bytes;
+	private long spillBytes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param maxEntries most tiles to hold in memory, 0 disables the cache
+	 * @param maxBytes most bytes of pixels to hold in memory
+	 * @param spillDirectory directory for evicted tiles, null to drop them
+	 * @param maxSpillBytes most bytes of tiles to keep in spillDirectory
+	 */
+	public RenderedTileCache(int maxEntries, long maxBytes, File spillDirectory, long maxSpillBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.spillDirectory = spillDirectory;
+		this.maxSpillBytes = maxSpillBytes;
+		this.entries = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true);
+		this.spilled = new LinkedHashMap<Key, File>(16, 0.75f, true);
+		this.layerStamps = new LinkedHashMap<String, String>();
+		if (null != spillDirectory && !spillDirectory.isDirectory() && !spillDirectory.mkdirs()) {
+			LOGGER.log(Level.WARNING, "Unable to create tile spill directory {0}", spillDirectory);
+		}
+	}
+
+	public boolean isEnabled() {
+		return maxEntries > 0;
+	}
+
+	/**
+	 * @param key tile
+	 * @return cached image or null, counted as a hit or miss
+	 */
+	public synchronized BufferedImage get(Key key) {
+		BufferedImage image = entries.get(key);
+		if (null == image) {
+			image = unspill(key);
+		}
+		if (null == image) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		LOGGER.log(Level.FINE, "Tile cache {0} for {1} ({2} hits, {3} misses, {4} evictions)",
+				new Object[]{(null == image) ? "miss" : "hit", key, hits.get(), misses.get(), evictions.get()});
+		return image;
+	}
+
+	/**
+	 * Adds a tile, evicting (or spilling) least recently used tiles to make
+	 * room. A tile larger than maxBytes on its own is not kept.
+	 *
+	 * @param key tile
+	 * @param image rendered tile
+	 */
+	public synchronized void put(Key key, BufferedImage image) {
+		if (!isEnabled() || sizeOf(image) > maxBytes) {
+			return;
+		}
+		String stamp = layerStamps.put(key.layerName, key.stamp);
+		if (null != stamp && !stamp.equals(key.stamp)) {
+			invalidate(key.layerName, key.stamp);
+		}
+		File stale = spilled.remove(key);
+		if (null != stale) {
+			spillBytes -= stale.length();
+			deleteSpill(stale);
+		}
+		BufferedImage replaced = entries.put(key, image);
+		if (null != replaced) {
+			bytes -= sizeOf(replaced);
+		}
+		bytes += sizeOf(image);
+
+		Iterator<Map.Entry<Key, BufferedImage>> eldest = entries.entrySet().iterator();
+		while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+			Map.Entry<Key, BufferedImage> next = eldest.next();
+			if (next.getValue() == image) {
+				continue;
+			}
+			bytes -= sizeOf(next.getValue());
+			eldest.remove();
+			evictions.incrementAndGet();
+			spill(next.getKey(), next.getValue());
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+		for (File file : spilled.values()) {
+			deleteSpill(file);
+		}
+		spilled.clear();
+		spillBytes = 0;
+		layerStamps.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return tiles held in the spill directory
+	 */
+	public synchronized int getSpilled() {
+		return spilled.size();
+	}
+
+	/**
+	 * @return bytes of pixels held in memory
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Drops every tile of layer not rendered at stamp
+	 */
+	private void invalidate(String layerName, String stamp) {
+		Iterator<Map.Entry<Key, BufferedImage>> cached = entries.entrySet().iterator();
+		while (cached.hasNext()) {
+			Map.Entry<Key, BufferedImage> next = cached.next();
+			if (next.getKey().layerName.equals(layerName) && !next.getKey().stamp.equals(stamp)) {
+				bytes -= sizeOf(next.getValue());
+				cached.remove();
+			}
+		}
+		Iterator<Map.Entry<Key, File>> files = spilled.entrySet().iterator();
+		while (files.hasNext()) {
+			Map.Entry<Key, File> next = files.next();
+			if (next.getKey().layerName.equals(layerName) && !next.getKey().stamp.equals(stamp)) {
+				spillBytes -= next.getValue().length();
+				deleteSpill(next.getValue());
+				files.remove();
+			}
+		}
+		LOGGER.log(Level.FINE, "Dropped tiles of {0} older than {1}", new Object[]{layerName, stamp});
+	}
+
+	private void spill(Key key, BufferedImage image) {
+		if (null == spillDirectory) {
+			return;
+		}
+		File file = new File(spillDirectory, key.getFileName());
+		try {
+			ImageIO.write(image, "png", file);
+		} catch (IOException ex) {
+			LOGGER.log(Level.WARNING, "Unable to spill tile " + key, ex);
+			deleteSpill(file);
+			return;
+		}
+		File replaced = spilled.put(key, file);
+		if (null != replaced) {
+			spillBytes -= replaced.length();
+		}
+		spillBytes += file.length();
+
+		Iterator<Map.Entry<Key, File>> eldest = spilled.entrySet().iterator();
+		while (spillBytes > maxSpillBytes && eldest.hasNext()) {
+			Map.Entry<Key, File> next = eldest.next();
+			spillBytes -= next.getValue().length();
+			deleteSpill(next.getValue());
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Moves a spilled tile back into memory
+	 */
+	private BufferedImage unspill(Key key) {
+		File file = spilled.remove(key);
+		if (null == file) {
+			return null;
+		}
+		spillBytes -= file.length();
+		BufferedImage image = null;
+		try {
+			image = ImageIO.read(file);
+		} catch (IOException ex) {
+			LOGGER.log(Level.WARNING, "Unable to read spilled tile " + key, ex);
+		}
+		deleteSpill(file);
+		if (null != image) {
+			put(key, image);
+		}
+		return image;
+	}
+
+	private static void deleteSpill(File file) {
+		if (file.exists() && !file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+
+	private static long sizeOf(BufferedImage image) {
+		return 4L * image.getWidth() * image.getHeight();
+	}
+
+	/**
+	 * A tile of a layer rendered with given options. The request envelope is
+	 * snapped to the grid of its own pixel size anchored at the CRS origin,
+	 * so requests less than half a pixel apart share a tile. The tile is
+	 * rendered for getEnvelope(), not for the request.
+	 */
+	public static final class Key {
+
+		private final String layerName;
+		private final String stamp;
+		private final String options;
+		private final String crsCode;
+		private final CoordinateReferenceSystem crs;
+		private final int width;
+		private final int height;
+		private final int resolutionX;
+		private final int resolutionY;
+		private final long column;
+		private final long row;
+
+		/**
+		 * @param layerName layer rendered
+		 * @param stamp changes whenever the layer is modified
+		 * @param options everything else the rendering depends on
+		 * @param envelope requested envelope
+		 * @param width requested width in pixels
+		 * @param height requested height in pixels
+		 */
+		public Key(String layerName, String stamp, String options, ReferencedEnvelope envelope, int width, int height) {
+			this.layerName = layerName;
+			this.stamp = stamp;
+			this.options = options;
+			this.crs = envelope.getCoordinateReferenceSystem();
+			this.crsCode = (null == crs) ? "" : CRS.toSRS(crs);
+			this.width = width;
+			this.height = height;
+			// pixel sizes to float precision, so rounding noise does not miss
+			float pixelWidth = (float) (envelope.getWidth() / width);
+			float pixelHeight = (float) (envelope.getHeight() / height);
+			this.resolutionX = Float.floatToIntBits(pixelWidth);
+			this.resolutionY = Float.floatToIntBits(pixelHeight);
+			this.column = Math.round(envelope.getMinX() / pixelWidth);
+			this.row = Math.round(envelope.getMaxY() / pixelHeight);
+		}
+
+		/**
+		 * @return envelope of the snapped tile
+		 */
+		public ReferencedEnvelope getEnvelope() {
+			double pixelWidth = Float.intBitsToFloat(resolutionX);
+			double pixelHeight = Float.intBitsToFloat(resolutionY);
+			double minX = column * pixelWidth;
+			double maxY = row * pixelHeight;
+			return new ReferencedEnvelope(minX, minX + width * pixelWidth, maxY - height * pixelHeight, maxY, crs);
+		}
+
+		private String getFileName() {
+			return Integer.toHexString(layerName.hashCode()) + "-" + Integer.toHexString(hashCode())
+					+ "-" + Long.toHexString(System.nanoTime()) + ".png";
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return width == other.width
+					&& height == other.height
+					&& resolutionX == other.resolutionX
+					&& resolutionY == other.resolutionY
+					&& column == other.column
+					&& row == other.row
+					&& layerName.equals(other.layerName)
+					&& stamp.equals(other.stamp)
+					&& options.equals(other.options)
+					&& crsCode.equals(other.crsCode);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = layerName.hashCode();
+			hash = 31 * hash + stamp.hashCode();
+			hash = 31 * hash + options.hashCode();
+			hash = 31 * hash + crsCode.hashCode();
+			hash = 31 * hash + width;
+			hash = 31 * hash + height;
+			hash = 31 * hash + resolutionX;
+			hash = 31 * hash + resolutionY;
+			hash = 31 * hash + (int) (column ^ (column >>> 32));
+			hash = 31 * hash + (int) (row ^ (row >>> 32));
+			return hash;
+		}
+
+		@Override
+		public String toString() {
+			return layerName + " [" + stamp + ", " + options + ", " + crsCode + ", "
+					+ column + ":" + row + ", " + width + "x" + height + "]";
+		}
+	}
+}
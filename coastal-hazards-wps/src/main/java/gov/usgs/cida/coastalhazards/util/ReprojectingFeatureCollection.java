@@ -0,0 +1,140 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import com.vividsolutions.jts.geom.Geometry;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
+import org.geotools.feature.collection.FilteringSimpleFeatureCollection;
+import org.geotools.feature.collection.SortedSimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.util.ProgressListener;
+
+/**
+ * Lazy view of a feature collection in another CRS. Each feature is copied
+ * with its geometries transformed as it is iterated, the features of the
+ * wrapped collection are never modified.
+ *
+ * Every iteration transforms again, so a collection that is read more than
+ * once is better off materialized through CRSUtils.transformFeatureCollection.
+ */
+public class ReprojectingFeatureCollection extends DecoratingSimpleFeatureCollection {
+
+	private final SimpleFeatureType schema;
+	private final MathTransform transform;
+
+	/**
+	 * @param delegate features to reproject
+	 * @param targetCrs CRS of the reprojected features
+	 * @param transform transform from the delegate CRS to targetCrs
+	 */
+	public ReprojectingFeatureCollection(SimpleFeatureCollection delegate, CoordinateReferenceSystem targetCrs, MathTransform transform) {
+		super(delegate);
+		this.schema = SimpleFeatureTypeBuilder.retype(delegate.getSchema(), targetCrs);
+		this.transform = transform;
+	}
+
+	@Override
+	public SimpleFeatureType getSchema() {
+		return schema;
+	}
+
+	@Override
+	public SimpleFeatureIterator features() {
+		return new ReprojectingIterator(delegate.features());
+	}
+
+	@Override
+	public ReferencedEnvelope getBounds() {
+		ReferencedEnvelope bounds = new ReferencedEnvelope(schema.getCoordinateReferenceSystem());
+		SimpleFeatureIterator features = null;
+		try {
+			features = features();
+			while (features.hasNext()) {
+				Geometry geometry = (Geometry) features.next().getDefaultGeometry();
+				if (null != geometry) {
+					bounds.expandToInclude(geometry.getEnvelopeInternal());
+				}
+			}
+		} finally {
+			if (null != features) {
+				features.close();
+			}
+		}
+		return bounds;
+	}
+
+	@Override
+	public void accepts(FeatureVisitor visitor, ProgressListener progress) throws IOException {
+		DataUtilities.visit(this, visitor, progress);
+	}
+
+	@Override
+	public SimpleFeatureCollection subCollection(Filter filter) {
+		return new FilteringSimpleFeatureCollection(this, filter);
+	}
+
+	@Override
+	public SimpleFeatureCollection sort(SortBy order) {
+		return new SortedSimpleFeatureCollection(this, new SortBy[]{order});
+	}
+
+	@Override
+	public Object[] toArray() {
+		return DataUtilities.list(this).toArray();
+	}
+
+	@Override
+	public <T> T[] toArray(T[] array) {
+		return DataUtilities.list(this).toArray(array);
+	}
+
+	private SimpleFeature reproject(SimpleFeature feature) {
+		SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
+		for (Object value : feature.getAttributes()) {
+			if (value instanceof Geometry) {
+				builder.add(CRSUtils.transformGeometry((Geometry) value, transform));
+			} else {
+				builder.add(value);
+			}
+		}
+		SimpleFeature reprojected = builder.buildFeature(feature.getID());
+		reprojected.getUserData().putAll(feature.getUserData());
+		return reprojected;
+	}
+
+	private class ReprojectingIterator implements SimpleFeatureIterator {
+
+		private final SimpleFeatureIterator iterator;
+
+		private ReprojectingIterator(SimpleFeatureIterator iterator) {
+			this.iterator = iterator;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public SimpleFeature next() throws NoSuchElementException {
+			return reproject(iterator.next());
+		}
+
+		@Override
+		public void close() {
+			iterator.close();
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import gov.usgs.cida.coastalhazards.wps.CreateResultsLayerProcess.SequentialFeatureIDGenerator;
+import gov.usgs.cida.coastalhazards.wps.exceptions.InputFileFormatException;
+import gov.usgs.cida.coastalhazards.wps.exceptions.UnsupportedFeatureTypeException;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
+import org.geotools.feature.collection.FilteringSimpleFeatureCollection;
+import org.geotools.feature.collection.SortedSimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+import org.opengis.util.ProgressListener;
+
+/**
+ * Lazy join of transects, statistics and intersections into results
+ * features, one per transect.
+ *
+ * Transects and intersections are each read sorted by transect id and merged
+ * against the id ordered ResultsTable in a single pass, so at most one
+ * transect and its intersections are held at a time. NSD, the distance from
+ * the start of the transect to its nearest intersection, is computed as the
+ * intersections stream past. Features come out in transect id order.
+ *
+ * Every iteration reads the transects and intersections again.
+ */
+public class ResultsJoinFeatureCollection extends DecoratingSimpleFeatureCollection {
+
+	private final SimpleFeatureCollection intersects;
+	private final ResultsTable results;
+	private final int statCount;
+	private final SimpleFeatureType schema;
+	private final String transectIdAttribute;
+	private final String baseDistanceAttribute;
+	private final String intersectIdAttribute;
+
+	/**
+	 * @param transects transects with TransectID and base_dist
+	 * @param results statistics keyed by transect id
+	 * @param intersects intersections with TransectID, null for none
+	 */
+	public ResultsJoinFeatureCollection(SimpleFeatureCollection transects, ResultsTable results, SimpleFeatureCollection intersects) {
+		super(sortById(transects));
+		this.results = results;
+		this.statCount = results.getHeaders().length;
+		this.intersects = (null == intersects) ? null : sortById(intersects);
+
+		SimpleFeatureType transectType = transects.getSchema();
+		AttributeGetter getter = new AttributeGetter(transectType);
+		this.transectIdAttribute = requireAttribute(getter, Constants.TRANSECT_ID_ATTR, "Transects");
+		this.baseDistanceAttribute = requireAttribute(getter, Constants.BASELINE_DIST_ATTR, "Transects");
+		this.intersectIdAttribute = (null == intersects) ? null
+				: requireAttribute(new AttributeGetter(intersects.getSchema()), Constants.TRANSECT_ID_ATTR, "Intersects");
+
+		SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+		builder.setName("Results");
+		builder.addAll(transectType.getAttributeDescriptors());
+		for (String header : results.getHeaders()) {
+			builder.add(header, Double.class);
+		}
+		builder.add(Constants.NSD_ATTR, Double.class);
+		this.schema = builder.buildFeatureType();
+	}
+
+	@Override
+	public SimpleFeatureType getSchema() {
+		return schema;
+	}
+
+	@Override
+	public SimpleFeatureIterator features() {
+		SimpleFeatureIterator transectIterator = delegate.features();
+		SimpleFeatureIterator intersectIterator = null;
+		JoiningIterator joined = null;
+		try {
+			intersectIterator = (null == intersects) ? null : intersects.features();
+			joined = new JoiningIterator(transectIterator, intersectIterator, delegate.size());
+		} finally {
+			if (null == joined) {
+				transectIterator.close();
+				if (null != intersectIterator) {
+					intersectIterator.close();
+				}
+			}
+		}
+		return joined;
+	}
+
+	@Override
+	public void accepts(FeatureVisitor visitor, ProgressListener progress) throws IOException {
+		DataUtilities.visit(this, visitor, progress);
+	}
+
+	@Override
+	public SimpleFeatureCollection subCollection(Filter filter) {
+		return new FilteringSimpleFeatureCollection(this, filter);
+	}
+
+	@Override
+	public SimpleFeatureCollection sort(SortBy order) {
+		return new SortedSimpleFeatureCollection(this, new SortBy[]{order});
+	}
+
+	@Override
+	public Object[] toArray() {
+		return DataUtilities.list(this).toArray();
+	}
+
+	@Override
+	public <T> T[] toArray(T[] array) {
+		return DataUtilities.list(this).toArray(array);
+	}
+
+	private static SimpleFeatureCollection sortById(SimpleFeatureCollection features) {
+		Name name = new AttributeGetter(features.getSchema()).getName(Constants.TRANSECT_ID_ATTR);
+		if (null == name) {
+			return features;
+		}
+		FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+		return features.sort(ff.sort(name.getLocalPart(), SortOrder.ASCENDING));
+	}
+
+	private static String requireAttribute(AttributeGetter getter, String attribute, String what) {
+		Name name = getter.getName(attribute);
+		if (null == name) {
+			throw new UnsupportedFeatureTypeException(what + " must include " + attribute + " attribute");
+		}
+		return name.getLocalPart();
+	}
+
+	private static long transectId(SimpleFeature feature, String attribute) {
+		Object id = feature.getAttribute(attribute);
+		if (!(id instanceof Number)) {
+			throw new UnsupportedFeatureTypeException("Feature " + feature.getID() + " has no " + Constants.TRANSECT_ID_ATTR);
+		}
+		return ((Number) id).longValue();
+	}
+
+	private class JoiningIterator implements SimpleFeatureIterator {
+
+		private final SimpleFeatureIterator transects;
+		private final SimpleFeatureIterator intersections;
+		private final SimpleFeatureBuilder builder;
+		private final SequentialFeatureIDGenerator fids;
+		private SimpleFeature intersection;
+		private long intersectionId;
+		private long previousId = Long.MIN_VALUE;
+		private int row = 0;
+		private boolean started = false;
+
+		private JoiningIterator(SimpleFeatureIterator transects, SimpleFeatureIterator intersections, int count) {
+			this.transects = transects;
+			this.intersections = intersections;
+			this.builder = new SimpleFeatureBuilder(schema);
+			this.fids = new SequentialFeatureIDGenerator(count);
+			advanceIntersection();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return transects.hasNext();
+		}
+
+		@Override
+		public SimpleFeature next() throws NoSuchElementException {
+			SimpleFeature transect = transects.next();
+			long id = transectId(transect, transectIdAttribute);
+			if (id <= previousId && started) {
+				throw new IllegalStateException("Transect " + id + " appears more than once");
+			}
+			previousId = id;
+			started = true;
+			if (null == transect.getAttribute(baseDistanceAttribute)) {
+				throw new UnsupportedFeatureTypeException("Transects must include base_dist attribute");
+			}
+
+			while (row < results.size() && results.getId(row) < id) {
+				row++;
+			}
+			if (row == results.size() || results.getId(row) != id) {
+				throw new InputFileFormatException("Stats did not contain transect " + id);
+			}
+
+			builder.addAll(transect.getAttributes());
+			for (int stat = 0; stat < statCount; stat++) {
+				builder.add(results.getValue(stat, row));
+			}
+			builder.add(nearestIntersectionDistance((Geometry) transect.getDefaultGeometry(), id));
+			return builder.buildFeature(fids.next());
+		}
+
+		@Override
+		public void close() {
+			try {
+				transects.close();
+			} finally {
+				if (null != intersections) {
+					intersections.close();
+				}
+			}
+		}
+
+		/**
+		 * Consumes the intersections of transect id
+		 *
+		 * @return distance from the start of transect to its nearest
+		 * intersection, Constants.SHAPEFILE_NODATA if it has none
+		 */
+		private double nearestIntersectionDistance(Geometry transect, long id) {
+			while (null != intersection && intersectionId < id) {
+				advanceIntersection();
+			}
+			Coordinate start = transect.getGeometryN(0).getCoordinate();
+			double nsd = Double.MAX_VALUE;
+			while (null != intersection && intersectionId == id) {
+				Geometry point = (Geometry) intersection.getDefaultGeometry();
+				if (null != point) {
+					double distance = start.distance(point.getGeometryN(0).getCoordinate());
+					if (distance < nsd) {
+						nsd = distance;
+					}
+				}
+				advanceIntersection();
+			}
+			return (nsd == Double.MAX_VALUE) ? Constants.SHAPEFILE_NODATA : nsd;
+		}
+
+		private void advanceIntersection() {
+			intersection = null;
+			if (null != intersections && intersections.hasNext()) {
+				intersection = intersections.next();
+				intersectionId = transectId(intersection, intersectIdAttribute);
+			}
+		}
+	}
+}
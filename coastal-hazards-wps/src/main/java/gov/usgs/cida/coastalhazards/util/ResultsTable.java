@@ -0,0 +1,270 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import gov.usgs.cida.coastalhazards.wps.exceptions.InputFileFormatException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tab separated statistics from the R process, held as primitive columns.
+ *
+ * The text is read once, a buffer at a time, straight into a long[] of
+ * transect ids and one double[] per statistic, so no line or cell arrays
+ * are built and no values are boxed. Rows are kept in transect id order
+ * for lookups by binary search and merging against transects. Double quotes
+ * are dropped from every cell and cells that are not numbers (NA) are read
+ * as Constants.SHAPEFILE_NODATA. When an id appears more than once the last
+ * row wins.
+ */
+public class ResultsTable {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int INITIAL_ROWS = 1024;
+
+    private final String[] headers;
+    private final long[] ids;
+    private final double[][] columns;
+
+    private ResultsTable(String[] headers, long[] ids, double[][] columns) {
+        this.headers = headers;
+        this.ids = ids;
+        this.columns = columns;
+    }
+
+    /**
+     * @param reader tab separated text, header row first
+     * @param idColumn name of the column holding transect ids
+     * @return table of the statistics in transect id order
+     * @throws IOException if reader fails
+     * @throws InputFileFormatException if there is no id column, no data
+     * rows, a row with the wrong number of cells or an id that is not a number
+     */
+    public static ResultsTable read(Reader reader, String idColumn) throws IOException {
+        return new Parser(reader).parse(idColumn);
+    }
+
+    /**
+     * @return statistic names in column order, without the id column
+     */
+    public String[] getHeaders() {
+        return headers.clone();
+    }
+
+    /**
+     * @return number of rows (distinct ids)
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @param row row index
+     * @return transect id of row
+     */
+    public long getId(int row) {
+        return ids[row];
+    }
+
+    /**
+     * @param stat index into getHeaders()
+     * @param row row index
+     * @return value of stat for row
+     */
+    public double getValue(int stat, int row) {
+        return columns[stat][row];
+    }
+
+    /**
+     * @param id transect id
+     * @return row index of id, or a negative number if it is not in the table
+     */
+    public int indexOf(long id) {
+        return Arrays.binarySearch(ids, id);
+    }
+
+    private static class Parser {
+
+        private final Reader reader;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private final StringBuilder cell = new StringBuilder();
+        private int position = 0;
+        private int limit = 0;
+        private int line = 0;
+
+        private Parser(Reader reader) {
+            this.reader = reader;
+        }
+
+        private ResultsTable parse(String idColumn) throws IOException {
+            List<String> header = new ArrayList<String>();
+            while (header.isEmpty() && readRow(header)) {
+                // skip leading blank lines
+            }
+            int idIndex = header.indexOf(idColumn);
+            if (idIndex < 0) {
+                throw new InputFileFormatException("Stats did not contain column named " + idColumn);
+            }
+            int columnCount = header.size();
+            String[] stats = new String[columnCount - 1];
+            for (int i = 0, j = 0; i < columnCount; i++) {
+                if (i != idIndex) {
+                    stats[j++] = header.get(i);
+                }
+            }
+
+            long[] ids = new long[INITIAL_ROWS];
+            double[][] columns = new double[stats.length][INITIAL_ROWS];
+            int rows = 0;
+            boolean sorted = true;
+            List<String> row = new ArrayList<String>(columnCount);
+            while (readRow(row)) {
+                if (row.isEmpty()) {
+                    continue;
+                }
+                if (row.size() != columnCount) {
+                    throw new InputFileFormatException("Line " + line + " has " + row.size()
+                            + " columns, header has " + columnCount);
+                }
+                if (rows == ids.length) {
+                    int capacity = rows * 2;
+                    ids = Arrays.copyOf(ids, capacity);
+                    for (int s = 0; s < columns.length; s++) {
+                        columns[s] = Arrays.copyOf(columns[s], capacity);
+                    }
+                }
+                try {
+                    ids[rows] = Long.parseLong(row.get(idIndex));
+                } catch (NumberFormatException e) {
+                    throw new InputFileFormatException("Line " + line + " has " + idColumn + " " + row.get(idIndex));
+                }
+                for (int i = 0, s = 0; i < columnCount; i++) {
+                    if (i != idIndex) {
+                        columns[s++][rows] = parseValue(row.get(i));
+                    }
+                }
+                if (rows > 0 && ids[rows] <= ids[rows - 1]) {
+                    sorted = false;
+                }
+                rows++;
+            }
+            if (rows == 0) {
+                throw new InputFileFormatException("Results must have at least 2 rows");
+            }
+
+            if (sorted) {
+                ids = Arrays.copyOf(ids, rows);
+                for (int s = 0; s < columns.length; s++) {
+                    columns[s] = Arrays.copyOf(columns[s], rows);
+                }
+                return new ResultsTable(stats, ids, columns);
+            }
+            return sortById(stats, ids, columns, rows);
+        }
+
+        /**
+         * Reads one line into row, one entry per tab separated cell
+         *
+         * @return false at end of input with nothing read
+         */
+        private boolean readRow(List<String> row) throws IOException {
+            row.clear();
+            cell.setLength(0);
+            boolean any = false;
+            boolean blank = true;
+            int c;
+            while ((c = next()) >= 0) {
+                any = true;
+                if (c == '\n') {
+                    break;
+                } else if (c == '\t') {
+                    row.add(cell.toString());
+                    cell.setLength(0);
+                    blank = false;
+                } else if (c != '"' && c != '\r') {
+                    cell.append((char) c);
+                    blank = false;
+                }
+            }
+            if (!any) {
+                return false;
+            }
+            line++;
+            if (!blank) {
+                row.add(cell.toString());
+            }
+            return true;
+        }
+
+        private int next() throws IOException {
+            if (position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++];
+        }
+
+        private static double parseValue(String value) {
+            if (value.isEmpty() || "NA".equals(value)) {
+                return Constants.SHAPEFILE_NODATA;
+            }
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                return Constants.SHAPEFILE_NODATA;
+            }
+        }
+    }
+
+    private static ResultsTable sortById(String[] stats, long[] ids, double[][] columns, int rows) {
+        int[] order = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            order[i] = i;
+        }
+        // stable, so the last of any duplicate ids stays last
+        mergeSort(order, new int[rows], 0, rows, ids);
+
+        int distinct = 0;
+        for (int i = 0; i < rows; i++) {
+            if (i == rows - 1 || ids[order[i]] != ids[order[i + 1]]) {
+                order[distinct++] = order[i];
+            }
+        }
+        long[] sortedIds = new long[distinct];
+        double[][] sortedColumns = new double[columns.length][distinct];
+        for (int i = 0; i < distinct; i++) {
+            sortedIds[i] = ids[order[i]];
+            for (int s = 0; s < columns.length; s++) {
+                sortedColumns[s][i] = columns[s][order[i]];
+            }
+        }
+        return new ResultsTable(stats, sortedIds, sortedColumns);
+    }
+
+    private static void mergeSort(int[] order, int[] scratch, int from, int to, long[] keys) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(order, scratch, from, middle, keys);
+        mergeSort(order, scratch, middle, to, keys);
+        if (keys[order[middle - 1]] <= keys[order[middle]]) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && keys[scratch[left]] <= keys[scratch[right]])) {
+                order[i] = scratch[left++];
+            } else {
+                order[i] = scratch[right++];
+            }
+        }
+    }
+}
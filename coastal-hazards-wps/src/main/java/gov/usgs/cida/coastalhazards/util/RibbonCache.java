@@ -0,0 +1,338 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import gov.usgs.cida.coastalhazards.wps.RibboningProcess;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Keeps the ribbons of whole layers so ribboned tile requests look up the
+ * ribbons in their bbox instead of ribboning the features again.
+ *
+ * Entries are keyed by layer name, a modification stamp of the layer, the
+ * ribboning options and the scale band. The offset of the ribbons is worked
+ * out once per band from the pixel size at the center of the layer, not from
+ * the bbox of a tile, so every tile of every zoom level in the band shares
+ * one entry. An edited layer simply misses and its old entries age out. The
+ * least recently used entries are evicted once there are more than
+ * maxEntries or they hold more than maxCoordinates coordinates between them.
+ *
+ * Concurrent misses on the same key wait for a single build of the ribbons.
+ */
+public class RibbonCache {
+
+	private static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger(RibbonCache.class);
+
+	private final int maxEntries;
+	private final long maxCoordinates;
+	private final LinkedHashMap<Key, Entry> entries;
+	private long coordinates;
+
+	private final Map<Key, FutureTask<Entry>> building = new HashMap<Key, FutureTask<Entry>>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param maxEntries most ribboned layers to hold, 0 disables the cache
+	 * @param maxCoordinates most ribbon coordinates to hold across all layers
+	 */
+	public RibbonCache(int maxEntries, long maxCoordinates) {
+		this.maxEntries = maxEntries;
+		this.maxCoordinates = maxCoordinates;
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+		this.coordinates = 0;
+	}
+
+	public boolean isEnabled() {
+		return maxEntries > 0;
+	}
+
+	/**
+	 * @param key layer, stamp, options and scale band
+	 * @return cached ribbons or null, counted as a hit or miss
+	 */
+	public synchronized Entry get(Key key) {
+		Entry entry = entries.get(key);
+		if (null == entry) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		LOGGER.log(Level.FINE, "Ribbon cache {0} for {1} ({2} hits, {3} misses, {4} evictions)",
+				new Object[]{(null == entry) ? "miss" : "hit", key, hits.get(), misses.get(), evictions.get()});
+		return entry;
+	}
+
+	/**
+	 * Looks up ribbons, building them on a miss. Requests missing the same
+	 * key while it is built wait for that build instead of starting their
+	 * own.
+	 *
+	 * @param key layer, stamp, options and scale band
+	 * @param builder builds the ribbons of key on a miss
+	 * @return cached or built ribbons
+	 * @throws Exception if the build fails
+	 */
+	public Entry get(Key key, Callable<Entry> builder) throws Exception {
+		FutureTask<Entry> task;
+		boolean owner = false;
+		synchronized (this) {
+			Entry entry = get(key);
+			if (null != entry) {
+				return entry;
+			}
+			task = building.get(key);
+			if (null == task) {
+				task = new FutureTask<Entry>(builder);
+				building.put(key, task);
+				owner = true;
+			}
+		}
+		if (owner) {
+			try {
+				task.run();
+				Entry built = getBuilt(task);
+				put(key, built);
+				return built;
+			} finally {
+				synchronized (this) {
+					building.remove(key);
+				}
+			}
+		}
+		return getBuilt(task);
+	}
+
+	private static Entry getBuilt(FutureTask<Entry> task) throws Exception {
+		try {
+			return task.get();
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Adds ribbons, evicting least recently used entries to make room.
+	 * Ribbons with more than maxCoordinates on their own are not kept.
+	 *
+	 * @param key layer, stamp, options and scale band
+	 * @param entry ribbons built for key
+	 */
+	public synchronized void put(Key key, Entry entry) {
+		if (!isEnabled() || entry.getCoordinates() > maxCoordinates) {
+			return;
+		}
+		Entry replaced = entries.put(key, entry);
+		if (null != replaced) {
+			coordinates -= replaced.getCoordinates();
+		}
+		coordinates += entry.getCoordinates();
+
+		Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+		while ((entries.size() > maxEntries || coordinates > maxCoordinates) && eldest.hasNext()) {
+			Map.Entry<Key, Entry> next = eldest.next();
+			if (next.getValue() == entry) {
+				continue;
+			}
+			coordinates -= next.getValue().getCoordinates();
+			eldest.remove();
+			evictions.incrementAndGet();
+			LOGGER.log(Level.FINE, "Evicted ribbons for {0}", next.getKey());
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		coordinates = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return total coordinates held by the cached ribbons
+	 */
+	public synchronized long getCoordinates() {
+		return coordinates;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public static final class Key {
+
+		private final String layerName;
+		private final String stamp;
+		private final String options;
+		private final int scaleBand;
+
+		/**
+		 * @param layerName ribboned layer
+		 * @param stamp changes whenever the layer is modified
+		 * @param options everything else the ribbons depend on
+		 * @param scaleBand scale band of the request, which with the layer
+		 * sets the ribbon offset
+		 */
+		public Key(String layerName, String stamp, String options, int scaleBand) {
+			this.layerName = layerName;
+			this.stamp = stamp;
+			this.options = options;
+			this.scaleBand = scaleBand;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return scaleBand == other.scaleBand
+					&& layerName.equals(other.layerName)
+					&& stamp.equals(other.stamp)
+					&& options.equals(other.options);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = layerName.hashCode();
+			hash = 31 * hash + stamp.hashCode();
+			hash = 31 * hash + options.hashCode();
+			hash = 31 * hash + scaleBand;
+			return hash;
+		}
+
+		@Override
+		public String toString() {
+			return layerName + " [" + stamp + ", " + options + ", band " + scaleBand + "]";
+		}
+	}
+
+	/**
+	 * Ribboned features of a layer in layer order, indexed by the envelopes
+	 * of the ribbons and of the features they were ribboned from. Cached
+	 * features are shared between requests and must not be modified,
+	 * getRibbons hands out copies.
+	 */
+	public static final class Entry {
+
+		private final SimpleFeatureType schema;
+		private final List<SimpleFeature> ribbons;
+		private final STRtree ribbonTree;
+		private final STRtree sourceTree;
+		private final long coordinates;
+
+		/**
+		 * @param ribboned output of RibboningProcess, where the first ribbon
+		 * of every feature lies on the feature itself and ribbon ids name
+		 * the feature
+		 */
+		public Entry(SimpleFeatureCollection ribboned) {
+			this.schema = ribboned.getSchema();
+			this.ribbons = new ArrayList<SimpleFeature>();
+			this.ribbonTree = new STRtree();
+			this.sourceTree = new STRtree();
+			long count = 0;
+			SimpleFeatureIterator iterator = null;
+			try {
+				iterator = ribboned.features();
+				while (iterator.hasNext()) {
+					SimpleFeature ribbon = iterator.next();
+					Geometry geometry = (Geometry) ribbon.getDefaultGeometry();
+					if (null == geometry) {
+						continue;
+					}
+					Integer index = ribbons.size();
+					ribbons.add(ribbon);
+					ribbonTree.insert(geometry.getEnvelopeInternal(), index);
+					if (Integer.valueOf(1).equals(ribbon.getAttribute(RibboningProcess.ribbonAttr))) {
+						sourceTree.insert(geometry.getEnvelopeInternal(), RibboningProcess.getSourceId(ribbon.getID()));
+					}
+					count += geometry.getNumPoints();
+				}
+			} finally {
+				if (null != iterator) {
+					iterator.close();
+				}
+			}
+			ribbonTree.build();
+			sourceTree.build();
+			this.coordinates = count;
+		}
+
+		/**
+		 * @param area envelope in feature coordinates
+		 * @param ids feature ids of a request
+		 * @return whether every feature the ribbons were made from that
+		 * intersects area is among ids
+		 */
+		public boolean hasSources(Envelope area, Set<String> ids) {
+			return ids.containsAll(sourceTree.query(area));
+		}
+
+		/**
+		 * @param area envelope in feature coordinates
+		 * @return copies of the ribbons intersecting area, in layer order
+		 */
+		@SuppressWarnings("unchecked")
+		public SimpleFeatureCollection getRibbons(Envelope area) {
+			List<Integer> indexes = ribbonTree.query(area);
+			Collections.sort(indexes);
+			List<SimpleFeature> copies = new ArrayList<SimpleFeature>(indexes.size());
+			SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
+			for (Integer index : indexes) {
+				SimpleFeature ribbon = ribbons.get(index);
+				builder.init(ribbon);
+				// the renderer may generalize geometries in place
+				builder.set(ribbon.getDefaultGeometryProperty().getName(), ((Geometry) ribbon.getDefaultGeometry()).clone());
+				copies.add(builder.buildFeature(ribbon.getID()));
+			}
+			return new ListFeatureCollection(schema, copies);
+		}
+
+		/**
+		 * @return number of ribbon coordinates held
+		 */
+		public long getCoordinates() {
+			return coordinates;
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import gov.usgs.cida.coastalhazards.wps.exceptions.LayerAlreadyExistsException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.geoserver.catalog.CascadeDeleteVisitor;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogBuilder;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ProjectionPolicy;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geotools.data.DataAccess;
+import org.geotools.data.DataStore;
+import org.geotools.data.DefaultTransaction;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Transaction;
+import org.geotools.feature.NameImpl;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.process.ProcessException;
+import org.geotools.referencing.CRS;
+import org.geotools.util.DefaultProgressListener;
+import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Writes features straight into a new type in an existing store as they are
+ * produced, then publishes it as a layer. Stands in for LayerImportUtil when
+ * the whole result should not be held in memory.
+ *
+ * Features are buffered up to bufferSize and then written through a
+ * FeatureWriter. Stores backed by a directory of files are written outside
+ * of a transaction (GeoTools would otherwise keep the whole diff in memory)
+ * and their files are deleted on abort, other stores are written in a
+ * transaction that is rolled back on abort. Nothing is added to the catalog
+ * until publish.
+ *
+ * Attributes are copied by name, as stores may reorder the type they create
+ * (a shapefile puts its geometry first). The default geometry goes to the
+ * default geometry of the new type, and an attribute the store renamed
+ * (a DBF truncates names to ten characters) is matched by its position
+ * among the non-geometry attributes.
+ */
+public class StreamingLayerWriter {
+
+	protected static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger(StreamingLayerWriter.class);
+
+	private final Catalog catalog;
+	private final WorkspaceInfo workspace;
+	private final DataStoreInfo storeInfo;
+	private final String layerName;
+	private final File storeDirectory;
+	private final Transaction transaction;
+	private final List<SimpleFeature> buffer;
+	private final int bufferSize;
+	private FeatureWriter<SimpleFeatureType, SimpleFeature> writer;
+	private SimpleFeatureType mappedType;
+	private int[] attributeMapping;
+	private long count;
+	private boolean committed;
+
+	/**
+	 * Creates the new type in the store and opens a writer on it
+	 *
+	 * @param catalog GeoServer catalog
+	 * @param workspace workspace name
+	 * @param store name of an existing store in the workspace
+	 * @param layerName name of layer to create
+	 * @param type feature type to write, renamed to layerName
+	 * @param bufferSize number of features held before they are written
+	 * @throws IOException
+	 */
+	public StreamingLayerWriter(Catalog catalog, String workspace, String store, String layerName, SimpleFeatureType type, int bufferSize) throws IOException {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Buffer size must be positive");
+		}
+		GeoserverUtils gsUtils = new GeoserverUtils(catalog);
+		this.catalog = catalog;
+		this.workspace = gsUtils.getWorkspaceByName(workspace);
+		this.storeInfo = gsUtils.getDataStoreByName(workspace, store);
+		this.layerName = layerName;
+		this.bufferSize = bufferSize;
+		this.buffer = new ArrayList<SimpleFeature>(bufferSize);
+		this.count = 0;
+		this.committed = false;
+
+		if (null != catalog.getLayerByName(workspace + ":" + layerName)) {
+			throw new LayerAlreadyExistsException("Cannot overwrite layer");
+		}
+		DataStore dataStore = getDataStore();
+		if (Arrays.asList(dataStore.getTypeNames()).contains(layerName)) {
+			throw new LayerAlreadyExistsException("Cannot overwrite layer");
+		}
+
+		this.storeDirectory = GeoserverUtils.getDataStoreDirectory(dataStore);
+		this.transaction = (null == storeDirectory) ? new DefaultTransaction("stream") : Transaction.AUTO_COMMIT;
+
+		SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+		builder.init(type);
+		builder.setName(layerName);
+		dataStore.createSchema(builder.buildFeatureType());
+		try {
+			this.writer = dataStore.getFeatureWriterAppend(layerName, transaction);
+		} catch (IOException ex) {
+			abort();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Queues a feature, writing out the buffer once it is full
+	 *
+	 * @param feature feature of the type, attributes in any order
+	 * @throws IOException
+	 */
+	public void write(SimpleFeature feature) throws IOException {
+		buffer.add(feature);
+		if (buffer.size() >= bufferSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes out any buffered features
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		for (SimpleFeature feature : buffer) {
+			int[] mapping = getAttributeMapping(feature.getFeatureType());
+			SimpleFeature next = writer.next();
+			for (int i = 0; i < mapping.length; i++) {
+				if (mapping[i] >= 0) {
+					next.setAttribute(mapping[i], feature.getAttribute(i));
+				}
+			}
+			writer.write();
+		}
+		count += buffer.size();
+		buffer.clear();
+	}
+
+	/**
+	 * @return number of features written so far, not counting the buffer
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Flushes and closes the writer, then adds the new type to the catalog
+	 * as a layer the same way ImportProcess does
+	 *
+	 * @param nativeCrs declared CRS of the layer
+	 * @param policy projection policy
+	 * @return workspace:layer name of the new layer
+	 * @throws IOException
+	 */
+	public String publish(CoordinateReferenceSystem nativeCrs, ProjectionPolicy policy) throws IOException {
+		flush();
+		closeWriter();
+		if (transaction != Transaction.AUTO_COMMIT) {
+			transaction.commit();
+		}
+		String published = publish(catalog, workspace, storeInfo, layerName, nativeCrs, policy);
+		committed = true;
+		if (transaction != Transaction.AUTO_COMMIT) {
+			transaction.close();
+		}
+		return published;
+	}
+
+	/**
+	 * Adds a type already in a store to the catalog as a layer the same way
+	 * ImportProcess does, leaving nothing in the catalog if it fails
+	 *
+	 * @param catalog GeoServer catalog
+	 * @param workspace workspace of the store
+	 * @param storeInfo store holding the type
+	 * @param layerName name of the type and the layer
+	 * @param nativeCrs declared CRS of the layer
+	 * @param policy projection policy
+	 * @return workspace:layer name of the new layer
+	 */
+	public static String publish(Catalog catalog, WorkspaceInfo workspace, DataStoreInfo storeInfo, String layerName, CoordinateReferenceSystem nativeCrs, ProjectionPolicy policy) {
+		CatalogBuilder builder = new CatalogBuilder(catalog);
+		builder.setWorkspace(workspace);
+		builder.setStore(storeInfo);
+		try {
+			FeatureTypeInfo typeInfo = builder.buildFeatureType(new NameImpl(layerName));
+			if (null != nativeCrs) {
+				String srs = CRS.lookupIdentifier(nativeCrs, true);
+				typeInfo.setSRS(srs);
+			}
+			typeInfo.setProjectionPolicy(policy);
+			builder.setupBounds(typeInfo);
+			LayerInfo layerInfo = builder.buildLayer(typeInfo);
+			catalog.add(typeInfo);
+			try {
+				catalog.add(layerInfo);
+			} catch (RuntimeException ex) {
+				catalog.remove(typeInfo);
+				throw ex;
+			}
+			return layerInfo.prefixedName();
+		} catch (Exception ex) {
+			throw new ProcessException(ex);
+		}
+	}
+
+	/**
+	 * Removes a layer published by this writer, used when a sibling layer
+	 * fails after this one was published
+	 */
+	public void unpublish() {
+		LayerInfo layerInfo = catalog.getLayerByName(workspace.getName() + ":" + layerName);
+		if (null != layerInfo) {
+			new CascadeDeleteVisitor(catalog).visit(layerInfo);
+		}
+		deleteFiles();
+		if (null != storeDirectory) {
+			FeatureOrderService.deleteOrders(storeDirectory, layerName);
+		}
+	}
+
+	/**
+	 * Drops everything written so far. Safe to call more than once and after
+	 * a failure part way through writing.
+	 */
+	public void abort() {
+		buffer.clear();
+		try {
+			closeWriter();
+		} catch (IOException ex) {
+			LOGGER.log(Level.WARNING, "Could not close writer for " + layerName, ex);
+		}
+		if (transaction != Transaction.AUTO_COMMIT && !committed) {
+			try {
+				transaction.rollback();
+				transaction.close();
+			} catch (IOException ex) {
+				LOGGER.log(Level.WARNING, "Could not roll back " + layerName, ex);
+			}
+		}
+		deleteFiles();
+	}
+
+	/**
+	 * Index in the written type of each attribute of sourceType, -1 where
+	 * the written type has no place for it. Worked out once per source type.
+	 */
+	private int[] getAttributeMapping(SimpleFeatureType sourceType) {
+		if (sourceType == mappedType) {
+			return attributeMapping;
+		}
+		SimpleFeatureType targetType = writer.getFeatureType();
+		List<Integer> targetValues = new ArrayList<Integer>();
+		for (int i = 0; i < targetType.getAttributeCount(); i++) {
+			if (!(targetType.getDescriptor(i) instanceof GeometryDescriptor)) {
+				targetValues.add(i);
+			}
+		}
+		int[] mapping = new int[sourceType.getAttributeCount()];
+		int ordinal = 0;
+		for (int i = 0; i < mapping.length; i++) {
+			AttributeDescriptor descriptor = sourceType.getDescriptor(i);
+			if (descriptor instanceof GeometryDescriptor) {
+				AttributeDescriptor geometry = descriptor.equals(sourceType.getGeometryDescriptor())
+						? targetType.getGeometryDescriptor()
+						: targetType.getDescriptor(descriptor.getLocalName());
+				mapping[i] = (geometry instanceof GeometryDescriptor) ? targetType.indexOf(geometry.getName()) : -1;
+			} else {
+				int index = targetType.indexOf(descriptor.getLocalName());
+				if (index < 0 && ordinal < targetValues.size()) {
+					// renamed by the store
+					index = targetValues.get(ordinal);
+				}
+				mapping[i] = index;
+				ordinal++;
+			}
+		}
+		mappedType = sourceType;
+		attributeMapping = mapping;
+		return mapping;
+	}
+
+	private void closeWriter() throws IOException {
+		if (null != writer) {
+			try {
+				writer.close();
+			} finally {
+				writer = null;
+			}
+		}
+	}
+
+	private void deleteFiles() {
+		if (null == storeDirectory) {
+			return;
+		}
+		Collection<File> files = FileUtils.listFiles(storeDirectory, new PrefixFileFilter(layerName + "."), null);
+		for (File file : files) {
+			if (!FileUtils.deleteQuietly(file)) {
+				LOGGER.log(Level.WARNING, "{0} could not be deleted", file.getAbsolutePath());
+			}
+		}
+	}
+
+	private DataStore getDataStore() {
+		DataAccess<? extends FeatureType, ? extends Feature> dataAccess;
+		try {
+			dataAccess = storeInfo.getDataStore(new DefaultProgressListener());
+		} catch (IOException ioe) {
+			throw new ProcessException(ioe);
+		}
+		if (!(dataAccess instanceof DataStore)) {
+			throw new ProcessException("Store " + storeInfo.getName() + " cannot be written to directly");
+		}
+		return (DataStore) dataAccess;
+	}
+}
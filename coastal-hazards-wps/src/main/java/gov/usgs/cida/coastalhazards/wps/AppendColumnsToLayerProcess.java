@@ -1,7 +1,9 @@
 package gov.usgs.cida.coastalhazards.wps;
 
 import gov.usgs.cida.coastalhazards.util.GeoserverUtils;
+import gov.usgs.cida.coastalhazards.util.JNDIConfig;
 import gov.usgs.cida.coastalhazards.util.LayerImportUtil;
+import gov.usgs.cida.coastalhazards.util.LayerSchemaEditor;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -45,14 +47,19 @@ description = "Append a set of columns to a given layer using provided data type
 version = "1.0.0")
 public class AppendColumnsToLayerProcess implements GeoServerProcess {
 
+    public static final String IN_PLACE_PARAM = "coastal-hazards.geoserver.columns.inplace";
+    static final boolean DEFAULT_IN_PLACE = false;
+
     private Catalog catalog;
     private LayerImportUtil importer;
     private ImportProcess importProcess;
+    private final boolean inPlace;
 
     public AppendColumnsToLayerProcess(ImportProcess importer, Catalog catalog) {
         this.catalog = catalog;
         this.importer = new LayerImportUtil(catalog, importer);
         this.importProcess = importer;
+        this.inPlace = JNDIConfig.lookup(IN_PLACE_PARAM, Boolean.class, DEFAULT_IN_PLACE);
     }
 
     @DescribeResult(name = "layerName", description = "Name of the new featuretype, with workspace")
@@ -86,6 +93,7 @@ public class AppendColumnsToLayerProcess implements GeoServerProcess {
 
         FeatureType ft = featureSource.getSchema();
         List<AttributeDescriptor> attributeList = new ArrayList(ft.getDescriptors());
+        List<AttributeDescriptor> addedList = new ArrayList<AttributeDescriptor>();
         Set<String> colKeys = newColumns.keySet();
 
         for (String columnKey : colKeys) {
@@ -180,6 +188,19 @@ public class AppendColumnsToLayerProcess implements GeoServerProcess {
                 AttributeDescriptor descriptor = atb.buildDescriptor(new NameImpl(name), atType);
 
                 attributeList.add(descriptor);
+                addedList.add(descriptor);
+            }
+        }
+
+        if (inPlace) {
+            // alters the table or the DBF rather than copying every feature
+            LayerSchemaEditor editor = new LayerSchemaEditor(catalog);
+            if (editor.canEdit(ds, layer)) {
+                try {
+                    return editor.addColumns(ds, layer, addedList);
+                } catch (IOException ex) {
+                    throw new ProcessException(ex);
+                }
             }
         }
 
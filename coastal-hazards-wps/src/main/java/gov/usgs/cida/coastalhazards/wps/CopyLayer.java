@@ -1,8 +1,24 @@
 package gov.usgs.cida.coastalhazards.wps;
 
 import gov.usgs.cida.coastalhazards.util.GeoserverUtils;
+import gov.usgs.cida.coastalhazards.util.JNDIConfig;
 import gov.usgs.cida.coastalhazards.util.LayerImportUtil;
+import gov.usgs.cida.coastalhazards.util.StreamingLayerWriter;
+import gov.usgs.cida.coastalhazards.wps.exceptions.LayerAlreadyExistsException;
 import java.io.IOException;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.apache.commons.lang.StringUtils;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.DataStoreInfo;
@@ -15,23 +31,26 @@ import org.geotools.data.DataAccess;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.factory.GeoTools;
-import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.SchemaException;
+import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.process.ProcessException;
 import org.geotools.process.factory.DescribeParameter;
 import org.geotools.process.factory.DescribeProcess;
 import org.geotools.process.factory.DescribeResult;
+import org.geotools.referencing.CRS;
 import org.geotools.referencing.ReferencingFactoryFinder;
-import org.geotools.referencing.factory.epsg.ThreadedEpsgFactory;
-import org.geotools.referencing.factory.epsg.ThreadedHsqlEpsgFactory;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
+import org.opengis.referencing.crs.CRSAuthorityFactory;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 /**
@@ -44,12 +63,36 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 		version = "1.0.0")
 public class CopyLayer implements GeoServerProcess {
 
+	private static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger(CopyLayer.class);
+
+	public static final String STREAM_PARAM = "coastal-hazards.geoserver.copy.stream";
+	private static final boolean DEFAULT_STREAM = false;
+
+	public static final String STREAM_BATCH_PARAM = "coastal-hazards.geoserver.copy.stream.batch";
+	private static final int DEFAULT_STREAM_BATCH = 1024;
+
+	public static final String NATIVE_PARAM = "coastal-hazards.geoserver.copy.native";
+	private static final boolean DEFAULT_NATIVE = false;
+
+	private static final String POSTGIS_DBTYPE = "postgis";
+	// the copy runs on the source connection, so the target must be reachable with the same login
+	private static final String[] DATABASE_PARAMS = {"host", "port", "database", "user", "passwd"};
+
+	// looked up once, starting a new EPSG factory costs seconds
+	private static CRSAuthorityFactory epsgFactory;
+
 	private Catalog catalog;
 	private ImportProcess importProc;
+	private final boolean streamCopy;
+	private final int streamBatchSize;
+	private final boolean nativeCopy;
 
 	public CopyLayer(Catalog catalog, ImportProcess importProc) {
 		this.catalog = catalog;
 		this.importProc = importProc;
+		this.streamCopy = JNDIConfig.lookup(STREAM_PARAM, Boolean.class, DEFAULT_STREAM);
+		this.streamBatchSize = Math.max(1, JNDIConfig.lookup(STREAM_BATCH_PARAM, Integer.class, DEFAULT_STREAM_BATCH));
+		this.nativeCopy = JNDIConfig.lookup(NATIVE_PARAM, Boolean.class, DEFAULT_NATIVE);
 	}
 
 	@DescribeResult(name = "String", description = "New resource as workspace:name")
@@ -68,24 +111,177 @@ public class CopyLayer implements GeoServerProcess {
 		DataStoreInfo sourceStoreInfo = gUtils.getDataStoreByName(sourceWorkspaceInfo.getName(), sourceStore);
 		DataAccess<? extends FeatureType, ? extends Feature> sourceDataAccess = gUtils.getDataAccess(sourceStoreInfo, null);
 		FeatureSource<? extends FeatureType, ? extends Feature> sourceFeatureSource = gUtils.getFeatureSource(sourceDataAccess, sourceLayer);
-		FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection = (FeatureCollection<SimpleFeatureType, SimpleFeature>) gUtils.getFeatureCollection(sourceFeatureSource);
-		SimpleFeatureCollection simpleFeatureCollection = (SimpleFeatureCollection) DataUtilities.collection(featureCollection);
-		
-		Hints hints = GeoTools.getDefaultHints().clone();
-		ReferencingFactoryFinder.scanForPlugins();
-		ThreadedEpsgFactory epsgFactory = new ThreadedHsqlEpsgFactory(hints);
-		FeatureCollection<SimpleFeatureType, SimpleFeature> fc = (FeatureCollection<SimpleFeatureType, SimpleFeature>) gUtils.getFeatureCollection(sourceFeatureSource);
 
+		// the schema holds the CRS, no need to read any features for it
+		CoordinateReferenceSystem sourceCRS = ((SimpleFeatureType) sourceFeatureSource.getSchema()).getCoordinateReferenceSystem();
 		CoordinateReferenceSystem targetCRS;
 		if (StringUtils.isNotBlank(declaredSRS)) {
-			targetCRS = new ReprojectingFeatureCollection(simpleFeatureCollection, epsgFactory.createCoordinateReferenceSystem(declaredSRS)).getSchema().getGeometryDescriptor().getCoordinateReferenceSystem();
+			targetCRS = getEpsgFactory().createCoordinateReferenceSystem(declaredSRS);
 		} else {
-			targetCRS = ((FeatureCollection<SimpleFeatureType, SimpleFeature>) gUtils.getFeatureCollection(sourceFeatureSource)).getSchema().getGeometryDescriptor().getCoordinateReferenceSystem();
+			targetCRS = sourceCRS;
 		}
 
+		// a native copy cannot reproject
+		if (nativeCopy && CRS.equalsIgnoreMetadata(sourceCRS, targetCRS)) {
+			DataStoreInfo targetStoreInfo = gUtils.getDataStoreByName(targetWorkspace, targetStore);
+			DataAccess<? extends FeatureType, ? extends Feature> targetDataAccess = gUtils.getDataAccess(targetStoreInfo, null);
+			if (isSameDatabase(sourceStoreInfo, sourceDataAccess, targetStoreInfo, targetDataAccess)) {
+				copyInDatabase((JDBCDataStore) sourceDataAccess, (JDBCDataStore) targetDataAccess, sourceFeatureSource, targetWorkspace, sourceLayer);
+				return StreamingLayerWriter.publish(catalog, gUtils.getWorkspaceByName(targetWorkspace), targetStoreInfo, sourceLayer, targetCRS, ProjectionPolicy.REPROJECT_TO_DECLARED);
+			}
+		}
+
+		if (streamCopy) {
+			return copyThroughWriter(DataUtilities.simple((FeatureSource<SimpleFeatureType, SimpleFeature>) sourceFeatureSource),
+					targetWorkspace, targetStore, sourceLayer, targetCRS);
+		}
+
+		FeatureCollection<SimpleFeatureType, SimpleFeature> fc = (FeatureCollection<SimpleFeatureType, SimpleFeature>) gUtils.getFeatureCollection(sourceFeatureSource);
 		LayerImportUtil importer = new LayerImportUtil(catalog, importProc);
 		String response = importer.importLayer((SimpleFeatureCollection) DataUtilities.collection(fc), targetWorkspace, targetStore, sourceLayer, targetCRS, ProjectionPolicy.REPROJECT_TO_DECLARED);
 
 		return response;
 	}
+
+	/**
+	 * @return EPSG factory shared by every copy
+	 */
+	static synchronized CRSAuthorityFactory getEpsgFactory() {
+		if (null == epsgFactory) {
+			epsgFactory = ReferencingFactoryFinder.getCRSAuthorityFactory("EPSG", GeoTools.getDefaultHints());
+		}
+		return epsgFactory;
+	}
+
+	/**
+	 * Reads the source one feature at a time and writes it straight into the
+	 * target store, reprojecting on the way as ImportProcess would, so the
+	 * layer is never held in memory. Nothing is left behind on failure.
+	 */
+	private String copyThroughWriter(SimpleFeatureSource source, String workspace, String store, String layer, CoordinateReferenceSystem targetCRS)
+			throws IOException, SchemaException, FactoryException {
+		SimpleFeatureCollection features = source.getFeatures();
+		CoordinateReferenceSystem sourceCRS = features.getSchema().getCoordinateReferenceSystem();
+		if (null != sourceCRS && null != targetCRS && !CRS.equalsIgnoreMetadata(sourceCRS, targetCRS)) {
+			features = new ReprojectingFeatureCollection(features, targetCRS);
+		}
+
+		StreamingLayerWriter writer = new StreamingLayerWriter(catalog, workspace, store, layer, features.getSchema(), streamBatchSize);
+		boolean success = false;
+		SimpleFeatureIterator iterator = null;
+		try {
+			iterator = features.features();
+			while (iterator.hasNext()) {
+				writer.write(iterator.next());
+			}
+			iterator.close();
+			iterator = null;
+			String published = writer.publish(targetCRS, ProjectionPolicy.REPROJECT_TO_DECLARED);
+			success = true;
+			return published;
+		} finally {
+			if (null != iterator) {
+				iterator.close();
+			}
+			if (!success) {
+				writer.abort();
+			}
+		}
+	}
+
+	/**
+	 * Native copies only apply between PostGIS stores connected to the same
+	 * database with the same credentials, anything else is streamed
+	 */
+	static boolean isSameDatabase(DataStoreInfo sourceStoreInfo, DataAccess<? extends FeatureType, ? extends Feature> sourceDataAccess,
+			DataStoreInfo targetStoreInfo, DataAccess<? extends FeatureType, ? extends Feature> targetDataAccess) {
+		if (!(sourceDataAccess instanceof JDBCDataStore) || !(targetDataAccess instanceof JDBCDataStore)) {
+			return false;
+		}
+		Map<String, Serializable> sourceParams = sourceStoreInfo.getConnectionParameters();
+		Map<String, Serializable> targetParams = targetStoreInfo.getConnectionParameters();
+		if (!POSTGIS_DBTYPE.equals(sourceParams.get("dbtype")) || !POSTGIS_DBTYPE.equals(targetParams.get("dbtype"))) {
+			return false;
+		}
+		for (String param : DATABASE_PARAMS) {
+			if (!String.valueOf(sourceParams.get(param)).equals(String.valueOf(targetParams.get(param)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the source table into the target schema inside the database, so
+	 * no feature leaves it. The copy gets the primary key and a spatial index
+	 * of the source, key values are copied but not their sequence, which
+	 * suits published layers as they are not edited.
+	 */
+	private void copyInDatabase(JDBCDataStore sourceStore, JDBCDataStore targetStore, FeatureSource<? extends FeatureType, ? extends Feature> source,
+			String workspace, String layer) throws IOException {
+		new LayerImportUtil(catalog, importProc).checkIfLayerExists(workspace, layer);
+		if (Arrays.asList(targetStore.getTypeNames()).contains(layer)) {
+			throw new LayerAlreadyExistsException("Cannot overwrite layer");
+		}
+		String sourceTable = qualify(sourceStore.getDatabaseSchema(), layer);
+		String targetTable = qualify(targetStore.getDatabaseSchema(), layer);
+
+		Connection connection = null;
+		Statement statement = null;
+		boolean success = false;
+		try {
+			connection = sourceStore.getDataSource().getConnection();
+			connection.setAutoCommit(false);
+			List<String> keys = getPrimaryKeys(connection, sourceStore.getDatabaseSchema(), layer);
+			statement = connection.createStatement();
+			LOGGER.log(Level.INFO, "Copying {0} to {1} in database", new Object[]{sourceTable, targetTable});
+			statement.execute("CREATE TABLE " + targetTable + " AS TABLE " + sourceTable);
+			if (!keys.isEmpty()) {
+				List<String> quoted = new ArrayList<String>(keys.size());
+				for (String key : keys) {
+					quoted.add(quote(key));
+				}
+				statement.execute("ALTER TABLE " + targetTable + " ADD PRIMARY KEY (" + StringUtils.join(quoted, ", ") + ")");
+			}
+			GeometryDescriptor geometry = source.getSchema().getGeometryDescriptor();
+			if (null != geometry) {
+				statement.execute("CREATE INDEX ON " + targetTable + " USING GIST (" + quote(geometry.getLocalName()) + ")");
+			}
+			connection.commit();
+			success = true;
+		} catch (SQLException ex) {
+			throw new IOException("Could not copy " + sourceTable + " to " + targetTable, ex);
+		} finally {
+			if (!success && null != connection) {
+				try {
+					connection.rollback();
+				} catch (SQLException ex) {
+					LOGGER.log(Level.WARNING, "Could not roll back copy of " + sourceTable, ex);
+				}
+			}
+			sourceStore.closeSafe(statement);
+			sourceStore.closeSafe(connection);
+		}
+	}
+
+	private static List<String> getPrimaryKeys(Connection connection, String schema, String table) throws SQLException {
+		SortedMap<Short, String> keys = new TreeMap<Short, String>();
+		ResultSet result = connection.getMetaData().getPrimaryKeys(null, schema, table);
+		try {
+			while (result.next()) {
+				keys.put(result.getShort("KEY_SEQ"), result.getString("COLUMN_NAME"));
+			}
+		} finally {
+			result.close();
+		}
+		return new ArrayList<String>(keys.values());
+	}
+
+	private static String qualify(String schema, String table) {
+		return (null == schema) ? quote(table) : quote(schema) + "." + quote(table);
+	}
+
+	private static String quote(String identifier) {
+		return "\"" + identifier.replace("\"", "\"\"") + "\"";
+	}
 }
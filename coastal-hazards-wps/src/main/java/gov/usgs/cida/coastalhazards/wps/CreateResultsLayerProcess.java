@@ -46,25 +46,16 @@
 
 package gov.usgs.cida.coastalhazards.wps;
 
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.Point;
-import gov.usgs.cida.coastalhazards.util.AttributeGetter;
 import gov.usgs.cida.coastalhazards.util.CRSUtils;
-import gov.usgs.cida.coastalhazards.util.Constants;
 import gov.usgs.cida.coastalhazards.util.LayerImportUtil;
+import gov.usgs.cida.coastalhazards.util.ResultsJoinFeatureCollection;
+import gov.usgs.cida.coastalhazards.util.ResultsTable;
 import gov.usgs.cida.coastalhazards.util.UTMFinder;
 import gov.usgs.cida.coastalhazards.wps.exceptions.InputFileFormatException;
 import gov.usgs.cida.coastalhazards.wps.exceptions.UnsupportedCoordinateReferenceSystemException;
-import gov.usgs.cida.coastalhazards.wps.exceptions.UnsupportedFeatureTypeException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
 import java.util.NoSuchElementException;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import org.apache.commons.io.input.CharSequenceReader;
 import org.apache.commons.lang.StringUtils;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.ProjectionPolicy;
@@ -73,16 +64,13 @@ import org.geoserver.wps.gs.ImportProcess;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.FeatureCollection;
-import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
-import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.process.factory.DescribeParameter;
 import org.geotools.process.factory.DescribeProcess;
 import org.geotools.process.factory.DescribeResult;
 import org.geotools.referencing.crs.AbstractCRS;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -120,7 +108,7 @@ public class CreateResultsLayerProcess implements GeoServerProcess {
         /* this is different from the one in Constants, this is a "contract" with the R process on the column name for TransectId*/
         public static final String TRANSECT_ID = "transect_ID";
         
-        private final String results;
+        private final CharSequence results;
         private final FeatureCollection<SimpleFeatureType, SimpleFeature> transects;
         private final FeatureCollection<SimpleFeatureType, SimpleFeature> intersects;
         private final String workspace;
@@ -133,7 +121,7 @@ public class CreateResultsLayerProcess implements GeoServerProcess {
                 String workspace,
                 String store,
                 String layer) {
-            this.results = results.toString();
+            this.results = results;
             this.transects = transects;
             this.intersects = intersects;
             this.workspace = workspace;
@@ -143,9 +131,9 @@ public class CreateResultsLayerProcess implements GeoServerProcess {
         
         protected String execute() {
             importer.checkIfLayerExists(workspace, layer);
-            String[] columnHeaders = getColumnHeaders(results);
-            Map<Long, Double[]> resultMap = parseTextToMap(results, columnHeaders);
-            List<SimpleFeature> joinedFeatures = joinResultsToTransects(columnHeaders, resultMap, transects);
+            ResultsTable resultsTable = parseResults(results);
+            SimpleFeatureCollection joinedFeatures = new ResultsJoinFeatureCollection(
+                    DataUtilities.simple(transects), resultsTable, (null == intersects) ? null : DataUtilities.simple(intersects));
             CoordinateReferenceSystem utmZone = null;
             try {
                 utmZone = UTMFinder.findUTMZoneCRSForCentroid((SimpleFeatureCollection)transects);
@@ -169,165 +157,17 @@ public class CreateResultsLayerProcess implements GeoServerProcess {
             } catch (TransformException ex) {
                 throw new UnsupportedCoordinateReferenceSystemException("Could not find utm zone", ex);
             }
-            SimpleFeatureCollection collection = DataUtilities.collection(joinedFeatures);
-            String imported = importer.importLayer(collection, workspace, store, layer, utmZone, ProjectionPolicy.REPROJECT_TO_DECLARED);
+            String imported = importer.importLayer(joinedFeatures, workspace, store, layer, utmZone, ProjectionPolicy.REPROJECT_TO_DECLARED);
             return imported;
         }
 
-        protected Map<Long, Double[]> parseTextToMap(String results, String[] headers) {
-            String[] lines = results.split("\n");
-            Map<Long, Double[]> resultMap = new HashMap<Long, Double[]>();
-            int transectColumn = -1;
-            for (String line : lines) {
-                String[] columns = line.split("\t");
-                if (transectColumn < 0) {
-                    // ignore the first line
-                    for (int i=0; i<headers.length; i++) {
-                        if (headers[i].equals(TRANSECT_ID)) {
-                            transectColumn = i;
-                        }
-                    }
-                    if (transectColumn < 0) {
-                        throw new InputFileFormatException("Stats did not contain column named " + TRANSECT_ID);
-                    }
-                }
-                else {
-                    Long transectId = null;
-                    Double[] values = new Double[columns.length-1];
-                    int j = 0;
-                    for (int i=0; i<columns.length; i++) {
-                        if (i == transectColumn) {
-                            String id = columns[i].replaceAll("\"", "");
-                            transectId = Long.parseLong(id);
-                        }
-                        else {
-                            try {
-                                // may need to remove " here too
-                                values[j] = Double.parseDouble(columns[i]);
-                            } catch (NumberFormatException e) {
-                                values[j] = Constants.SHAPEFILE_NODATA;
-                            }
-                            j++;
-                        }
-                    }
-                    resultMap.put(transectId, values);
-                }
-            }
-            return resultMap;
-        }
-
-        protected List<SimpleFeature> joinResultsToTransects(String[] columnHeaders, Map<Long, Double[]> resultMap, FeatureCollection<SimpleFeatureType, SimpleFeature> transects) {
-                     
-            SimpleFeatureType transectFeatureType = transects.getSchema();
-            List<AttributeDescriptor> descriptors = transectFeatureType.getAttributeDescriptors();
-            SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
-            builder.setName("Results");
-            builder.addAll(descriptors);
-            for (String header: columnHeaders) {
-                if (!header.equals(TRANSECT_ID)) {
-                    builder.add(header, Double.class);
-                }
-            }
-            builder.add("NSD", Double.class);
-            Map<Integer, List<Point>> transectToIntersectMap = generateTransectToIntersectMap(intersects);
-
-            
-            SimpleFeatureType joinedFeatureType = builder.buildFeatureType();
-            
-            SortedMap<Double, List<Object>> distanceToAttribureMap = new TreeMap<Double, List<Object>>();
-            FeatureIterator<SimpleFeature> features = null;
-            try { 
-                features = transects.features();
-                AttributeGetter getter = new AttributeGetter(joinedFeatureType);
-                while (features.hasNext()) {
-                    SimpleFeature feature = features.next();
-                    Object transectIdAsObject = getter.getValue(Constants.TRANSECT_ID_ATTR, feature);
-                    long transectId = ((Number)transectIdAsObject).longValue();
-                    Double baseDistance = (Double)getter.getValue(Constants.BASELINE_DIST_ATTR, feature);
-                    if (baseDistance == null) {
-                        throw new UnsupportedFeatureTypeException("Transects must include base_dist attribute");
-                    }
-                    Double[] values = resultMap.get(transectId);
-                    List<Object> joinedAttributes = new ArrayList<Object>(joinedFeatureType.getAttributeCount());
-                    joinedAttributes.addAll(feature.getAttributes());
-                    joinedAttributes.addAll(Arrays.asList(values));
-                    joinedAttributes.add(calculateNSD((Geometry)feature.getDefaultGeometry(), transectToIntersectMap.get(transectIdAsObject)));
-                    distanceToAttribureMap.put(baseDistance, joinedAttributes);
-                
-                }
-            } finally {
-                if (features != null) { features.close(); }
-            }
-            int joinedFeatureCount = distanceToAttribureMap.size();
-            SequentialFeatureIDGenerator fidGenerator = new SequentialFeatureIDGenerator(joinedFeatureCount);
-            List<SimpleFeature> joinedFeatureList = new ArrayList<SimpleFeature>(distanceToAttribureMap.size()); 
-            for (List<Object> attributes : distanceToAttribureMap.values()) {
-                joinedFeatureList.add(SimpleFeatureBuilder.build(
-                        joinedFeatureType,
-                        attributes,
-                        fidGenerator.next()));
-            }
-            
-            return joinedFeatureList;
-        }
-
-        private String[] getColumnHeaders(String results) {
-            String[] lines = results.split("\n");
-            if (lines.length <= 1) {
-                throw new InputFileFormatException("Results must have at least 2 rows");
-            }
-            String[] header = lines[0].split("\t");
-            for (int i=0; i<header.length; i++) {
-                header[i] = header[i].replaceAll("\"", "");
-            }
-            return header;
-        }
-    }
-    
-    private Map<Integer, List<Point>> generateTransectToIntersectMap(FeatureCollection<?, SimpleFeature> intersects) {
-        Map<Integer, List<Point>> transectToIntersectionMap = new HashMap<Integer, List<Point>>();
-        FeatureIterator<SimpleFeature> intersectsIterator = null;
-		try {
-			intersectsIterator = intersects.features();
-			while (intersectsIterator.hasNext()) {
-				SimpleFeature feature = intersectsIterator.next();
-				Object transectIdAsObject = feature.getAttribute(Constants.TRANSECT_ID_ATTR);
-				if (transectIdAsObject instanceof Integer) {
-					List<Point> pointList = transectToIntersectionMap.get((Integer)transectIdAsObject);
-					if (pointList == null) {
-						pointList = new ArrayList<Point>();
-						transectToIntersectionMap.put((Integer)transectIdAsObject, pointList);
-					}
-					Object geometryAsObject = feature.getDefaultGeometry();
-					if (geometryAsObject instanceof Point) {
-						pointList.add((Point)geometryAsObject);
-					} else {
-						System.err.println("wtf?  null point");
-					}    
-				} else {
-					System.err.println("wtf? ");
-				}
-			}
-		} finally {
-			if (null != intersectsIterator) {
-				intersectsIterator.close();
-			}
-		}
-        
-        return transectToIntersectionMap;
-    }
-    
-    private double calculateNSD(Geometry transect, List<? extends Geometry> intersects) {
-        Coordinate b = transect.getGeometryN(0).getCoordinates()[0];
-        double nsd = Double.MAX_VALUE;
-        for (Geometry intersect : intersects) {
-            Coordinate i = intersect.getGeometryN(0).getCoordinates()[0];
-            double d = b.distance(i);
-            if (d < nsd) {
-                nsd = d;
+        protected ResultsTable parseResults(CharSequence results) {
+            try {
+                return ResultsTable.read(new CharSequenceReader(results), TRANSECT_ID);
+            } catch (IOException ex) {
+                throw new InputFileFormatException("Unable to read results: " + ex.getMessage());
             }
         }
-        return nsd;
     }
     
     public static class SequentialFeatureIDGenerator {
@@ -7,8 +7,6 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineSegment;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiLineString;
-import com.vividsolutions.jts.geom.prep.PreparedGeometry;
-import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 import com.vividsolutions.jts.index.strtree.STRtree;
 import gov.usgs.cida.coastalhazards.util.AttributeGetter;
 import gov.usgs.cida.coastalhazards.util.BaselineDistanceAccumulator;
@@ -16,27 +14,49 @@ import gov.usgs.cida.coastalhazards.util.CRSUtils;
 import static gov.usgs.cida.coastalhazards.util.Constants.*;
 import gov.usgs.cida.coastalhazards.util.Constants.Orientation;
 import gov.usgs.cida.coastalhazards.util.GeomAsserts;
+import gov.usgs.cida.coastalhazards.util.JNDIConfig;
 import gov.usgs.cida.coastalhazards.util.LayerImportUtil;
+import gov.usgs.cida.coastalhazards.util.StreamingLayerWriter;
 import gov.usgs.cida.coastalhazards.util.UTMFinder;
 import gov.usgs.cida.coastalhazards.wps.exceptions.PoorlyDefinedBaselineException;
 import gov.usgs.cida.coastalhazards.wps.exceptions.UnsupportedCoordinateReferenceSystemException;
+import gov.usgs.cida.coastalhazards.wps.geom.BaselineIntervals;
 import gov.usgs.cida.coastalhazards.wps.geom.Intersection;
 import gov.usgs.cida.coastalhazards.wps.geom.ShorelineFeature;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineAttributes;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineSegmentIndex;
 import gov.usgs.cida.coastalhazards.wps.geom.ShorelineSTRTreeBuilder;
 import gov.usgs.cida.coastalhazards.wps.geom.Transect;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.ProjectionPolicy;
 import org.geoserver.wps.gs.GeoServerProcess;
 import org.geoserver.wps.gs.ImportProcess;
 import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.process.factory.DescribeParameter;
 import org.geotools.process.factory.DescribeProcess;
@@ -45,7 +65,9 @@ import org.geotools.referencing.CRS;
 import org.joda.time.DateTime;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
 
 /**
  *
@@ -57,10 +79,66 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
         version = "1.0.0")
 public class CreateTransectsAndIntersectionsProcess implements GeoServerProcess {
 
+    /* number of worker threads a single request may use, 1 keeps everything on the request thread */
+    public static final String THREADS_PARAM = "coastal-hazards.geoserver.transects.threads";
+    private static final int DEFAULT_THREADS = 1;
+    /* walk each transect through the shoreline index once instead of querying sub transects */
+    public static final String RAY_WALK_PARAM = "coastal-hazards.geoserver.transects.raywalk";
+    private static final boolean DEFAULT_RAY_WALK = false;
+    /* index shoreline segments in primitive arrays rather than an STRtree of LineStrings, implies ray walk */
+    public static final String PACKED_INDEX_PARAM = "coastal-hazards.geoserver.shorelines.index.packed";
+    public static final boolean DEFAULT_PACKED_INDEX = false;
+    /* write transects and intersections to the store as they are found rather than importing whole collections */
+    public static final String STREAM_PARAM = "coastal-hazards.geoserver.transects.stream";
+    private static final boolean DEFAULT_STREAM = false;
+    /* transects intersected per block, and features buffered per writer, when streaming */
+    public static final String STREAM_BATCH_PARAM = "coastal-hazards.geoserver.transects.stream.batch";
+    private static final int DEFAULT_STREAM_BATCH = 1024;
+    /* process baselines in their own UTM zones, concurrently, when they span more than one zone */
+    public static final String PARTITION_PARAM = "coastal-hazards.geoserver.transects.partition";
+    private static final boolean DEFAULT_PARTITION = false;
+    /* degrees around a zone's baselines within which shorelines are included in that zone */
+    public static final String PARTITION_OVERLAP_PARAM = "coastal-hazards.geoserver.transects.partition.overlap";
+    private static final double DEFAULT_PARTITION_OVERLAP = 0.5d;
+    
+    private Catalog catalog;
     private LayerImportUtil importer;
+    private int threads;
+    private boolean useRayWalk;
+    private boolean usePackedIndex;
+    private boolean streamOutput;
+    private int streamBatchSize;
+    private boolean partitionByZone;
+    private double partitionOverlap;
     
     public CreateTransectsAndIntersectionsProcess(ImportProcess importProcess, Catalog catalog) {
+        this.catalog = catalog;
         this.importer = new LayerImportUtil(catalog, importProcess);
+        this.threads = JNDIConfig.lookup(THREADS_PARAM, Integer.class, DEFAULT_THREADS);
+        this.useRayWalk = JNDIConfig.lookup(RAY_WALK_PARAM, Boolean.class, DEFAULT_RAY_WALK);
+        this.usePackedIndex = JNDIConfig.lookup(PACKED_INDEX_PARAM, Boolean.class, DEFAULT_PACKED_INDEX);
+        this.streamOutput = JNDIConfig.lookup(STREAM_PARAM, Boolean.class, DEFAULT_STREAM);
+        this.streamBatchSize = Math.max(1, JNDIConfig.lookup(STREAM_BATCH_PARAM, Integer.class, DEFAULT_STREAM_BATCH));
+        this.partitionByZone = JNDIConfig.lookup(PARTITION_PARAM, Boolean.class, DEFAULT_PARTITION);
+        this.partitionOverlap = JNDIConfig.lookup(PARTITION_OVERLAP_PARAM, Double.class, DEFAULT_PARTITION_OVERLAP);
+    }
+
+    /**
+     * @param threads threads intersecting transects, 1 intersects on the
+     * request thread
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param partitionByZone run baselines in their own UTM zones
+     * @param overlap degrees around a zone's baselines within which
+     * shorelines are included in that zone
+     */
+    public void setPartitioning(boolean partitionByZone, double overlap) {
+        this.partitionByZone = partitionByZone;
+        this.partitionOverlap = overlap;
     }
 
     /** May actually want to return reference to new layer
@@ -87,6 +165,7 @@ public class CreateTransectsAndIntersectionsProcess implements GeoServerProcess
     protected class Process {
         private static final double MIN_TRANSECT_LENGTH = 50.0d; // meters
         private static final double TRANSECT_PADDING = 5.0d; // meters
+        private static final int TRANSECTS_PER_TASK = 64; // smallest fork/join unit of work
         
         private final FeatureCollection<SimpleFeatureType, SimpleFeature> shorelineFeatureCollection;
         private final FeatureCollection<SimpleFeatureType, SimpleFeature> baselineFeatureCollection;
@@ -101,12 +180,18 @@ public class CreateTransectsAndIntersectionsProcess implements GeoServerProcess
         private CoordinateReferenceSystem utmCrs;
         
         private STRtree strTree;
+        private ShorelineSegmentIndex segmentIndex;
+        private ShorelineAttributes shorelineAttributes;
         private SimpleFeatureType transectFeatureType;
         private SimpleFeatureType intersectionFeatureType;
-        private PreparedGeometry preparedShorelines;
         
         private double maxTransectLength;
         private int transectId;
+        private int shorelineDateCount;
+        private int intersectionThreads;
+        private ForkJoinPool intersectionPool;
+        private Map<String, BaselineLayout> baselineLayouts;
+        private MathTransform layoutTransform;
         
         private SimpleFeatureCollection resultTransectsCollection;
         private SimpleFeatureCollection resultIntersectionsCollection;
@@ -138,12 +223,18 @@ public class CreateTransectsAndIntersectionsProcess implements GeoServerProcess
             
             this.maxTransectLength = 0; // start out small
             this.transectId = 0; // start ids at 0
+            this.shorelineDateCount = 0; // unknown until shorelines are read
+            this.intersectionThreads = threads;
+            this.intersectionPool = null; // opened for the length of a run
+            this.baselineLayouts = null; // lay transects out along the baselines given
+            this.layoutTransform = null;
             
             // Leave these null to start, they get populated after error checks occur (somewhat expensive)
             this.strTree = null;
+            this.segmentIndex = null;
+            this.shorelineAttributes = null;
             this.transectFeatureType = null;
             this.intersectionFeatureType = null;
-            this.preparedShorelines = null;
             
             this.resultTransectsCollection = null;
             this.resultIntersectionsCollection = null;
@@ -161,36 +252,291 @@ public class CreateTransectsAndIntersectionsProcess implements GeoServerProcess
             if (!CRS.equalsIgnoreMetadata(baselineCrs, REQUIRED_CRS_WGS84)) {
                 throw new UnsupportedCoordinateReferenceSystemException("Baseline is not in accepted projection");
             }
+            if (partitionByZone) {
+                Map<CoordinateReferenceSystem, List<SimpleFeature>> zones = partitionBaselinesByZone();
+                if (zones.size() > 1) {
+                    return executePartitioned(zones);
+                }
+            }
             this.utmCrs = UTMFinder.findUTMZoneCRSForCentroid((SimpleFeatureCollection)shorelineFeatureCollection);
             if (this.utmCrs == null) {
                 throw new IllegalStateException("Must have usable UTM zone to continue");
             }
             
+            openIntersectionPool();
+            try {
+                Transect[] vectsOnBaseline = prepareTransects();
+
+                if (streamOutput) {
+                    return streamTransectsAndIntersections(vectsOnBaseline);
+                }
+                trimTransectsToFeatureCollection(vectsOnBaseline);
+            } finally {
+                closeIntersectionPool();
+            }
+            String createdTransectLayer = importer.importLayer(resultTransectsCollection, workspace, store, transectLayer, utmCrs, ProjectionPolicy.REPROJECT_TO_DECLARED);
+            String createdIntersectionLayer = importer.importLayer(resultIntersectionsCollection, workspace, store, intersectionLayer, utmCrs, ProjectionPolicy.REPROJECT_TO_DECLARED);
+            return createdTransectLayer + "," + createdIntersectionLayer;
+        }
+        
+        /**
+         * Opens the fork/join pool shared by every findAllIntersections call
+         * of this run, when more than one thread is configured
+         */
+        private void openIntersectionPool() {
+            if (intersectionThreads > 1) {
+                this.intersectionPool = new ForkJoinPool(intersectionThreads);
+            }
+        }
+        
+        private void closeIntersectionPool() {
+            if (null != intersectionPool) {
+                intersectionPool.shutdownNow();
+                this.intersectionPool = null;
+            }
+        }
+        
+        /**
+         * Reprojects shorelines and baselines to utmCrs, builds the shoreline
+         * index and output feature types, checks the baselines against the
+         * shorelines and lays out untrimmed transects along the baselines
+         * 
+         * @return untrimmed transects
+         */
+        protected Transect[] prepareTransects() {
             SimpleFeatureCollection transformedShorelines = CRSUtils.transformFeatureCollection(shorelineFeatureCollection, REQUIRED_CRS_WGS84, utmCrs);
             SimpleFeatureCollection transformedBaselines = CRSUtils.transformFeatureCollection(baselineFeatureCollection, REQUIRED_CRS_WGS84, utmCrs);
             
             // this could be from a parameter?
             this.maxTransectLength = calculateMaxDistance(transformedShorelines, transformedBaselines);
             
-            MultiLineString shorelineGeometry = CRSUtils.getLinesFromFeatureCollection(transformedShorelines);
-            MultiLineString baselineGeometry = CRSUtils.getLinesFromFeatureCollection(transformedBaselines);
-            this.strTree = new ShorelineSTRTreeBuilder(transformedShorelines).build();
+            if (usePackedIndex) {
+                this.segmentIndex = new ShorelineSegmentIndex(transformedShorelines);
+                this.shorelineAttributes = new ShorelineAttributes(segmentIndex);
+            } else {
+                this.strTree = new ShorelineSTRTreeBuilder(transformedShorelines).build();
+            }
             
             this.transectFeatureType = Transect.buildFeatureType(utmCrs);
             this.intersectionFeatureType = Intersection.buildSimpleFeatureType(transformedShorelines, utmCrs);
             
-            this.preparedShorelines = PreparedGeometryFactory.prepare(shorelineGeometry);
-            GeomAsserts.assertBaselinesDoNotCrossShorelines(preparedShorelines, baselineGeometry);
+            if (usePackedIndex) {
+                GeomAsserts.assertBaselinesDoNotCrossShorelines(segmentIndex, transformedBaselines);
+            } else {
+                GeomAsserts.assertBaselinesDoNotCrossShorelines(strTree, transformedBaselines);
+            }
+            
+            if (useRayWalk && !usePackedIndex) { // packed index counts dates in ShorelineAttributes
+                this.shorelineDateCount = countShorelineDates(transformedShorelines);
+            }
+            
+            return getEvenlySpacedOrthoVectorsAlongBaseline(transformedBaselines, spacing);
+        }
+        
+        /**
+         * Groups baseline features by the UTM zone of their centre, in the
+         * order the zones are first seen
+         * 
+         * @return baseline features for each zone
+         * @throws Exception 
+         */
+        protected Map<CoordinateReferenceSystem, List<SimpleFeature>> partitionBaselinesByZone() throws Exception {
+            Map<CoordinateReferenceSystem, List<SimpleFeature>> zones = new LinkedHashMap<CoordinateReferenceSystem, List<SimpleFeature>>();
+            FeatureIterator<SimpleFeature> features = null;
+            try {
+                features = baselineFeatureCollection.features();
+                while (features.hasNext()) {
+                    SimpleFeature feature = features.next();
+                    CoordinateReferenceSystem zoneCrs = UTMFinder.findUTMZoneCRSForCentroid(ReferencedEnvelope.reference(feature.getBounds()));
+                    List<SimpleFeature> zoneBaselines = zones.get(zoneCrs);
+                    if (null == zoneBaselines) {
+                        zoneBaselines = new ArrayList<SimpleFeature>();
+                        zones.put(zoneCrs, zoneBaselines);
+                    }
+                    zoneBaselines.add(feature);
+                }
+            } finally {
+                if (null != features) {
+                    features.close();
+                }
+            }
+            return zones;
+        }
+        
+        /**
+         * Runs each UTM zone as its own Process, concurrently, with the
+         * shorelines within partitionOverlap degrees of the zone's baselines.
+         * Transects are laid out in the UTM zone of the shoreline centroid,
+         * exactly as an unpartitioned run lays them out, so ids and baseline
+         * distances are the same; each zone then intersects them in its own
+         * projection. Results are stitched back together in transect id order
+         * and reprojected to the UTM zone of the shoreline centroid.
+         * 
+         * @param zones baseline features for each zone
+         * @return created transect and intersection layer names, comma separated
+         * @throws Exception 
+         */
+        protected String executePartitioned(Map<CoordinateReferenceSystem, List<SimpleFeature>> zones) throws Exception {
+            this.utmCrs = UTMFinder.findUTMZoneCRSForCentroid((SimpleFeatureCollection)shorelineFeatureCollection);
+            if (this.utmCrs == null) {
+                throw new IllegalStateException("Must have usable UTM zone to continue");
+            }
+            this.transectFeatureType = Transect.buildFeatureType(utmCrs);
+            this.intersectionFeatureType = Intersection.buildSimpleFeatureType((SimpleFeatureCollection)shorelineFeatureCollection, utmCrs);
+            
+            // baseline lines, distances and first ids as an unpartitioned run would see them
+            SimpleFeatureCollection transformedBaselines = CRSUtils.transformFeatureCollection(baselineFeatureCollection, REQUIRED_CRS_WGS84, utmCrs);
+            Map<String, BaselineLayout> layouts = new HashMap<String, BaselineLayout>();
+            BaselineDistanceAccumulator accumulator = new BaselineDistanceAccumulator();
+            int nextId = 0;
+            SimpleFeatureIterator baselines = null;
+            try {
+                baselines = transformedBaselines.features();
+                while (baselines.hasNext()) {
+                    SimpleFeature feature = baselines.next();
+                    MultiLineString lines = CRSUtils.getLinesFromFeature(feature);
+                    double offset = 0;
+                    int startId = nextId;
+                    for (int i = 0; i < lines.getNumGeometries(); i++) {
+                        LineString line = (LineString) lines.getGeometryN(i);
+                        double baseDist = accumulator.accumulate(line);
+                        if (i == 0) {
+                            offset = baseDist;
+                        }
+                        // same intervals handleLineString lays transects out on
+                        nextId += new BaselineIntervals(line).find(true, spacing, smoothing).length / BaselineIntervals.STRIDE;
+                    }
+                    layouts.put(feature.getID(), new BaselineLayout(lines, offset, startId));
+                }
+            } finally {
+                if (null != baselines) {
+                    baselines.close();
+                }
+            }
             
-            Transect[] vectsOnBaseline = getEvenlySpacedOrthoVectorsAlongBaseline(transformedBaselines, shorelineGeometry, spacing);
+            List<Process> zoneProcesses = new ArrayList<Process>();
+            for (Map.Entry<CoordinateReferenceSystem, List<SimpleFeature>> zone : zones.entrySet()) {
+                ReferencedEnvelope zoneBounds = new ReferencedEnvelope(REQUIRED_CRS_WGS84);
+                for (SimpleFeature baseline : zone.getValue()) {
+                    zoneBounds.expandToInclude(ReferencedEnvelope.reference(baseline.getBounds()));
+                }
+                zoneBounds.expandBy(partitionOverlap);
+                Process zoneProcess = new Process(shorelinesWithin(zoneBounds),
+                        new ListFeatureCollection(baselineFeatureCollection.getSchema(), zone.getValue()),
+                        spacing, smoothing, useFarthest, workspace, store, transectLayer, intersectionLayer);
+                zoneProcess.utmCrs = zone.getKey();
+                zoneProcess.baselineLayouts = layouts;
+                zoneProcess.layoutTransform = CRSUtils.getTransform(utmCrs, zone.getKey());
+                zoneProcess.intersectionThreads = Math.max(1, threads / zones.size());
+                zoneProcesses.add(zoneProcess);
+            }
+            
+            List<List<SimpleFeature>> zoneTransects = new ArrayList<List<SimpleFeature>>();
+            List<List<SimpleFeature>> zoneIntersections = new ArrayList<List<SimpleFeature>>();
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, zones.size())));
+            try {
+                for (final Process zoneProcess : zoneProcesses) {
+                    final List<SimpleFeature> transects = new ArrayList<SimpleFeature>();
+                    final List<SimpleFeature> intersections = new ArrayList<SimpleFeature>();
+                    zoneTransects.add(transects);
+                    zoneIntersections.add(intersections);
+                    futures.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            zoneProcess.openIntersectionPool();
+                            try {
+                                Transect[] vectsOnBaseline = zoneProcess.prepareTransects();
+                                zoneProcess.collectTransectsAndIntersections(vectsOnBaseline, transects, intersections);
+                            } finally {
+                                zoneProcess.closeIntersectionPool();
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException ex) {
+                        if (ex.getCause() instanceof Exception) {
+                            throw (Exception) ex.getCause();
+                        }
+                        throw ex;
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
             
-            trimTransectsToFeatureCollection(vectsOnBaseline, transformedShorelines);
+            stitchZones(zoneProcesses, zoneTransects, zoneIntersections);
             String createdTransectLayer = importer.importLayer(resultTransectsCollection, workspace, store, transectLayer, utmCrs, ProjectionPolicy.REPROJECT_TO_DECLARED);
             String createdIntersectionLayer = importer.importLayer(resultIntersectionsCollection, workspace, store, intersectionLayer, utmCrs, ProjectionPolicy.REPROJECT_TO_DECLARED);
             return createdTransectLayer + "," + createdIntersectionLayer;
         }
+        
+        /**
+         * @param bounds WGS84 bounds
+         * @return shoreline features whose bounds intersect bounds, in order
+         */
+        private SimpleFeatureCollection shorelinesWithin(ReferencedEnvelope bounds) {
+            List<SimpleFeature> shorelines = new ArrayList<SimpleFeature>();
+            FeatureIterator<SimpleFeature> features = null;
+            try {
+                features = shorelineFeatureCollection.features();
+                while (features.hasNext()) {
+                    SimpleFeature feature = features.next();
+                    if (bounds.intersects(ReferencedEnvelope.reference(feature.getBounds()))) {
+                        shorelines.add(feature);
+                    }
+                }
+            } finally {
+                if (null != features) {
+                    features.close();
+                }
+            }
+            return new ListFeatureCollection(shorelineFeatureCollection.getSchema(), shorelines);
+        }
+        
+        /**
+         * Reprojects transects and intersections of all zones to utmCrs and
+         * orders them by transect id, intersections keep their order within
+         * a transect
+         */
+        private void stitchZones(List<Process> zoneProcesses, List<List<SimpleFeature>> zoneTransects,
+                List<List<SimpleFeature>> zoneIntersections) {
+            List<SimpleFeature> transectFeatures = new ArrayList<SimpleFeature>();
+            List<SimpleFeature> intersectionFeatures = new ArrayList<SimpleFeature>();
+            for (int zone = 0; zone < zoneProcesses.size(); zone++) {
+                MathTransform transform = CRSUtils.getTransform(zoneProcesses.get(zone).utmCrs, utmCrs);
+                for (SimpleFeature feature : zoneTransects.get(zone)) {
+                    transectFeatures.add(reproject(feature, transectFeatureType, transform));
+                }
+                for (SimpleFeature feature : zoneIntersections.get(zone)) {
+                    intersectionFeatures.add(reproject(feature, intersectionFeatureType, transform));
+                }
+            }
+            // stable sorts, intersections stay grouped in the order they were found
+            Collections.sort(transectFeatures, new TransectIdComparator(transectFeatureType));
+            Collections.sort(intersectionFeatures, new TransectIdComparator(intersectionFeatureType));
+            resultTransectsCollection = DataUtilities.collection(transectFeatures);
+            resultIntersectionsCollection = DataUtilities.collection(intersectionFeatures);
+        }
+        
+        /**
+         * Copies a zone feature into type, reprojecting its geometry
+         */
+        private SimpleFeature reproject(SimpleFeature feature, SimpleFeatureType type, MathTransform transform) {
+            Object[] attributes = feature.getAttributes().toArray();
+            for (int i = 0; i < attributes.length; i++) {
+                if (type.getDescriptor(i) instanceof GeometryDescriptor) {
+                    attributes[i] = CRSUtils.transformGeometry((Geometry) attributes[i], transform);
+                }
+            }
+            return SimpleFeatureBuilder.build(type, attributes, null);
+        }
 
-        protected Transect[] getEvenlySpacedOrthoVectorsAlongBaseline(SimpleFeatureCollection baseline, MultiLineString shorelines, double spacing) {
+        protected Transect[] getEvenlySpacedOrthoVectorsAlongBaseline(SimpleFeatureCollection baseline, double spacing) {
             List<Transect> vectList = new LinkedList<Transect>();
             
             BaselineDistanceAccumulator accumulator = new BaselineDistanceAccumulator();
@@ -208,15 +554,30 @@ public class CreateTransectsAndIntersectionsProcess implements GeoServerProcess
 						orientation = Orientation.SEAWARD;
 					}
 					String baselineId = feature.getID();
+					BaselineLayout layout = null;
+					if (null != baselineLayouts) {
+						// zone of a partitioned run, lay out as the unpartitioned run does
+						layout = baselineLayouts.get(baselineId);
+						accumulator = new BaselineDistanceAccumulator(layout.offset);
+						transectId = layout.startId;
+					}
 
 					MultiLineString lines = CRSUtils.getLinesFromFeature(feature);
 					for (int i=0; i<lines.getNumGeometries(); i++) { // probably only one Linestring
 						LineString line = (LineString)lines.getGeometryN(i);
-						int direction = shorelineDirection(line, shorelines);
+						int direction = shorelineDirection(line);
 
-						double baseDist = accumulator.accumulate(line);
-
-						vectList.addAll(handleLineString(line, spacing, orientation, direction, baselineId, baseDist)); // rather than SEAWARD, get from baseline feature
+						if (null == layout) {
+							double baseDist = accumulator.accumulate(line);
+							vectList.addAll(handleLineString(line, spacing, orientation, direction, baselineId, baseDist)); // rather than SEAWARD, get from baseline feature
+						} else {
+							// direction is relative to the line, so it holds in either projection
+							LineString layoutLine = (LineString)layout.lines.getGeometryN(i);
+							double baseDist = accumulator.accumulate(layoutLine);
+							for (Transect transect : handleLineString(layoutLine, spacing, orientation, direction, baselineId, baseDist)) {
+								vectList.add(transect.transform(layoutTransform));
+							}
+						}
 					}
 				}
 			} finally {
@@ -231,38 +592,36 @@ public class CreateTransectsAndIntersectionsProcess implements GeoServerProcess
         /**
          * 
          * @param vectsOnBaseline
-         * @param baseline
-         * @param shorelines
-         * @return 
          */
-        protected void trimTransectsToFeatureCollection(Transect[] vectsOnBaseline, SimpleFeatureCollection shorelines) {
+        protected void trimTransectsToFeatureCollection(Transect[] vectsOnBaseline) {
             if (vectsOnBaseline.length == 0) {
                 return;
             } 
             List<SimpleFeature> transectFeatures = new LinkedList<SimpleFeature>();
             List<SimpleFeature> intersectionFeatures = new LinkedList<SimpleFeature>();
+            collectTransectsAndIntersections(vectsOnBaseline, transectFeatures, intersectionFeatures);
+            resultTransectsCollection = DataUtilities.collection(transectFeatures);
+            resultIntersectionsCollection = DataUtilities.collection(intersectionFeatures);
+        }
+        
+        /**
+         * Trims transects to their intersections and adds features for them,
+         * transects without intersections are dropped
+         * 
+         * @param vectsOnBaseline untrimmed transects
+         * @param transectFeatures transect features are added here, in order
+         * @param intersectionFeatures intersection features are added here, grouped by transect
+         */
+        protected void collectTransectsAndIntersections(Transect[] vectsOnBaseline, List<SimpleFeature> transectFeatures, List<SimpleFeature> intersectionFeatures) {
             AttributeGetter attGet = new AttributeGetter(intersectionFeatureType);
-            // grow by about 200?
-            double guessTransectLength = MIN_TRANSECT_LENGTH * 4;
             
-            for (Transect transect : vectsOnBaseline) {
-                Map<DateTime, Intersection> allIntersections = Maps.newHashMap();
-                double startDistance = 0;
-                
-                do {
-                    Transect subTransect = transect.subTransect(startDistance, guessTransectLength);
-                    startDistance += guessTransectLength;
-                    Intersection.updateIntersectionsWithSubTransect
-                            (allIntersections, transect.getOriginPoint(), subTransect, strTree, useFarthest, attGet);
-                }
-                while (startDistance < maxTransectLength);
+            Map<DateTime, Intersection>[] intersectionsByTransect = findAllIntersections(vectsOnBaseline, attGet);
+            for (int i = 0; i < vectsOnBaseline.length; i++) {
+                Transect transect = vectsOnBaseline[i];
+                Map<DateTime, Intersection> allIntersections = intersectionsByTransect[i];
                 
                 if (!allIntersections.isEmpty()) {  // ignore non-crossing lines
-                    
-                    double transectLength = Intersection.absoluteFarthest(MIN_TRANSECT_LENGTH, allIntersections.values());
-                    transect.setLength(transectLength + TRANSECT_PADDING);
-                    SimpleFeature feature = transect.createFeature(transectFeatureType);
-                    transectFeatures.add(feature);
+                    transectFeatures.add(trimTransect(transect, allIntersections));
 
                     for (Intersection intersection : allIntersections.values()) {
                         // do I need to worry about order?
@@ -270,8 +629,197 @@ public class CreateTransectsAndIntersectionsProcess implements GeoServerProcess
                     }
                 }
             }
-            resultTransectsCollection = DataUtilities.collection(transectFeatures);
-            resultIntersectionsCollection = DataUtilities.collection(intersectionFeatures);
+        }
+        
+        /**
+         * Same result as trimTransectsToFeatureCollection followed by two imports,
+         * but transects are intersected a block at a time and their features
+         * written straight to the store, so memory is bounded by the block size
+         * rather than by the length of the coastline. Neither layer is left
+         * behind if anything fails.
+         * 
+         * @param vectsOnBaseline untrimmed transects
+         * @return created transect and intersection layer names, comma separated
+         * @throws IOException 
+         */
+        protected String streamTransectsAndIntersections(Transect[] vectsOnBaseline) throws IOException {
+            StreamingLayerWriter transectWriter = new StreamingLayerWriter(catalog, workspace, store, transectLayer, transectFeatureType, streamBatchSize);
+            StreamingLayerWriter intersectionWriter = null;
+            boolean transectsPublished = false;
+            boolean success = false;
+            try {
+                intersectionWriter = new StreamingLayerWriter(catalog, workspace, store, intersectionLayer, intersectionFeatureType, streamBatchSize);
+                AttributeGetter attGet = new AttributeGetter(intersectionFeatureType);
+                for (int start = 0; start < vectsOnBaseline.length; start += streamBatchSize) {
+                    int end = Math.min(start + streamBatchSize, vectsOnBaseline.length);
+                    Map<DateTime, Intersection>[] intersectionsByTransect = findAllIntersections(vectsOnBaseline, start, end, attGet);
+                    for (int i = start; i < end; i++) {
+                        Map<DateTime, Intersection> allIntersections = intersectionsByTransect[i - start];
+                        if (!allIntersections.isEmpty()) {  // ignore non-crossing lines
+                            transectWriter.write(trimTransect(vectsOnBaseline[i], allIntersections));
+                            for (Intersection intersection : allIntersections.values()) {
+                                intersectionWriter.write(intersection.createFeature(intersectionFeatureType));
+                            }
+                        }
+                    }
+                }
+                String createdTransectLayer = transectWriter.publish(utmCrs, ProjectionPolicy.REPROJECT_TO_DECLARED);
+                transectsPublished = true;
+                String createdIntersectionLayer = intersectionWriter.publish(utmCrs, ProjectionPolicy.REPROJECT_TO_DECLARED);
+                success = true;
+                return createdTransectLayer + "," + createdIntersectionLayer;
+            } finally {
+                if (!success) {
+                    if (transectsPublished) {
+                        transectWriter.unpublish();
+                    } else {
+                        transectWriter.abort();
+                    }
+                    if (null != intersectionWriter) {
+                        intersectionWriter.abort();
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Sets transect length to just past its farthest intersection
+         * 
+         * @param transect transect to trim
+         * @param allIntersections intersections of transect, not empty
+         * @return transect feature
+         */
+        private SimpleFeature trimTransect(Transect transect, Map<DateTime, Intersection> allIntersections) {
+            double transectLength = Intersection.absoluteFarthest(MIN_TRANSECT_LENGTH, allIntersections.values());
+            transect.setLength(transectLength + TRANSECT_PADDING);
+            return transect.createFeature(transectFeatureType);
+        }
+        
+        /**
+         * Intersects every transect with the shorelines, splitting the work
+         * across the run's fork/join pool when more than one thread is configured.
+         * Transects are only read here, so results are identical to the serial path.
+         * 
+         * @param transects transects to intersect
+         * @param attGet getter for intersection feature type
+         * @return intersections for each transect, in the same order as transects
+         */
+        protected Map<DateTime, Intersection>[] findAllIntersections(Transect[] transects, AttributeGetter attGet) {
+            return findAllIntersections(transects, 0, transects.length, attGet);
+        }
+        
+        /**
+         * @param transects transects to intersect
+         * @param start first transect to intersect
+         * @param end one past the last transect to intersect
+         * @param attGet getter for intersection feature type
+         * @return intersections for transects start to end, result 0 is for transect start
+         */
+        @SuppressWarnings("unchecked")
+        protected Map<DateTime, Intersection>[] findAllIntersections(Transect[] transects, int start, int end, AttributeGetter attGet) {
+            Map<DateTime, Intersection>[] results = new Map[end - start];
+            if (null != intersectionPool && end - start > TRANSECTS_PER_TASK) {
+                intersectionPool.invoke(new IntersectionTask(transects, results, start, attGet, start, end));
+            } else {
+                for (int i = start; i < end; i++) {
+                    results[i - start] = findIntersections(transects[i], attGet);
+                }
+            }
+            return results;
+        }
+        
+        /**
+         * Walks the transect out to maxTransectLength, either as a single ray
+         * or in sub transects, only reads shared state so it is safe to call
+         * from multiple threads
+         * 
+         * @param transect transect to intersect
+         * @param attGet getter for intersection feature type
+         * @return closest (or farthest) intersection for each shoreline date
+         */
+        protected Map<DateTime, Intersection> findIntersections(Transect transect, AttributeGetter attGet) {
+            // grow by about 200?
+            double guessTransectLength = MIN_TRANSECT_LENGTH * 4;
+            if (usePackedIndex) {
+                return Intersection.calculateIntersectionsAlongRay(transect, maxTransectLength, guessTransectLength,
+                        segmentIndex, shorelineAttributes, useFarthest, attGet);
+            }
+            if (useRayWalk) {
+                return Intersection.calculateIntersectionsAlongRay(transect, maxTransectLength, guessTransectLength,
+                        strTree, useFarthest, shorelineDateCount, attGet);
+            }
+            
+            Map<DateTime, Intersection> allIntersections = Maps.newHashMap();
+            double startDistance = 0;
+
+            do {
+                Transect subTransect = transect.subTransect(startDistance, guessTransectLength);
+                startDistance += guessTransectLength;
+                Intersection.updateIntersectionsWithSubTransect
+                        (allIntersections, transect.getOriginPoint(), subTransect, strTree, useFarthest, attGet);
+            }
+            while (startDistance < maxTransectLength);
+            return allIntersections;
+        }
+        
+        /**
+         * Splits a range of transects in half until it is small enough to
+         * intersect directly, each leaf writes only to its own slots of results
+         */
+        private class IntersectionTask extends RecursiveAction {
+            
+            private final Transect[] transects;
+            private final Map<DateTime, Intersection>[] results;
+            private final int offset;
+            private final AttributeGetter attGet;
+            private final int start;
+            private final int end;
+            
+            private IntersectionTask(Transect[] transects, Map<DateTime, Intersection>[] results, int offset, AttributeGetter attGet, int start, int end) {
+                this.transects = transects;
+                this.results = results;
+                this.offset = offset;
+                this.attGet = attGet;
+                this.start = start;
+                this.end = end;
+            }
+
+            @Override
+            protected void compute() {
+                if (end - start <= TRANSECTS_PER_TASK) {
+                    for (int i = start; i < end; i++) {
+                        results[i - offset] = findIntersections(transects[i], attGet);
+                    }
+                } else {
+                    int middle = (start + end) >>> 1;
+                    invokeAll(new IntersectionTask(transects, results, offset, attGet, start, middle),
+                            new IntersectionTask(transects, results, offset, attGet, middle, end));
+                }
+            }
+        }
+
+        /**
+         * Number of distinct dates in the shorelines, lets the ray walk stop
+         * early once every shoreline has been crossed
+         * 
+         * @param shorelines shoreline features
+         * @return count of distinct shoreline dates
+         */
+        protected int countShorelineDates(SimpleFeatureCollection shorelines) {
+            Set<DateTime> dates = new HashSet<DateTime>();
+            AttributeGetter attGet = new AttributeGetter(shorelines.getSchema());
+            SimpleFeatureIterator features = null;
+            try {
+                features = shorelines.features();
+                while (features.hasNext()) {
+                    dates.add(Intersection.toDateTime(attGet.getValue(DATE_ATTR, features.next())));
+                }
+            } finally {
+                if (null != features) {
+                    features.close();
+                }
+            }
+            return dates.size();
         }
 
         /**
@@ -286,9 +834,10 @@ public class CreateTransectsAndIntersectionsProcess implements GeoServerProcess
                 int orthoDirection,
                 String baselineId,
                 double accumulatedBaselineLength) {
-            List<LineSegment> intervals = findIntervals(lineString, true, spacing, smoothing);
-            List<Transect> transects = new ArrayList<Transect>(intervals.size());
-            for (LineSegment interval : intervals) {
+            double[] intervals = new BaselineIntervals(lineString).find(true, spacing, smoothing);
+            List<Transect> transects = new ArrayList<Transect>(intervals.length / BaselineIntervals.STRIDE);
+            for (int i = 0; i < intervals.length; i += BaselineIntervals.STRIDE) {
+                LineSegment interval = new LineSegment(intervals[i], intervals[i + 1], intervals[i + 2], intervals[i + 3]);
                 transects.add(
                     Transect.generatePerpendicularVector(
                         interval.p0, interval, orientation, transectId++, baselineId, accumulatedBaselineLength, orthoDirection));
@@ -304,10 +853,9 @@ public class CreateTransectsAndIntersectionsProcess implements GeoServerProcess
          * 
          * Use Shoreward orientation so distances are positive (otherwise we should use absolute distance)
          * @param baseline
-         * @param shorelines
          * @return 
          */
-        protected int shorelineDirection(LineString baseline, Geometry shorelines) {
+        protected int shorelineDirection(LineString baseline) {
             Coordinate[] coordinates = baseline.getCoordinates();
             int n = coordinates.length;
             LineSegment a = new LineSegment(coordinates[0], coordinates[1]);
@@ -355,7 +903,9 @@ public class CreateTransectsAndIntersectionsProcess implements GeoServerProcess
             LineString line = transect.getLineString();
             double total = 0d;
             AttributeGetter getter = new AttributeGetter(intersectionFeatureType);
-            Map<DateTime, Intersection> intersections = Intersection.calculateIntersections(transect, strTree, useFarthest, getter);
+            Map<DateTime, Intersection> intersections = (usePackedIndex)
+                    ? Intersection.calculateIntersections(transect, segmentIndex, shorelineAttributes, useFarthest, getter)
+                    : Intersection.calculateIntersections(transect, strTree, useFarthest, getter);
             for (Intersection point : intersections.values()) {
                 total += point.getDistance();
             }
@@ -366,6 +916,42 @@ public class CreateTransectsAndIntersectionsProcess implements GeoServerProcess
         }
     }
     
+    /**
+     * Lines of a baseline in the projection transects are laid out in, with
+     * the baseline distance and transect id its transects start from
+     */
+    private static class BaselineLayout {
+        
+        private final MultiLineString lines;
+        private final double offset;
+        private final int startId;
+
+        private BaselineLayout(MultiLineString lines, double offset, int startId) {
+            this.lines = lines;
+            this.offset = offset;
+            this.startId = startId;
+        }
+    }
+    
+    /**
+     * Orders transect or intersection features by transect id
+     */
+    private static class TransectIdComparator implements Comparator<SimpleFeature> {
+        
+        private final AttributeGetter getter;
+
+        private TransectIdComparator(SimpleFeatureType type) {
+            this.getter = new AttributeGetter(type);
+        }
+
+        @Override
+        public int compare(SimpleFeature a, SimpleFeature b) {
+            long idA = ((Number) getter.getValue(TRANSECT_ID_ATTR, a)).longValue();
+            long idB = ((Number) getter.getValue(TRANSECT_ID_ATTR, b)).longValue();
+            return (idA < idB) ? -1 : ((idA == idB) ? 0 : 1);
+        }
+    }
+    
     // NOTE: For each segment p0 is interval coord, with p1 = p0 + direction of segment as unit vector.
     public static List<LineSegment> findIntervals(LineString lineString, boolean includeOrigin, double interval) {
         LinkedList<LineSegment> intervalList = new LinkedList<LineSegment>();
@@ -393,46 +979,7 @@ public class CreateTransectsAndIntersectionsProcess implements GeoServerProcess
         if (smoothing <= 0 || lineString.getNumPoints() == 2) {
             return findIntervals(lineString, includeOrigin, interval);
         }
-        LinkedList<LineSegment> intervalList = new LinkedList<LineSegment>();
-        List<LineSegment> segmentList = toLineSegments(lineString);     
-        double progress = 0;
-        double next = includeOrigin ? 0 : interval;
-        final double half = smoothing / 2d;
-        int index = 0;
-        final int count = segmentList.size();
-        for (LineSegment segment : segmentList) {
-            final double length = segment.getLength();
-            if (progress + length >= next) {
-                double offset;
-                for (offset = next - progress; offset <= length; offset += interval, next += interval) {
-                    Coordinate intervalCenter = segment.pointAlong(offset / length);
-                    double low = offset - half; // offset from p0 of current segment for low bound of smoothed segment (may be < 0)
-                    double high = offset + half; // offset from p0 of current segment for high bound of smoothed segment (may be > length)
-                    double angle;
-                    if (low < 0 || high > length) {
-                        Coordinate intervalLow = low < 0 && index > 0 ?
-                                    // find distance along line string from end of *last* segment (removing distance along current segment);
-                                    fromEnd(segmentList.subList(0, index), 0 - low, false) :
-                                    // otherwise project along segment
-                                    segment.pointAlong(low / length);
-                        Coordinate intervalHigh = high > length && index < (count - 1) ?
-                                    // find distance along line string from end of *last* segment (removing distance along current segment);
-                                    fromStart(segmentList.subList(index + 1, count), high - length, false) :
-                                    // otherwise project along segment
-                                    segment.pointAlong(high / length);
-                        LineSegment smoothSegment = new LineSegment(intervalLow, intervalHigh);
-                        angle = smoothSegment.angle();
-                    } else {
-                        angle = segment.angle();
-                    }
-                    intervalList.add(new LineSegment(
-                        intervalCenter.x, intervalCenter.y, intervalCenter.x + Math.cos(angle), intervalCenter.y + Math.sin(angle)));
-                }
-            }
-            index++;
-            progress += length;
-        }
-        return intervalList;
+        return BaselineIntervals.toLineSegments(new BaselineIntervals(lineString).find(includeOrigin, interval, smoothing));
     }
     
     // Extracts consituent segments from line string
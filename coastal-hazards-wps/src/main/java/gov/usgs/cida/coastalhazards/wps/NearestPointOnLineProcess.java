@@ -1,12 +1,21 @@
 package gov.usgs.cida.coastalhazards.wps;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineSegment;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import gov.usgs.cida.coastalhazards.util.CRSUtils;
+import gov.usgs.cida.coastalhazards.util.GeoserverUtils;
+import gov.usgs.cida.coastalhazards.util.JNDIConfig;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineIndexCache;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.wps.gs.GeoServerProcess;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
@@ -33,8 +42,45 @@ import org.opengis.referencing.operation.MathTransform;
     version = "1.0.0")
 public class NearestPointOnLineProcess implements GeoServerProcess {
     
+    static final String INDEX_CACHE_ENTRIES_PARAM = "coastal-hazards.geoserver.nearest.index.cache.entries";
+    static final int DEFAULT_INDEX_CACHE_ENTRIES = 0;
+    static final String INDEX_CACHE_SEGMENTS_PARAM = "coastal-hazards.geoserver.nearest.index.cache.segments";
+    static final long DEFAULT_INDEX_CACHE_SEGMENTS = 10000000L;
+    
+    private final Catalog catalog;
+    private final GeoserverUtils gsUtils;
+    private final ShorelineIndexCache indexCache;
+    
     public NearestPointOnLineProcess() {
-
+        this(null, null);
+    }
+    
+    public NearestPointOnLineProcess(Catalog catalog) {
+        this(catalog, new ShorelineIndexCache(
+                JNDIConfig.lookup(INDEX_CACHE_ENTRIES_PARAM, Integer.class, DEFAULT_INDEX_CACHE_ENTRIES),
+                JNDIConfig.lookup(INDEX_CACHE_SEGMENTS_PARAM, Long.class, DEFAULT_INDEX_CACHE_SEGMENTS)));
+    }
+    
+    /**
+     * @param catalog catalog to find and stamp line layers in, null to scan
+     * the lines on every call
+     * @param indexCache segment indexes of line layers, null to scan the
+     * lines on every call
+     */
+    public NearestPointOnLineProcess(Catalog catalog, ShorelineIndexCache indexCache) {
+        this.catalog = catalog;
+        this.gsUtils = (null == catalog) ? null : new GeoserverUtils(catalog);
+        this.indexCache = indexCache;
+    }
+    
+    /**
+     * Segment indexes are reused across calls while the line layer is
+     * unchanged
+     *
+     * @return cache shared by every call of this process, may be null
+     */
+    public ShorelineIndexCache getIndexCache() {
+        return indexCache;
     }
     
     @DescribeResult(name = "point", description = "point (EWKT format)")
@@ -65,11 +111,41 @@ public class NearestPointOnLineProcess implements GeoServerProcess {
             CoordinateReferenceSystem crsP = inputPointP.getCoordinateReferenceSystem();
             CoordinateReferenceSystem crsL = featureCollection.getSchema().getCoordinateReferenceSystem();
             
-            MathTransform transformPtoL = CRS.findMathTransform(crsP, crsL, true);
+            MathTransform transformPtoL = CRSUtils.getTransform(crsP, crsL);
             
             DirectPosition inputPointL = transformPtoL.transform(inputPointP, null);
             Coordinate intpuCoordinateL = new Coordinate(inputPointL.getOrdinate(0), inputPointL.getOrdinate(1));
             
+            LineSegment closestSegment;
+            ShorelineIndexCache.Entry index = getIndex(crsL);
+            if (index != null) {
+                closestSegment = findNearest(index.getStrTree(), intpuCoordinateL);
+            } else {
+                closestSegment = scan(intpuCoordinateL);
+            }
+            
+            if (closestSegment != null) {
+                Coordinate outputCoordinateL = closestSegment.closestPoint(intpuCoordinateL);
+                DirectPosition outputPointL = new DirectPosition2D(crsL, outputCoordinateL.x, outputCoordinateL.y);
+                DirectPosition outputPointP = transformPtoL.inverse().transform(outputPointL, null);
+                return new StringBuilder().
+                        append("SRID=").
+                        append(CRS.lookupEpsgCode(crsP, false)).
+                        append(';').
+                        append("POINT(").
+                        append(outputPointP.getOrdinate(0)).
+                        append(' ').
+                        append(outputPointP.getOrdinate(1)).
+                        append(")").toString();
+            }
+            // fallback
+            return pointEWKT;
+        }
+        
+        /**
+         * @return segment nearest point, the first one read on ties
+         */
+        private LineSegment scan(Coordinate point) {
             LineSegment closestSegment = null;
             double closestDistance = Double.MAX_VALUE;
             
@@ -85,7 +161,7 @@ public class NearestPointOnLineProcess implements GeoServerProcess {
                         for (int gIndex = 0; gIndex < gCount; ++gIndex) {
                             LineString string = (LineString)geometry.getGeometryN(gIndex);
                             for (LineSegment currentSegment : CreateTransectsAndIntersectionsProcess.toLineSegments(string)) {
-                                double currentDistance = currentSegment.distance(intpuCoordinateL);
+                                double currentDistance = currentSegment.distance(point);
                                 if (currentDistance < closestDistance) {
                                     closestDistance = currentDistance;
                                     closestSegment = currentSegment;
@@ -94,30 +170,122 @@ public class NearestPointOnLineProcess implements GeoServerProcess {
                         }
                     }
                 }
-                if (closestSegment != null) {
-                    Coordinate outputCoordinateL = closestSegment.closestPoint(intpuCoordinateL);
-                    DirectPosition outputPointL = new DirectPosition2D(crsL, outputCoordinateL.x, outputCoordinateL.y);
-                    DirectPosition outputPointP = transformPtoL.inverse().transform(outputPointL, null);
-                    return new StringBuilder().
-                            append("SRID=").
-                            append(CRS.lookupEpsgCode(crsP, false)).
-                            append(';').
-                            append("POINT(").
-                            append(outputPointP.getOrdinate(0)).
-                            append(' ').
-                            append(outputPointP.getOrdinate(1)).
-                            append(")").toString();
-                }
             } finally {
                 if (featureIterator != null) {
                     featureIterator.close();
                 }
             }
-            // fallback
-            return pointEWKT;
+            return closestSegment;
+        }
+        
+        /**
+         * Only whole layers in file based stores are indexed, as only they
+         * can be stamped to notice changes without reading the lines.
+         *
+         * @return index of the line segments, null when they cannot be cached
+         */
+        private ShorelineIndexCache.Entry getIndex(CoordinateReferenceSystem crsL) {
+            if (indexCache == null || !indexCache.isEnabled() || catalog == null || crsL == null) {
+                return null;
+            }
+            FeatureTypeInfo typeInfo = catalog.getFeatureTypeByName(featureCollection.getSchema().getName());
+            String stamp = (typeInfo == null) ? null : gsUtils.getModificationStamp(typeInfo);
+            if (stamp == null) {
+                return null;
+            }
+            // lines may be a filtered selection of the layer, which is scanned
+            if (!gsUtils.isWholeLayer(typeInfo, featureCollection)) {
+                return null;
+            }
+            ShorelineIndexCache.Key key = new ShorelineIndexCache.Key(typeInfo.prefixedName(), crsL, stamp);
+            ShorelineIndexCache.Entry cached = indexCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            ShorelineIndexCache.Entry index = new ShorelineIndexCache.Entry(buildIndex(featureCollection));
+            indexCache.put(key, index);
+            return index;
         }
     }
-
+    
+    /**
+     * @return tree of every segment of the lines as OrderedSegment, in the
+     * order scan reads them
+     */
+    static STRtree buildIndex(SimpleFeatureCollection lines) {
+        STRtree tree = new STRtree();
+        int order = 0;
+        SimpleFeatureIterator featureIterator = null;
+        try {
+            featureIterator = lines.features();
+            while (featureIterator.hasNext()) {
+                Object geometryAsObject = featureIterator.next().getDefaultGeometry();
+                if (geometryAsObject instanceof LineString || geometryAsObject instanceof MultiLineString) {
+                    Geometry geometry = (Geometry)geometryAsObject;
+                    int gCount = geometry.getNumGeometries();
+                    for (int gIndex = 0; gIndex < gCount; ++gIndex) {
+                        LineString string = (LineString)geometry.getGeometryN(gIndex);
+                        for (LineSegment segment : CreateTransectsAndIntersectionsProcess.toLineSegments(string)) {
+                            tree.insert(new Envelope(segment.p0, segment.p1), new OrderedSegment(segment, order++));
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (featureIterator != null) {
+                featureIterator.close();
+            }
+        }
+        return tree;
+    }
+    
+    /**
+     * Searches squares of doubling radius around point until the nearest
+     * segment found lies within the square, so no segment outside it can be
+     * nearer, or the square holds every segment.
+     *
+     * @param tree tree from buildIndex
+     * @param point point in line coordinates
+     * @return segment nearest point, the first one read on ties as scan
+     * would find it, null if there are no segments or point is not a number
+     */
+    @SuppressWarnings("unchecked")
+    static LineSegment findNearest(STRtree tree, Coordinate point) {
+        int size = tree.size();
+        if (size == 0 || Double.isNaN(point.x) || Double.isNaN(point.y)) {
+            return null;
+        }
+        double radius = 1e-6 * Math.max(1, Math.max(Math.abs(point.x), Math.abs(point.y)));
+        while (true) {
+            List<OrderedSegment> candidates = tree.query(new Envelope(
+                    point.x - radius, point.x + radius, point.y - radius, point.y + radius));
+            OrderedSegment closest = null;
+            double closestDistance = Double.MAX_VALUE;
+            for (OrderedSegment candidate : candidates) {
+                double distance = candidate.segment.distance(point);
+                if (distance < closestDistance || (distance == closestDistance && candidate.order < closest.order)) {
+                    closestDistance = distance;
+                    closest = candidate;
+                }
+            }
+            if (closest != null && (closestDistance <= radius || candidates.size() == size)) {
+                return closest.segment;
+            }
+            radius *= 2;
+        }
+    }
+    
+    static final class OrderedSegment {
+        
+        private final LineSegment segment;
+        private final int order;
+        
+        OrderedSegment(LineSegment segment, int order) {
+            this.segment = segment;
+            this.order = order;
+        }
+    }
+    
     private static Pattern PATTERN_POINT = Pattern.compile("POINT\\(([^\\)]+)\\)");
     static DirectPosition convertFromPointEWKT(String ewkt) {
         String[] split = ewkt.trim().toUpperCase().split(";");
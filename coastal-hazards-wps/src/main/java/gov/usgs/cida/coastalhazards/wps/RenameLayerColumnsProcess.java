@@ -1,6 +1,9 @@
 package gov.usgs.cida.coastalhazards.wps;
 
 import gov.usgs.cida.coastalhazards.util.GeoserverUtils;
+import gov.usgs.cida.coastalhazards.util.JNDIConfig;
+import gov.usgs.cida.coastalhazards.util.LayerSchemaEditor;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -44,10 +47,12 @@ public class RenameLayerColumnsProcess implements GeoServerProcess {
 
 	private Catalog catalog;
 	private final ImportProcess importProcess;
+	private final boolean inPlace;
 
 	public RenameLayerColumnsProcess(ImportProcess importer, Catalog catalog) {
 		this.catalog = catalog;
 		this.importProcess = importer;
+		this.inPlace = JNDIConfig.lookup(AppendColumnsToLayerProcess.IN_PLACE_PARAM, Boolean.class, AppendColumnsToLayerProcess.DEFAULT_IN_PLACE);
 	}
 
 	@DescribeResult(name = "layerName", description = "Name of the new featuretype, with workspace")
@@ -75,6 +80,18 @@ public class RenameLayerColumnsProcess implements GeoServerProcess {
 			String newColumnName = columnArr[1];
 			columnNameMap.put(originalColumnName, newColumnName);
 		}
+
+		if (inPlace) {
+			// renames in the table or the DBF header rather than copying every feature
+			LayerSchemaEditor editor = new LayerSchemaEditor(catalog);
+			if (editor.canRename(ds, layer, columnNameMap)) {
+				try {
+					return editor.renameColumns(ds, layer, columnNameMap);
+				} catch (IOException ex) {
+					throw new ProcessException(ex);
+				}
+			}
+		}
 		AttributeDescriptor attributeDescriptor;
 		int length = attributeList.size();
 
@@ -1,50 +1,72 @@
 package gov.usgs.cida.coastalhazards.wps;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.geom.LineString;
+import gov.usgs.cida.coastalhazards.util.AttributeStatistics;
+import gov.usgs.cida.coastalhazards.util.AttributeStatisticsService;
 import gov.usgs.cida.coastalhazards.util.Constants;
+import gov.usgs.cida.coastalhazards.util.GeoserverUtils;
+import gov.usgs.cida.coastalhazards.util.JNDIConfig;
+import gov.usgs.cida.coastalhazards.util.RenderedTileCache;
 import gov.usgs.cida.utilities.colors.AttributeRange;
 import gov.usgs.cida.utilities.colors.ColorMap;
 import gov.usgs.cida.utilities.colors.JetColorMap;
+import gov.usgs.cida.utilities.colors.LookupColorMap;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.GraphicsEnvironment;
 import java.awt.Point;
 import java.awt.Transparency;
+import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
-import java.util.Iterator;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.lang.StringUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.wps.gs.GeoServerProcess;
-import org.geotools.coverage.grid.GridCoordinates2D;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
-import org.geotools.coverage.grid.InvalidGridGeometryException;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.geometry.DirectPosition2D;
-import org.geotools.geometry.jts.JTS;
+import org.geotools.filter.AttributeExpressionImpl;
+import org.geotools.filter.SortByImpl;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.process.factory.DescribeParameter;
 import org.geotools.process.factory.DescribeProcess;
 import org.geotools.process.factory.DescribeResult;
 import org.geotools.referencing.CRS;
+import org.geotools.referencing.operation.transform.ConcatenatedTransform;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.sort.SortOrder;
+import org.opengis.metadata.spatial.PixelOrientation;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
  *
@@ -54,11 +76,152 @@ import org.opengis.referencing.operation.TransformException;
 		title = "Results Raster",
 		description = "Rasterize Results by Attribute",
 		version = "1.0.0")
-public class ResultsRasterProcess implements GeoServerProcess {
+public class ResultsRasterProcess implements GeoServerProcess, DisposableBean {
 
 	private final static Logger LOGGER = Logging.getLogger(ResultsRasterProcess.class);
 
-	private Map<String, Map<String, AttributeRange>> featureAttributeRangeMap = new WeakHashMap<String, Map<String, AttributeRange>>();
+	static final String COLOR_MAP_BINS_PARAM = "coastal-hazards.geoserver.results.raster.colormap.bins";
+	static final int DEFAULT_COLOR_MAP_BINS = 0;
+	static final String TILE_CACHE_ENTRIES_PARAM = "coastal-hazards.geoserver.results.raster.cache.entries";
+	static final int DEFAULT_TILE_CACHE_ENTRIES = 0;
+	static final String TILE_CACHE_BYTES_PARAM = "coastal-hazards.geoserver.results.raster.cache.bytes";
+	static final long DEFAULT_TILE_CACHE_BYTES = 256L * 1024 * 1024;
+	static final String TILE_CACHE_SPILL_DIRECTORY_PARAM = "coastal-hazards.geoserver.results.raster.cache.spill.directory";
+	static final String DEFAULT_TILE_CACHE_SPILL_DIRECTORY = "";
+	static final String TILE_CACHE_SPILL_BYTES_PARAM = "coastal-hazards.geoserver.results.raster.cache.spill.bytes";
+	static final long DEFAULT_TILE_CACHE_SPILL_BYTES = 1024L * 1024 * 1024;
+	static final String STATISTICS_PARAM = "coastal-hazards.geoserver.results.raster.statistics";
+	static final boolean DEFAULT_STATISTICS = false;
+	/* number of threads all requests share to render bands of rasters on, 1 renders on the request thread */
+	static final String RENDER_THREADS_PARAM = "coastal-hazards.geoserver.results.raster.threads";
+	static final int DEFAULT_RENDER_THREADS = 1;
+	static final String BANDED_PIXELS_PARAM = "coastal-hazards.geoserver.results.raster.banded.pixels";
+	static final long DEFAULT_BANDED_PIXELS = 2048L * 2048;
+	// more bands than threads, so a coast crossing few bands still spreads out
+	static final int BANDS_PER_THREAD = 4;
+
+	// packed ARGB of features without a value, fully transparent so never drawn
+	private static final int NO_COLOR = 0;
+
+	private final Catalog catalog;
+	private final GeoserverUtils gsUtils;
+	private final int colorMapBins;
+	private final RenderedTileCache tileCache;
+	private final AttributeStatisticsService statisticsService;
+	private int renderThreads;
+	private long bandedPixels;
+	// shared by every request, created on the first banded one
+	private RenderPool renderPool;
+
+	public ResultsRasterProcess() {
+		this(null, JNDIConfig.lookup(COLOR_MAP_BINS_PARAM, Integer.class, DEFAULT_COLOR_MAP_BINS), null);
+	}
+
+	public ResultsRasterProcess(Catalog catalog) {
+		this(catalog, JNDIConfig.lookup(COLOR_MAP_BINS_PARAM, Integer.class, DEFAULT_COLOR_MAP_BINS), createTileCache(),
+				JNDIConfig.lookup(STATISTICS_PARAM, Boolean.class, DEFAULT_STATISTICS) ? new AttributeStatisticsService(catalog) : null);
+	}
+
+	public ResultsRasterProcess(Catalog catalog, int colorMapBins, RenderedTileCache tileCache) {
+		this(catalog, colorMapBins, tileCache, null);
+	}
+
+	/**
+	 * @param catalog catalog to find and stamp layers in for the tile cache,
+	 * null to render every request
+	 * @param colorMapBins colors in the color lookup table, 0 to compute
+	 * every color exactly
+	 * @param tileCache rendered tiles, null to render every request
+	 * @param statisticsService stored statistics of whole layers to take the
+	 * color range from, null to take it from the requested features
+	 */
+	public ResultsRasterProcess(Catalog catalog, int colorMapBins, RenderedTileCache tileCache,
+			AttributeStatisticsService statisticsService) {
+		this.catalog = catalog;
+		this.gsUtils = (null == catalog) ? null : new GeoserverUtils(catalog);
+		this.colorMapBins = colorMapBins;
+		this.tileCache = tileCache;
+		this.statisticsService = statisticsService;
+		this.renderThreads = JNDIConfig.lookup(RENDER_THREADS_PARAM, Integer.class, DEFAULT_RENDER_THREADS);
+		this.bandedPixels = JNDIConfig.lookup(BANDED_PIXELS_PARAM, Long.class, DEFAULT_BANDED_PIXELS);
+	}
+
+	/**
+	 * @param threads threads shared by all requests to render bands on, 1
+	 * renders on the request thread
+	 * @param minimumPixels rasters with fewer pixels render on the request
+	 * thread
+	 */
+	public synchronized void setBanding(int threads, long minimumPixels) {
+		if (renderPool != null && threads != renderThreads) {
+			retire(renderPool);
+			renderPool = null;
+		}
+		this.renderThreads = threads;
+		this.bandedPixels = minimumPixels;
+	}
+
+	/**
+	 * Shuts the render threads down once the requests rendering on them are
+	 * done
+	 */
+	@Override
+	public synchronized void destroy() {
+		if (renderPool != null) {
+			retire(renderPool);
+			renderPool = null;
+		}
+	}
+
+	/**
+	 * Bands of every request render on the same renderThreads daemon
+	 * threads, so concurrent requests never hold more than that many. Each
+	 * request holds the pool until it is done with it, so a pool replaced by
+	 * setBanding is only shut down once its last request releases it.
+	 */
+	private synchronized RenderPool acquireRenderPool() {
+		if (renderPool == null) {
+			renderPool = new RenderPool(Executors.newFixedThreadPool(renderThreads, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "coastal-hazards-raster-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			}));
+		}
+		renderPool.users++;
+		return renderPool;
+	}
+
+	private synchronized void releaseRenderPool(RenderPool pool) {
+		pool.users--;
+		if (pool.retired && pool.users == 0) {
+			pool.executor.shutdown();
+		}
+	}
+
+	private void retire(RenderPool pool) {
+		pool.retired = true;
+		if (pool.users == 0) {
+			pool.executor.shutdown();
+		}
+	}
+
+	private static RenderedTileCache createTileCache() {
+		String spillDirectory = JNDIConfig.lookup(TILE_CACHE_SPILL_DIRECTORY_PARAM, String.class, DEFAULT_TILE_CACHE_SPILL_DIRECTORY);
+		return new RenderedTileCache(
+				JNDIConfig.lookup(TILE_CACHE_ENTRIES_PARAM, Integer.class, DEFAULT_TILE_CACHE_ENTRIES),
+				JNDIConfig.lookup(TILE_CACHE_BYTES_PARAM, Long.class, DEFAULT_TILE_CACHE_BYTES),
+				StringUtils.isBlank(spillDirectory) ? null : new File(spillDirectory),
+				JNDIConfig.lookup(TILE_CACHE_SPILL_BYTES_PARAM, Long.class, DEFAULT_TILE_CACHE_SPILL_BYTES));
+	}
+
+	public RenderedTileCache getTileCache() {
+		return tileCache;
+	}
 
 	@DescribeResult(name = "coverage", description = "coverage")
 	public GridCoverage2D execute(
@@ -79,8 +242,77 @@ public class ResultsRasterProcess implements GeoServerProcess {
 		if (minimumLengthPixels == null) {
 			minimumLengthPixels = 3;
 		}
-		return new Process(features, attribute, bbox, width, height, invert, minimumLengthPixels).execute();
 
+		RenderedTileCache.Key key = getTileKey(features, attribute, bbox, width, height, invert, minimumLengthPixels);
+		if (key != null) {
+			bbox = key.getEnvelope();
+			BufferedImage cached = tileCache.get(key);
+			if (cached != null) {
+				GridCoverageFactory gcf = new GridCoverageFactory();
+				return gcf.create(getClass().getSimpleName() + "-" + UUID.randomUUID().toString(), cached, bbox);
+			}
+		}
+
+		Process process = new Process(features, attribute, bbox, width, height, invert, minimumLengthPixels);
+		GridCoverage2D coverage = process.execute();
+		if (key != null && coverage != null) {
+			tileCache.put(key, process.image);
+		}
+		return coverage;
+
+	}
+
+	/**
+	 * Only layers in file based stores are cached, as only they can be
+	 * stamped to notice changes. The whole layer, as GeoServer renders it
+	 * without a CQL_FILTER, is told by its count alone, only filtered
+	 * selections have their feature ids hashed.
+	 *
+	 * @return tile of the request, null when it cannot be cached
+	 */
+	private RenderedTileCache.Key getTileKey(SimpleFeatureCollection features, String attribute, ReferencedEnvelope bbox,
+			int width, int height, boolean invert, int minimumLengthPixels) {
+		if (tileCache == null || !tileCache.isEnabled() || catalog == null || bbox == null) {
+			return null;
+		}
+		FeatureTypeInfo typeInfo = catalog.getFeatureTypeByName(features.getSchema().getName());
+		String stamp = (typeInfo == null) ? null : gsUtils.getModificationStamp(typeInfo);
+		if (stamp == null) {
+			return null;
+		}
+		// features may be a filtered selection of the layer, the same count can be a different selection
+		String selection = gsUtils.isWholeLayer(typeInfo, features) ? "layer" : GeoserverUtils.getSelectionStamp(features);
+		String options = attribute + ":" + invert + ":" + minimumLengthPixels + ":" + colorMapBins + ":" + selection;
+		return new RenderedTileCache.Key(typeInfo.prefixedName(), stamp, options, bbox, width, height);
+	}
+
+	/**
+	 * The stored statistics cover the whole layer, so a layer is colored the
+	 * same in every tile and filtered selection of it.
+	 *
+	 * @return statistics of attribute over the layer of features, null when
+	 * there is no statistics service or the layer cannot be stamped
+	 */
+	private AttributeStatistics getLayerStatistics(SimpleFeatureCollection features, String attribute) throws IOException {
+		if (statisticsService == null || catalog == null) {
+			return null;
+		}
+		FeatureTypeInfo typeInfo = catalog.getFeatureTypeByName(features.getSchema().getName());
+		return (typeInfo == null) ? null : statisticsService.getStatistics(typeInfo, attribute);
+	}
+
+	/**
+	 * Sorted by the collection so a store can sort natively. Collections
+	 * sort on one attribute, so baselines may interleave and each keeps its
+	 * own strip while drawing.
+	 *
+	 * @return features ordered by distance along their baseline, as read for
+	 * older files without one
+	 */
+	static SimpleFeatureCollection sortByBaseline(SimpleFeatureCollection features) {
+		AttributeDescriptor descriptor = features.getSchema().getDescriptor(Constants.BASELINE_DIST_ATTR);
+		return (descriptor == null) ? features
+				: features.sort(new SortByImpl(new AttributeExpressionImpl(descriptor.getName()), SortOrder.ASCENDING));
 	}
 
 	private class Process {
@@ -98,14 +330,19 @@ public class ResultsRasterProcess implements GeoServerProcess {
 		private double minimumLengthMeters;
 
 		private GridGeometry2D gridGeometry;
-		private LineSegmentTransform lineSegmentTransform;
+		private MathTransform worldToGrid;
 
 		private BufferedImage image;
 		private Graphics2D graphics;
+		private QuadSink quads;
 
 		private ColorMap<Number> colorMap;
+		private LookupColorMap lookupColorMap;
 
-		Map<Integer, LinkedList<SimpleFeature>> baselineFeaturesMap;
+		// features read while finding the attribute range, null when the
+		// range came from stored statistics and features are drawn as read
+		private List<SimpleFeature> features;
+		private final Map<Integer, Strip> strips = new HashMap<Integer, Strip>();
 
 		private Process(SimpleFeatureCollection featureCollection,
 				String className,
@@ -132,8 +369,37 @@ public class ResultsRasterProcess implements GeoServerProcess {
 				return null;
 			}
 
-			for (LinkedList<SimpleFeature> baselineFeatures : baselineFeaturesMap.values()) {
-				processBaselineFeatures(baselineFeatures);
+			SimpleFeatureIterator iterator = null;
+			RenderPool pool = null;
+			try {
+				if (renderThreads > 1 && (long) coverageWidth * coverageHeight >= bandedPixels) {
+					pool = acquireRenderPool();
+					quads = new BandedQuadBatch(graphics, coverageWidth, coverageHeight,
+							Math.min(coverageHeight, renderThreads * BANDS_PER_THREAD), pool.executor);
+				} else {
+					quads = new QuadBatch(graphics);
+				}
+				if (features != null) {
+					for (SimpleFeature feature : features) {
+						draw(feature);
+					}
+				} else {
+					iterator = sortByBaseline(featureCollection).features();
+					while (iterator.hasNext()) {
+						draw(iterator.next());
+					}
+				}
+				quads.flush();
+			} finally {
+				if (iterator != null) {
+					iterator.close();
+				}
+				if (quads != null) {
+					quads.dispose();
+				}
+				if (pool != null) {
+					releaseRenderPool(pool);
+				}
 			}
 
 			GridCoverageFactory gcf = new GridCoverageFactory();
@@ -142,7 +408,7 @@ public class ResultsRasterProcess implements GeoServerProcess {
 					image, coverageEnvelope);
 		}
 
-		private void initialize() {
+		private void initialize() throws IOException {
 
 			AttributeDescriptor attributeDescriptor = featureCollection.getSchema().getDescriptor(attributeName);
 			if (attributeDescriptor == null) {
@@ -155,9 +421,8 @@ public class ResultsRasterProcess implements GeoServerProcess {
 			}
 
 			try {
-				checkTransform();
-
 				gridGeometry = new GridGeometry2D(new GridEnvelope2D(0, 0, coverageWidth, coverageHeight), coverageEnvelope);
+				worldToGrid = createWorldToGrid();
 
 				// NOTE:  assumes transformation results in equal length scales across both axes!
 				if (mimimumLengthPixels > 0) {
@@ -178,50 +443,52 @@ public class ResultsRasterProcess implements GeoServerProcess {
 
 			String featureCollectionId = featureCollection.getSchema().getName().getURI();
 
-			baselineFeaturesMap = new LinkedHashMap<Integer, LinkedList<SimpleFeature>>();
-
 			AttributeRange attributeRange = null;
 
-			LOGGER.log(Level.INFO, "Calculating attribute value range for {}:{}", new Object[]{featureCollectionId, attributeName});
-			SimpleFeatureIterator iterator = null;
-			try {
-				iterator = featureCollection.features();
-				double minimum = Double.MAX_VALUE;
-				double maximum = -Double.MAX_VALUE;
-				while (iterator.hasNext()) {
-					SimpleFeature feature = iterator.next();
-					double value = ((Number) feature.getAttribute(attributeName)).doubleValue();
-					if (Math.abs(value) < 1e10) {
-						if (value > maximum) {
-							maximum = value;
-						}
-						if (value < minimum) {
-							minimum = value;
+			double minimum;
+			double maximum;
+			AttributeStatistics statistics = getLayerStatistics(featureCollection, attributeName);
+			if (statistics != null) {
+				minimum = statistics.getMin();
+				maximum = statistics.getMax();
+			} else {
+				// one read of the features, kept for drawing
+				LOGGER.log(Level.INFO, "Calculating attribute value range for {0}:{1}", new Object[]{featureCollectionId, attributeName});
+				features = new ArrayList<SimpleFeature>();
+				minimum = Double.MAX_VALUE;
+				maximum = -Double.MAX_VALUE;
+				SimpleFeatureIterator iterator = null;
+				try {
+					iterator = sortByBaseline(featureCollection).features();
+					while (iterator.hasNext()) {
+						SimpleFeature feature = iterator.next();
+						Object valueObject = feature.getAttribute(attributeName);
+						if (valueObject instanceof Number) {
+							double value = ((Number) valueObject).doubleValue();
+							if (Math.abs(value) < AttributeStatistics.NO_DATA) {
+								if (value > maximum) {
+									maximum = value;
+								}
+								if (value < minimum) {
+									minimum = value;
+								}
+							}
 						}
+						features.add(feature);
 					}
-
-					Object baselineIdObject = feature.getAttribute(Constants.BASELINE_ID_ATTR);
-					// this is needed for older files w/o baseline ID, null is a valid map key
-					Integer baselineId = baselineIdObject instanceof Number ? ((Number) baselineIdObject).intValue() : null;
-					LinkedList<SimpleFeature> baselineFeatures = baselineFeaturesMap.get(baselineId);
-					if (baselineFeatures == null) {
-						baselineFeatures = new LinkedList<SimpleFeature>();
-						baselineFeaturesMap.put(baselineId, baselineFeatures);
+				} finally {
+					if (iterator != null) {
+						iterator.close();
 					}
-					baselineFeatures.add(feature);
-				}
-				if (minimum < maximum) {
-					attributeRange = new AttributeRange(minimum, maximum);
-					LOGGER.log(Level.INFO, "Attribute value range for {}:{} {}",
-							new Object[]{
-								featureCollectionId, attributeName, attributeRange
-							});
-				}
-			} finally {
-				if (iterator != null) {
-					iterator.close();
 				}
 			}
+			if (minimum < maximum) {
+				attributeRange = new AttributeRange(minimum, maximum);
+				LOGGER.log(Level.INFO, "Attribute value range for {0}:{1} {2}",
+						new Object[]{
+							featureCollectionId, attributeName, attributeRange
+						});
+			}
 			if (attributeRange != null) {
 				attributeRange = (attributeRange.min < 0)
 						? attributeRange.zeroInflect(invert)
@@ -229,23 +496,33 @@ public class ResultsRasterProcess implements GeoServerProcess {
 						? new AttributeRange(attributeRange.max, 0)
 						: new AttributeRange(0, attributeRange.max);
 				colorMap = new JetColorMap(attributeRange);
+				if (colorMapBins > 0) {
+					lookupColorMap = new LookupColorMap(colorMap, attributeRange, colorMapBins);
+					colorMap = lookupColorMap;
+				}
 			}
 		}
 
-		private void checkTransform() throws TransformException {
+		/**
+		 * Feature coordinates to grid coordinates in one transform: the
+		 * reprojection into the request CRS, if any, followed by the affine
+		 * from the request CRS to the upper left corner of grid cells.
+		 */
+		private MathTransform createWorldToGrid() throws TransformException {
+
+			MathTransform crsToGrid = gridGeometry.getCRSToGrid2D(PixelOrientation.UPPER_LEFT);
 
 			CoordinateReferenceSystem featuresCRS = featureCollection.getSchema().getCoordinateReferenceSystem();
 			CoordinateReferenceSystem requestCRS = coverageEnvelope.getCoordinateReferenceSystem();
 
 			if (featuresCRS != null && requestCRS != null && !CRS.equalsIgnoreMetadata(requestCRS, featuresCRS)) {
 				try {
-					lineSegmentTransform = new JTSTransform(CRS.findMathTransform(featuresCRS, requestCRS, true));
+					return ConcatenatedTransform.create(CRS.findMathTransform(featuresCRS, requestCRS, true), crsToGrid);
 				} catch (Exception ex) {
 					throw new TransformException("Unable to transform features into output coordinate reference system", ex);
 				}
-			} else {
-				lineSegmentTransform = new PassThroughTransform();
 			}
+			return crsToGrid;
 		}
 
 		private void createImage() {
@@ -263,141 +540,436 @@ public class ResultsRasterProcess implements GeoServerProcess {
 			graphics = image.createGraphics();
 		}
 
-		private void processBaselineFeatures(LinkedList<SimpleFeature> baselineFeatures) throws Exception {
-
-			Iterator<SimpleFeature> iterator = baselineFeatures.iterator();
+		// shoreline intersect as x0, y0, x1, y1 in feature coordinates
+		private final double[] interceptCurrent = new double[4];
+		// midpoint segment then current intersect, in feature then grid coordinates
+		private final double[] world = new double[8];
+		private final double[] grid = new double[8];
+		// x0, y0, x1, y1 in grid cells
+		private final int[] cellsMidpoint = new int[4];
+		private final int[] cellsCurrent = new int[4];
+
+		/**
+		 * Extends the strip of the baseline of feature to it, starting the
+		 * strip at the first transect of each baseline
+		 */
+		private void draw(SimpleFeature feature) throws Exception {
+			Integer baselineId = extractBaselineId(feature);
+			Strip strip = strips.get(baselineId);
+			if (strip == null) {
+				strip = new Strip();
+				strips.put(baselineId, strip);
+				startBaseline(strip, feature);
+			} else {
+				extendBaseline(strip, feature);
+			}
+		}
 
-			SimpleFeature featureCurrent = iterator.next();
-			LineSegment segmentLast = extractShorelineInterect(featureCurrent);
-			LineSegment segmentLastTransformed = lineSegmentTransform.transform(segmentLast);
-			Color colorLast = extractColor(featureCurrent);
+		/**
+		 * Starts the strip of a baseline at its first transect
+		 */
+		private void startBaseline(Strip strip, SimpleFeature feature) throws TransformException {
+			extractShorelineInterect(feature, strip.interceptLast);
+			worldToGrid.transform(strip.interceptLast, 0, grid, 0, 2);
+			toCells(grid, 0, strip.cellsLast);
+			strip.colorLast = extractColor(feature);
+		}
 
-			while (iterator.hasNext()) {
+		/**
+		 * Draws the strip of a baseline from its last transect to the next,
+		 * each coloring the half nearest it
+		 */
+		private void extendBaseline(Strip strip, SimpleFeature feature) throws Exception {
 
-				featureCurrent = iterator.next();
+			extractShorelineInterect(feature, interceptCurrent);
+			int colorCurrent = extractColor(feature);
 
-				LineSegment segmentCurrent = extractShorelineInterect(featureCurrent);
-				LineSegment segmentCurrentTransformed = lineSegmentTransform.transform(segmentCurrent);
-				Color colorCurrent = extractColor(featureCurrent);
+			for (int i = 0; i < 4; i++) {
+				world[i] = (interceptCurrent[i] + strip.interceptLast[i]) / 2;
+				world[i + 4] = interceptCurrent[i];
+			}
+			worldToGrid.transform(world, 0, grid, 0, 4);
+			toCells(grid, 0, cellsMidpoint);
+			toCells(grid, 4, cellsCurrent);
 
-				LineSegment midpointSegment = new LineSegment(
-						new LineSegment(segmentCurrent.p0, segmentLast.p0).pointAlong(0.5),
-						new LineSegment(segmentCurrent.p1, segmentLast.p1).pointAlong(0.5));
-				LineSegment midpointSegmentTransformed = lineSegmentTransform.transform(midpointSegment);
+			if (strip.colorLast != NO_COLOR) {
+				quads.add(strip.colorLast, strip.cellsLast, cellsMidpoint);
+			}
+			if (colorCurrent != NO_COLOR) {
+				quads.add(colorCurrent, cellsMidpoint, cellsCurrent);
+			}
 
-				if (colorLast != null) {
-					graphics.setColor(colorLast);
-					drawPolygon(segmentLastTransformed, midpointSegmentTransformed);
-				}
-				if (colorCurrent != null) {
-					graphics.setColor(colorCurrent);
-					drawPolygon(midpointSegmentTransformed, segmentCurrentTransformed);
-				}
+			System.arraycopy(interceptCurrent, 0, strip.interceptLast, 0, 4);
+			System.arraycopy(cellsCurrent, 0, strip.cellsLast, 0, 4);
+			strip.colorLast = colorCurrent;
+		}
 
-				segmentLast = segmentCurrent;
-				segmentLastTransformed = segmentCurrentTransformed;
-				colorLast = colorCurrent;
-			}
+		/**
+		 * @return baseline of feature, null for older files without baseline
+		 * ID
+		 */
+		private Integer extractBaselineId(SimpleFeature feature) {
+			Object baselineIdObject = feature.getAttribute(Constants.BASELINE_ID_ATTR);
+			return baselineIdObject instanceof Number ? ((Number) baselineIdObject).intValue() : null;
 		}
 
-		private LineSegment extractShorelineInterect(SimpleFeature feature) {
+		/**
+		 * Writes the part of the transect between NSD and NSD + SCE, padded
+		 * out to the minimum length, to intercept as x0, y0, x1, y1
+		 */
+		private void extractShorelineInterect(SimpleFeature feature, double[] intercept) {
 
 			Object sceObject = ((Double) feature.getAttribute(Constants.SCE_ATTR));
 			Object nsdObject = feature.getAttribute(Constants.NSD_ATTR);
 
 			Geometry geometry = (Geometry) feature.getDefaultGeometry();
-			Coordinate[] coordinates = geometry.getCoordinates();
-			LineSegment segment = new LineSegment(coordinates[0], coordinates[1]);
+			Geometry first = geometry.getGeometryN(0);
+			double x0, y0, x1, y1;
+			if (first instanceof LineString) {
+				CoordinateSequence sequence = ((LineString) first).getCoordinateSequence();
+				x0 = sequence.getX(0);
+				y0 = sequence.getY(0);
+				x1 = sequence.getX(1);
+				y1 = sequence.getY(1);
+			} else {
+				Coordinate[] coordinates = geometry.getCoordinates();
+				x0 = coordinates[0].x;
+				y0 = coordinates[0].y;
+				x1 = coordinates[1].x;
+				y1 = coordinates[1].y;
+			}
 
-			double length = segment.getLength();
+			double dx = x1 - x0;
+			double dy = y1 - y0;
+			double length = Math.sqrt(dx * dx + dy * dy);
 
 			double sce = sceObject instanceof Number ? ((Number) sceObject).doubleValue() : Double.NaN;
 			double nsd = nsdObject instanceof Number ? ((Number) nsdObject).doubleValue() : Double.NaN;
 
-			if (sce == sce && nsd == nsd) {
-				return extractShorelineInterectAndCheckLength(segment, nsd, sce);
-			} else {
-				if (sce != sce && nsd != nsd) {
-					return extractShorelineInterectAndCheckLength(segment, 0, length);
-				}
-				if (sce != sce) {
-					sce = length - nsd;
-				} else /* if nsd != nsd */ {
-					nsd = length - sce;
-				}
-				return extractShorelineInterectAndCheckLength(segment, nsd, sce);
+			if (sce != sce && nsd != nsd) {
+				nsd = 0;
+				sce = length;
+			} else if (sce != sce) {
+				sce = length - nsd;
+			} else if (nsd != nsd) {
+				nsd = length - sce;
 			}
-		}
 
-		private LineSegment extractShorelineInterectAndCheckLength(LineSegment transect, double nsd, double sce) {
-			double tl = transect.getLength();
-			LineSegment shorelineIntersect = new LineSegment(
-					transect.pointAlong(nsd / tl),
-					transect.pointAlong((nsd + sce) / tl));
-			double shorelineIntersectLength = shorelineIntersect.getLength();
+			double start = nsd / length;
+			double end = (nsd + sce) / length;
+			double shorelineIntersectLength = Math.abs(end - start) * length;
 			if (minimumLengthMeters > 0 && shorelineIntersectLength < minimumLengthMeters) {
 				double halfRatio = (minimumLengthMeters / shorelineIntersectLength) / 2;
-				shorelineIntersect = new LineSegment(
-						shorelineIntersect.pointAlong(0 - halfRatio),
-						shorelineIntersect.pointAlong(1 + halfRatio));
+				double span = end - start;
+				end = start + (1 + halfRatio) * span;
+				start = start - halfRatio * span;
 			}
-			return shorelineIntersect;
+			intercept[0] = x0 + start * dx;
+			intercept[1] = y0 + start * dy;
+			intercept[2] = x0 + end * dx;
+			intercept[3] = y0 + end * dy;
 		}
 
-		private Color extractColor(SimpleFeature feature) {
+		/**
+		 * @return packed ARGB color of feature, NO_COLOR if it has no value
+		 */
+		private int extractColor(SimpleFeature feature) {
 			Object valueObject = feature.getAttribute(attributeName);
-			return valueObject instanceof Number
-					? colorMap.valueToColor(((Number) valueObject).doubleValue())
-					: null;
+			if (!(valueObject instanceof Number)) {
+				return NO_COLOR;
+			}
+			double value = ((Number) valueObject).doubleValue();
+			return (lookupColorMap != null)
+					? lookupColorMap.valueToARGB(value)
+					: colorMap.valueToColor(value).getRGB();
 		}
 
-		private final int[] px = new int[4];
-		private final int[] py = new int[4];
+		private void toCells(double[] points, int offset, int[] cells) {
+			for (int i = 0; i < 4; i++) {
+				cells[i] = (int) Math.floor(points[offset + i]);
+			}
+		}
+
+	}
+
+	/**
+	 * Last transect drawn of a baseline
+	 */
+	private static class Strip {
+
+		// shoreline intersect as x0, y0, x1, y1 in feature coordinates
+		private final double[] interceptLast = new double[4];
+		// x0, y0, x1, y1 in grid cells
+		private final int[] cellsLast = new int[4];
+		// packed ARGB
+		private int colorLast;
+	}
+
+	/**
+	 * Collects quads into one path per colour so each colour is filled once
+	 * instead of once per quad. Quads are added counter-clockwise so the
+	 * non-zero winding rule fills the union of overlapping quads, as filling
+	 * them one at a time would.
+	 */
+	static class QuadBatch implements QuadSink {
+
+		static final int MAX_QUADS = 1 << 16;
+
+		private final Graphics2D graphics;
+		private final Map<Integer, Path2D.Float> paths = new LinkedHashMap<Integer, Path2D.Float>();
+		private int count = 0;
 
-		private void worldToGrid(Coordinate c, int i) throws InvalidGridGeometryException, TransformException {
-			DirectPosition2D world = new DirectPosition2D(c.x, c.y);
-			GridCoordinates2D grid = gridGeometry.worldToGrid(world);
-			px[i] = grid.x;
-			py[i] = grid.y;
+		QuadBatch(Graphics2D graphics) {
+			this.graphics = graphics;
 		}
 
-		private void drawPolygon(LineSegment s0, LineSegment s1) throws TransformException {
-			worldToGrid(s0.p0, 0);
-			worldToGrid(s0.p1, 1);
-			worldToGrid(s1.p1, 2);
-			worldToGrid(s1.p0, 3);
-			graphics.fillPolygon(px, py, 4);
+		/**
+		 * Adds the quad s0.p0, s0.p1, s1.p1, s1.p0, segments as x0, y0, x1,
+		 * y1 in grid cells, to be filled in packed ARGB color
+		 */
+		@Override
+		public void add(int color, int[] s0, int[] s1) {
+			Integer argb = color;
+			Path2D.Float path = paths.get(argb);
+			if (path == null) {
+				path = new Path2D.Float(Path2D.WIND_NON_ZERO);
+				paths.put(argb, path);
+			}
+			long area = cross(s0[0], s0[1], s0[2], s0[3])
+					+ cross(s0[2], s0[3], s1[2], s1[3])
+					+ cross(s1[2], s1[3], s1[0], s1[1])
+					+ cross(s1[0], s1[1], s0[0], s0[1]);
+			// grid y runs down, so counter-clockwise on screen is negative area
+			if (area <= 0) {
+				path.moveTo(s0[0], s0[1]);
+				path.lineTo(s0[2], s0[3]);
+				path.lineTo(s1[2], s1[3]);
+				path.lineTo(s1[0], s1[1]);
+			} else {
+				path.moveTo(s1[0], s1[1]);
+				path.lineTo(s1[2], s1[3]);
+				path.lineTo(s0[2], s0[3]);
+				path.lineTo(s0[0], s0[1]);
+			}
+			path.closePath();
+			if (++count >= MAX_QUADS) {
+				flush();
+			}
 		}
 
-	}
+		@Override
+		public void flush() {
+			for (Map.Entry<Integer, Path2D.Float> entry : paths.entrySet()) {
+				graphics.setColor(new Color(entry.getKey(), true));
+				graphics.fill(entry.getValue());
+			}
+			paths.clear();
+			count = 0;
+		}
 
-	public interface LineSegmentTransform {
+		@Override
+		public void dispose() {
+			paths.clear();
+			count = 0;
+		}
 
-		LineSegment transform(LineSegment in) throws TransformException;
+		private static long cross(long x0, long y0, long x1, long y1) {
+			return x0 * y1 - x1 * y0;
+		}
 	}
 
-	public class PassThroughTransform implements LineSegmentTransform {
+	/**
+	 * Executor shared by banded requests, counting the requests using it
+	 */
+	private static class RenderPool {
 
-		@Override
-		public LineSegment transform(LineSegment in) {
-			return in;
+		private final ExecutorService executor;
+		private int users;
+		// replaced, shut down once no request uses it
+		private boolean retired;
+
+		private RenderPool(ExecutorService executor) {
+			this.executor = executor;
 		}
 	}
 
-	public class JTSTransform implements LineSegmentTransform {
+	/**
+	 * Quads of segments as x0, y0, x1, y1 in grid cells, filled in packed
+	 * ARGB color, drawn at the latest on flush
+	 */
+	interface QuadSink {
 
-		private final MathTransform transform;
+		void add(int color, int[] s0, int[] s1) throws Exception;
 
-		public JTSTransform(MathTransform transform) {
-			this.transform = transform;
+		void flush() throws Exception;
+
+		/**
+		 * Drops quads not drawn yet and releases what drawing them holds,
+		 * safe to call after flush and more than once
+		 */
+		void dispose();
+	}
+
+	/**
+	 * Splits the image into horizontal bands, each filled through its own
+	 * QuadBatch into its own image on the executor while features are still
+	 * being read. Quads are routed to every band their rows touch, which
+	 * clips them to the band, and flush draws the bands into the image. Each
+	 * band renders one chunk of quads at a time, in the order they were
+	 * added. Up to QuadBatch.MAX_QUADS quads the pixels are those of a single
+	 * QuadBatch; past that the bands start new chunks at other quads than a
+	 * single batch would, which may change how overlapping translucent quads
+	 * of different colors blend.
+	 */
+	static class BandedQuadBatch implements QuadSink {
+
+		// color then s0 and s1
+		private static final int QUAD_INTS = 9;
+
+		private final Graphics2D graphics;
+		private final ExecutorService executor;
+		private final int height;
+		private final int bandHeight;
+		private final Band[] bands;
+
+		/**
+		 * @param graphics graphics of the whole image
+		 * @param width image width
+		 * @param height image height
+		 * @param bandCount bands to split the image into
+		 * @param executor renders the bands
+		 */
+		BandedQuadBatch(Graphics2D graphics, int width, int height, int bandCount, ExecutorService executor) {
+			this.graphics = graphics;
+			this.executor = executor;
+			this.height = height;
+			this.bandHeight = (height + bandCount - 1) / bandCount;
+			this.bands = new Band[(height + bandHeight - 1) / bandHeight];
+			for (int i = 0; i < bands.length; i++) {
+				int y = i * bandHeight;
+				bands[i] = new Band(y, width, Math.min(bandHeight, height - y));
+			}
+		}
+
+		@Override
+		public void add(int color, int[] s0, int[] s1) throws Exception {
+			int minY = Math.min(Math.min(s0[1], s0[3]), Math.min(s1[1], s1[3]));
+			int maxY = Math.max(Math.max(s0[1], s0[3]), Math.max(s1[1], s1[3]));
+			if (maxY < 0 || minY >= height) {
+				return;
+			}
+			int first = Math.max(0, minY / bandHeight);
+			int last = Math.min(bands.length - 1, maxY / bandHeight);
+			for (int i = first; i <= last; i++) {
+				bands[i].add(color, s0, s1);
+			}
 		}
 
 		@Override
-		public LineSegment transform(LineSegment in) throws TransformException {
-			LineSegment out = new LineSegment();
-			JTS.transform(in.p0, out.p0, transform);
-			JTS.transform(in.p1, out.p1, transform);
-			return out;
+		public void flush() throws Exception {
+			try {
+				for (Band band : bands) {
+					band.submit();
+				}
+				for (Band band : bands) {
+					band.await();
+				}
+			} finally {
+				// a failed band leaves the others nothing to render for
+				dispose();
+			}
+			for (Band band : bands) {
+				graphics.drawImage(band.image, 0, band.y, null);
+			}
+		}
+
+		@Override
+		public void dispose() {
+			for (Band band : bands) {
+				if (band.pending != null) {
+					band.pending.cancel(true);
+					band.pending = null;
+				}
+				band.count = 0;
+				band.graphics.dispose();
+			}
+		}
+
+		private class Band {
+
+			private final int y;
+			private final BufferedImage image;
+			private final Graphics2D graphics;
+			private int[] quads = new int[QUAD_INTS * 1024];
+			private int count = 0;
+			private Future<Void> pending;
+
+			private Band(int y, int width, int height) {
+				this.y = y;
+				this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+				this.graphics = image.createGraphics();
+				// grid rows to band rows
+				this.graphics.translate(0, -y);
+			}
+
+			private void add(int color, int[] s0, int[] s1) throws Exception {
+				int offset = count * QUAD_INTS;
+				if (offset == quads.length) {
+					quads = Arrays.copyOf(quads, quads.length * 2);
+				}
+				quads[offset] = color;
+				System.arraycopy(s0, 0, quads, offset + 1, 4);
+				System.arraycopy(s1, 0, quads, offset + 5, 4);
+				if (++count >= QuadBatch.MAX_QUADS) {
+					submit();
+				}
+			}
+
+			/**
+			 * Renders the quads added so far once the previous chunk is done
+			 */
+			private void submit() throws Exception {
+				if (count == 0) {
+					return;
+				}
+				await();
+				final int[] chunk = quads;
+				final int chunkCount = count;
+				quads = new int[chunk.length];
+				count = 0;
+				pending = executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						QuadBatch batch = new QuadBatch(graphics);
+						int[] s0 = new int[4];
+						int[] s1 = new int[4];
+						for (int i = 0; i < chunkCount; i++) {
+							int offset = i * QUAD_INTS;
+							System.arraycopy(chunk, offset + 1, s0, 0, 4);
+							System.arraycopy(chunk, offset + 5, s1, 0, 4);
+							batch.add(chunk[offset], s0, s1);
+						}
+						batch.flush();
+						return null;
+					}
+				});
+			}
+
+			private void await() throws Exception {
+				if (pending == null) {
+					return;
+				}
+				try {
+					pending.get();
+				} catch (ExecutionException ex) {
+					if (ex.getCause() instanceof Exception) {
+						throw (Exception) ex.getCause();
+					}
+					throw ex;
+				} finally {
+					pending = null;
+				}
+			}
 		}
 	}
 
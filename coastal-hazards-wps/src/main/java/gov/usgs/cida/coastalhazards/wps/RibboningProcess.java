@@ -9,19 +9,35 @@ import com.vividsolutions.jts.geom.MultiLineString;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.PrecisionModel;
 import gov.usgs.cida.coastalhazards.util.CRSUtils;
+import gov.usgs.cida.coastalhazards.util.FeatureOrderIndex;
+import gov.usgs.cida.coastalhazards.util.FeatureOrderService;
+import gov.usgs.cida.coastalhazards.util.GeoserverUtils;
+import gov.usgs.cida.coastalhazards.util.JNDIConfig;
+import gov.usgs.cida.coastalhazards.util.RibbonCache;
 import gov.usgs.cida.coastalhazards.wps.exceptions.UnsupportedFeatureTypeException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.wps.gs.GeoServerProcess;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
-import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
+import org.geotools.feature.collection.FilteringSimpleFeatureCollection;
 import org.geotools.feature.collection.SortedSimpleFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
@@ -34,16 +50,21 @@ import org.geotools.process.factory.DescribeParameter;
 import org.geotools.process.factory.DescribeProcess;
 import org.geotools.process.factory.DescribeResult;
 import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.util.logging.Logging;
 import org.opengis.coverage.grid.GridGeometry;
+import org.opengis.feature.FeatureVisitor;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
 import org.opengis.filter.sort.SortBy;
 import org.opengis.filter.sort.SortOrder;
 import org.opengis.geometry.DirectPosition;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
+import org.opengis.util.ProgressListener;
 
 /**
  *
@@ -60,6 +81,80 @@ public class RibboningProcess implements GeoServerProcess {
     private static GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(PrecisionModel.FLOATING));
 	
 	public static final String ribbonAttr = "RIBBONID";
+	private static final char RIBBON_ID_SEPARATOR = '.';
+
+	static final String CACHE_ENTRIES_PARAM = "coastal-hazards.geoserver.ribbon.cache.entries";
+	static final int DEFAULT_CACHE_ENTRIES = 0;
+	static final String CACHE_COORDINATES_PARAM = "coastal-hazards.geoserver.ribbon.cache.coordinates";
+	static final long DEFAULT_CACHE_COORDINATES = 10000000L;
+	static final String ORDER_INDEX_PARAM = "coastal-hazards.geoserver.ribbon.order.index";
+	static final boolean DEFAULT_ORDER_INDEX = false;
+
+	private static final double[] REVERSE_SCALES = new double[] {
+		1.0,
+		500.0,
+		1000.0,
+		2500.0,
+		5000.0,
+		10000.0,
+		25000.0,
+		50000.0,
+		100000.0,
+		250000.0,
+		500000.0,
+		1000000.0,
+		2500000.0,
+		5000000.0,
+		10000000.0,
+		25000000.0,
+		50000000.0,
+		1000000000.0
+	};
+	// size of a pixel at scale 1:1, the standard rendering pixel of 0.28mm
+	private static final double METERS_PER_PIXEL = 0.00028;
+	private static final double METERS_PER_DEGREE = 111320.0;
+
+	private static final FilterFactory2 filterFactory = CommonFactoryFinder.getFilterFactory2(null);
+
+	private final Catalog catalog;
+	private final GeoserverUtils gsUtils;
+	private final RibbonCache ribbonCache;
+	private final FeatureOrderService orderService;
+
+	public RibboningProcess() {
+		this(null, null, null);
+	}
+
+	public RibboningProcess(Catalog catalog) {
+		this(catalog, new RibbonCache(
+				JNDIConfig.lookup(CACHE_ENTRIES_PARAM, Integer.class, DEFAULT_CACHE_ENTRIES),
+				JNDIConfig.lookup(CACHE_COORDINATES_PARAM, Long.class, DEFAULT_CACHE_COORDINATES)),
+				JNDIConfig.lookup(ORDER_INDEX_PARAM, Boolean.class, DEFAULT_ORDER_INDEX) ? new FeatureOrderService(catalog) : null);
+	}
+
+	/**
+	 * @param catalog catalog to find and stamp layers in for the ribbon
+	 * cache and stored orders, null to ribbon and sort every request
+	 * @param ribbonCache ribbons of whole layers, null to ribbon every
+	 * request
+	 * @param orderService stored orders of whole layers by the sort
+	 * attribute, null to sort every request
+	 */
+	public RibboningProcess(Catalog catalog, RibbonCache ribbonCache, FeatureOrderService orderService) {
+		this.catalog = catalog;
+		this.gsUtils = (null == catalog) ? null : new GeoserverUtils(catalog);
+		this.ribbonCache = ribbonCache;
+		this.orderService = orderService;
+	}
+
+	/**
+	 * Ribbons are reused across tile requests while the layer is unchanged
+	 *
+	 * @return cache shared by every call of this process, may be null
+	 */
+	public RibbonCache getRibbonCache() {
+		return ribbonCache;
+	}
 
 	@DescribeResult(name = "result", description = "Layer with ribboned clones")
 	public SimpleFeatureCollection execute(
@@ -90,21 +185,46 @@ public class RibboningProcess implements GeoServerProcess {
 		if (null == scale) {
 			scale = Double.MAX_VALUE;
 		}
-		SimpleFeatureCollection featuresToProcess = features;
+		CoordinateReferenceSystem bboxCRS = bbox.getCoordinateReferenceSystem();
+		CoordinateReferenceSystem featureCRS = CRSUtils.getCRSFromFeatureCollection(features);
 		
-		if (null != sortAttribute) {
-			featuresToProcess = sortFeatures(sortAttribute, features);
+		double[] xyOffset = getXYOffset(bbox, bboxCRS, featureCRS, width, height, offset, scale);
+		
+		SimpleFeatureCollection cached = getCachedRibbons(features, bbox, featureCRS, invertSide, sortAttribute, calcAngles, ribbonCount, offset, scale);
+		if (null != cached) {
+			return cached;
 		}
 		
-		CoordinateReferenceSystem bboxCRS = bbox.getCoordinateReferenceSystem();
-		CoordinateReferenceSystem featureCRS = CRSUtils.getCRSFromFeatureCollection(featuresToProcess);
+		SimpleFeatureCollection featuresToProcess = features;
 		
-		double[] xyOffset = getXYOffset(bbox, bboxCRS, featureCRS, width, height, offset, scale);
+		if (null != sortAttribute) {
+			featuresToProcess = orderFeatures(sortAttribute, features);
+		}
 		
 		return new Process(featuresToProcess, invertSide, sortAttribute, calcAngles, ribbonCount, xyOffset).execute();
 
 	}
 	
+	/**
+	 * Sorting a tile's features against the stored order of their layer
+	 * only reads them, where a sort by the attribute may spill to disk.
+	 *
+	 * @return features sorted by sortAttribute, by the stored order of their
+	 * layer when there is one
+	 */
+	private SimpleFeatureCollection orderFeatures(String sortAttribute, SimpleFeatureCollection features) throws IOException {
+		AttributeDescriptor sortAttr = features.getSchema().getDescriptor(sortAttribute);
+		if (null != orderService && null != catalog && null != sortAttr) {
+			FeatureTypeInfo typeInfo = catalog.getFeatureTypeByName(features.getSchema().getName());
+			FeatureOrderIndex order = (null == typeInfo) ? null : orderService.getOrder(typeInfo, sortAttr.getLocalName());
+			SimpleFeatureCollection sorted = (null == order) ? null : order.sort(features);
+			if (null != sorted) {
+				return sorted;
+			}
+		}
+		return sortFeatures(sortAttribute, features);
+	}
+	
 	public SimpleFeatureCollection sortFeatures(String sortAttribute, SimpleFeatureCollection features) {
 		SimpleFeatureCollection result = features;
 		
@@ -120,42 +240,153 @@ public class RibboningProcess implements GeoServerProcess {
 		return result;
 	}
 
+	/**
+	 * @return id of the ribbon numbered ribbonNum, from 0, of a feature
+	 */
+	public static String getRibbonId(String sourceId, int ribbonNum) {
+		return sourceId + RIBBON_ID_SEPARATOR + ribbonNum;
+	}
+
+	/**
+	 * @return id of the feature a ribbon was made from
+	 */
+	public static String getSourceId(String ribbonId) {
+		return ribbonId.substring(0, ribbonId.lastIndexOf(RIBBON_ID_SEPARATOR));
+	}
+
+	/**
+	 * The cache holds the ribbons of the whole layer as GeoServer serves it,
+	 * so ribbons run on across tile edges. Only layers in file based stores
+	 * are cached, as only they can be stamped to notice changes. Requests
+	 * missing any feature the layer has in bbox, such as those with a
+	 * CQL_FILTER, are ribboned as usual. Only the features in bbox are read
+	 * for their ids, the CQL_FILTER of a rendering is not passed to the
+	 * process.
+	 *
+	 * @return copies of the cached ribbons in bbox, null when the request
+	 * cannot be served from the cache
+	 */
+	private SimpleFeatureCollection getCachedRibbons(SimpleFeatureCollection features, ReferencedEnvelope bbox,
+			final CoordinateReferenceSystem featureCRS, final boolean invertSide, final String sortAttribute,
+			final boolean calcAngles, final int ribbonCount, int offset, double scale) throws Exception {
+		if (null == ribbonCache || !ribbonCache.isEnabled() || null == catalog || null == bbox) {
+			return null;
+		}
+		final FeatureTypeInfo typeInfo = catalog.getFeatureTypeByName(features.getSchema().getName());
+		String stamp = (null == typeInfo) ? null : gsUtils.getModificationStamp(typeInfo);
+		if (null == stamp) {
+			return null;
+		}
+		int scaleBand = getScaleBand(scale);
+		final double[] layerOffset = getLayerXYOffset(typeInfo, featureCRS, scaleBand, offset);
+		if (null == layerOffset) {
+			return null;
+		}
+		String options = sortAttribute + ":" + invertSide + ":" + calcAngles + ":" + ribbonCount + ":" + offset;
+		RibbonCache.Key key = new RibbonCache.Key(typeInfo.prefixedName(), stamp, options, scaleBand);
+		RibbonCache.Entry entry = ribbonCache.get(key, new Callable<RibbonCache.Entry>() {
+			@Override
+			public RibbonCache.Entry call() throws Exception {
+				@SuppressWarnings("unchecked")
+				SimpleFeatureCollection layer = DataUtilities.simple(
+						(FeatureSource<SimpleFeatureType, SimpleFeature>) typeInfo.getFeatureSource(null, null)).getFeatures();
+				if (null != sortAttribute) {
+					layer = orderFeatures(sortAttribute, layer);
+				}
+				return new RibbonCache.Entry(new Process(layer, invertSide, sortAttribute, calcAngles, ribbonCount, layerOffset).execute());
+			}
+		});
+
+		ReferencedEnvelope area = bbox;
+		CoordinateReferenceSystem bboxCRS = bbox.getCoordinateReferenceSystem();
+		if (null != featureCRS && null != bboxCRS && !CRS.equalsIgnoreMetadata(bboxCRS, featureCRS)) {
+			area = bbox.transform(featureCRS, true);
+		}
+		if (!entry.hasSources(area, getIds(features, area))) {
+			return null;
+		}
+		return entry.getRibbons(area);
+	}
+
+	/**
+	 * @return ids of the features in area
+	 */
+	private static Set<String> getIds(SimpleFeatureCollection features, ReferencedEnvelope area) {
+		String geometryName = features.getSchema().getGeometryDescriptor().getLocalName();
+		Set<String> ids = new HashSet<String>();
+		SimpleFeatureIterator iterator = null;
+		try {
+			iterator = features.subCollection(filterFactory.bbox(filterFactory.property(geometryName), area)).features();
+			while (iterator.hasNext()) {
+				ids.add(iterator.next().getID());
+			}
+		} finally {
+			if (null != iterator) {
+				iterator.close();
+			}
+		}
+		return ids;
+	}
+
 	public Query invertQuery(Query targetQuery, GridGeometry targetGridGeometry) throws ProcessException {
 		Query result = new Query(targetQuery);
 		result.setProperties(Query.ALL_PROPERTIES);
 		return result;
 	}
+
+	/**
+	 * Scale bands share the ribbon offset, so cached ribbons are shared by
+	 * every scale in a band
+	 *
+	 * @return band of scale
+	 */
+	static int getScaleBand(double scale) {
+		return Math.abs(Arrays.binarySearch(REVERSE_SCALES, scale));
+	}
+
+	/**
+	 * @return standard scale closing band
+	 */
+	private static double getBandScale(int scaleBand) {
+		return REVERSE_SCALES[Math.max(0, Math.min(scaleBand - 1, REVERSE_SCALES.length - 1))];
+	}
+
+	/**
+	 * Ribbon offset in feature units of a pixel at the scale of a band and
+	 * at the center of the layer, the same for every tile of the band
+	 *
+	 * @return offset in feature units, null when the layer has no bounds
+	 */
+	private double[] getLayerXYOffset(FeatureTypeInfo typeInfo, CoordinateReferenceSystem featureCRS, int scaleBand, int unscaledOffset) throws Exception {
+		ReferencedEnvelope bounds = typeInfo.getLatLonBoundingBox();
+		if (null == bounds || bounds.isEmpty()) {
+			return null;
+		}
+		double scaledOffset = calculateScaledOffset(scaleBand, unscaledOffset);
+		double pixelDegrees = getBandScale(scaleBand) * METERS_PER_PIXEL / METERS_PER_DEGREE;
+		double lon = bounds.getMedian(0);
+		double lat = bounds.getMedian(1);
+		double lonDegrees = pixelDegrees / Math.max(0.01, Math.cos(Math.toRadians(lat)));
+		ReferencedEnvelope pixel = new ReferencedEnvelope(
+				lon - lonDegrees / 2, lon + lonDegrees / 2, lat - pixelDegrees / 2, lat + pixelDegrees / 2,
+				DefaultGeographicCRS.WGS84);
+		if (null != featureCRS) {
+			pixel = pixel.transform(featureCRS, true);
+		}
+		return new double[] {
+			pixel.getWidth() * scaledOffset,
+			pixel.getHeight() * scaledOffset
+		};
+	}
 	
-	private double calculateScaledOffset(double scale, double offset) {
+	private double calculateScaledOffset(int scaleBand, double offset) {
 		double result = offset;
 		
-		double[] reverseScales = new double[] {
-			1.0,
-			500.0,
-			1000.0,
-			2500.0,
-			5000.0,
-			10000.0,
-			25000.0,
-			50000.0,
-			100000.0,
-			250000.0,
-			500000.0,
-			1000000.0,
-			2500000.0,
-			5000000.0,
-			10000000.0,
-			25000000.0,
-			50000000.0,
-			1000000000.0
-		};
-		
 		double strokeWidth = ((offset - 1) / 3) * 2;
 		
-		int reversePlace = Math.abs(Arrays.binarySearch(reverseScales, scale));
-		int place = reverseScales.length - reversePlace;
+		int place = REVERSE_SCALES.length - scaleBand;
 		
-		double scaledStrokeWidth = strokeWidth + (place * (5 * strokeWidth / reverseScales.length));
+		double scaledStrokeWidth = strokeWidth + (place * (5 * strokeWidth / REVERSE_SCALES.length));
 		result = scaledStrokeWidth + ((scaledStrokeWidth / 2) + 1);
 		
 		return result;
@@ -164,7 +395,7 @@ public class RibboningProcess implements GeoServerProcess {
 	private double[] getXYOffset(ReferencedEnvelope bbox, CoordinateReferenceSystem bboxCRS, CoordinateReferenceSystem featureCRS, Integer width, Integer height, Integer unscaledOffset, Double scale) {
 		double[] result = new double[] {unscaledOffset.doubleValue(), unscaledOffset.doubleValue()};
 		
-		double scaledOffset = calculateScaledOffset(scale, unscaledOffset.doubleValue());
+		double scaledOffset = calculateScaledOffset(getScaleBand(scale), unscaledOffset.doubleValue());
 		
 		try {
 			MathTransform transformToFeature = null;
@@ -226,70 +457,179 @@ public class RibboningProcess implements GeoServerProcess {
 		}
 
 		private SimpleFeatureCollection execute() throws Exception {
-			ListFeatureCollection result = null;
-			
 			SimpleFeatureType sft = this.featureCollection.getSchema();
 			SimpleFeatureTypeBuilder sftb = new SimpleFeatureTypeBuilder();
 			sftb.addAll(sft.getAttributeDescriptors());
 			sftb.add(ribbonAttr, Integer.class);
 			sftb.setName(sft.getName());
 			SimpleFeatureType schema = sftb.buildFeatureType();
-			
-			result = new ListFeatureCollection(schema);
-			LineString prevLine = null;
-			double[] prevLineOffset = null;
-			SimpleFeatureIterator features = null;
-			try {
-				features = this.featureCollection.features();
-				while (features.hasNext()) {
-					SimpleFeature feature = features.next();
 
-					MultiLineString lines = getMultiLineString(feature);
-					if (null != lines) {
-						List<Geometry> ribbonLines = new ArrayList<Geometry>();
-						for (int ribbonNum = 0; ribbonNum < ribbonCount; ribbonNum++) {
-							ribbonLines.add((Geometry) lines.clone());
-						}
+			return new RibbonedFeatureCollection(this.featureCollection, schema);
+		}
 
-						for (int geomNum = 0; geomNum < lines.getNumGeometries(); geomNum++) {
-							LineString line = (LineString) lines.getGeometryN(geomNum);
+		/**
+		 * Ribboned clones of the features, computed as they are read so
+		 * rendering starts at once and only one feature and its ribbons are
+		 * held at a time. Every iteration ribbons the features again.
+		 */
+		private class RibbonedFeatureCollection extends DecoratingSimpleFeatureCollection {
 
-							double[] lineOffset = computeXYOffset(prevLine, prevLineOffset, line);
+			private final SimpleFeatureType schema;
 
-							if (null != lineOffset) {
-								for (int ribbonNum = 0; ribbonNum < ribbonCount; ribbonNum++) {
-									ribbonLines.get(ribbonNum).getGeometryN(geomNum).apply(new RibboningFilter(lineOffset, ribbonNum));
-								}
-							}
+			private RibbonedFeatureCollection(SimpleFeatureCollection features, SimpleFeatureType schema) {
+				super(features);
+				this.schema = schema;
+			}
 
-							prevLine = line;
-							prevLineOffset = lineOffset;
-						}
+			@Override
+			public SimpleFeatureType getSchema() {
+				return schema;
+			}
 
-						List<SimpleFeature> ribbonedFeature = new ArrayList<SimpleFeature>();
+			@Override
+			public SimpleFeatureIterator features() {
+				return new RibbonIterator(delegate.features(), schema);
+			}
 
-						for (int ribbonNum = 0; ribbonNum < ribbonCount; ribbonNum++) {
-							SimpleFeatureBuilder fb = new SimpleFeatureBuilder(schema);
-							fb.addAll(feature.getAttributes());
-							fb.set(ribbonAttr, new Integer(ribbonNum + 1));
-							fb.set(feature.getDefaultGeometryProperty().getName(), ribbonLines.get(ribbonNum));
-							ribbonedFeature.add(fb.buildFeature(null));
+			/**
+			 * Reads the features, without ribboning them, as only features
+			 * with lines are ribboned
+			 */
+			@Override
+			public int size() {
+				if (ribbonCount < 1) {
+					return 0;
+				}
+				int count = 0;
+				SimpleFeatureIterator iterator = delegate.features();
+				try {
+					while (iterator.hasNext()) {
+						if (null != getMultiLineString(iterator.next())) {
+							count++;
 						}
-
-						result.addAll(ribbonedFeature);
-					} else {
-						LOGGER.log(Level.WARNING, "feature is not a line?");
 					}
+				} finally {
+					iterator.close();
 				}
-			} finally {
-				if (null != features) {
-					features.close();
+				return ribbonCount * count;
+			}
+
+			@Override
+			public ReferencedEnvelope getBounds() {
+				return DataUtilities.bounds(this);
+			}
+
+			@Override
+			public void accepts(FeatureVisitor visitor, ProgressListener progress) throws IOException {
+				DataUtilities.visit(this, visitor, progress);
+			}
+
+			@Override
+			public SimpleFeatureCollection subCollection(Filter filter) {
+				return new FilteringSimpleFeatureCollection(this, filter);
+			}
+
+			@Override
+			public SimpleFeatureCollection sort(SortBy order) {
+				return new SortedSimpleFeatureCollection(this, new SortBy[]{order});
+			}
+
+			@Override
+			public Object[] toArray() {
+				return DataUtilities.list(this).toArray();
+			}
+
+			@Override
+			public <T> T[] toArray(T[] array) {
+				return DataUtilities.list(this).toArray(array);
+			}
+		}
+
+		/**
+		 * Reads a feature, computes the offsets of its lines from the
+		 * previous line, then emits its ribbons one at a time through a
+		 * single builder before reading the next feature.
+		 */
+		private class RibbonIterator implements SimpleFeatureIterator {
+
+			private final SimpleFeatureIterator features;
+			private final SimpleFeatureBuilder builder;
+			// offset of each line of the current feature, null where no angle was found
+			private final List<double[]> lineOffsets = new ArrayList<double[]>();
+			private LineString prevLine = null;
+			private double[] prevLineOffset = null;
+			private SimpleFeature feature = null;
+			private MultiLineString lines = null;
+			private int ribbonNum = 0;
+
+			private RibbonIterator(SimpleFeatureIterator features, SimpleFeatureType schema) {
+				this.features = features;
+				this.builder = new SimpleFeatureBuilder(schema);
+			}
+
+			@Override
+			public boolean hasNext() {
+				if (ribbonCount < 1) {
+					return false;
 				}
+				return (null != feature && ribbonNum < ribbonCount) || advance();
 			}
 
-			return result;
+			@Override
+			public SimpleFeature next() throws NoSuchElementException {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Geometry ribbon = (Geometry) lines.clone();
+				for (int geomNum = 0; geomNum < lines.getNumGeometries(); geomNum++) {
+					double[] lineOffset = lineOffsets.get(geomNum);
+					if (null != lineOffset) {
+						ribbon.getGeometryN(geomNum).apply(new RibboningFilter(lineOffset, ribbonNum));
+					}
+				}
+				builder.addAll(feature.getAttributes());
+				builder.set(ribbonAttr, new Integer(ribbonNum + 1));
+				builder.set(feature.getDefaultGeometryProperty().getName(), ribbon);
+				return builder.buildFeature(getRibbonId(feature.getID(), ribbonNum++));
+			}
+
+			@Override
+			public void close() {
+				features.close();
+			}
+
+			/**
+			 * @return whether another feature with lines was read
+			 */
+			private boolean advance() {
+				feature = null;
+				lines = null;
+				while (features.hasNext()) {
+					SimpleFeature next = features.next();
+					MultiLineString nextLines = getMultiLineString(next);
+					if (null == nextLines) {
+						LOGGER.log(Level.WARNING, "feature is not a line?");
+						continue;
+					}
+					lineOffsets.clear();
+					for (int geomNum = 0; geomNum < nextLines.getNumGeometries(); geomNum++) {
+						LineString line = (LineString) nextLines.getGeometryN(geomNum);
+
+						double[] lineOffset = computeXYOffset(prevLine, prevLineOffset, line);
+						lineOffsets.add(lineOffset);
+
+						prevLine = line;
+						prevLineOffset = lineOffset;
+					}
+					feature = next;
+					lines = nextLines;
+					ribbonNum = 0;
+					return true;
+				}
+				return false;
+			}
 		}
-		
+
 		private double[] computeXYOffset(LineString prevLine, double[] prevLineOffset, LineString currLine) {
 			double[] result = null;
 			
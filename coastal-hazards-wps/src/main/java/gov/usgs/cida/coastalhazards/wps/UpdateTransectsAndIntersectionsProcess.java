@@ -1,13 +1,15 @@
 package gov.usgs.cida.coastalhazards.wps;
 
+import com.google.common.primitives.Ints;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiLineString;
 import com.vividsolutions.jts.geom.Point;
-import com.vividsolutions.jts.index.strtree.STRtree;
 import gov.usgs.cida.coastalhazards.util.BaselineDistanceAccumulator;
+import gov.usgs.cida.coastalhazards.util.BaselineIndex;
 import gov.usgs.cida.coastalhazards.util.CRSUtils;
 import static gov.usgs.cida.coastalhazards.util.Constants.*;
 import gov.usgs.cida.coastalhazards.util.GeoserverUtils;
+import gov.usgs.cida.coastalhazards.util.JNDIConfig;
 import gov.usgs.cida.coastalhazards.util.UTMFinder;
 import gov.usgs.cida.coastalhazards.util.AttributeGetter;
 import gov.usgs.cida.coastalhazards.wps.exceptions.LayerDoesNotExistException;
@@ -15,20 +17,30 @@ import gov.usgs.cida.coastalhazards.wps.exceptions.PoorlyDefinedBaselineExceptio
 import gov.usgs.cida.coastalhazards.wps.exceptions.UnsupportedCoordinateReferenceSystemException;
 import gov.usgs.cida.coastalhazards.wps.geom.Intersection;
 import gov.usgs.cida.coastalhazards.wps.geom.ShorelineSTRTreeBuilder;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineAttributes;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineIndexCache;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineSegmentIndex;
 import gov.usgs.cida.coastalhazards.wps.geom.Transect;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.wps.gs.GeoServerProcess;
 import org.geoserver.wps.gs.ImportProcess;
 import org.geotools.data.DataAccess;
+import org.geotools.data.DataStore;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.DefaultTransaction;
 import org.geotools.data.FeatureSource;
+import org.geotools.data.FeatureWriter;
 import org.geotools.data.Transaction;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
@@ -41,7 +53,9 @@ import org.geotools.referencing.CRS;
 import org.joda.time.DateTime;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.FeatureType;
+import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory;
 import org.opengis.filter.PropertyIsEqualTo;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -56,16 +70,44 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
         version = "1.0.0")
 public class UpdateTransectsAndIntersectionsProcess implements GeoServerProcess {
     
+    private static final String INDEX_CACHE_ENTRIES_PARAM = "coastal-hazards.geoserver.shorelines.index.cache.entries";
+    private static final int DEFAULT_INDEX_CACHE_ENTRIES = 0;
+    private static final String INDEX_CACHE_SEGMENTS_PARAM = "coastal-hazards.geoserver.shorelines.index.cache.segments";
+    private static final long DEFAULT_INDEX_CACHE_SEGMENTS = 10000000L;
+    private static final String BATCH_EDITS_PARAM = "coastal-hazards.geoserver.transects.update.batch";
+    private static final boolean DEFAULT_BATCH_EDITS = false;
+    /** transect ids per combined filter, keeps generated SQL a sane size */
+    private static final int EDIT_BATCH_SIZE = 1000;
+
     private Catalog catalog;
     private GeoserverUtils gsUtils;
     private FilterFactory filterFactory;
+    private boolean usePackedIndex;
+    private ShorelineIndexCache shorelineIndexCache;
+    private boolean batchEdits;
     
     public UpdateTransectsAndIntersectionsProcess(Catalog catalog) {
         this.catalog = catalog;
         this.gsUtils = new GeoserverUtils(catalog);
         this.filterFactory = new FilterFactoryImpl();
+        this.usePackedIndex = JNDIConfig.lookup(CreateTransectsAndIntersectionsProcess.PACKED_INDEX_PARAM,
+                Boolean.class, CreateTransectsAndIntersectionsProcess.DEFAULT_PACKED_INDEX);
+        this.shorelineIndexCache = new ShorelineIndexCache(
+                JNDIConfig.lookup(INDEX_CACHE_ENTRIES_PARAM, Integer.class, DEFAULT_INDEX_CACHE_ENTRIES),
+                JNDIConfig.lookup(INDEX_CACHE_SEGMENTS_PARAM, Long.class, DEFAULT_INDEX_CACHE_SEGMENTS));
+        this.batchEdits = JNDIConfig.lookup(BATCH_EDITS_PARAM, Boolean.class, DEFAULT_BATCH_EDITS);
     }
-    
+
+    /**
+     * Shoreline indexes are reused across calls while the shoreline layer is
+     * unchanged
+     *
+     * @return cache shared by every call of this process
+     */
+    public ShorelineIndexCache getShorelineIndexCache() {
+        return shorelineIndexCache;
+    }
+
     @DescribeResult(name = "intersections", description = "intersection layer name")
     public String execute(
             @DescribeParameter(name = "transectLayer", description = "layer containing transects", min = 1, max = 1) String transectLayer,
@@ -116,7 +158,6 @@ public class UpdateTransectsAndIntersectionsProcess implements GeoServerProcess
             DataAccess<? extends FeatureType, ? extends Feature> intersectionDa = gsUtils.getDataAccess(intersectionDs, null);
             SimpleFeatureStore intersectionStore = (SimpleFeatureStore)gsUtils.getFeatureSource(intersectionDa, intersectionLayer.getName());
             intersectionStore.setTransaction(transaction);
-            AttributeGetter intersectionAttr = new AttributeGetter(intersectionStore.getSchema());
                     
             DataStoreInfo baselineDs = gsUtils.getDataStoreByName(
                                         baselineLayer.getResource().getStore().getWorkspace().getName(),
@@ -133,61 +174,67 @@ public class UpdateTransectsAndIntersectionsProcess implements GeoServerProcess
                 throw new IllegalStateException("Must have usable UTM zone to continue");
             }
             SimpleFeatureCollection transformedBaseline = CRSUtils.transformFeatureCollection((SimpleFeatureCollection)baselineSource.getFeatures(), baselineSource.getInfo().getCRS(), utmCrs);
-            SimpleFeatureCollection transformedShorelines = CRSUtils.transformFeatureCollection(shorelines, REQUIRED_CRS_WGS84, utmCrs);
-            
-            STRtree strtree = new ShorelineSTRTreeBuilder(transformedShorelines).build();
+            ShorelineIndexCache.Entry index = getShorelineIndex(utmCrs);
             //DefaultFeatureCollection intersectionCollection = new DefaultFeatureCollection((SimpleFeatureCollection)intersectionStore.getFeatures());
             List<SimpleFeature> newIntersectionFeatures = new LinkedList<SimpleFeature>();
-            for (int id : transectIds) {
-                // use AttributeGetter to get real attr names
-                PropertyIsEqualTo transectFilter = filterFactory.equals(filterFactory.property(TRANSECT_ID_ATTR), filterFactory.literal(id));
-                PropertyIsEqualTo intersectionFilter = filterFactory.equals(filterFactory.property(TRANSECT_ID_ATTR), filterFactory.literal(id));
+            if (batchEdits && transectDa instanceof DataStore) {
+                BaselineIndex baselineIndex = new BaselineIndex(transformedBaseline);
                 try {
-                    intersectionStore.removeFeatures(intersectionFilter);
+                    editInBatches(transaction, (DataStore) transectDa, transectStore.getSchema().getTypeName(),
+                            intersectionStore, index, baselineIndex, newIntersectionFeatures);
                 }
                 catch (Exception e) {
                     transaction.rollback();
                     throw e;
                 }
+            }
+            else {
+                for (int id : transectIds) {
+                    // use AttributeGetter to get real attr names
+                    PropertyIsEqualTo transectFilter = filterFactory.equals(filterFactory.property(TRANSECT_ID_ATTR), filterFactory.literal(id));
+                    PropertyIsEqualTo intersectionFilter = filterFactory.equals(filterFactory.property(TRANSECT_ID_ATTR), filterFactory.literal(id));
+                    try {
+                        intersectionStore.removeFeatures(intersectionFilter);
+                    }
+                    catch (Exception e) {
+                        transaction.rollback();
+                        throw e;
+                    }
                                        
-                SimpleFeatureCollection transectFeatures = (SimpleFeatureCollection)transectStore.getFeatures(transectFilter);
-                SimpleFeature transect = null;
+                    SimpleFeatureCollection transectFeatures = (SimpleFeatureCollection)transectStore.getFeatures(transectFilter);
+                    SimpleFeature transect = null;
 				
-                SimpleFeatureIterator transectIterator = null;
-				try {
-					transectIterator = transectFeatures.features();
-					while (transectIterator.hasNext()) {
-						if (null == transect) {
-							// I want the transformed transect, I'm really only using the iterator to get the ID
-							transect = transectIterator.next();
+                    SimpleFeatureIterator transectIterator = null;
+					try {
+						transectIterator = transectFeatures.features();
+						while (transectIterator.hasNext()) {
+							if (null == transect) {
+								// I want the transformed transect, I'm really only using the iterator to get the ID
+								transect = transectIterator.next();
+							}
+							else {
+								throw new IllegalStateException("There shouldn't be more than one transect with the same id");
+							}
 						}
-						else {
-							throw new IllegalStateException("There shouldn't be more than one transect with the same id");
+					} finally {
+						if (null != transectIterator) {
+							transectIterator.close();
 						}
 					}
-				} finally {
-					if (null != transectIterator) {
-						transectIterator.close();
-					}
-				}
                 
 
-                if (null != transect) {
-                    Transect transectObj = Transect.fromFeature(transect);
+                    if (null != transect) {
+                        Transect transectObj = Transect.fromFeature(transect);
                     
-                    Map<DateTime, Intersection> newIntersections = Intersection.calculateIntersections(transectObj, strtree, useFarthest, intersectionAttr);
-                    for (DateTime key : newIntersections.keySet()) {
-                        Intersection newIntersection = newIntersections.get(key);
-                        SimpleFeature newFeature = newIntersection.createFeature(intersectionStore.getSchema());
-                        newIntersectionFeatures.add(newFeature);
-                    }
-                    Transect updatedTransect = updateTransectBaseDist(transectObj, transformedBaseline);
-                    try {
-                        transectStore.modifyFeatures(BASELINE_DIST_ATTR, updatedTransect.getBaselineDistance(), transectFilter);
-                    }
-                    catch (Exception e) {
-                        transaction.rollback();
-                        throw e;
+                        addIntersectionFeatures(transectObj, index, intersectionStore.getSchema(), newIntersectionFeatures);
+                        Transect updatedTransect = updateTransectBaseDist(transectObj, transformedBaseline);
+                        try {
+                            transectStore.modifyFeatures(BASELINE_DIST_ATTR, updatedTransect.getBaselineDistance(), transectFilter);
+                        }
+                        catch (Exception e) {
+                            transaction.rollback();
+                            throw e;
+                        }
                     }
                 }
             }
@@ -206,6 +253,96 @@ public class UpdateTransectsAndIntersectionsProcess implements GeoServerProcess
             return intersectionStore.getInfo().getName();
         }
         
+        /**
+         * Edits the requested transects a batch of ids at a time: one filter
+         * removes the old intersections and one writer reads each transect
+         * and updates its base_dist, leaving only the new intersections to
+         * be added once at the end
+         */
+        private void editInBatches(Transaction transaction, DataStore transectDataStore, String transectTypeName,
+                SimpleFeatureStore intersectionStore, ShorelineIndexCache.Entry index, BaselineIndex baselineIndex,
+                List<SimpleFeature> newIntersectionFeatures) throws IOException {
+            List<Integer> ids = new ArrayList<Integer>(new TreeSet<Integer>(Ints.asList(transectIds)));
+            Set<Integer> edited = new HashSet<Integer>();
+            for (int start = 0; start < ids.size(); start += EDIT_BATCH_SIZE) {
+                Filter idFilter = transectIdFilter(ids.subList(start, Math.min(ids.size(), start + EDIT_BATCH_SIZE)));
+                intersectionStore.removeFeatures(idFilter);
+
+                FeatureWriter<SimpleFeatureType, SimpleFeature> writer = null;
+                try {
+                    writer = transectDataStore.getFeatureWriter(transectTypeName, idFilter, transaction);
+                    while (writer.hasNext()) {
+                        SimpleFeature transect = writer.next();
+                        Transect transectObj = Transect.fromFeature(transect);
+                        if (!edited.add(transectObj.getId())) {
+                            throw new IllegalStateException("There shouldn't be more than one transect with the same id");
+                        }
+                        addIntersectionFeatures(transectObj, index, intersectionStore.getSchema(), newIntersectionFeatures);
+                        transect.setAttribute(BASELINE_DIST_ATTR, baselineIndex.getBaselineDistance(transectObj.getOriginPoint()));
+                        writer.write();
+                    }
+                } finally {
+                    if (null != writer) {
+                        writer.close();
+                    }
+                }
+            }
+        }
+
+        private Filter transectIdFilter(List<Integer> ids) {
+            List<Filter> equals = new ArrayList<Filter>(ids.size());
+            for (Integer id : ids) {
+                equals.add(filterFactory.equals(filterFactory.property(TRANSECT_ID_ATTR), filterFactory.literal(id)));
+            }
+            return (equals.size() == 1) ? equals.get(0) : filterFactory.or(equals);
+        }
+
+        private void addIntersectionFeatures(Transect transect, ShorelineIndexCache.Entry index,
+                SimpleFeatureType intersectionType, List<SimpleFeature> newIntersectionFeatures) {
+            AttributeGetter intersectionAttr = new AttributeGetter(intersectionType);
+            Map<DateTime, Intersection> newIntersections = (usePackedIndex)
+                    ? Intersection.calculateIntersections(transect, index.getSegmentIndex(), index.getShorelineAttributes(), useFarthest, intersectionAttr)
+                    : Intersection.calculateIntersections(transect, index.getStrTree(), useFarthest, intersectionAttr);
+            for (DateTime key : newIntersections.keySet()) {
+                Intersection newIntersection = newIntersections.get(key);
+                newIntersectionFeatures.add(newIntersection.createFeature(intersectionType));
+            }
+        }
+
+        /**
+         * Index of the shorelines in utmCrs, from the cache when the
+         * shorelines are the whole of a catalog layer that has not changed
+         * since
+         */
+        private ShorelineIndexCache.Entry getShorelineIndex(CoordinateReferenceSystem utmCrs) {
+            ShorelineIndexCache.Key key = null;
+            if (shorelineIndexCache.isEnabled()) {
+                FeatureTypeInfo typeInfo = catalog.getFeatureTypeByName(shorelines.getSchema().getName());
+                String stamp = (null == typeInfo) ? null : gsUtils.getModificationStamp(typeInfo);
+                // shorelines are usually a filtered selection of the layer, only the whole layer is cached
+                if (null != stamp && gsUtils.isWholeLayer(typeInfo, shorelines)) {
+                    key = new ShorelineIndexCache.Key(typeInfo.prefixedName(), utmCrs, stamp);
+                    ShorelineIndexCache.Entry cached = shorelineIndexCache.get(key);
+                    if (null != cached) {
+                        return cached;
+                    }
+                }
+            }
+
+            // shorelines are only read once, to build the index
+            SimpleFeatureCollection transformedShorelines = CRSUtils.reprojectFeatureCollection(shorelines, REQUIRED_CRS_WGS84, utmCrs);
+            ShorelineIndexCache.Entry index;
+            if (usePackedIndex) {
+                index = new ShorelineIndexCache.Entry(new ShorelineAttributes(new ShorelineSegmentIndex(transformedShorelines)));
+            } else {
+                index = new ShorelineIndexCache.Entry(new ShorelineSTRTreeBuilder(transformedShorelines).build());
+            }
+            if (null != key) {
+                shorelineIndexCache.put(key, index);
+            }
+            return index;
+        }
+
         private Transect updateTransectBaseDist(Transect transect, SimpleFeatureCollection baseline) throws IOException {
 			Transect result = null;
 			
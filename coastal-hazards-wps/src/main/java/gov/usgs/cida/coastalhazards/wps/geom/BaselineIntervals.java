@@ -0,0 +1,208 @@
+package gov.usgs.cida.coastalhazards.wps.geom;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.geom.LineString;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Evenly spaced points along a line with the (optionally smoothed) direction
+ * of the line at each point, for seeding transects.
+ *
+ * Holds the vertices and the cumulative length to each vertex in arrays, so
+ * the ends of a smoothing window are found by binary search instead of
+ * walking the segments on either side, and writes intervals to a packed
+ * double buffer. Finding n intervals along a line of m vertices is
+ * O(m + n log m).
+ *
+ * Intervals are packed STRIDE doubles each: x, y of the point followed by
+ * x, y of the point one unit further along the direction, matching the
+ * LineSegments of CreateTransectsAndIntersectionsProcess.findIntervals.
+ */
+public class BaselineIntervals {
+
+    public static final int STRIDE = 4;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] lengths;
+    private final double[] angles;
+    private final double[] cumulative;
+    private final int segmentCount;
+
+    public BaselineIntervals(LineString lineString) {
+        int pointCount = lineString.getNumPoints();
+        this.segmentCount = Math.max(0, pointCount - 1);
+        this.xs = new double[pointCount];
+        this.ys = new double[pointCount];
+        this.lengths = new double[segmentCount];
+        this.angles = new double[segmentCount];
+        this.cumulative = new double[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            Coordinate coordinate = lineString.getCoordinateN(i);
+            xs[i] = coordinate.x;
+            ys[i] = coordinate.y;
+        }
+        double progress = 0;
+        for (int i = 0; i < segmentCount; i++) {
+            double dx = xs[i + 1] - xs[i];
+            double dy = ys[i + 1] - ys[i];
+            lengths[i] = Math.sqrt(dx * dx + dy * dy);
+            angles[i] = Math.atan2(dy, dx);
+            cumulative[i] = progress;
+            progress += lengths[i];
+        }
+        if (pointCount > 0) {
+            cumulative[pointCount - 1] = progress;
+        }
+    }
+
+    /**
+     * @return length of the line
+     */
+    public double getLength() {
+        return (cumulative.length == 0) ? 0 : cumulative[cumulative.length - 1];
+    }
+
+    /**
+     * @param includeOrigin start with a point at the start of the line
+     * @param interval distance between points
+     * @param smoothing length of line, centered on each point, whose end to
+     * end direction is used, 0 for the direction of the segment
+     * @return packed intervals, STRIDE doubles each
+     */
+    public double[] find(boolean includeOrigin, double interval, double smoothing) {
+        double[] buffer = new double[STRIDE * Math.max(16, (int) Math.min(Integer.MAX_VALUE / STRIDE, getLength() / interval + 2))];
+        int size = 0;
+        boolean smooth = smoothing > 0 && segmentCount > 1;
+        double half = smoothing / 2d;
+        double progress = 0;
+        double next = includeOrigin ? 0 : interval;
+        for (int index = 0; index < segmentCount; index++) {
+            double length = lengths[index];
+            if (progress + length >= next) {
+                double offset;
+                for (offset = next - progress; offset <= length; offset += interval, next += interval) {
+                    double fraction = offset / length;
+                    double x = xs[index] + fraction * (xs[index + 1] - xs[index]);
+                    double y = ys[index] + fraction * (ys[index + 1] - ys[index]);
+                    double angle = angles[index];
+                    if (smooth) {
+                        double low = offset - half;
+                        double high = offset + half;
+                        if (low < 0 || high > length) {
+                            angle = smoothedAngle(index, low, high);
+                        }
+                    }
+                    if (size + STRIDE > buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    buffer[size++] = x;
+                    buffer[size++] = y;
+                    buffer[size++] = x + Math.cos(angle);
+                    buffer[size++] = y + Math.sin(angle);
+                }
+            }
+            progress += length;
+        }
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * @param intervals packed intervals from find
+     * @return intervals as LineSegments
+     */
+    public static List<LineSegment> toLineSegments(double[] intervals) {
+        List<LineSegment> segments = new ArrayList<LineSegment>(intervals.length / STRIDE);
+        for (int i = 0; i < intervals.length; i += STRIDE) {
+            segments.add(new LineSegment(intervals[i], intervals[i + 1], intervals[i + 2], intervals[i + 3]));
+        }
+        return segments;
+    }
+
+    /**
+     * Direction between the ends of the smoothing window. Window ends off
+     * the line are projected along the first or last segment, and a window
+     * that only leaves the current segment past the end of the line is
+     * projected along the current segment.
+     */
+    private double smoothedAngle(int index, double low, double high) {
+        double lowX;
+        double lowY;
+        double highX;
+        double highY;
+        if (low < 0 && index > 0) {
+            double target = cumulative[index] + low;
+            int segment = (target < 0) ? 0 : lastSegmentStartingAtOrBefore(target, index - 1);
+            double fraction = (target - cumulative[segment]) / lengths[segment];
+            lowX = pointX(segment, fraction);
+            lowY = pointY(segment, fraction);
+        } else {
+            lowX = pointX(index, low / lengths[index]);
+            lowY = pointY(index, low / lengths[index]);
+        }
+        if (high > lengths[index] && index < segmentCount - 1) {
+            double target = cumulative[index] + high;
+            int segment = (target > cumulative[segmentCount]) ? segmentCount - 1 : firstSegmentEndingAtOrAfter(target, index + 1);
+            double fraction = (target - cumulative[segment]) / lengths[segment];
+            highX = pointX(segment, fraction);
+            highY = pointY(segment, fraction);
+        } else {
+            highX = pointX(index, high / lengths[index]);
+            highY = pointY(index, high / lengths[index]);
+        }
+        return Math.atan2(highY - lowY, highX - lowX);
+    }
+
+    /**
+     * @return largest segment in [0, maxSegment] whose start is at or before
+     * distance, skipping zero length segments where possible
+     */
+    private int lastSegmentStartingAtOrBefore(double distance, int maxSegment) {
+        int low = 0;
+        int high = maxSegment;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (cumulative[mid] <= distance) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        while (low > 0 && lengths[low] == 0) {
+            low--;
+        }
+        return low;
+    }
+
+    /**
+     * @return smallest segment in [minSegment, last] whose end is at or after
+     * distance, skipping zero length segments where possible
+     */
+    private int firstSegmentEndingAtOrAfter(double distance, int minSegment) {
+        int low = minSegment;
+        int high = segmentCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid + 1] >= distance) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        while (low < segmentCount - 1 && lengths[low] == 0) {
+            low++;
+        }
+        return low;
+    }
+
+    private double pointX(int segment, double fraction) {
+        return xs[segment] + fraction * (xs[segment + 1] - xs[segment]);
+    }
+
+    private double pointY(int segment, double fraction) {
+        return ys[segment] + fraction * (ys[segment + 1] - ys[segment]);
+    }
+}
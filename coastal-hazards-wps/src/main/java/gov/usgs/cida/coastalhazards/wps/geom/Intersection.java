@@ -45,13 +45,19 @@
  */
 package gov.usgs.cida.coastalhazards.wps.geom;
 
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.index.ItemVisitor;
 import com.vividsolutions.jts.index.strtree.STRtree;
 import gov.usgs.cida.coastalhazards.util.AttributeGetter;
 import static gov.usgs.cida.coastalhazards.util.Constants.*;
 import gov.usgs.cida.coastalhazards.wps.exceptions.UnsupportedFeatureTypeException;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -80,8 +86,11 @@ public class Intersection {
     private SimpleFeature feature;
     private int transectId;
     private AttributeGetter attGet;
+    private ShorelineAttributes shorelineAttributes;
+    private int shorelineOrdinal;
     private static DateTimeFormatter inputFormat;
     private static DateTimeFormatter outputFormat;
+    private static final GeometryFactory gf = new GeometryFactory(new PrecisionModel(PrecisionModel.FLOATING));
 
     static {
         try {
@@ -121,6 +130,16 @@ public class Intersection {
         this.attGet = getter;
     }
 
+    /**
+     * Intersection with a shoreline from a ShorelineSegmentIndex, date and
+     * uncertainty come from the pre-decoded shoreline attributes
+     */
+    public Intersection(Point point, double dist, ShorelineAttributes attributes, int shorelineOrdinal, int transectId, AttributeGetter getter) {
+        this(point, dist, attributes.getIndex().getFeatureByOrdinal(shorelineOrdinal), transectId, getter);
+        this.shorelineAttributes = attributes;
+        this.shorelineOrdinal = shorelineOrdinal;
+    }
+
     /**
      * Get an intersection object from Intersection Feature Type
      *
@@ -180,7 +199,19 @@ public class Intersection {
     }
 
     public DateTime getDate() {
-        Object date = attGet.getValue(DATE_ATTR, this.feature);
+        if (null != shorelineAttributes) {
+            return shorelineAttributes.getDate(shorelineOrdinal);
+        }
+        return toDateTime(attGet.getValue(DATE_ATTR, this.feature));
+    }
+    
+    /**
+     * Converts a shoreline date attribute to a DateTime
+     * 
+     * @param date Date or String in format mm/dd/yyyy
+     * @return DateTime
+     */
+    public static DateTime toDateTime(Object date) {
         if (date instanceof Date) {
             return new DateTime((Date) date);
         } else if (date instanceof String) {
@@ -192,6 +223,9 @@ public class Intersection {
     }
 
     public double getUncertainty() {
+        if (null != shorelineAttributes) {
+            return shorelineAttributes.getUncertainty(shorelineOrdinal);
+        }
         Object uncy = attGet.getValue(UNCY_ATTR, this.feature);
         if (uncy instanceof Number) {
             return ((Number)uncy).doubleValue();
@@ -294,6 +328,245 @@ public class Intersection {
         }
     }
 
+    /**
+     * Walks the transect as a ray from its origin through the shoreline index
+     * in steps of stepLength, in increasing distance, until maxLength is covered.
+     * Crossings are found with plain segment/ray math rather than JTS overlay.
+     * 
+     * When looking for the closest intersections, the walk stops as soon as
+     * every shoreline date has been hit, since anything further out loses.
+     *
+     * @param transect transect to walk, its length is ignored
+     * @param maxLength distance to walk out to
+     * @param stepLength length of ray covered by each index query
+     * @param strTree shoreline segment index
+     * @param useFarthest keep farthest intersection per date rather than closest
+     * @param shorelineDateCount number of distinct shoreline dates, 0 or less disables early exit
+     * @param getter getter for shoreline attributes
+     * @return closest (or farthest) intersection for each shoreline date
+     */
+    public static Map<DateTime, Intersection> calculateIntersectionsAlongRay(Transect transect, double maxLength, double stepLength,
+            STRtree strTree, boolean useFarthest, int shorelineDateCount, AttributeGetter getter) {
+        RayWalker walker = new RayWalker(transect, useFarthest, getter);
+        Envelope stepEnvelope = new Envelope();
+        double startDistance = 0;
+        do {
+            double endDistance = startDistance + stepLength;
+            walker.setRange(startDistance, endDistance);
+            stepEnvelope.init(walker.xAt(startDistance), walker.xAt(endDistance),
+                    walker.yAt(startDistance), walker.yAt(endDistance));
+            strTree.query(stepEnvelope, walker);
+            startDistance = endDistance;
+            if (!useFarthest && shorelineDateCount > 0 && walker.intersections.size() >= shorelineDateCount) {
+                break;
+            }
+        }
+        while (startDistance < maxLength);
+        return walker.intersections;
+    }
+    
+    /**
+     * Same walk as above against the packed shoreline index. Only the best
+     * crossing per shoreline date is tracked, in arrays indexed by date, and
+     * points and Intersections are built for those alone once the walk is done.
+     *
+     * @see #calculateIntersectionsAlongRay(Transect, double, double, STRtree, boolean, int, AttributeGetter)
+     */
+    public static Map<DateTime, Intersection> calculateIntersectionsAlongRay(Transect transect, double maxLength, double stepLength,
+            ShorelineSegmentIndex index, ShorelineAttributes attributes, boolean useFarthest, AttributeGetter getter) {
+        PackedRayWalker walker = new PackedRayWalker(transect, useFarthest, index, attributes);
+        int shorelineDateCount = attributes.getDateCount();
+        double startDistance = 0;
+        do {
+            double endDistance = startDistance + stepLength;
+            walker.query(startDistance, endDistance);
+            startDistance = endDistance;
+            if (!useFarthest && walker.found >= shorelineDateCount) {
+                break;
+            }
+        }
+        while (startDistance < maxLength);
+        return walker.toIntersections(getter);
+    }
+    
+    /**
+     * Intersections of the whole transect with the packed shoreline index
+     *
+     * @param transect transect, including its length
+     * @param index packed shoreline index
+     * @param attributes decoded attributes of the indexed shorelines
+     * @param useFarthest keep farthest intersection per date rather than closest
+     * @param getter getter for intersection feature type
+     * @return closest (or farthest) intersection for each shoreline date
+     */
+    public static Map<DateTime, Intersection> calculateIntersections(Transect transect, ShorelineSegmentIndex index,
+            ShorelineAttributes attributes, boolean useFarthest, AttributeGetter getter) {
+        PackedRayWalker walker = new PackedRayWalker(transect, useFarthest, index, attributes);
+        walker.query(0, transect.getLength());
+        return walker.toIntersections(getter);
+    }
+    
+    /**
+     * Ray from a transect origin, limited to the current step so that
+     * segments spanning several steps are not counted more than once
+     */
+    private static abstract class Ray {
+        
+        protected final int transectId;
+        protected final int sign;
+        protected final boolean useFarthest;
+        private final double originX;
+        private final double originY;
+        private final double dx;
+        private final double dy;
+        private double startDistance;
+        private double endDistance;
+        
+        private Ray(Transect transect, boolean useFarthest) {
+            this.transectId = transect.getId();
+            this.sign = transect.getOrientation().getSign();
+            this.useFarthest = useFarthest;
+            this.originX = transect.getOriginCoord().x;
+            this.originY = transect.getOriginCoord().y;
+            this.dx = Math.cos(transect.getAngle());
+            this.dy = Math.sin(transect.getAngle());
+        }
+        
+        protected void setRange(double startDistance, double endDistance) {
+            this.startDistance = startDistance;
+            this.endDistance = endDistance;
+        }
+        
+        protected double xAt(double distance) {
+            return originX + distance * dx;
+        }
+        
+        protected double yAt(double distance) {
+            return originY + distance * dy;
+        }
+        
+        protected Point pointAt(double distance) {
+            return gf.createPoint(new Coordinate(xAt(distance), yAt(distance)));
+        }
+        
+        /**
+         * @return distance along the ray where it crosses segment a-b within
+         * the current step, NaN if it does not
+         */
+        protected double crossing(double ax, double ay, double bx, double by) {
+            double ex = bx - ax;
+            double ey = by - ay;
+            double denom = dx * ey - dy * ex;
+            if (denom == 0) {
+                return Double.NaN; // parallel or degenerate, no single crossing point
+            }
+            double wx = ax - originX;
+            double wy = ay - originY;
+            double distance = (wx * ey - wy * ex) / denom; // along ray
+            double fraction = (wx * dy - wy * dx) / denom; // along segment
+            if (fraction < 0 || fraction > 1 || distance < startDistance || distance > endDistance) {
+                return Double.NaN;
+            }
+            return distance;
+        }
+    }
+    
+    /**
+     * Visits shoreline segments from the STRtree for one step of the ray
+     */
+    private static class RayWalker extends Ray implements ItemVisitor {
+        
+        private final Map<DateTime, Intersection> intersections;
+        private final AttributeGetter getter;
+
+        private RayWalker(Transect transect, boolean useFarthest, AttributeGetter getter) {
+            super(transect, useFarthest);
+            this.intersections = new HashMap<DateTime, Intersection>();
+            this.getter = getter;
+        }
+
+        @Override
+        public void visitItem(Object item) {
+            ShorelineFeature shoreline = (ShorelineFeature) item;
+            Coordinate a = shoreline.segment.getCoordinateN(0);
+            Coordinate b = shoreline.segment.getCoordinateN(1);
+            double distance = crossing(a.x, a.y, b.x, b.y);
+            if (Double.isNaN(distance)) {
+                return;
+            }
+            Intersection intersection = new Intersection(pointAt(distance), sign * distance, shoreline.feature, transectId, getter);
+            DateTime date = intersection.getDate();
+            Intersection thatIntersection = intersections.get(date);
+            if (thatIntersection == null) {
+                intersections.put(date, intersection);
+            } else {
+                intersections.put(date, Intersection.compare(intersection, thatIntersection, !useFarthest));
+            }
+        }
+    }
+    
+    /**
+     * Visits segments from the packed index for one step of the ray, keeping
+     * the best distance and segment for each shoreline date index
+     */
+    private static class PackedRayWalker extends Ray implements ShorelineSegmentIndex.SegmentVisitor {
+        
+        private final ShorelineSegmentIndex index;
+        private final ShorelineAttributes attributes;
+        private final double[] bestDistances;
+        private final int[] bestSegments;
+        private int found;
+
+        private PackedRayWalker(Transect transect, boolean useFarthest, ShorelineSegmentIndex index, ShorelineAttributes attributes) {
+            super(transect, useFarthest);
+            this.index = index;
+            this.attributes = attributes;
+            this.bestDistances = new double[attributes.getDateCount()];
+            this.bestSegments = new int[attributes.getDateCount()];
+            Arrays.fill(bestSegments, -1);
+            this.found = 0;
+        }
+        
+        private void query(double startDistance, double endDistance) {
+            setRange(startDistance, endDistance);
+            double x0 = xAt(startDistance);
+            double x1 = xAt(endDistance);
+            double y0 = yAt(startDistance);
+            double y1 = yAt(endDistance);
+            index.query(Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1), this);
+        }
+
+        @Override
+        public void visit(int segment) {
+            double distance = crossing(index.getX0(segment), index.getY0(segment),
+                    index.getX1(segment), index.getY1(segment));
+            if (Double.isNaN(distance)) {
+                return;
+            }
+            int dateIndex = attributes.getDateIndex(index.getFeatureOrdinal(segment));
+            if (bestSegments[dateIndex] < 0) {
+                found++;
+            } else if (useFarthest ? distance <= bestDistances[dateIndex] : distance > bestDistances[dateIndex]) {
+                return; // same tie breaking as compare, closest takes the newer one
+            }
+            bestDistances[dateIndex] = distance;
+            bestSegments[dateIndex] = segment;
+        }
+        
+        private Map<DateTime, Intersection> toIntersections(AttributeGetter getter) {
+            Map<DateTime, Intersection> intersections = new HashMap<DateTime, Intersection>();
+            for (int dateIndex = 0; dateIndex < bestSegments.length; dateIndex++) {
+                int segment = bestSegments[dateIndex];
+                if (segment >= 0) {
+                    double distance = bestDistances[dateIndex];
+                    intersections.put(attributes.getDateByIndex(dateIndex), new Intersection(pointAt(distance), sign * distance,
+                            attributes, index.getFeatureOrdinal(segment), transectId, getter));
+                }
+            }
+            return intersections;
+        }
+    }
+
     @Override
     public String toString() {
         String time = outputFormat.print(getDate());
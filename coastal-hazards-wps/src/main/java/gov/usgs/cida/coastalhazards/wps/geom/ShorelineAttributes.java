@@ -0,0 +1,150 @@
+package gov.usgs.cida.coastalhazards.wps.geom;
+
+import gov.usgs.cida.coastalhazards.util.AttributeGetter;
+import static gov.usgs.cida.coastalhazards.util.Constants.*;
+import gov.usgs.cida.coastalhazards.wps.exceptions.UnsupportedFeatureTypeException;
+import java.util.Arrays;
+import org.joda.time.DateTime;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Shoreline date and uncertainty decoded once per run, by feature ordinal of
+ * a ShorelineSegmentIndex.
+ *
+ * Dates are held as epoch days and numbered densely in date order, so the
+ * per transect bookkeeping can use plain arrays indexed by date rather than
+ * a map keyed on DateTime. Shoreline dates are day resolution (mm/dd/yyyy),
+ * any time of day on a Date attribute is dropped.
+ *
+ * A shoreline whose date cannot be decoded does not fail the run, it is
+ * left out of the distinct dates and the decoding error is thrown only if
+ * its date is asked for, i.e. when a transect crosses it, as when dates
+ * were decoded per intersection.
+ */
+public class ShorelineAttributes {
+
+    private static final LocalDate EPOCH = new LocalDate(1970, 1, 1);
+
+    private final ShorelineSegmentIndex index;
+    private final int[] epochDays;
+    private final RuntimeException[] dateErrors;
+    private final int[] dateIndices;
+    private final double[] uncertainties;
+    private final int[] distinctDays;
+    private final DateTime[] dates;
+
+    public ShorelineAttributes(ShorelineSegmentIndex index) {
+        this.index = index;
+        int featureCount = index.getFeatureCount();
+        this.epochDays = new int[featureCount];
+        this.dateErrors = new RuntimeException[featureCount];
+        this.dateIndices = new int[featureCount];
+        this.uncertainties = new double[featureCount];
+
+        DateTime[] decoded = new DateTime[featureCount];
+        AttributeGetter getter = null;
+        for (int i = 0; i < featureCount; i++) {
+            SimpleFeature feature = index.getFeatureByOrdinal(i);
+            if (null == getter) {
+                getter = new AttributeGetter(feature.getFeatureType());
+            }
+            try {
+                decoded[i] = Intersection.toDateTime(getter.getValue(DATE_ATTR, feature));
+                epochDays[i] = toEpochDay(decoded[i]);
+            } catch (RuntimeException ex) {
+                dateErrors[i] = ex;
+            }
+            Object uncy = getter.getValue(UNCY_ATTR, feature);
+            // report bad uncertainty when it is asked for, as Intersection does
+            uncertainties[i] = (uncy instanceof Number) ? ((Number) uncy).doubleValue() : Double.NaN;
+        }
+
+        int[] sorted = new int[featureCount];
+        int decodedCount = 0;
+        for (int i = 0; i < featureCount; i++) {
+            if (null == dateErrors[i]) {
+                sorted[decodedCount++] = epochDays[i];
+            }
+        }
+        Arrays.sort(sorted, 0, decodedCount);
+        int distinct = 0;
+        for (int i = 0; i < decodedCount; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        this.distinctDays = Arrays.copyOf(sorted, distinct);
+        this.dates = new DateTime[distinct];
+        for (int i = 0; i < featureCount; i++) {
+            if (null != dateErrors[i]) {
+                dateIndices[i] = -1;
+                continue;
+            }
+            int dateIndex = Arrays.binarySearch(distinctDays, epochDays[i]);
+            dateIndices[i] = dateIndex;
+            if (null == dates[dateIndex]) {
+                dates[dateIndex] = decoded[i];
+            }
+        }
+    }
+
+    public static int toEpochDay(DateTime date) {
+        return Days.daysBetween(EPOCH, date.toLocalDate()).getDays();
+    }
+
+    public ShorelineSegmentIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return number of distinct shoreline dates
+     */
+    public int getDateCount() {
+        return distinctDays.length;
+    }
+
+    public int getEpochDay(int ordinal) {
+        checkDate(ordinal);
+        return epochDays[ordinal];
+    }
+
+    /**
+     * @param ordinal shoreline feature ordinal
+     * @return position of the shoreline date among distinct dates, 0 is earliest
+     */
+    public int getDateIndex(int ordinal) {
+        checkDate(ordinal);
+        return dateIndices[ordinal];
+    }
+
+    /**
+     * @param dateIndex position among distinct dates
+     * @return date as decoded from the first shoreline with that date
+     */
+    public DateTime getDateByIndex(int dateIndex) {
+        return dates[dateIndex];
+    }
+
+    public DateTime getDate(int ordinal) {
+        return dates[getDateIndex(ordinal)];
+    }
+
+    public double getUncertainty(int ordinal) {
+        double uncertainty = uncertainties[ordinal];
+        if (Double.isNaN(uncertainty)) {
+            throw new UnsupportedFeatureTypeException("Uncertainty should be a number");
+        }
+        return uncertainty;
+    }
+
+    /**
+     * Throws the error decoding the date of a shoreline, if there was one
+     */
+    private void checkDate(int ordinal) {
+        if (null != dateErrors[ordinal]) {
+            throw dateErrors[ordinal];
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package gov.usgs.cida.coastalhazards.wps.geom;
+
+import com.vividsolutions.jts.index.strtree.STRtree;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Keeps shoreline indexes built in a UTM zone so repeated edits against the
+ * same shorelines skip reprojection and index building.
+ *
+ * Entries are keyed by layer name, UTM CRS and a modification stamp of the
+ * layer, so an edited layer simply misses and its old entry ages out. The
+ * least recently used entries are evicted once there are more than maxEntries
+ * or the indexes hold more than maxSegments segments between them. Cached
+ * indexes are shared between requests and must not be modified.
+ *
+ * NearestPointOnLineProcess keeps its segment indexes of line layers here
+ * too, keyed by the line CRS.
+ */
+public class ShorelineIndexCache {
+
+    private static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger(ShorelineIndexCache.class);
+
+    private final int maxEntries;
+    private final long maxSegments;
+    private final LinkedHashMap<Key, Entry> entries;
+    private long segments;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries most indexes to hold, 0 disables the cache
+     * @param maxSegments most segments to hold across all indexes
+     */
+    public ShorelineIndexCache(int maxEntries, long maxSegments) {
+        this.maxEntries = maxEntries;
+        this.maxSegments = maxSegments;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+        this.segments = 0;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * @param key layer, CRS and stamp
+     * @return cached index or null, counted as a hit or miss
+     */
+    public synchronized Entry get(Key key) {
+        Entry entry = entries.get(key);
+        if (null == entry) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        LOGGER.log(Level.FINE, "Shoreline index cache {0} for {1} ({2} hits, {3} misses, {4} evictions)",
+                new Object[] { (null == entry) ? "miss" : "hit", key, hits.get(), misses.get(), evictions.get() });
+        return entry;
+    }
+
+    /**
+     * Adds an index, evicting least recently used entries to make room.
+     * An index larger than maxSegments on its own is not kept.
+     *
+     * @param key layer, CRS and stamp
+     * @param entry index built for key
+     */
+    public synchronized void put(Key key, Entry entry) {
+        if (!isEnabled() || entry.getSize() > maxSegments) {
+            return;
+        }
+        Entry replaced = entries.put(key, entry);
+        if (null != replaced) {
+            segments -= replaced.getSize();
+        }
+        segments += entry.getSize();
+
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || segments > maxSegments) && eldest.hasNext()) {
+            Map.Entry<Key, Entry> next = eldest.next();
+            if (next.getValue() == entry) {
+                continue;
+            }
+            segments -= next.getValue().getSize();
+            eldest.remove();
+            evictions.incrementAndGet();
+            LOGGER.log(Level.FINE, "Evicted shoreline index for {0}", next.getKey());
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        segments = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return total segments held by the cached indexes
+     */
+    public synchronized long getSegments() {
+        return segments;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public static final class Key {
+
+        private final String layerName;
+        private final CoordinateReferenceSystem crs;
+        private final String crsCode;
+        private final String stamp;
+
+        /**
+         * @param layerName shoreline layer
+         * @param crs UTM CRS the index was built in
+         * @param stamp changes whenever the layer is modified
+         */
+        public Key(String layerName, CoordinateReferenceSystem crs, String stamp) {
+            this.layerName = layerName;
+            this.crs = crs;
+            this.crsCode = CRS.toSRS(crs);
+            this.stamp = stamp;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return layerName.equals(other.layerName)
+                    && stamp.equals(other.stamp)
+                    && crsCode.equals(other.crsCode)
+                    && CRS.equalsIgnoreMetadata(crs, other.crs);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = layerName.hashCode();
+            hash = 31 * hash + crsCode.hashCode();
+            hash = 31 * hash + stamp.hashCode();
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return layerName + " [" + crsCode + ", " + stamp + "]";
+        }
+    }
+
+    /**
+     * Either an STRtree or a packed index with its decoded attributes,
+     * depending on which the caller builds
+     */
+    public static final class Entry {
+
+        private final STRtree strTree;
+        private final ShorelineSegmentIndex segmentIndex;
+        private final ShorelineAttributes shorelineAttributes;
+        private final long size;
+
+        public Entry(STRtree strTree) {
+            strTree.build();
+            this.strTree = strTree;
+            this.segmentIndex = null;
+            this.shorelineAttributes = null;
+            this.size = strTree.size();
+        }
+
+        public Entry(ShorelineAttributes shorelineAttributes) {
+            this.strTree = null;
+            this.segmentIndex = shorelineAttributes.getIndex();
+            this.shorelineAttributes = shorelineAttributes;
+            this.size = segmentIndex.size();
+        }
+
+        public STRtree getStrTree() {
+            return strTree;
+        }
+
+        public ShorelineSegmentIndex getSegmentIndex() {
+            return segmentIndex;
+        }
+
+        public ShorelineAttributes getShorelineAttributes() {
+            return shorelineAttributes;
+        }
+
+        /**
+         * @return number of segments indexed
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package gov.usgs.cida.coastalhazards.wps.geom;
+
+/* The packed R-tree layout, build and search are ported from Flatbush,
+ * https://github.com/mourner/flatbush
+ *
+ * ISC License
+ *
+ * Copyright (c) 2018, Vladimir Agafonkin
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any purpose
+ * with or without fee is hereby granted, provided that the above copyright notice
+ * and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM LOSS
+ * OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR OTHER
+ * TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR PERFORMANCE OF
+ * THIS SOFTWARE.
+ */
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import gov.usgs.cida.coastalhazards.wps.exceptions.UnsupportedFeatureTypeException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.Geometries;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Static spatial index of shoreline segments held in primitive arrays.
+ *
+ * Segment endpoints are packed into a single double[] (x0, y0, x1, y1 per segment)
+ * with the owning feature ordinal in an int[], and a packed R-tree is built
+ * over them with segments sorted along a Hilbert curve, following Flatbush
+ * (see the licence notice above). This replaces a LineString and
+ * ShorelineFeature per segment in ShorelineSTRTreeBuilder.
+ *
+ * The index is immutable once built and safe to query from multiple threads.
+ */
+public class ShorelineSegmentIndex {
+
+    public static final int DEFAULT_NODE_SIZE = 16;
+    private static final int HILBERT_MAX = (1 << 16) - 1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Receives the ids of segments whose bounding box meets a query box
+     */
+    public interface SegmentVisitor {
+        public void visit(int segment);
+    }
+
+    private final int nodeSize;
+    private final SimpleFeature[] features;
+    private final int segmentCount;
+    private final double[] segments;
+    private final int[] featureOrdinals;
+
+    private final double[] boxes;
+    private final int[] indices;
+    private final int[] levelBounds;
+
+    public ShorelineSegmentIndex(SimpleFeatureCollection shorelines) {
+        this(shorelines, DEFAULT_NODE_SIZE);
+    }
+
+    public ShorelineSegmentIndex(SimpleFeatureCollection shorelines, int nodeSize) {
+        if (nodeSize < 2) {
+            throw new IllegalArgumentException("Node size must be at least 2");
+        }
+        this.nodeSize = nodeSize;
+
+        List<SimpleFeature> featureList = new ArrayList<SimpleFeature>();
+        double[] coords = new double[INITIAL_CAPACITY * 4];
+        int[] ordinals = new int[INITIAL_CAPACITY];
+        int count = 0;
+
+        SimpleFeatureIterator iterator = null;
+        try {
+            iterator = shorelines.features();
+            while (iterator.hasNext()) {
+                SimpleFeature feature = iterator.next();
+                Geometry geom = (Geometry) feature.getDefaultGeometry();
+                if (Geometries.get(geom) != Geometries.MULTILINESTRING) {
+                    throw new UnsupportedFeatureTypeException("Only MultiLineString supported here");
+                }
+                int ordinal = featureList.size();
+                featureList.add(feature);
+                MultiLineString lines = (MultiLineString) geom;
+                for (int i = 0; i < lines.getNumGeometries(); i++) {
+                    CoordinateSequence sequence = ((LineString) lines.getGeometryN(i)).getCoordinateSequence();
+                    int points = sequence.size();
+                    if (count + points > ordinals.length) {
+                        int capacity = Math.max(ordinals.length * 2, count + points);
+                        coords = Arrays.copyOf(coords, capacity * 4);
+                        ordinals = Arrays.copyOf(ordinals, capacity);
+                    }
+                    for (int j = 1; j < points; j++) {
+                        int offset = count * 4;
+                        coords[offset] = sequence.getX(j - 1);
+                        coords[offset + 1] = sequence.getY(j - 1);
+                        coords[offset + 2] = sequence.getX(j);
+                        coords[offset + 3] = sequence.getY(j);
+                        ordinals[count] = ordinal;
+                        count++;
+                    }
+                }
+            }
+        } finally {
+            if (null != iterator) {
+                iterator.close();
+            }
+        }
+
+        this.features = featureList.toArray(new SimpleFeature[featureList.size()]);
+        this.segmentCount = count;
+        this.segments = Arrays.copyOf(coords, count * 4);
+        this.featureOrdinals = Arrays.copyOf(ordinals, count);
+
+        // size each level of the tree, leaves first
+        List<Integer> bounds = new ArrayList<Integer>();
+        int nodes = count;
+        int levelCount = count;
+        bounds.add(nodes * 4);
+        if (count > 0) {
+            do {
+                levelCount = (levelCount + nodeSize - 1) / nodeSize;
+                nodes += levelCount;
+                bounds.add(nodes * 4);
+            } while (levelCount != 1);
+        }
+        this.levelBounds = new int[bounds.size()];
+        for (int i = 0; i < levelBounds.length; i++) {
+            levelBounds[i] = bounds.get(i);
+        }
+        this.boxes = new double[nodes * 4];
+        this.indices = new int[nodes];
+
+        if (count > 0) {
+            buildTree();
+        }
+    }
+
+    private void buildTree() {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < segmentCount; i++) {
+            int offset = i * 4;
+            boxes[offset] = Math.min(segments[offset], segments[offset + 2]);
+            boxes[offset + 1] = Math.min(segments[offset + 1], segments[offset + 3]);
+            boxes[offset + 2] = Math.max(segments[offset], segments[offset + 2]);
+            boxes[offset + 3] = Math.max(segments[offset + 1], segments[offset + 3]);
+            indices[i] = i;
+            minX = Math.min(minX, boxes[offset]);
+            minY = Math.min(minY, boxes[offset + 1]);
+            maxX = Math.max(maxX, boxes[offset + 2]);
+            maxY = Math.max(maxY, boxes[offset + 3]);
+        }
+
+        double width = maxX - minX;
+        double height = maxY - minY;
+        long[] hilbertValues = new long[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            int offset = i * 4;
+            int x = (width == 0) ? 0 : (int) Math.floor(HILBERT_MAX * ((boxes[offset] + boxes[offset + 2]) / 2 - minX) / width);
+            int y = (height == 0) ? 0 : (int) Math.floor(HILBERT_MAX * ((boxes[offset + 1] + boxes[offset + 3]) / 2 - minY) / height);
+            hilbertValues[i] = hilbert(x, y);
+        }
+        sort(hilbertValues, 0, segmentCount - 1);
+
+        // each parent box covers up to nodeSize consecutive children, and
+        // its index points at the offset of its first child in boxes
+        int position = 0;
+        int parent = segmentCount * 4;
+        for (int level = 0; level < levelBounds.length - 1; level++) {
+            int end = levelBounds[level];
+            while (position < end) {
+                int nodeIndex = position;
+                double nodeMinX = Double.POSITIVE_INFINITY;
+                double nodeMinY = Double.POSITIVE_INFINITY;
+                double nodeMaxX = Double.NEGATIVE_INFINITY;
+                double nodeMaxY = Double.NEGATIVE_INFINITY;
+                for (int j = 0; j < nodeSize && position < end; j++, position += 4) {
+                    nodeMinX = Math.min(nodeMinX, boxes[position]);
+                    nodeMinY = Math.min(nodeMinY, boxes[position + 1]);
+                    nodeMaxX = Math.max(nodeMaxX, boxes[position + 2]);
+                    nodeMaxY = Math.max(nodeMaxY, boxes[position + 3]);
+                }
+                indices[parent / 4] = nodeIndex;
+                boxes[parent] = nodeMinX;
+                boxes[parent + 1] = nodeMinY;
+                boxes[parent + 2] = nodeMaxX;
+                boxes[parent + 3] = nodeMaxY;
+                parent += 4;
+            }
+        }
+    }
+
+    /**
+     * Visits every segment whose bounding box intersects the query box
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @param visitor called once per candidate segment
+     */
+    public void query(double minX, double minY, double maxX, double maxY, SegmentVisitor visitor) {
+        if (segmentCount == 0) {
+            return;
+        }
+        int[] stack = new int[16];
+        int stackSize = 0;
+        int nodeIndex = boxes.length - 4;
+        int leafBound = segmentCount * 4;
+        while (nodeIndex >= 0) {
+            int end = Math.min(nodeIndex + nodeSize * 4, upperBound(nodeIndex));
+            for (int position = nodeIndex; position < end; position += 4) {
+                if (maxX < boxes[position] || maxY < boxes[position + 1]
+                        || minX > boxes[position + 2] || minY > boxes[position + 3]) {
+                    continue;
+                }
+                int index = indices[position / 4];
+                if (nodeIndex >= leafBound) {
+                    if (stackSize == stack.length) {
+                        stack = Arrays.copyOf(stack, stackSize * 2);
+                    }
+                    stack[stackSize++] = index;
+                } else {
+                    visitor.visit(index);
+                }
+            }
+            nodeIndex = (stackSize > 0) ? stack[--stackSize] : -1;
+        }
+    }
+
+    public int size() {
+        return segmentCount;
+    }
+
+    public int getFeatureCount() {
+        return features.length;
+    }
+
+    public double getX0(int segment) {
+        return segments[segment * 4];
+    }
+
+    public double getY0(int segment) {
+        return segments[segment * 4 + 1];
+    }
+
+    public double getX1(int segment) {
+        return segments[segment * 4 + 2];
+    }
+
+    public double getY1(int segment) {
+        return segments[segment * 4 + 3];
+    }
+
+    /**
+     * @param segment segment id
+     * @return position of owning feature in the shoreline collection
+     */
+    public int getFeatureOrdinal(int segment) {
+        return featureOrdinals[segment];
+    }
+
+    public SimpleFeature getFeature(int segment) {
+        return features[featureOrdinals[segment]];
+    }
+
+    public SimpleFeature getFeatureByOrdinal(int ordinal) {
+        return features[ordinal];
+    }
+
+    /**
+     * Distance from coordinate to segment, for nearest neighbour style lookups
+     *
+     * @param segment segment id
+     * @param coord coordinate
+     * @return distance
+     */
+    public double distance(int segment, Coordinate coord) {
+        int offset = segment * 4;
+        double x0 = segments[offset];
+        double y0 = segments[offset + 1];
+        double dx = segments[offset + 2] - x0;
+        double dy = segments[offset + 3] - y0;
+        double lengthSquared = dx * dx + dy * dy;
+        double fraction = 0;
+        if (lengthSquared > 0) {
+            fraction = ((coord.x - x0) * dx + (coord.y - y0) * dy) / lengthSquared;
+            fraction = (fraction < 0) ? 0 : (fraction > 1) ? 1 : fraction;
+        }
+        double px = x0 + fraction * dx - coord.x;
+        double py = y0 + fraction * dy - coord.y;
+        return Math.sqrt(px * px + py * py);
+    }
+
+    private int upperBound(int nodeIndex) {
+        int low = 0;
+        int high = levelBounds.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (levelBounds[middle] > nodeIndex) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return levelBounds[low];
+    }
+
+    /*
+     * Quicksort of leaves by hilbert value, ranges that fall within a single
+     * node are left unsorted since order inside a node does not matter
+     */
+    private void sort(long[] values, int left, int right) {
+        while (left < right && left / nodeSize < right / nodeSize) {
+            long pivot = values[(left + right) >>> 1];
+            int i = left - 1;
+            int j = right + 1;
+            while (true) {
+                do {
+                    i++;
+                } while (values[i] < pivot);
+                do {
+                    j--;
+                } while (values[j] > pivot);
+                if (i >= j) {
+                    break;
+                }
+                swap(values, i, j);
+            }
+            if (j - left < right - j) {
+                sort(values, left, j);
+                left = j + 1;
+            } else {
+                sort(values, j + 1, right);
+                right = j;
+            }
+        }
+    }
+
+    private void swap(long[] values, int i, int j) {
+        long value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+
+        int index = indices[i];
+        indices[i] = indices[j];
+        indices[j] = index;
+
+        int a = i * 4;
+        int b = j * 4;
+        for (int k = 0; k < 4; k++) {
+            double box = boxes[a + k];
+            boxes[a + k] = boxes[b + k];
+            boxes[b + k] = box;
+        }
+    }
+
+    /*
+     * Position of (x, y) along a 16 bit Hilbert curve
+     * Fast Hilbert curve algorithm by http://threadlocalmutex.com/ (public
+     * domain), as used by Flatbush
+     */
+    static long hilbert(int x, int y) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int A = a | (b >> 1);
+        int B = (a >> 1) ^ a;
+        int C = ((c >> 1) ^ (b & (d >> 1))) ^ c;
+        int D = ((a & (c >> 1)) ^ (d >> 1)) ^ d;
+
+        a = A; b = B; c = C; d = D;
+        A = ((a & (a >> 2)) ^ (b & (b >> 2)));
+        B = ((a & (b >> 2)) ^ (b & ((a ^ b) >> 2)));
+        C ^= ((a & (d >> 2)) ^ (b & (c >> 2)));
+        D ^= ((b & (d >> 2)) ^ ((a ^ b) & (c >> 2)));
+
+        a = A; b = B; c = C; d = D;
+        A = ((a & (a >> 4)) ^ (b & (b >> 4)));
+        B = ((a & (b >> 4)) ^ (b & ((a ^ b) >> 4)));
+        C ^= ((a & (d >> 4)) ^ (b & (c >> 4)));
+        D ^= ((b & (d >> 4)) ^ ((a ^ b) & (c >> 4)));
+
+        a = A; b = B; c = C; d = D;
+        C ^= ((a & (d >> 8)) ^ (b & (c >> 8)));
+        D ^= ((b & (d >> 8)) ^ ((a ^ b) & (c >> 8)));
+
+        a = C ^ (C >> 1);
+        b = D ^ (D >> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+
+        i0 = (i0 | (i0 << 8)) & 0x00FF00FF;
+        i0 = (i0 | (i0 << 4)) & 0x0F0F0F0F;
+        i0 = (i0 | (i0 << 2)) & 0x33333333;
+        i0 = (i0 | (i0 << 1)) & 0x55555555;
+
+        i1 = (i1 | (i1 << 8)) & 0x00FF00FF;
+        i1 = (i1 | (i1 << 4)) & 0x0F0F0F0F;
+        i1 = (i1 | (i1 << 2)) & 0x33333333;
+        i1 = (i1 | (i1 << 1)) & 0x55555555;
+
+        return ((i1 << 1) | i0) & 0xFFFFFFFFL;
+    }
+}
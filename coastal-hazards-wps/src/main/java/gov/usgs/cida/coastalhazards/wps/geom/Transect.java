@@ -62,7 +62,10 @@ import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.geotools.process.ProcessException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
 
 /**
  * Transect.
@@ -108,6 +111,10 @@ public class Transect {
         this.length = length;
     }
     
+    public double getLength() {
+        return length;
+    }
+    
     public void setBaselineDistance(double dist) {
         this.baselineDistance = dist;
     }
@@ -160,6 +167,29 @@ public class Transect {
         return subTransect;
     }
     
+    /**
+     * Copy of this transect in another projection, the origin and a point
+     * one unit along the transect are transformed to find the new angle
+     * 
+     * @param transform transform to the other projection
+     * @return transformed transect with the same id, length and baseline distance
+     */
+    public Transect transform(MathTransform transform) {
+        double[] points = new double[] {
+            cartesianCoord.x, cartesianCoord.y,
+            cartesianCoord.x + Math.cos(angle), cartesianCoord.y + Math.sin(angle)
+        };
+        try {
+            transform.transform(points, 0, points, 0, 2);
+        } catch (TransformException ex) {
+            throw new ProcessException("Unable to transform transect", ex);
+        }
+        Transect transformed = new Transect(points[0], points[1], Math.atan2(points[3] - points[1], points[2] - points[0]),
+                orientation, transectId, baselineId, baselineDistance);
+        transformed.length = length;
+        return transformed;
+    }
+    
     public static Transect generatePerpendicularVector(Coordinate origin,
             LineSegment segment,
             Orientation orientation,
@@ -0,0 +1,54 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ *
+ */
+public class AttributeStatisticsTest {
+
+	@Test
+	public void testSkipsNoDataAndPicksQuantiles() {
+		SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+		builder.setName("results");
+		builder.add("LRR", Double.class);
+		SimpleFeatureType type = builder.buildFeatureType();
+		ListFeatureCollection features = new ListFeatureCollection(type);
+		// 100 down to 0, with no data mixed in
+		for (int i = 100; i >= 0; i--) {
+			features.add(SimpleFeatureBuilder.build(type, new Object[]{(double) i}, null));
+			if (i % 10 == 0) {
+				features.add(SimpleFeatureBuilder.build(type, new Object[]{Constants.SHAPEFILE_NODATA}, null));
+				features.add(SimpleFeatureBuilder.build(type, new Object[]{null}, null));
+			}
+		}
+
+		AttributeStatistics statistics = AttributeStatistics.compute(features, "LRR");
+		assertEquals(101, statistics.getCount());
+		assertEquals(0, statistics.getMin(), 0);
+		assertEquals(100, statistics.getMax(), 0);
+		for (int i = 0; i < AttributeStatistics.QUANTILES.length; i++) {
+			assertEquals(AttributeStatistics.QUANTILES[i] * 100, statistics.getQuantile(i), 1e-9);
+		}
+	}
+
+	@Test
+	public void testFormatParsesBack() {
+		AttributeStatistics statistics = new AttributeStatistics(7, -1.25, 3.5, new double[]{-1, -0.5, 0, 0.1, 1, 2, 3});
+		AttributeStatistics parsed = AttributeStatistics.parse(statistics.format());
+		assertNotNull(parsed);
+		assertEquals(statistics.format(), parsed.format());
+		assertEquals(-1.25, parsed.getMin(), 0);
+
+		AttributeStatistics empty = new AttributeStatistics(0, Double.NaN, Double.NaN, new double[AttributeStatistics.QUANTILES.length]);
+		assertTrue(Double.isNaN(AttributeStatistics.parse(empty.format()).getMax()));
+
+		assertNull(AttributeStatistics.parse("7;1;2;3"));
+		assertNull(AttributeStatistics.parse("garbage"));
+	}
+}
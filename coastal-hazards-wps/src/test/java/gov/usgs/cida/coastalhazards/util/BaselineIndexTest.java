@@ -0,0 +1,81 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.Point;
+import gov.usgs.cida.coastalhazards.wps.exceptions.PoorlyDefinedBaselineException;
+import java.util.ArrayList;
+import java.util.List;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ *
+ */
+public class BaselineIndexTest {
+
+    private static final double EPS = 1e-9;
+
+    private GeometryFactory gf;
+    private List<LineString> lines;
+    private BaselineIndex index;
+
+    @Before
+    public void setup() {
+        gf = new GeometryFactory();
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("baseline");
+        typeBuilder.add("the_geom", MultiLineString.class);
+        SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+        lines = new ArrayList<LineString>();
+        lines.add(line(0, 0, 100, 0));
+        lines.add(line(130, 0, 200, 0));
+        lines.add(line(200, 0, 200, 50));
+
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        features.add(SimpleFeatureBuilder.build(type, new Object[] {
+            gf.createMultiLineString(new LineString[] { lines.get(0), lines.get(1) }) }, "bl.1"));
+        features.add(SimpleFeatureBuilder.build(type, new Object[] {
+            gf.createMultiLineString(new LineString[] { lines.get(2) }) }, "bl.2"));
+        index = new BaselineIndex(DataUtilities.collection(features));
+    }
+
+    @Test
+    public void testMatchesWalkingTheBaseline() {
+        assertEquals(3, index.size());
+        double[][] origins = { {0, 0}, {50, 0.5}, {100, 0}, {150, 0}, {200, 0}, {200, 25} };
+        for (double[] origin : origins) {
+            Point point = gf.createPoint(new Coordinate(origin[0], origin[1]));
+            assertEquals(walk(point), index.getBaselineDistance(point), EPS);
+        }
+    }
+
+    @Test(expected = PoorlyDefinedBaselineException.class)
+    public void testOffBaseline() {
+        index.getBaselineDistance(gf.createPoint(new Coordinate(115, 0)));
+    }
+
+    private double walk(Point origin) {
+        BaselineDistanceAccumulator accumulator = new BaselineDistanceAccumulator();
+        for (LineString line : lines) {
+            if (line.isWithinDistance(origin, BaselineDistanceAccumulator.EPS)) {
+                return accumulator.accumulateToPoint(line, origin);
+            }
+            accumulator.accumulate(line);
+        }
+        throw new PoorlyDefinedBaselineException("Transect does not fall on baseline");
+    }
+
+    private LineString line(double x0, double y0, double x1, double y1) {
+        return gf.createLineString(new Coordinate[] { new Coordinate(x0, y0), new Coordinate(x1, y1) });
+    }
+}
@@ -1,16 +1,24 @@
 package gov.usgs.cida.coastalhazards.util;
 
+import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.MultiLineString;
 import gov.usgs.cida.coastalhazards.wps.CreateTransectsAndIntersectionsProcessTest;
 import java.io.IOException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Ignore;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
 
 /**
  *
@@ -33,4 +41,51 @@ public class CRSUtilsTest {
         MultiLineString result = CRSUtils.getLinesFromFeatureCollection((SimpleFeatureCollection)baselinefc);
         assertEquals(expResult, result);
     }
+
+    @Test
+    public void testReprojectMatchesJTSAndLeavesSourceAlone() throws Exception {
+        URL baselineShapefile = CreateTransectsAndIntersectionsProcessTest.class.getClassLoader()
+                .getResource("gov/usgs/cida/coastalhazards/jersey/NewJerseyN_baseline.shp");
+        SimpleFeatureCollection baselinefc = (SimpleFeatureCollection)
+                FeatureCollectionFromShp.featureCollectionFromShp(baselineShapefile);
+        CoordinateReferenceSystem sourceCrs = CRSUtils.getCRSFromFeatureCollection(baselinefc);
+        CoordinateReferenceSystem utmCrs = UTMFinder.findUTMZoneCRSForCentroid(baselinefc);
+        MathTransform transform = CRSUtils.getTransform(sourceCrs, utmCrs);
+        assertSame(transform, CRSUtils.getTransform(sourceCrs, utmCrs));
+
+        Map<String, Geometry> expected = new HashMap<String, Geometry>();
+        SimpleFeatureIterator features = baselinefc.features();
+        try {
+            while (features.hasNext()) {
+                SimpleFeature feature = features.next();
+                expected.put(feature.getID(), JTS.transform((Geometry) feature.getDefaultGeometry(), transform));
+            }
+        } finally {
+            features.close();
+        }
+
+        SimpleFeatureCollection reprojected = CRSUtils.reprojectFeatureCollection(baselinefc, sourceCrs, utmCrs);
+        assertTrue(CRS.equalsIgnoreMetadata(utmCrs, reprojected.getSchema().getCoordinateReferenceSystem()));
+        int count = 0;
+        features = reprojected.features();
+        try {
+            while (features.hasNext()) {
+                SimpleFeature feature = features.next();
+                assertTrue(expected.get(feature.getID()).equalsExact((Geometry) feature.getDefaultGeometry(), 1e-6));
+                count++;
+            }
+        } finally {
+            features.close();
+        }
+        assertEquals(expected.size(), count);
+
+        // source features were not touched
+        features = baselinefc.features();
+        try {
+            SimpleFeature feature = features.next();
+            assertFalse(expected.get(feature.getID()).equalsExact((Geometry) feature.getDefaultGeometry(), 1e-6));
+        } finally {
+            features.close();
+        }
+    }
 }
@@ -0,0 +1,104 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ *
+ */
+public class FeatureOrderIndexTest {
+
+	private File directory;
+	private SimpleFeatureType type;
+	private ListFeatureCollection layer;
+
+	@Before
+	public void setup() throws IOException {
+		directory = File.createTempFile("order", "");
+		directory.delete();
+
+		SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+		builder.setName("shorelines");
+		builder.add("date", String.class);
+		type = builder.buildFeatureType();
+		layer = new ListFeatureCollection(type);
+		String[] dates = { "2001", null, "1999", "2001", "2000" };
+		for (int i = 0; i < dates.length; i++) {
+			layer.add(SimpleFeatureBuilder.build(type, new Object[] { dates[i] }, "shorelines." + i));
+		}
+	}
+
+	@After
+	public void cleanup() {
+		FileUtils.deleteQuietly(directory);
+	}
+
+	@Test
+	public void testSortsSelectionsInAttributeOrder() {
+		FeatureOrderIndex index = FeatureOrderIndex.build(layer, "date", "1");
+		assertEquals(5, index.size());
+		// nulls first, ties in layer order
+		assertIds(index.sort(layer), "shorelines.1", "shorelines.2", "shorelines.4", "shorelines.0", "shorelines.3");
+
+		List<SimpleFeature> features = DataUtilities.list(layer);
+		ListFeatureCollection selection = new ListFeatureCollection(type);
+		selection.add(features.get(3));
+		selection.add(features.get(2));
+		assertIds(index.sort(selection), "shorelines.2", "shorelines.3");
+
+		selection.add(SimpleFeatureBuilder.build(type, new Object[] { "2002" }, "shorelines.5"));
+		assertNull(index.sort(selection));
+	}
+
+	@Test
+	public void testWritesAndReadsBackForSameStamp() throws IOException {
+		File file = new File(new File(directory, FeatureOrderService.INDEX_DIRECTORY), "shorelines.date.order");
+		FeatureOrderIndex.build(layer, "date", "1:100").write(file);
+		assertEquals(1, file.getParentFile().list().length);
+
+		FeatureOrderIndex read = FeatureOrderIndex.read(file, "date", "1:100");
+		assertNotNull(read);
+		assertIds(read.sort(layer), "shorelines.1", "shorelines.2", "shorelines.4", "shorelines.0", "shorelines.3");
+		assertNull(FeatureOrderIndex.read(file, "date", "2:100"));
+		assertNull(FeatureOrderIndex.read(file, "name", "1:100"));
+		assertNull(FeatureOrderIndex.read(new File(directory, "missing.order"), "date", "1:100"));
+	}
+
+	@Test
+	public void testDeletesOrdersOfLayerOnly() throws IOException {
+		File indexDirectory = new File(directory, FeatureOrderService.INDEX_DIRECTORY);
+		File date = new File(indexDirectory, "shorelines.date.order");
+		File name = new File(indexDirectory, "shorelines.name.order");
+		File other = new File(indexDirectory, "shorelines_old.date.order");
+		FeatureOrderIndex.build(layer, "date", "1:100").write(date);
+		FeatureOrderIndex.build(layer, "date", "2:100").write(name);
+		FeatureOrderIndex.build(layer, "date", "1:100").write(other);
+
+		FeatureOrderService.deleteOrders(directory, "shorelines");
+		assertFalse(date.exists());
+		assertFalse(name.exists());
+		assertTrue(other.exists());
+		FeatureOrderService.deleteOrders(new File(directory, "missing"), "shorelines");
+	}
+
+	private void assertIds(SimpleFeatureCollection features, String... ids) {
+		List<SimpleFeature> list = DataUtilities.list(features);
+		assertEquals(ids.length, list.size());
+		for (int i = 0; i < ids.length; i++) {
+			assertEquals(ids[i], list.get(i).getID());
+		}
+	}
+}
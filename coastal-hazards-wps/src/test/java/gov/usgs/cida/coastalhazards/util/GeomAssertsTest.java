@@ -9,6 +9,8 @@ import com.vividsolutions.jts.geom.prep.PreparedGeometry;
 import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 import gov.usgs.cida.coastalhazards.wps.CreateTransectsAndIntersectionsProcessTest;
 import gov.usgs.cida.coastalhazards.wps.exceptions.PoorlyDefinedBaselineException;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineSTRTreeBuilder;
+import gov.usgs.cida.coastalhazards.wps.geom.ShorelineSegmentIndex;
 import java.io.IOException;
 import java.net.URL;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -62,4 +64,34 @@ public class GeomAssertsTest {
         MultiLineString baselines = CRSUtils.getLinesFromFeatureCollection((SimpleFeatureCollection)baselinefc);;
         GeomAsserts.assertBaselinesDoNotCrossShorelines(shorelines, baselines);
     }
+
+    @Test
+    public void testIndexedCrossingCheck_doesntcross() throws IOException {
+        SimpleFeatureCollection shorelines = (SimpleFeatureCollection) FeatureCollectionFromShp.featureCollectionFromShp(
+                getClass().getClassLoader().getResource("gov/usgs/cida/coastalhazards/jersey/NewJerseyN_shorelines.shp"));
+        SimpleFeatureCollection baselines = (SimpleFeatureCollection) FeatureCollectionFromShp.featureCollectionFromShp(
+                getClass().getClassLoader().getResource("gov/usgs/cida/coastalhazards/jersey/NewJerseyN_baseline.shp"));
+        GeomAsserts.assertBaselinesDoNotCrossShorelines(new ShorelineSegmentIndex(shorelines), baselines);
+        GeomAsserts.assertBaselinesDoNotCrossShorelines(new ShorelineSTRTreeBuilder(shorelines).build(), baselines);
+    }
+
+    @Test
+    public void testIndexedCrossingCheck_doescross() throws IOException {
+        SimpleFeatureCollection shorelines = (SimpleFeatureCollection) FeatureCollectionFromShp.featureCollectionFromShp(
+                getClass().getClassLoader().getResource("gov/usgs/cida/coastalhazards/jersey/NewJerseyN_shorelines.shp"));
+        SimpleFeatureCollection baselines = (SimpleFeatureCollection) FeatureCollectionFromShp.featureCollectionFromShp(
+                getClass().getClassLoader().getResource("gov/usgs/cida/coastalhazards/jersey/NewJerseyN_cross.shp"));
+        try {
+            GeomAsserts.assertBaselinesDoNotCrossShorelines(new ShorelineSegmentIndex(shorelines), baselines);
+            fail("packed index missed the crossing");
+        } catch (PoorlyDefinedBaselineException ex) {
+            assertTrue(ex.getMessage().contains("crosses shoreline"));
+        }
+        try {
+            GeomAsserts.assertBaselinesDoNotCrossShorelines(new ShorelineSTRTreeBuilder(shorelines).build(), baselines);
+            fail("STRtree missed the crossing");
+        } catch (PoorlyDefinedBaselineException ex) {
+            assertTrue(ex.getMessage().contains("crosses shoreline"));
+        }
+    }
 }
@@ -16,7 +16,10 @@ import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.wps.WPSTestSupport;
 import org.geoserver.wps.gs.ImportProcess;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.process.ProcessException;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -24,6 +27,7 @@ import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 /**
@@ -84,6 +88,25 @@ public class GeoserverUtilsTest extends WPSTestSupport {
 		}
 	}
 
+	@Test
+	public void testSelectionStampTellsSelectionsApart() {
+		SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+		builder.setName("selection");
+		builder.add("value", Integer.class);
+		SimpleFeatureType type = builder.buildFeatureType();
+
+		ListFeatureCollection first = new ListFeatureCollection(type);
+		ListFeatureCollection reordered = new ListFeatureCollection(type);
+		ListFeatureCollection other = new ListFeatureCollection(type);
+		for (int i = 0; i < 3; i++) {
+			first.add(SimpleFeatureBuilder.build(type, new Object[] { i }, "selection." + i));
+			reordered.add(SimpleFeatureBuilder.build(type, new Object[] { 2 - i }, "selection." + (2 - i)));
+			other.add(SimpleFeatureBuilder.build(type, new Object[] { i }, "selection." + (i + 1)));
+		}
+		assertEquals(GeoserverUtils.getSelectionStamp(first), GeoserverUtils.getSelectionStamp(reordered));
+		assertFalse("same count, different features", GeoserverUtils.getSelectionStamp(first).equals(GeoserverUtils.getSelectionStamp(other)));
+	}
+
 	private class MisbehavingImportProcess extends ImportProcess {
 
 		public MisbehavingImportProcess(Catalog catalog) {
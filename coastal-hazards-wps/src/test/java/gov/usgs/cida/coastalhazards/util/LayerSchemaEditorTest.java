@@ -0,0 +1,184 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.geotools.data.shapefile.dbf.DbaseFileHeader;
+import org.geotools.data.shapefile.dbf.DbaseFileReader;
+import org.geotools.data.shapefile.dbf.DbaseFileWriter;
+import org.geotools.feature.AttributeTypeBuilder;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.type.AttributeDescriptor;
+
+/**
+ *
+ */
+public class LayerSchemaEditorTest {
+
+	private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+	private File directory;
+	private File dbf;
+
+	@Before
+	public void setup() throws IOException {
+		directory = File.createTempFile("schema", "");
+		directory.delete();
+		directory.mkdirs();
+		dbf = new File(directory, "shorelines.dbf");
+
+		DbaseFileHeader header = new DbaseFileHeader();
+		header.addColumn("date", 'C', 10, 0);
+		header.addColumn("uncy", 'N', 33, 15);
+		header.setNumRecords(3);
+		FileOutputStream output = new FileOutputStream(dbf);
+		try {
+			DbaseFileWriter writer = new DbaseFileWriter(header, output.getChannel(), CHARSET);
+			writer.write(new Object[] { "2000", 1.5d });
+			writer.write(new Object[] { "2001", 2.5d });
+			writer.write(new Object[] { "2002", 3.5d });
+			writer.close();
+		} finally {
+			IOUtils.closeQuietly(output);
+		}
+	}
+
+	@After
+	public void cleanup() {
+		FileUtils.deleteQuietly(directory);
+	}
+
+	@Test
+	public void testAppendsColumnsWithDefaults() throws IOException {
+		List<AttributeDescriptor> columns = new ArrayList<AttributeDescriptor>();
+		columns.add(column("MHW", Double.class, 0.5d));
+		columns.add(column("source", String.class, "lidar"));
+		LayerSchemaEditor.appendColumns(dbf, CHARSET, columns);
+
+		List<Object[]> records = read();
+		assertEquals(3, records.size());
+		assertEquals(Arrays.asList("2000", 1.5d, 0.5d, "lidar"), Arrays.asList(records.get(0)));
+		assertEquals(Arrays.asList("2002", 3.5d, 0.5d, "lidar"), Arrays.asList(records.get(2)));
+		assertFalse(new File(directory, "shorelines.dbf.part").exists());
+		assertFalse(new File(directory, "shorelines.dbf.bak").exists());
+	}
+
+	@Test
+	public void testAppendKeepsDeletedRecords() throws IOException {
+		setDeletedFlag(1, '*');
+		List<AttributeDescriptor> columns = new ArrayList<AttributeDescriptor>();
+		columns.add(column("MHW", Double.class, 0.5d));
+		LayerSchemaEditor.appendColumns(dbf, CHARSET, columns);
+
+		assertEquals(' ', getDeletedFlag(0));
+		assertEquals('*', getDeletedFlag(1));
+		assertEquals(' ', getDeletedFlag(2));
+	}
+
+	@Test
+	public void testRenamesInHeader() throws IOException {
+		long length = dbf.length();
+		Map<String, String> renames = new HashMap<String, String>();
+		renames.put("date", "DATE");
+		renames.put("missing", "MISSING");
+		assertEquals(1, LayerSchemaEditor.renameColumns(dbf, renames));
+		assertEquals(length, dbf.length());
+
+		DbaseFileReader reader = new DbaseFileReader(new FileInputStream(dbf).getChannel(), false, CHARSET);
+		try {
+			assertEquals("DATE", reader.getHeader().getFieldName(0));
+			assertEquals("uncy", reader.getHeader().getFieldName(1));
+		} finally {
+			reader.close();
+		}
+		assertEquals(Arrays.asList("2001", 2.5d), Arrays.asList(read().get(1)));
+	}
+
+	@Test
+	public void testRefusesCollidingRenames() throws IOException {
+		Map<String, String> renames = new HashMap<String, String>();
+		renames.put("date", "DATE");
+		assertTrue(LayerSchemaEditor.canRenameFields(dbf, renames));
+
+		// swapping names leaves them unique
+		renames.put("uncy", "date");
+		assertTrue(LayerSchemaEditor.canRenameFields(dbf, renames));
+
+		renames.clear();
+		renames.put("date", "UNCY");
+		assertFalse("same as an existing field, ignoring case", LayerSchemaEditor.canRenameFields(dbf, renames));
+
+		renames.clear();
+		renames.put("date", "shoreline");
+		renames.put("uncy", "Shoreline");
+		assertFalse("two fields renamed alike", LayerSchemaEditor.canRenameFields(dbf, renames));
+
+		renames.clear();
+		renames.put("date", "uncertainty");
+		assertFalse("longer than a DBF field name", LayerSchemaEditor.canRenameFields(dbf, renames));
+	}
+
+	private char getDeletedFlag(int record) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(dbf, "r");
+		try {
+			file.seek(getRecordOffset(file, record));
+			return (char) file.read();
+		} finally {
+			file.close();
+		}
+	}
+
+	private void setDeletedFlag(int record, char flag) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(dbf, "rw");
+		try {
+			file.seek(getRecordOffset(file, record));
+			file.write(flag);
+		} finally {
+			file.close();
+		}
+	}
+
+	private static long getRecordOffset(RandomAccessFile file, int record) throws IOException {
+		byte[] header = new byte[12];
+		file.seek(0);
+		file.readFully(header);
+		int headerLength = (header[8] & 0xFF) | ((header[9] & 0xFF) << 8);
+		int recordLength = (header[10] & 0xFF) | ((header[11] & 0xFF) << 8);
+		return headerLength + (long) record * recordLength;
+	}
+
+	private List<Object[]> read() throws IOException {
+		List<Object[]> records = new ArrayList<Object[]>();
+		DbaseFileReader reader = new DbaseFileReader(new FileInputStream(dbf).getChannel(), false, CHARSET);
+		try {
+			while (reader.hasNext()) {
+				records.add(reader.readEntry());
+			}
+		} finally {
+			reader.close();
+		}
+		return records;
+	}
+
+	private static AttributeDescriptor column(String name, Class<?> binding, Object defaultValue) {
+		AttributeTypeBuilder builder = new AttributeTypeBuilder();
+		builder.setBinding(binding);
+		builder.setName(name);
+		builder.setNillable(true);
+		builder.setDefaultValue(defaultValue);
+		return builder.buildDescriptor(name);
+	}
+}
@@ -0,0 +1,97 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class RenderedTileCacheTest {
+
+	private File spillDirectory;
+
+	@Before
+	public void setup() throws IOException {
+		spillDirectory = File.createTempFile("tiles", "");
+		spillDirectory.delete();
+	}
+
+	@After
+	public void cleanup() {
+		FileUtils.deleteQuietly(spillDirectory);
+	}
+
+	@Test
+	public void testKeySnapsToPixelGrid() {
+		RenderedTileCache.Key key = key("layer", "1", 10.001, 20.002);
+		assertEquals(key, key("layer", "1", 10.004, 19.998));
+		assertFalse(key.equals(key("layer", "1", 10.01, 20)));
+		assertFalse(key.equals(key("layer", "2", 10, 20)));
+
+		ReferencedEnvelope envelope = key.getEnvelope();
+		assertEquals(10, envelope.getMinX(), 1e-6);
+		assertEquals(10 + 2.56, envelope.getMaxX(), 1e-6);
+		assertEquals(20 + 2.56, envelope.getMaxY(), 1e-6);
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		RenderedTileCache cache = new RenderedTileCache(2, Long.MAX_VALUE, null, 0);
+		cache.put(key("layer", "1", 0, 0), image());
+		cache.put(key("layer", "1", 10, 0), image());
+		assertNotNull(cache.get(key("layer", "1", 0, 0)));
+		cache.put(key("layer", "1", 20, 0), image());
+		assertEquals(2, cache.size());
+		assertNull(cache.get(key("layer", "1", 10, 0)));
+		assertNotNull(cache.get(key("layer", "1", 0, 0)));
+		assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void testSpillsAndReadsBack() {
+		RenderedTileCache cache = new RenderedTileCache(1, Long.MAX_VALUE, spillDirectory, Long.MAX_VALUE);
+		BufferedImage first = image();
+		first.setRGB(3, 4, 0xff123456);
+		cache.put(key("layer", "1", 0, 0), first);
+		cache.put(key("layer", "1", 10, 0), image());
+		assertEquals(1, cache.getSpilled());
+
+		BufferedImage read = cache.get(key("layer", "1", 0, 0));
+		assertNotNull(read);
+		assertEquals(0xff123456, read.getRGB(3, 4));
+		assertEquals(0, read.getRGB(4, 4) >>> 24);
+		// the other tile was spilled to make room
+		assertEquals(1, cache.getSpilled());
+		assertEquals(1, spillDirectory.list().length);
+	}
+
+	@Test
+	public void testNewStampDropsOldTiles() {
+		RenderedTileCache cache = new RenderedTileCache(1, Long.MAX_VALUE, spillDirectory, Long.MAX_VALUE);
+		cache.put(key("layer", "1", 0, 0), image());
+		cache.put(key("layer", "1", 10, 0), image());
+		cache.put(key("other", "1", 10, 0), image());
+		assertEquals(2, cache.getSpilled());
+
+		cache.put(key("layer", "2", 0, 0), image());
+		assertNull(cache.get(key("layer", "1", 10, 0)));
+		assertNotNull(cache.get(key("other", "1", 10, 0)));
+	}
+
+	private RenderedTileCache.Key key(String layer, String stamp, double minX, double minY) {
+		ReferencedEnvelope envelope = new ReferencedEnvelope(minX, minX + 2.56, minY, minY + 2.56, DefaultGeographicCRS.WGS84);
+		return new RenderedTileCache.Key(layer, stamp, "LRR", envelope, 256, 256);
+	}
+
+	private BufferedImage image() {
+		return new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+	}
+}
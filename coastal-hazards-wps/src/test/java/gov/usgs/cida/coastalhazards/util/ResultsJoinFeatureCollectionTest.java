@@ -0,0 +1,85 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import gov.usgs.cida.coastalhazards.wps.exceptions.InputFileFormatException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ *
+ */
+public class ResultsJoinFeatureCollectionTest {
+
+	private final GeometryFactory factory = new GeometryFactory();
+	private ListFeatureCollection transects;
+	private ListFeatureCollection intersects;
+
+	@Before
+	public void setup() {
+		SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+		builder.setName("transects");
+		builder.add("the_geom", LineString.class);
+		builder.add(Constants.TRANSECT_ID_ATTR, Integer.class);
+		builder.add(Constants.BASELINE_DIST_ATTR, Double.class);
+		SimpleFeatureType transectType = builder.buildFeatureType();
+		transects = new ListFeatureCollection(transectType);
+		// two baselines both starting at distance 0, out of id order
+		transects.add(transect(transectType, 2, 0, 0d));
+		transects.add(transect(transectType, 0, 10, 0d));
+		transects.add(transect(transectType, 1, 20, 50d));
+
+		builder = new SimpleFeatureTypeBuilder();
+		builder.setName("intersects");
+		builder.add("the_geom", Point.class);
+		builder.add(Constants.TRANSECT_ID_ATTR, Integer.class);
+		SimpleFeatureType intersectType = builder.buildFeatureType();
+		intersects = new ListFeatureCollection(intersectType);
+		intersects.add(intersect(intersectType, 2, 0, 30));
+		intersects.add(intersect(intersectType, 0, 10, 40));
+		intersects.add(intersect(intersectType, 2, 0, 20));
+		intersects.add(intersect(intersectType, 5, 0, 1));
+	}
+
+	@Test
+	public void testJoinsEveryTransectInIdOrder() throws IOException {
+		ResultsTable results = ResultsTable.read(new StringReader("transect_ID\tLRR\n0\t1.5\n1\t2.5\n2\t3.5\n"), "transect_ID");
+		List<SimpleFeature> joined = DataUtilities.list(new ResultsJoinFeatureCollection(transects, results, intersects));
+		assertEquals(3, joined.size());
+		assertEquals(0, joined.get(0).getAttribute(Constants.TRANSECT_ID_ATTR));
+		assertEquals(1.5, joined.get(0).getAttribute("LRR"));
+		assertEquals(40d, joined.get(0).getAttribute(Constants.NSD_ATTR));
+		assertEquals(1, joined.get(1).getAttribute(Constants.TRANSECT_ID_ATTR));
+		assertEquals(Constants.SHAPEFILE_NODATA, joined.get(1).getAttribute(Constants.NSD_ATTR));
+		assertEquals(2, joined.get(2).getAttribute(Constants.TRANSECT_ID_ATTR));
+		assertEquals(3.5, joined.get(2).getAttribute("LRR"));
+		assertEquals(20d, joined.get(2).getAttribute(Constants.NSD_ATTR));
+	}
+
+	@Test(expected = InputFileFormatException.class)
+	public void testMissingStatistics() throws IOException {
+		ResultsTable results = ResultsTable.read(new StringReader("transect_ID\tLRR\n0\t1.5\n2\t3.5\n"), "transect_ID");
+		DataUtilities.list(new ResultsJoinFeatureCollection(transects, results, intersects));
+	}
+
+	private SimpleFeature transect(SimpleFeatureType type, int id, double x, double baseDist) {
+		LineString line = factory.createLineString(new Coordinate[] { new Coordinate(x, 0), new Coordinate(x, 100) });
+		return SimpleFeatureBuilder.build(type, new Object[] { line, id, baseDist }, "transects." + id);
+	}
+
+	private SimpleFeature intersect(SimpleFeatureType type, int id, double x, double y) {
+		return SimpleFeatureBuilder.build(type, new Object[] { factory.createPoint(new Coordinate(x, y)), id }, null);
+	}
+}
@@ -0,0 +1,76 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import gov.usgs.cida.coastalhazards.wps.exceptions.InputFileFormatException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import org.apache.commons.io.IOUtils;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class ResultsTableTest {
+
+    private static final String ID = "transect_ID";
+
+    @Test
+    public void testReadsJerseyResults() throws IOException {
+        Reader reader = new InputStreamReader(getClass().getClassLoader().getResourceAsStream(
+                "gov/usgs/cida/coastalhazards/jersey/NewJerseyN_results.txt"));
+        ResultsTable table = null;
+        try {
+            table = ResultsTable.read(reader, ID);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        assertArrayEquals(new String[] { "LRR", "LCI", "WLR", "WCI", "SCE", "NSM", "EPR" }, table.getHeaders());
+        assertEquals(0, table.indexOf(0));
+        assertEquals(-0.391268437769438, table.getValue(0, 0), 0);
+        assertEquals(0.684915871799238, table.getValue(6, table.indexOf(2)), 0);
+    }
+
+    @Test
+    public void testQuotesNAAndIdColumnPosition() throws IOException {
+        ResultsTable table = ResultsTable.read(new StringReader(
+                "\"LRR\"\t\"transect_ID\"\t\"SCE\"\r\n"
+                + "1.5\t\"7\"\tNA\r\n"
+                + "\r\n"
+                + "\"2.5\"\t9\t3"), ID);
+        assertArrayEquals(new String[] { "LRR", "SCE" }, table.getHeaders());
+        assertEquals(2, table.size());
+        int row = table.indexOf(7);
+        assertEquals(1.5, table.getValue(0, row), 0);
+        assertEquals(Constants.SHAPEFILE_NODATA, table.getValue(1, row), 0);
+        assertEquals(2.5, table.getValue(0, table.indexOf(9)), 0);
+        assertTrue(table.indexOf(8) < 0);
+    }
+
+    @Test
+    public void testUnsortedIdsLastDuplicateWins() throws IOException {
+        ResultsTable table = ResultsTable.read(new StringReader(
+                "transect_ID\tLRR\n5\t1\n2\t2\n5\t3\n1\t4\n"), ID);
+        assertEquals(3, table.size());
+        assertEquals(1, table.getId(0));
+        assertEquals(2, table.getId(1));
+        assertEquals(5, table.getId(2));
+        assertEquals(3, table.getValue(0, table.indexOf(5)), 0);
+    }
+
+    @Test(expected = InputFileFormatException.class)
+    public void testMissingIdColumn() throws IOException {
+        ResultsTable.read(new StringReader("id\tLRR\n1\t2\n"), ID);
+    }
+
+    @Test(expected = InputFileFormatException.class)
+    public void testHeaderOnly() throws IOException {
+        ResultsTable.read(new StringReader("transect_ID\tLRR\n"), ID);
+    }
+
+    @Test(expected = InputFileFormatException.class)
+    public void testShortRow() throws IOException {
+        ResultsTable.read(new StringReader("transect_ID\tLRR\tSCE\n1\t2\n"), ID);
+    }
+}
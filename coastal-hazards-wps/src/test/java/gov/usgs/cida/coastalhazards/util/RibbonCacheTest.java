@@ -0,0 +1,146 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import gov.usgs.cida.coastalhazards.wps.RibboningProcess;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ *
+ */
+public class RibbonCacheTest {
+
+	private final GeometryFactory factory = new GeometryFactory();
+
+	@Test
+	public void testLooksUpRibbonsInLayerOrder() {
+		RibbonCache.Entry entry = entry(3);
+		assertEquals(18, entry.getCoordinates());
+		Set<String> ids = new HashSet<String>(Arrays.asList("ribbons.0", "ribbons.2"));
+		assertTrue(entry.hasSources(new Envelope(0.2, 0.3, 0, 1), ids));
+		assertFalse("missing ribbons.1", entry.hasSources(new Envelope(-10, 10, -10, 10), ids));
+		ids.add("ribbons.1");
+		assertTrue(entry.hasSources(new Envelope(-10, 10, -10, 10), ids));
+
+		// the second ribbons lie below their features
+		List<SimpleFeature> ribbons = DataUtilities.list(entry.getRibbons(new Envelope(-10, 10, -1.5, -0.5)));
+		assertEquals(3, ribbons.size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(2, ribbons.get(i).getAttribute(RibboningProcess.ribbonAttr));
+			assertEquals(i, ribbons.get(i).getAttribute("index"));
+		}
+
+		// copies are handed out
+		LineString copy = (LineString) ribbons.get(0).getDefaultGeometry();
+		copy.getCoordinateSequence().setOrdinate(0, 1, 100);
+		LineString again = (LineString) DataUtilities.list(entry.getRibbons(new Envelope(-10, 10, -1.5, -0.5))).get(0).getDefaultGeometry();
+		assertEquals(-1, again.getCoordinateN(0).y, 0);
+	}
+
+	@Test
+	public void testKeysAndLimits() {
+		RibbonCache cache = new RibbonCache(2, 30);
+		RibbonCache.Key key = key("a", "1", 5);
+		cache.put(key, entry(3));
+		assertNotNull(cache.get(key("a", "1", 5)));
+		assertNull(cache.get(key("a", "2", 5)));
+		assertNull(cache.get(key("a", "1", 6)));
+
+		cache.put(key("b", "1", 5), entry(3));
+		assertEquals(1, cache.size());
+		assertEquals(18, cache.getCoordinates());
+		assertNull(cache.get(key));
+		assertEquals(1, cache.getEvictions());
+
+		cache.put(key("c", "1", 5), entry(7));
+		assertNull(cache.get(key("c", "1", 5)));
+		assertFalse(new RibbonCache(0, 30).isEnabled());
+	}
+
+	@Test
+	public void testConcurrentMissesBuildOnce() throws Exception {
+		final RibbonCache cache = new RibbonCache(2, 30);
+		final AtomicInteger builds = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<RibbonCache.Entry> builder = new Callable<RibbonCache.Entry>() {
+			@Override
+			public RibbonCache.Entry call() throws Exception {
+				builds.incrementAndGet();
+				started.countDown();
+				release.await();
+				return entry(3);
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			List<Future<RibbonCache.Entry>> gets = new ArrayList<Future<RibbonCache.Entry>>();
+			for (int i = 0; i < 3; i++) {
+				gets.add(executor.submit(new Callable<RibbonCache.Entry>() {
+					@Override
+					public RibbonCache.Entry call() throws Exception {
+						return cache.get(key("a", "1", 5), builder);
+					}
+				}));
+				if (i == 0) {
+					started.await();
+				}
+			}
+			release.countDown();
+			RibbonCache.Entry built = gets.get(0).get();
+			for (Future<RibbonCache.Entry> get : gets) {
+				assertSame(built, get.get());
+			}
+			assertEquals(1, builds.get());
+			assertSame(built, cache.get(key("a", "1", 5)));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private RibbonCache.Key key(String layer, String stamp, int scaleBand) {
+		return new RibbonCache.Key(layer, stamp, "null:false:false:2:5", scaleBand);
+	}
+
+	/**
+	 * Two ribbons each of features running east at x = i to i + 1, the
+	 * second one unit below
+	 */
+	private RibbonCache.Entry entry(int features) {
+		SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+		builder.setName("ribbons");
+		builder.add("the_geom", LineString.class);
+		builder.add("index", Integer.class);
+		builder.add(RibboningProcess.ribbonAttr, Integer.class);
+		SimpleFeatureType type = builder.buildFeatureType();
+		ListFeatureCollection ribbons = new ListFeatureCollection(type);
+		for (int i = 0; i < features; i++) {
+			for (int ribbon = 0; ribbon < 2; ribbon++) {
+				LineString line = factory.createLineString(new Coordinate[] {
+					new Coordinate(i, -ribbon), new Coordinate(i + 0.5, -ribbon), new Coordinate(i + 1, -ribbon) });
+				ribbons.add(SimpleFeatureBuilder.build(type, new Object[] { line, i, ribbon + 1 }, "ribbons." + i + "." + ribbon));
+			}
+		}
+		return new RibbonCache.Entry(ribbons);
+	}
+}
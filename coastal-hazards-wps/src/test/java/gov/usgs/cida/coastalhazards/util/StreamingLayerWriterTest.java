@@ -0,0 +1,210 @@
+package gov.usgs.cida.coastalhazards.util;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import gov.usgs.cida.coastalhazards.wps.exceptions.LayerAlreadyExistsException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.geoserver.catalog.CascadeDeleteVisitor;
+import org.geoserver.catalog.CatalogBuilder;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.ProjectionPolicy;
+import org.geoserver.wps.WPSTestSupport;
+import org.geotools.data.DataStore;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ *
+ */
+public class StreamingLayerWriterTest extends WPSTestSupport {
+
+	public static final String WORKSPACE_NAME = "gs";
+	public static final String DIRECTORY_STORE = "streamDirectory";
+	public static final String MEMORY_STORE = "streamMemory";
+
+	private static GeometryFactory factory = new GeometryFactory();
+
+	private File directory;
+	private MemoryDataStore memoryStore;
+	private SimpleFeatureType type;
+
+	@Before
+	public void setupStores() throws IOException {
+		directory = File.createTempFile("stream", "");
+		directory.delete();
+		directory.mkdirs();
+
+		CatalogBuilder builder = new CatalogBuilder(catalog);
+		builder.setWorkspace(catalog.getWorkspaceByName(WORKSPACE_NAME));
+		DataStoreInfo directoryInfo = builder.buildDataStore(DIRECTORY_STORE);
+		directoryInfo.setType("Directory of spatial files (shapefiles)");
+		directoryInfo.getConnectionParameters().put("url", directory.toURI().toURL());
+		directoryInfo.getConnectionParameters().put("namespace", catalog.getNamespaceByPrefix(WORKSPACE_NAME).getURI());
+		catalog.add(directoryInfo);
+
+		// a store without files, the resource pool hands out the memory store for it
+		DataStoreInfo memoryInfo = builder.buildDataStore(MEMORY_STORE);
+		memoryInfo.setType("Memory");
+		catalog.add(memoryInfo);
+		memoryStore = new MemoryDataStore();
+		catalog.getResourcePool().getDataStoreCache().put(memoryInfo.getId(), memoryStore);
+
+		SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+		typeBuilder.setName("points");
+		typeBuilder.setCRS(DefaultGeographicCRS.WGS84);
+		typeBuilder.add("the_geom", Point.class);
+		typeBuilder.add("name", String.class);
+		typeBuilder.add("value", Double.class);
+		type = typeBuilder.buildFeatureType();
+	}
+
+	@After
+	public void cleanupStores() {
+		CascadeDeleteVisitor visitor = new CascadeDeleteVisitor(catalog);
+		for (String store : new String[] { DIRECTORY_STORE, MEMORY_STORE }) {
+			DataStoreInfo info = catalog.getDataStoreByName(WORKSPACE_NAME, store);
+			if (null != info) {
+				visitor.visit(info);
+			}
+		}
+		memoryStore.dispose();
+		FileUtils.deleteQuietly(directory);
+	}
+
+	@Test
+	public void testDirectoryStoreFlushesAndPublishes() throws IOException {
+		StreamingLayerWriter writer = new StreamingLayerWriter(catalog, WORKSPACE_NAME, DIRECTORY_STORE, "published", type, 2);
+		writer.write(feature(0));
+		assertEquals(0, writer.getCount());
+		writer.write(feature(1));
+		assertEquals(2, writer.getCount());
+		writer.write(feature(2));
+		assertEquals(2, writer.getCount());
+
+		assertEquals(WORKSPACE_NAME + ":published", writer.publish(DefaultGeographicCRS.WGS84, ProjectionPolicy.REPROJECT_TO_DECLARED));
+		assertEquals(3, writer.getCount());
+		assertNotNull(catalog.getLayerByName(WORKSPACE_NAME + ":published"));
+		assertTrue(new File(directory, "published.shp").exists());
+		assertEquals(3, getDataStore(DIRECTORY_STORE).getFeatureSource("published").getFeatures().size());
+	}
+
+	@Test
+	public void testDirectoryStoreAbortDeletesFiles() throws IOException {
+		StreamingLayerWriter writer = new StreamingLayerWriter(catalog, WORKSPACE_NAME, DIRECTORY_STORE, "aborted", type, 2);
+		for (int i = 0; i < 5; i++) {
+			writer.write(feature(i));
+		}
+		assertFalse(layerFiles("aborted").length == 0);
+
+		writer.abort();
+		writer.abort(); // safe to repeat
+		assertEquals(0, layerFiles("aborted").length);
+		assertNull(catalog.getLayerByName(WORKSPACE_NAME + ":aborted"));
+	}
+
+	@Test
+	public void testUnpublishRemovesLayerAndFiles() throws IOException {
+		StreamingLayerWriter writer = new StreamingLayerWriter(catalog, WORKSPACE_NAME, DIRECTORY_STORE, "unpublished", type, 2);
+		writer.write(feature(0));
+		writer.publish(DefaultGeographicCRS.WGS84, ProjectionPolicy.REPROJECT_TO_DECLARED);
+		assertNotNull(catalog.getLayerByName(WORKSPACE_NAME + ":unpublished"));
+
+		writer.unpublish();
+		assertNull(catalog.getLayerByName(WORKSPACE_NAME + ":unpublished"));
+		assertNull(catalog.getFeatureTypeByName(WORKSPACE_NAME, "unpublished"));
+		assertEquals(0, layerFiles("unpublished").length);
+	}
+
+	@Test
+	public void testDirectoryStoreCopiesAttributesByName() throws IOException {
+		// geometry last and a name longer than a DBF allows, a shapefile puts the geometry first and truncates the name
+		SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+		typeBuilder.setName("reordered");
+		typeBuilder.setCRS(DefaultGeographicCRS.WGS84);
+		typeBuilder.add("name", String.class);
+		typeBuilder.add("uncertainty", Double.class);
+		typeBuilder.add("location", Point.class);
+		SimpleFeatureType reordered = typeBuilder.buildFeatureType();
+
+		StreamingLayerWriter writer = new StreamingLayerWriter(catalog, WORKSPACE_NAME, DIRECTORY_STORE, "reordered", reordered, 2);
+		for (int i = 0; i < 3; i++) {
+			writer.write(SimpleFeatureBuilder.build(reordered, new Object[] { "point " + i, i * 1.5d, factory.createPoint(new Coordinate(i, -i)) }, null));
+		}
+		writer.publish(DefaultGeographicCRS.WGS84, ProjectionPolicy.REPROJECT_TO_DECLARED);
+
+		List<SimpleFeature> written = DataUtilities.list(getDataStore(DIRECTORY_STORE).getFeatureSource("reordered").getFeatures());
+		assertEquals(3, written.size());
+		for (SimpleFeature feature : written) {
+			String name = (String) feature.getAttribute("name");
+			int i = Integer.parseInt(name.substring("point ".length()));
+			assertEquals(i * 1.5d, ((Number) feature.getAttribute("uncertaint")).doubleValue(), 0d);
+			Point point = (Point) feature.getDefaultGeometry();
+			assertEquals(i, point.getX(), 0d);
+			assertEquals(-i, point.getY(), 0d);
+		}
+	}
+
+	@Test
+	public void testMemoryStoreCommitsOnPublish() throws IOException {
+		StreamingLayerWriter writer = new StreamingLayerWriter(catalog, WORKSPACE_NAME, MEMORY_STORE, "committed", type, 2);
+		for (int i = 0; i < 3; i++) {
+			writer.write(feature(i));
+		}
+		// written in a transaction, not visible until it commits
+		assertEquals(0, memoryStore.getFeatureSource("committed").getFeatures().size());
+
+		assertEquals(WORKSPACE_NAME + ":committed", writer.publish(DefaultGeographicCRS.WGS84, ProjectionPolicy.REPROJECT_TO_DECLARED));
+		assertNotNull(catalog.getLayerByName(WORKSPACE_NAME + ":committed"));
+		assertEquals(3, memoryStore.getFeatureSource("committed").getFeatures().size());
+	}
+
+	@Test
+	public void testMemoryStoreAbortRollsBack() throws IOException {
+		StreamingLayerWriter writer = new StreamingLayerWriter(catalog, WORKSPACE_NAME, MEMORY_STORE, "rolledBack", type, 2);
+		for (int i = 0; i < 5; i++) {
+			writer.write(feature(i));
+		}
+		writer.abort();
+		assertEquals(0, memoryStore.getFeatureSource("rolledBack").getFeatures().size());
+		assertNull(catalog.getLayerByName(WORKSPACE_NAME + ":rolledBack"));
+	}
+
+	@Test
+	public void testExistingTypeIsNotOverwritten() throws IOException {
+		new StreamingLayerWriter(catalog, WORKSPACE_NAME, MEMORY_STORE, "existing", type, 2).abort();
+		assertTrue(Arrays.asList(memoryStore.getTypeNames()).contains("existing"));
+		try {
+			new StreamingLayerWriter(catalog, WORKSPACE_NAME, MEMORY_STORE, "existing", type, 2);
+			fail("Expected the existing type to be refused");
+		} catch (LayerAlreadyExistsException ex) {
+			// expected
+		}
+	}
+
+	private SimpleFeature feature(int i) {
+		return SimpleFeatureBuilder.build(type, new Object[] { factory.createPoint(new Coordinate(i, i)), "point " + i, i * 1.5d }, null);
+	}
+
+	private File[] layerFiles(String layerName) {
+		return FileUtils.listFiles(directory, new PrefixFileFilter(layerName + "."), null).toArray(new File[0]);
+	}
+
+	private DataStore getDataStore(String store) throws IOException {
+		return (DataStore) catalog.getDataStoreByName(WORKSPACE_NAME, store).getDataStore(null);
+	}
+}
@@ -0,0 +1,61 @@
+package gov.usgs.cida.coastalhazards.wps;
+
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.impl.DataStoreInfoImpl;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.jdbc.JDBCDataStore;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class CopyLayerTest {
+
+	private final JDBCDataStore sourceStore = new JDBCDataStore();
+	private final JDBCDataStore targetStore = new JDBCDataStore();
+
+	@Test
+	public void testNativeCopyWithinOneDatabase() {
+		assertTrue(CopyLayer.isSameDatabase(postgis("coastal"), sourceStore, postgis("coastal"), targetStore));
+	}
+
+	@Test
+	public void testNativeCopyNeedsSameCredentials() {
+		DataStoreInfo target = postgis("coastal");
+		target.getConnectionParameters().put("user", "reader");
+		assertFalse(CopyLayer.isSameDatabase(postgis("coastal"), sourceStore, target, targetStore));
+
+		target = postgis("coastal");
+		target.getConnectionParameters().put("passwd", "other");
+		assertFalse(CopyLayer.isSameDatabase(postgis("coastal"), sourceStore, target, targetStore));
+	}
+
+	@Test
+	public void testNativeCopyNeedsSameDatabase() {
+		assertFalse(CopyLayer.isSameDatabase(postgis("coastal"), sourceStore, postgis("published"), targetStore));
+
+		DataStoreInfo target = postgis("coastal");
+		target.getConnectionParameters().put("host", "elsewhere");
+		assertFalse(CopyLayer.isSameDatabase(postgis("coastal"), sourceStore, target, targetStore));
+	}
+
+	@Test
+	public void testNativeCopyOnlyBetweenPostgisStores() {
+		DataStoreInfo target = postgis("coastal");
+		target.getConnectionParameters().put("dbtype", "h2");
+		assertFalse(CopyLayer.isSameDatabase(postgis("coastal"), sourceStore, target, targetStore));
+		assertFalse(CopyLayer.isSameDatabase(postgis("coastal"), sourceStore, postgis("coastal"), new MemoryDataStore()));
+	}
+
+	private static DataStoreInfo postgis(String database) {
+		DataStoreInfo info = new DataStoreInfoImpl(new DummyCatalog());
+		info.getConnectionParameters().put("dbtype", "postgis");
+		info.getConnectionParameters().put("host", "localhost");
+		info.getConnectionParameters().put("port", 5432);
+		info.getConnectionParameters().put("database", database);
+		info.getConnectionParameters().put("user", "coastal");
+		info.getConnectionParameters().put("passwd", "secret");
+		return info;
+	}
+}
@@ -68,6 +68,7 @@ public class CreateResultsLayerProcessTest {
         createResultsLayerProcess.execute(buffer, transectfc, intersectfc, null, null, null);
         
         validateNSD(outTest);
+        assertEquals(transectfc.size(), FeatureCollectionFromShp.featureCollectionFromShp(outTest.toURI().toURL()).size());
     }
     
     private void validateNSD(File shapefile) throws MalformedURLException, IOException {
@@ -5,6 +5,7 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineSegment;
 import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
 import com.vividsolutions.jts.geom.MultiPoint;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.PrecisionModel;
@@ -14,15 +15,27 @@ import gov.usgs.cida.coastalhazards.util.BaselineDistanceAccumulator;
 import gov.usgs.cida.coastalhazards.util.FeatureCollectionFromShp;
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import org.geoserver.catalog.ProjectionPolicy;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
 import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 /**
  *
@@ -103,6 +116,114 @@ public class CreateTransectsAndIntersectionsProcessTest {
         generate.execute((SimpleFeatureCollection)shorelinefc, (SimpleFeatureCollection)baselinefc, 50.0d, 0d, Boolean.FALSE, null, null, null, null);
     }
     
+    @Test
+    public void testParallelIntersectionsMatchSerial() throws Exception {
+        URL baselineShapefile = CreateTransectsAndIntersectionsProcessTest.class.getClassLoader()
+                .getResource("gov/usgs/cida/coastalhazards/hawaii/KauaiE_baseline.shp");
+        URL shorelineShapefile = CreateTransectsAndIntersectionsProcessTest.class.getClassLoader()
+                .getResource("gov/usgs/cida/coastalhazards/hawaii/KauaiE_shorelines.shp");
+        SimpleFeatureCollection baselinefc = (SimpleFeatureCollection)
+                FeatureCollectionFromShp.featureCollectionFromShp(baselineShapefile);
+        SimpleFeatureCollection shorelinefc = (SimpleFeatureCollection)
+                FeatureCollectionFromShp.featureCollectionFromShp(shorelineShapefile);
+        
+        CapturingImportProcess serial = new CapturingImportProcess();
+        CreateTransectsAndIntersectionsProcess generate = new CreateTransectsAndIntersectionsProcess(serial, new DummyCatalog());
+        generate.setThreads(1);
+        generate.execute(shorelinefc, baselinefc, 50.0d, 0d, Boolean.FALSE, "ws", "store", "transects", "intersections");
+        
+        CapturingImportProcess parallel = new CapturingImportProcess();
+        generate = new CreateTransectsAndIntersectionsProcess(parallel, new DummyCatalog());
+        generate.setThreads(4);
+        generate.execute(shorelinefc, baselinefc, 50.0d, 0d, Boolean.FALSE, "ws", "store", "transects", "intersections");
+        
+        assertTrue(serial.layers.get("transects").size() > 64); // enough to fork
+        assertSameFeatures(serial.layers.get("transects"), parallel.layers.get("transects"));
+        assertSameFeatures(serial.layers.get("intersections"), parallel.layers.get("intersections"));
+    }
+    
+    @Test
+    public void testPartitionedMatchesUnpartitioned() throws Exception {
+        // baselines either side of the UTM zone 18/19 boundary at 72W
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName("baselines");
+        builder.setCRS(DefaultGeographicCRS.WGS84);
+        builder.add("the_geom", MultiLineString.class);
+        builder.add("Orient", String.class);
+        SimpleFeatureType baselineType = builder.buildFeatureType();
+        ListFeatureCollection baselinefc = new ListFeatureCollection(baselineType);
+        baselinefc.add(SimpleFeatureBuilder.build(baselineType, new Object[] { line(-72.6, -72.05, 40.0), "seaward" }, "baselines.1"));
+        baselinefc.add(SimpleFeatureBuilder.build(baselineType, new Object[] { line(-71.95, -71.3, 40.0), "seaward" }, "baselines.2"));
+        
+        builder = new SimpleFeatureTypeBuilder();
+        builder.setName("shorelines");
+        builder.setCRS(DefaultGeographicCRS.WGS84);
+        builder.add("the_geom", MultiLineString.class);
+        builder.add("Date_", Date.class);
+        builder.add("Uncy", Double.class);
+        SimpleFeatureType shorelineType = builder.buildFeatureType();
+        ListFeatureCollection shorelinefc = new ListFeatureCollection(shorelineType);
+        shorelinefc.add(SimpleFeatureBuilder.build(shorelineType, new Object[] { line(-72.7, -71.2, 40.002), new Date(946684800000L), 1.5d }, "shorelines.1"));
+        shorelinefc.add(SimpleFeatureBuilder.build(shorelineType, new Object[] { line(-72.7, -71.2, 40.004), new Date(1262304000000L), 2.5d }, "shorelines.2"));
+        
+        CapturingImportProcess single = new CapturingImportProcess();
+        CreateTransectsAndIntersectionsProcess generate = new CreateTransectsAndIntersectionsProcess(single, new DummyCatalog());
+        generate.execute(shorelinefc, baselinefc, 1000.0d, 0d, Boolean.FALSE, "ws", "store", "transects", "intersections");
+        
+        CapturingImportProcess partitioned = new CapturingImportProcess();
+        generate = new CreateTransectsAndIntersectionsProcess(partitioned, new DummyCatalog());
+        generate.setPartitioning(true, 0.5d);
+        generate.setThreads(2);
+        generate.execute(shorelinefc, baselinefc, 1000.0d, 0d, Boolean.FALSE, "ws", "store", "transects", "intersections");
+        
+        List<SimpleFeature> expected = single.layers.get("transects");
+        List<SimpleFeature> actual = partitioned.layers.get("transects");
+        assertEquals(expected.size(), actual.size());
+        assertEquals("baselines.1", expected.get(0).getAttribute("BaselineID"));
+        assertEquals("baselines.2", expected.get(expected.size() - 1).getAttribute("BaselineID"));
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getAttribute("TransectID"), actual.get(i).getAttribute("TransectID"));
+            assertEquals(expected.get(i).getAttribute("BaselineID"), actual.get(i).getAttribute("BaselineID"));
+            assertEquals((Double) expected.get(i).getAttribute("base_dist"), (Double) actual.get(i).getAttribute("base_dist"), 1e-6);
+        }
+        
+        expected = single.layers.get("intersections");
+        actual = partitioned.layers.get("intersections");
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getAttribute("TransectID"), actual.get(i).getAttribute("TransectID"));
+            assertEquals(expected.get(i).getAttribute("Date_"), actual.get(i).getAttribute("Date_"));
+            // measured in each zone's own projection
+            assertEquals((Double) expected.get(i).getAttribute("Distance"), (Double) actual.get(i).getAttribute("Distance"), 1.0);
+        }
+    }
+    
+    private MultiLineString line(double fromLon, double toLon, double lat) {
+        return gf.createMultiLineString(new LineString[] {
+            gf.createLineString(new Coordinate[] { new Coordinate(fromLon, lat), new Coordinate(toLon, lat) })
+        });
+    }
+    
+    private static void assertSameFeatures(List<SimpleFeature> expected, List<SimpleFeature> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getAttributes(), actual.get(i).getAttributes());
+        }
+    }
+    
+    /**
+     * Keeps the features of each imported layer, by layer name
+     */
+    private static class CapturingImportProcess extends DummyImportProcess {
+        
+        private final Map<String, List<SimpleFeature>> layers = new HashMap<String, List<SimpleFeature>>();
+
+        @Override
+        public String execute(SimpleFeatureCollection features, GridCoverage2D coverage, String workspace, String store, String name, CoordinateReferenceSystem srs, ProjectionPolicy srsHandling, String styleName) {
+            layers.put(name, new ArrayList<SimpleFeature>(DataUtilities.list(features)));
+            return super.execute(features, coverage, workspace, store, name, srs, srsHandling, styleName);
+        }
+    }
         
     @Test
     public void testToLineSegments() {
@@ -0,0 +1,67 @@
+package gov.usgs.cida.coastalhazards.wps;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ *
+ */
+public class NearestPointOnLineProcessTest {
+
+    @Test
+    public void testIndexFindsSameSegmentAsScan() {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName("baselines");
+        builder.add("the_geom", LineString.class);
+        SimpleFeatureType type = builder.buildFeatureType();
+
+        Random random = new Random(23);
+        GeometryFactory factory = new GeometryFactory();
+        ListFeatureCollection lines = new ListFeatureCollection(type);
+        List<LineSegment> segments = new ArrayList<LineSegment>();
+        for (int i = 0; i < 50; i++) {
+            Coordinate[] coordinates = new Coordinate[2 + random.nextInt(10)];
+            coordinates[0] = new Coordinate(random.nextDouble() * 1000, random.nextDouble() * 1000);
+            for (int c = 1; c < coordinates.length; c++) {
+                coordinates[c] = new Coordinate(coordinates[c - 1].x + random.nextGaussian() * 20, coordinates[c - 1].y + random.nextGaussian() * 20);
+                segments.add(new LineSegment(coordinates[c - 1], coordinates[c]));
+            }
+            lines.add(SimpleFeatureBuilder.build(type, new Object[] { factory.createLineString(coordinates) }, null));
+        }
+        // a repeated segment ties with the first
+        LineSegment first = segments.get(0);
+        lines.add(SimpleFeatureBuilder.build(type, new Object[] { factory.createLineString(new Coordinate[] { first.p0, first.p1 }) }, null));
+
+        STRtree tree = NearestPointOnLineProcess.buildIndex(lines);
+        assertEquals(segments.size() + 1, tree.size());
+        for (int i = 0; i < 200; i++) {
+            // points within and well outside the lines
+            Coordinate point = new Coordinate(random.nextDouble() * 3000 - 1000, random.nextDouble() * 3000 - 1000);
+            LineSegment expected = null;
+            for (LineSegment segment : segments) {
+                if (expected == null || segment.distance(point) < expected.distance(point)) {
+                    expected = segment;
+                }
+            }
+            assertEquals(expected, NearestPointOnLineProcess.findNearest(tree, point));
+        }
+        assertEquals(first, NearestPointOnLineProcess.findNearest(tree, first.midPoint()));
+    }
+
+    @Test
+    public void testEmptyIndexFindsNothing() {
+        assertNull(NearestPointOnLineProcess.findNearest(new STRtree(), new Coordinate(1, 2)));
+    }
+}
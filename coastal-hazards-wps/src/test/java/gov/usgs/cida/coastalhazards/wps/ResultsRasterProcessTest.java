@@ -0,0 +1,101 @@
+package gov.usgs.cida.coastalhazards.wps;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import gov.usgs.cida.coastalhazards.util.Constants;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ *
+ */
+public class ResultsRasterProcessTest {
+
+	@Test
+	public void testFillsShorelineIntersects() throws Exception {
+		ReferencedEnvelope bbox = new ReferencedEnvelope(0, 10, 0, 10, DefaultGeographicCRS.WGS84);
+		GridCoverage2D coverage = new ResultsRasterProcess().execute(results(), "LRR", bbox, 100, 100, false, 0);
+		RenderedImage image = coverage.getRenderedImage();
+		Raster raster = image.getData();
+
+		// rows run down from y = 10
+		assertTrue(alpha(image, raster, 50, 50) > 0);
+		assertTrue(alpha(image, raster, 15, 35) > 0);
+		assertTrue(alpha(image, raster, 85, 65) > 0);
+		assertEquals(0, alpha(image, raster, 50, 10));
+		assertEquals(0, alpha(image, raster, 50, 90));
+		assertEquals(0, alpha(image, raster, 5, 50));
+		assertEquals(0, alpha(image, raster, 95, 50));
+	}
+
+	@Test
+	public void testBandsMatchSingleRendering() throws Exception {
+		ReferencedEnvelope bbox = new ReferencedEnvelope(0, 10, 0, 10, DefaultGeographicCRS.WGS84);
+		ResultsRasterProcess banded = new ResultsRasterProcess();
+		banded.setBanding(3, 0);
+		RenderedImage expected = new ResultsRasterProcess().execute(results(), "LRR", bbox, 100, 101, false, 0).getRenderedImage();
+		Raster expectedRaster = expected.getData();
+		// the second request renders on the threads left by the first
+		for (int request = 0; request < 2; request++) {
+			RenderedImage actual = banded.execute(results(), "LRR", bbox, 100, 101, false, 0).getRenderedImage();
+			Raster actualRaster = actual.getData();
+			for (int y = 0; y < 101; y++) {
+				for (int x = 0; x < 100; x++) {
+					assertEquals(expected.getColorModel().getRGB(expectedRaster.getDataElements(x, y, null)),
+							actual.getColorModel().getRGB(actualRaster.getDataElements(x, y, null)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBandingChangesBetweenRequests() throws Exception {
+		ReferencedEnvelope bbox = new ReferencedEnvelope(0, 10, 0, 10, DefaultGeographicCRS.WGS84);
+		ResultsRasterProcess banded = new ResultsRasterProcess();
+		banded.setBanding(2, 0);
+		assertNotNull(banded.execute(results(), "LRR", bbox, 100, 100, false, 0));
+		// the first threads are retired, the next request gets new ones
+		banded.setBanding(3, 0);
+		assertNotNull(banded.execute(results(), "LRR", bbox, 100, 100, false, 0));
+		banded.destroy();
+	}
+
+	/**
+	 * Transects run north from y = 0 to 10 at x = 1 to 9, each with its
+	 * shoreline intersect between y = 3 and 7, listed out of baseline order
+	 */
+	private ListFeatureCollection results() {
+		SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+		builder.setName("results");
+		builder.setCRS(DefaultGeographicCRS.WGS84);
+		builder.add("the_geom", LineString.class);
+		builder.add(Constants.BASELINE_ID_ATTR, Integer.class);
+		builder.add(Constants.BASELINE_DIST_ATTR, Double.class);
+		builder.add(Constants.LRR_ATTR, Double.class);
+		builder.add(Constants.SCE_ATTR, Double.class);
+		builder.add(Constants.NSD_ATTR, Double.class);
+		SimpleFeatureType type = builder.buildFeatureType();
+
+		GeometryFactory factory = new GeometryFactory();
+		ListFeatureCollection results = new ListFeatureCollection(type);
+		for (int x : new int[] { 5, 1, 9, 3, 7, 2, 8, 4, 6 }) {
+			LineString transect = factory.createLineString(new Coordinate[] { new Coordinate(x, 0), new Coordinate(x, 10) });
+			results.add(SimpleFeatureBuilder.build(type, new Object[] { transect, 0, (double) x, (double) x, 4d, 3d }, "results." + x));
+		}
+		return results;
+	}
+
+	private int alpha(RenderedImage image, Raster raster, int x, int y) {
+		return image.getColorModel().getAlpha(raster.getDataElements(x, y, null));
+	}
+}
@@ -0,0 +1,97 @@
+package gov.usgs.cida.coastalhazards.wps;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import java.util.List;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ *
+ */
+public class RibboningProcessTest {
+
+	@Test
+	public void testRibbonsOffsetAsRead() throws Exception {
+		SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+		builder.setName("shorelines");
+		builder.setCRS(DefaultGeographicCRS.WGS84);
+		builder.add("the_geom", LineString.class);
+		builder.add("date", String.class);
+		SimpleFeatureType type = builder.buildFeatureType();
+
+		GeometryFactory factory = new GeometryFactory();
+		ListFeatureCollection shorelines = new ListFeatureCollection(type);
+		LineString shoreline = factory.createLineString(new Coordinate[] { new Coordinate(10, 50), new Coordinate(90, 50) });
+		shorelines.add(SimpleFeatureBuilder.build(type, new Object[] { shoreline, "2000" }, "shorelines.1"));
+
+		ReferencedEnvelope bbox = new ReferencedEnvelope(0, 100, 0, 100, DefaultGeographicCRS.WGS84);
+		SimpleFeatureCollection ribboned = new RibboningProcess().execute(shorelines, bbox, 100, 100, false, false, 3, 5, null, null);
+		assertEquals(3, ribboned.size());
+
+		List<SimpleFeature> ribbons = DataUtilities.list(ribboned);
+		assertEquals(3, ribbons.size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i + 1, ribbons.get(i).getAttribute(RibboningProcess.ribbonAttr));
+			assertEquals("2000", ribbons.get(i).getAttribute("date"));
+			assertEquals("shorelines.1", RibboningProcess.getSourceId(ribbons.get(i).getID()));
+		}
+
+		Coordinate[] first = ((Geometry) ribbons.get(0).getDefaultGeometry()).getCoordinates();
+		Coordinate[] second = ((Geometry) ribbons.get(1).getDefaultGeometry()).getCoordinates();
+		Coordinate[] third = ((Geometry) ribbons.get(2).getDefaultGeometry()).getCoordinates();
+		assertEquals(50, first[0].y, 0);
+		assertEquals(10, first[0].x, 0);
+		// each ribbon one offset further to the right of the line
+		double offset = 50 - second[0].y;
+		assertTrue(offset > 0);
+		for (int i = 0; i < 2; i++) {
+			assertEquals(first[i].x, second[i].x, 1e-9);
+			assertEquals(first[i].x, third[i].x, 1e-9);
+			assertEquals(50 - offset, second[i].y, 1e-9);
+			assertEquals(50 - 2 * offset, third[i].y, 1e-9);
+		}
+		// the input is untouched and reading again ribbons again
+		assertEquals(50, shoreline.getCoordinateN(0).y, 0);
+		assertEquals(third[1].y, ((Geometry) DataUtilities.list(ribboned).get(2).getDefaultGeometry()).getCoordinates()[1].y, 0);
+	}
+
+	@Test
+	public void testSizeCountsEmittedRibbons() throws Exception {
+		SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+		builder.setName("shorelines");
+		builder.setCRS(DefaultGeographicCRS.WGS84);
+		builder.add("the_geom", LineString.class);
+		SimpleFeatureType type = builder.buildFeatureType();
+
+		GeometryFactory factory = new GeometryFactory();
+		ListFeatureCollection shorelines = new ListFeatureCollection(type);
+		for (int i = 0; i < 4; i++) {
+			LineString shoreline = factory.createLineString(new Coordinate[] { new Coordinate(10, 20 + 10 * i), new Coordinate(90, 20 + 10 * i) });
+			shorelines.add(SimpleFeatureBuilder.build(type, new Object[] { shoreline }, "shorelines." + i));
+		}
+
+		ReferencedEnvelope bbox = new ReferencedEnvelope(0, 100, 0, 100, DefaultGeographicCRS.WGS84);
+		SimpleFeatureCollection ribboned = new RibboningProcess().execute(shorelines, bbox, 100, 100, false, false, 2, 5, null, null);
+		assertEquals(DataUtilities.list(ribboned).size(), ribboned.size());
+		assertEquals(8, ribboned.size());
+		assertEquals(0, new RibboningProcess().execute(shorelines, bbox, 100, 100, false, false, 0, 5, null, null).size());
+	}
+
+	@Test
+	public void testScalesWithinBandShareIt() {
+		assertEquals(RibboningProcess.getScaleBand(30000), RibboningProcess.getScaleBand(45000));
+		assertFalse(RibboningProcess.getScaleBand(30000) == RibboningProcess.getScaleBand(60000));
+	}
+}
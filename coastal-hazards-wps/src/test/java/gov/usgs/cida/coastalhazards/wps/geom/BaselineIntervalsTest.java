@@ -0,0 +1,77 @@
+package gov.usgs.cida.coastalhazards.wps.geom;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.linearref.LengthIndexedLine;
+import gov.usgs.cida.coastalhazards.wps.CreateTransectsAndIntersectionsProcess;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BaselineIntervalsTest {
+
+    private static final double EPS = 1e-9;
+
+    private LineString line;
+
+    @Before
+    public void setup() {
+        Random random = new Random(7);
+        Coordinate[] coordinates = new Coordinate[500];
+        double x = 0;
+        for (int i = 0; i < coordinates.length; i++) {
+            x += 1 + 20 * random.nextDouble();
+            coordinates[i] = new Coordinate(x, 100 * Math.sin(x / 300) + 5 * random.nextDouble());
+        }
+        line = new GeometryFactory().createLineString(coordinates);
+    }
+
+    @Test
+    public void testUnsmoothedMatchesFindIntervals() {
+        List<LineSegment> expected = CreateTransectsAndIntersectionsProcess.findIntervals(line, true, 50);
+        List<LineSegment> actual = BaselineIntervals.toLineSegments(new BaselineIntervals(line).find(true, 50, 0));
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue(expected.get(i).equalsTopo(actual.get(i)));
+        }
+    }
+
+    @Test
+    public void testSmoothedDirectionSpansWindow() {
+        double smoothing = 120;
+        LengthIndexedLine indexed = new LengthIndexedLine(line);
+        double[] intervals = new BaselineIntervals(line).find(false, 25, smoothing);
+        for (int i = 0; i < intervals.length; i += BaselineIntervals.STRIDE) {
+            double distance = 25 * (i / BaselineIntervals.STRIDE + 1);
+            Coordinate center = indexed.extractPoint(distance);
+            assertEquals(center.x, intervals[i], EPS);
+            assertEquals(center.y, intervals[i + 1], EPS);
+            if (distance < smoothing || distance > line.getLength() - smoothing) {
+                continue;
+            }
+            Coordinate low = indexed.extractPoint(distance - smoothing / 2);
+            Coordinate high = indexed.extractPoint(distance + smoothing / 2);
+            double expected = new LineSegment(low, high).angle();
+            double actual = Math.atan2(intervals[i + 3] - intervals[i + 1], intervals[i + 2] - intervals[i]);
+            assertEquals(expected, actual, 1e-6);
+        }
+    }
+
+    @Test
+    public void testShortLineProjectsSmoothingWindow() {
+        LineString bent = new GeometryFactory().createLineString(new Coordinate[] {
+            new Coordinate(0, 0), new Coordinate(10, 0), new Coordinate(10, 10) });
+        double[] intervals = new BaselineIntervals(bent).find(true, 5, 100);
+        assertEquals(5 * BaselineIntervals.STRIDE, intervals.length);
+        // window projected past both ends runs from (-50, 0) to (10, 40)
+        double angle = Math.atan2(intervals[3] - intervals[1], intervals[2] - intervals[0]);
+        assertEquals(Math.atan2(40, 60), angle, EPS);
+    }
+}
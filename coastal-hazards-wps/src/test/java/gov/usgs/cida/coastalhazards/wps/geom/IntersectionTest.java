@@ -0,0 +1,142 @@
+package gov.usgs.cida.coastalhazards.wps.geom;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import gov.usgs.cida.coastalhazards.util.AttributeGetter;
+import gov.usgs.cida.coastalhazards.util.Constants.Orientation;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.joda.time.DateTime;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ *
+ */
+public class IntersectionTest {
+
+    private static final double EPS = 1e-9;
+    private static final double STEP = 200d;
+    private static final double MAX_LENGTH = 1000d;
+
+    private static GeometryFactory factory = new GeometryFactory();
+
+    private STRtree strTree;
+    private ShorelineSegmentIndex segmentIndex;
+    private ShorelineAttributes shorelineAttributes;
+    private AttributeGetter getter;
+    private Transect transect;
+
+    @Before
+    public void setup() {
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("shorelines");
+        typeBuilder.add("the_geom", MultiLineString.class);
+        typeBuilder.add("Date_", String.class);
+        typeBuilder.add("uncy", Double.class);
+        SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+        List<SimpleFeature> shorelines = new ArrayList<SimpleFeature>();
+        shorelines.add(SimpleFeatureBuilder.build(type, new Object[] {
+            factory.createMultiLineString(new LineString[] { verticalLine(100), verticalLine(300) }), "01/01/2000", 1.0d }, "sl.1"));
+        shorelines.add(SimpleFeatureBuilder.build(type, new Object[] {
+            factory.createMultiLineString(new LineString[] { verticalLine(500) }), "01/01/2010", 1.0d }, "sl.2"));
+
+        strTree = new ShorelineSTRTreeBuilder(DataUtilities.collection(shorelines)).build();
+        segmentIndex = new ShorelineSegmentIndex(DataUtilities.collection(shorelines));
+        shorelineAttributes = new ShorelineAttributes(segmentIndex);
+        getter = new AttributeGetter(type);
+        transect = new Transect(new Coordinate(0, 0), 0.0, Orientation.SHOREWARD, 0, "0", 0);
+    }
+
+    @Test
+    public void testRayWalkMatchesSubTransects_closest() {
+        Map<DateTime, Intersection> expected = subTransectIntersections(false);
+        Map<DateTime, Intersection> actual = Intersection.calculateIntersectionsAlongRay(transect, MAX_LENGTH, STEP, strTree, false, 2, getter);
+        assertSameDistances(expected, actual);
+        assertEquals(100, actual.get(new DateTime(2000, 1, 1, 0, 0)).getDistance(), EPS);
+        assertEquals(500, actual.get(new DateTime(2010, 1, 1, 0, 0)).getDistance(), EPS);
+    }
+
+    @Test
+    public void testRayWalkMatchesSubTransects_farthest() {
+        Map<DateTime, Intersection> expected = subTransectIntersections(true);
+        Map<DateTime, Intersection> actual = Intersection.calculateIntersectionsAlongRay(transect, MAX_LENGTH, STEP, strTree, true, 2, getter);
+        assertSameDistances(expected, actual);
+        assertEquals(300, actual.get(new DateTime(2000, 1, 1, 0, 0)).getDistance(), EPS);
+    }
+
+    @Test
+    public void testRayWalkWithoutDateCount() {
+        Map<DateTime, Intersection> expected = subTransectIntersections(false);
+        Map<DateTime, Intersection> actual = Intersection.calculateIntersectionsAlongRay(transect, MAX_LENGTH, STEP, strTree, false, 0, getter);
+        assertSameDistances(expected, actual);
+    }
+
+    @Test
+    public void testPackedIndexRayWalkMatchesSubTransects() {
+        assertSameDistances(subTransectIntersections(false),
+                Intersection.calculateIntersectionsAlongRay(transect, MAX_LENGTH, STEP, segmentIndex, shorelineAttributes, false, getter));
+        assertSameDistances(subTransectIntersections(true),
+                Intersection.calculateIntersectionsAlongRay(transect, MAX_LENGTH, STEP, segmentIndex, shorelineAttributes, true, getter));
+    }
+
+    @Test
+    public void testPackedIndexCalculateIntersections() {
+        Transect whole = new Transect(new Coordinate(0, 0), 0.0, Orientation.SHOREWARD, 0, "0", 0);
+        whole.setLength(400);
+        Map<DateTime, Intersection> expected = Intersection.calculateIntersections(whole, strTree, false, getter);
+        Map<DateTime, Intersection> actual = Intersection.calculateIntersections(whole, segmentIndex, shorelineAttributes, false, getter);
+        assertSameDistances(expected, actual);
+        assertEquals(1, actual.size());
+    }
+
+    @Test
+    public void testShorelineAttributes() {
+        assertEquals(2, shorelineAttributes.getDateCount());
+        assertEquals(0, shorelineAttributes.getDateIndex(0));
+        assertEquals(1, shorelineAttributes.getDateIndex(1));
+        assertEquals(10957, shorelineAttributes.getEpochDay(0));
+        assertEquals(new DateTime(2010, 1, 1, 0, 0), shorelineAttributes.getDate(1));
+        assertEquals(1.0d, shorelineAttributes.getUncertainty(1), EPS);
+
+        Map<DateTime, Intersection> intersections = Intersection.calculateIntersectionsAlongRay(transect, MAX_LENGTH, STEP, segmentIndex, shorelineAttributes, false, getter);
+        Intersection intersection = intersections.get(new DateTime(2000, 1, 1, 0, 0));
+        assertEquals(new DateTime(2000, 1, 1, 0, 0), intersection.getDate());
+        assertEquals(1.0d, intersection.getUncertainty(), EPS);
+    }
+
+    private Map<DateTime, Intersection> subTransectIntersections(boolean useFarthest) {
+        Map<DateTime, Intersection> intersections = new HashMap<DateTime, Intersection>();
+        double startDistance = 0;
+        do {
+            Transect subTransect = transect.subTransect(startDistance, STEP);
+            startDistance += STEP;
+            Intersection.updateIntersectionsWithSubTransect(intersections, transect.getOriginPoint(), subTransect, strTree, useFarthest, getter);
+        }
+        while (startDistance < MAX_LENGTH);
+        return intersections;
+    }
+
+    private static void assertSameDistances(Map<DateTime, Intersection> expected, Map<DateTime, Intersection> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (DateTime date : expected.keySet()) {
+            assertEquals(expected.get(date).getDistance(), actual.get(date).getDistance(), EPS);
+        }
+    }
+
+    private static LineString verticalLine(double x) {
+        return factory.createLineString(new Coordinate[] { new Coordinate(x, -50), new Coordinate(x, 50) });
+    }
+}
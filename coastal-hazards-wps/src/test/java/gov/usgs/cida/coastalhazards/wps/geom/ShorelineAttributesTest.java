@@ -0,0 +1,55 @@
+package gov.usgs.cida.coastalhazards.wps.geom;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import java.util.ArrayList;
+import java.util.List;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ *
+ */
+public class ShorelineAttributesTest {
+
+    private static GeometryFactory factory = new GeometryFactory();
+
+    @Test
+    public void testBadDateFailsOnlyWhenAskedFor() {
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("shorelines");
+        typeBuilder.add("the_geom", MultiLineString.class);
+        typeBuilder.add("Date_", String.class);
+        typeBuilder.add("Uncy", Double.class);
+        SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+        String[] dates = new String[] { "06/15/2001", "not a date", "01/02/1999", "06/15/2001" };
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        for (int i = 0; i < dates.length; i++) {
+            LineString line = factory.createLineString(new Coordinate[] { new Coordinate(0, i), new Coordinate(10, i) });
+            features.add(SimpleFeatureBuilder.build(type, new Object[] {
+                factory.createMultiLineString(new LineString[] { line }), dates[i], 1.5d }, "sl." + i));
+        }
+
+        // ordinals follow feature order
+        ShorelineAttributes attributes = new ShorelineAttributes(new ShorelineSegmentIndex(DataUtilities.collection(features)));
+        assertEquals(2, attributes.getDateCount());
+        assertEquals(1, attributes.getDateIndex(0));
+        assertEquals(0, attributes.getDateIndex(2));
+        assertEquals(attributes.getDate(0), attributes.getDate(3));
+        assertEquals(1.5d, attributes.getUncertainty(1), 0d);
+        try {
+            attributes.getDateIndex(1);
+            fail("bad date should fail when asked for");
+        } catch (IllegalArgumentException ex) {
+            // as Intersection.toDateTime fails on it
+        }
+    }
+}
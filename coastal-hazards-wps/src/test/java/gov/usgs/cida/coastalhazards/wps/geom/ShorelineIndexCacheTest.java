@@ -0,0 +1,76 @@
+package gov.usgs.cida.coastalhazards.wps.geom;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class ShorelineIndexCacheTest {
+
+    @Test
+    public void testHitsMissesAndLeastRecentlyUsedEviction() {
+        ShorelineIndexCache cache = new ShorelineIndexCache(2, 100);
+        ShorelineIndexCache.Key a = key("a", "1");
+        ShorelineIndexCache.Key b = key("b", "1");
+        ShorelineIndexCache.Key c = key("c", "1");
+
+        assertNull(cache.get(a));
+        cache.put(a, entry(1));
+        cache.put(b, entry(1));
+        assertNotNull(cache.get(key("a", "1")));
+        cache.put(c, entry(1));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(a));
+        assertNull(cache.get(b));
+        assertNotNull(cache.get(c));
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testStampChangeMisses() {
+        ShorelineIndexCache cache = new ShorelineIndexCache(2, 100);
+        cache.put(key("a", "1"), entry(1));
+        assertNull(cache.get(key("a", "2")));
+    }
+
+    @Test
+    public void testSegmentLimit() {
+        ShorelineIndexCache cache = new ShorelineIndexCache(10, 5);
+        cache.put(key("a", "1"), entry(3));
+        cache.put(key("b", "1"), entry(3));
+        assertEquals(1, cache.size());
+        assertEquals(3, cache.getSegments());
+        assertNotNull(cache.get(key("b", "1")));
+
+        cache.put(key("c", "1"), entry(6));
+        assertNull(cache.get(key("c", "1")));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testDisabled() {
+        ShorelineIndexCache cache = new ShorelineIndexCache(0, 5);
+        assertFalse(cache.isEnabled());
+        cache.put(key("a", "1"), entry(1));
+        assertEquals(0, cache.size());
+    }
+
+    private static ShorelineIndexCache.Key key(String layer, String stamp) {
+        return new ShorelineIndexCache.Key(layer, DefaultGeographicCRS.WGS84, stamp);
+    }
+
+    private static ShorelineIndexCache.Entry entry(int segments) {
+        STRtree tree = new STRtree();
+        for (int i = 0; i < segments; i++) {
+            tree.insert(new Envelope(i, i + 1, 0, 1), i);
+        }
+        return new ShorelineIndexCache.Entry(tree);
+    }
+}
@@ -0,0 +1,98 @@
+package gov.usgs.cida.coastalhazards.wps.geom;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ *
+ */
+public class ShorelineSegmentIndexTest {
+
+    private static GeometryFactory factory = new GeometryFactory();
+
+    @Test
+    public void testQueryMatchesBruteForce() {
+        Random random = new Random(42);
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("shorelines");
+        typeBuilder.add("the_geom", MultiLineString.class);
+        SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        List<double[]> segments = new ArrayList<double[]>();
+        for (int f = 0; f < 20; f++) {
+            LineString[] lines = new LineString[2];
+            for (int l = 0; l < lines.length; l++) {
+                Coordinate[] coords = new Coordinate[50];
+                double x = random.nextDouble() * 1000;
+                double y = random.nextDouble() * 1000;
+                for (int c = 0; c < coords.length; c++) {
+                    x += random.nextGaussian() * 10;
+                    y += random.nextGaussian() * 10;
+                    coords[c] = new Coordinate(x, y);
+                    if (c > 0) {
+                        segments.add(new double[] { coords[c - 1].x, coords[c - 1].y, x, y, f });
+                    }
+                }
+                lines[l] = factory.createLineString(coords);
+            }
+            features.add(SimpleFeatureBuilder.build(type, new Object[] { factory.createMultiLineString(lines) }, "sl." + f));
+        }
+
+        ShorelineSegmentIndex index = new ShorelineSegmentIndex(DataUtilities.collection(features), 4);
+        assertEquals(segments.size(), index.size());
+        assertEquals(features.size(), index.getFeatureCount());
+
+        for (int q = 0; q < 100; q++) {
+            final double minX = random.nextDouble() * 1000;
+            final double minY = random.nextDouble() * 1000;
+            final double maxX = minX + random.nextDouble() * 200;
+            final double maxY = minY + random.nextDouble() * 200;
+            final Set<Integer> found = new HashSet<Integer>();
+            index.query(minX, minY, maxX, maxY, new ShorelineSegmentIndex.SegmentVisitor() {
+                @Override
+                public void visit(int segment) {
+                    assertTrue("segment visited twice", found.add(segment));
+                }
+            });
+            Set<Integer> expected = new HashSet<Integer>();
+            for (int s = 0; s < segments.size(); s++) {
+                double[] segment = segments.get(s);
+                assertEquals(segment[0], index.getX0(s), 0d);
+                assertEquals(segment[3], index.getY1(s), 0d);
+                assertEquals((int) segment[4], index.getFeatureOrdinal(s));
+                if (Math.max(segment[0], segment[2]) >= minX && Math.min(segment[0], segment[2]) <= maxX
+                        && Math.max(segment[1], segment[3]) >= minY && Math.min(segment[1], segment[3]) <= maxY) {
+                    expected.add(s);
+                }
+            }
+            assertEquals(expected, found);
+        }
+    }
+
+    @Test
+    public void testEmptyIndex() {
+        ShorelineSegmentIndex index = new ShorelineSegmentIndex(DataUtilities.collection(new ArrayList<SimpleFeature>()));
+        assertEquals(0, index.size());
+        index.query(0, 0, 1, 1, new ShorelineSegmentIndex.SegmentVisitor() {
+            @Override
+            public void visit(int segment) {
+                fail("nothing to visit");
+            }
+        });
+    }
+}